@@ -0,0 +1,103 @@
+package amino.run.common;
+
+import amino.run.demo.stubs.KeyValueStore_Stub;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares per-call latency of invoking {@code KeyValueStore} methods on the server side through
+ * the precompiled {@link MethodDispatcher} against the reflective lookup previously used by {@link
+ * ObjectHandler}. Run with {@code -prof gc} to compare allocation per call.
+ *
+ * <p>{@code KeyValueStore} prints every call to stdout, which would dominate the measurement.
+ * Stdout is therefore redirected to a no-op stream for the duration of the benchmark.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MethodDispatchBenchmark {
+    private static final String GET =
+            "public java.io.Serializable amino.run.demo.KeyValueStore.get(java.lang.String)";
+    private static final String SET =
+            "public void amino.run.demo.KeyValueStore.set(java.lang.String,java.io.Serializable)";
+
+    private PrintStream stdout;
+    private AppObject appObject;
+    private Hashtable<String, Method> reflectiveMethods;
+    private ArrayList<Object> getParams;
+    private ArrayList<Object> setParams;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stdout = System.out;
+        System.setOut(
+                new PrintStream(
+                        new OutputStream() {
+                            @Override
+                            public void write(int b) {}
+                        }));
+
+        KeyValueStore_Stub kvStore = new KeyValueStore_Stub();
+        kvStore.$__initialize(true);
+        appObject = new AppObject(kvStore);
+
+        /* Method table as it was built by ObjectHandler before the dispatcher was introduced */
+        reflectiveMethods = new Hashtable<String, Method>();
+        for (Method m : kvStore.getClass().getSuperclass().getMethods()) {
+            if (reflectiveMethods.get(m.toGenericString()) == null) {
+                reflectiveMethods.put(m.toGenericString(), m);
+            }
+        }
+
+        getParams = new ArrayList<Object>();
+        getParams.add("key");
+        setParams = new ArrayList<Object>();
+        setParams.add("key");
+        setParams.add("value");
+        appObject.invoke(SET, setParams);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Object getDispatcher() throws Exception {
+        return appObject.invoke(GET, getParams);
+    }
+
+    @Benchmark
+    public Object getReflection() throws Exception {
+        return reflectiveMethods.get(GET).invoke(appObject.getObject(), getParams.toArray());
+    }
+
+    @Benchmark
+    public Object setDispatcher() throws Exception {
+        return appObject.invoke(SET, setParams);
+    }
+
+    @Benchmark
+    public Object setReflection() throws Exception {
+        return reflectiveMethods.get(SET).invoke(appObject.getObject(), setParams.toArray());
+    }
+}
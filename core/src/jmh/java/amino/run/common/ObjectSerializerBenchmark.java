@@ -0,0 +1,97 @@
+package amino.run.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares {@link ObjectSerializer} against new streams and buffers per call, as {@link Utils}
+ * used before, for an app object of {@code entries} map entries. Run with {@code -prof gc} to
+ * compare the allocation rate, e.g. {@code gradlew jmh -PjmhArgs="ObjectSerializerBenchmark -prof
+ * gc"}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ObjectSerializerBenchmark {
+    @Param({"10", "1000"})
+    public int entries;
+
+    private HashMap<String, Serializable> object;
+    private MessageDigest md5;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        object = new HashMap<String, Serializable>();
+        for (int i = 0; i < entries; i++) {
+            object.put("key" + i, "value" + i);
+        }
+        md5 = MessageDigest.getInstance("MD5");
+    }
+
+    @Benchmark
+    public byte[] toBytes() throws IOException {
+        return ObjectSerializer.toBytes(object);
+    }
+
+    @Benchmark
+    public byte[] toBytesNewStreams() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(object);
+        out.close();
+        return bos.toByteArray();
+    }
+
+    @Benchmark
+    public Object deepCopy() throws Exception {
+        return ObjectSerializer.deepCopy(object);
+    }
+
+    @Benchmark
+    public Object deepCopyNewStreams() throws Exception {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bos);
+        out.writeObject(object);
+        out.close();
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bos.toByteArray()));
+        return in.readObject();
+    }
+
+    @Benchmark
+    public byte[] digest() throws IOException {
+        return ObjectSerializer.digest(object, md5);
+    }
+
+    @Benchmark
+    public byte[] digestNewStreams() throws IOException {
+        md5.reset();
+        DigestOutputStream dos = new DigestOutputStream(new ByteArrayOutputStream(), md5);
+        ObjectOutputStream out = new ObjectOutputStream(dos);
+        out.writeObject(object);
+        out.close();
+        return dos.getMessageDigest().digest();
+    }
+}
@@ -0,0 +1,75 @@
+package amino.run.common;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares cloning an app object with {@link StructuralCloner} against serializing and
+ * deserializing it, as done for every replica and every transaction sandbox. The app object is a
+ * store of {@code items} items of about 160 bytes each.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StructuralClonerBenchmark {
+    public static class Item implements Serializable {
+        String name;
+        int count;
+        long[] history = new long[16];
+
+        Item(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+    }
+
+    public static class Store implements Serializable {
+        HashMap<String, Item> items = new HashMap<String, Item>();
+        ArrayList<Item> recent = new ArrayList<Item>();
+    }
+
+    @Param({"100", "20000"})
+    public int items;
+
+    private AppObject appObject;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Store store = new Store();
+        for (int i = 0; i < items; i++) {
+            Item item = new Item("key" + i, i);
+            store.items.put(item.name, item);
+            if (i % 10 == 0) {
+                store.recent.add(item);
+            }
+        }
+        appObject = new AppObject(store);
+    }
+
+    @Benchmark
+    public Object structural() throws Exception {
+        return StructuralCloner.deepCopy(appObject);
+    }
+
+    @Benchmark
+    public Object serialization() throws Exception {
+        return ObjectSerializer.deepCopy(appObject);
+    }
+}
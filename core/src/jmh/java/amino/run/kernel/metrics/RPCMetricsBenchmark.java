@@ -0,0 +1,69 @@
+package amino.run.kernel.metrics;
+
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.policy.DefaultPolicy;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the cost of recording the metrics of one kernel RPC, as done by the kernel server and
+ * client: looking up the metrics of the RPC, and recording its latency. The budget is 100 ns per
+ * RPC. Run with {@code -t <threads>} to measure contention on the metrics of one method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RPCMetricsBenchmark {
+    private DefaultPolicy.DefaultServerPolicy policy;
+    private KernelRPC rpc;
+    private RPCMetrics metrics;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        policy = new DefaultPolicy.DefaultServerPolicy();
+        policy.setReplicaId(
+                new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add("public java.lang.String amino.run.demo.KeyValueStore.get(java.lang.String)");
+        params.add(new ArrayList<Object>());
+        rpc =
+                new KernelRPC(
+                        new KernelOID(1),
+                        DefaultPolicy.DefaultServerPolicy.class
+                                .getMethod("onRPC", String.class, ArrayList.class)
+                                .toGenericString(),
+                        params);
+        metrics = MetricsRegistry.get(MetricsRegistry.Scope.SERVER, policy, rpc);
+    }
+
+    /** Looks up the metrics and records the RPC, as for every kernel RPC */
+    @Benchmark
+    public void lookupAndRecord() {
+        RPCMetrics m = MetricsRegistry.get(MetricsRegistry.Scope.SERVER, policy, rpc);
+        m.end(m.start(), false);
+    }
+
+    /** Records the RPC only */
+    @Benchmark
+    public void record() {
+        metrics.end(metrics.start(), false);
+    }
+}
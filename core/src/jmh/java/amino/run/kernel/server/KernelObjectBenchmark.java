@@ -0,0 +1,78 @@
+package amino.run.kernel.server;
+
+import amino.run.common.ObjectHandler;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares RPC admission of {@link KernelObject} against the fair semaphore it used before, under
+ * contention. All benchmark threads invoke a trivial method on one shared object. Run with {@code
+ * -t <threads>}, e.g. 1, 4, 16 and 64, and with a concurrency limit below the number of threads to
+ * measure the parking path.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KernelObjectBenchmark {
+    /** Object with a trivial method, so that the measurement is dominated by admission */
+    public static class Counter implements Serializable {
+        private int count;
+
+        public int increment() {
+            return ++count;
+        }
+    }
+
+    @Param({"100", "4"})
+    public int maxConcurrentRPCs;
+
+    private String method;
+    private ArrayList<Object> params;
+    private KernelObject kernelObject;
+    private ObjectHandler handler;
+    private Semaphore semaphore;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        method = Counter.class.getMethod("increment").toGenericString();
+        params = new ArrayList<Object>();
+        kernelObject = new KernelObject(new Counter());
+        kernelObject.setMaxConcurrentRPCs(maxConcurrentRPCs);
+
+        /* Admission as it was done by KernelObject before the atomic state word */
+        handler = new ObjectHandler(new Counter());
+        semaphore = new Semaphore(maxConcurrentRPCs, true);
+    }
+
+    @Benchmark
+    public Object atomicState() throws Exception {
+        return kernelObject.invoke(method, params);
+    }
+
+    @Benchmark
+    public Object fairSemaphore() throws Exception {
+        semaphore.acquire();
+        try {
+            return handler.invoke(method, params);
+        } finally {
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,118 @@
+package amino.run.kernel.transport;
+
+import amino.run.app.MicroServiceSpec;
+import amino.run.common.AppObjectStub;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.server.KernelObject;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares kernel RPCs over loopback through RMI against the NIO transport. The kernel server
+ * echoes the first parameter back, so the measurement is dominated by the transport. Run with
+ * {@code -t <threads>} to compare how the transports behave with many RPCs in flight.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class TransportBenchmark {
+    private EchoKernelServer echoServer;
+    private KernelServer rmiServer;
+    private NioTransportServer transportServer;
+    private NioTransportClient transportClient;
+    private KernelServer nioServer;
+    private KernelRPC rpc;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        echoServer = new EchoKernelServer();
+        rmiServer = (KernelServer) UnicastRemoteObject.exportObject(echoServer, 0);
+
+        transportServer =
+                new NioTransportServer(echoServer, new InetSocketAddress("127.0.0.1", 0));
+        transportClient = new NioTransportClient();
+        nioServer =
+                new NioKernelServer(
+                        rmiServer,
+                        transportClient,
+                        new InetSocketAddress("127.0.0.1", transportServer.getLocalPort()));
+
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add("value");
+        rpc =
+                new KernelRPC(
+                        new KernelOID(1),
+                        "public java.io.Serializable amino.run.demo.KeyValueStore.get(java.lang.String)",
+                        params);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        transportClient.shutdown();
+        transportServer.shutdown();
+        UnicastRemoteObject.unexportObject(echoServer, true);
+    }
+
+    @Benchmark
+    public Object rmi() throws Exception {
+        return rmiServer.makeKernelRPC(rpc);
+    }
+
+    @Benchmark
+    public Object nio() throws Exception {
+        return nioServer.makeKernelRPC(rpc);
+    }
+
+    /** Kernel server returning the first parameter of every RPC */
+    public static class EchoKernelServer implements KernelServer {
+        @Override
+        public Object makeKernelRPC(KernelRPC rpc) {
+            return rpc.getParams().get(0);
+        }
+
+        @Override
+        public byte[] getKernelRPCCodecs() {
+            return new byte[0];
+        }
+
+        @Override
+        public InetSocketAddress getTransportAddress() {
+            return null;
+        }
+
+        @Override
+        public void updateKernelObjectLocations(Map<KernelOID, InetSocketAddress> locations) {}
+
+        @Override
+        public void copyKernelObject(KernelOID oid, KernelObject object) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public AppObjectStub createMicroService(MicroServiceSpec spec, Object... args) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,146 @@
+package amino.run.policy.scalability;
+
+import amino.run.common.AppObject;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectStub;
+import amino.run.policy.Policy;
+import amino.run.policy.scalability.masterslave.MasterInfo;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures how long a client of {@link LoadBalancedMasterSlaveAsyncPolicy} takes to get a write
+ * through after master is destroyed, i.e. until slave takes over the master lock and the client
+ * finds the new master. Before master is destroyed, the number of group policy calls per write in
+ * steady state is printed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 10)
+@Fork(1)
+public class MasterSlaveFailoverBenchmark {
+    private static final int STEADY_STATE_WRITES = 1000;
+
+    public static class Counter implements Serializable {
+        private long cnt;
+
+        public void increment() {
+            cnt++;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
+
+    private ArrayList<Policy.ServerPolicy> servers;
+    private CountingGroup group;
+    private LoadBalancedMasterSlaveBase.ClientPolicy client;
+    private LoadBalancedMasterSlaveBase.ServerPolicy master;
+    private String method;
+
+    @Setup(Level.Iteration)
+    public void setUp() throws Exception {
+        servers = new ArrayList<Policy.ServerPolicy>();
+        group = new CountingGroup(servers);
+        for (int i = 0; i < 2; i++) {
+            Server server = new Server();
+            server.$__setKernelOID(new KernelOID(i));
+            server.$__initialize(new AppObject(new Counter_Stub()));
+            server.onCreate(group);
+            servers.add(server);
+        }
+        for (Policy.ServerPolicy server : servers) {
+            ((LoadBalancedMasterSlaveBase.ServerPolicy) server).start();
+        }
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (group.getMaster() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        master = group.getMaster();
+        if (master == null) {
+            throw new IllegalStateException("no master elected");
+        }
+
+        client = new LoadBalancedMasterSlaveAsyncPolicy.ClientPolicy();
+        client.setServer(master);
+        client.onCreate(group);
+        method = Counter.class.getMethod("increment").toGenericString();
+
+        group.countedThread = Thread.currentThread();
+        for (int i = 0; i < STEADY_STATE_WRITES; i++) {
+            client.onRPC(method, new ArrayList<Object>());
+        }
+        System.out.println(
+                "\ngroup calls per write: " + (double) group.lookups.get() / STEADY_STATE_WRITES);
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDown() throws Exception {
+        for (Policy.ServerPolicy server : servers) {
+            server.onDestroy();
+        }
+    }
+
+    @Benchmark
+    public Object failover() throws Exception {
+        master.onDestroy();
+        return client.onRPC(method, new ArrayList<Object>());
+    }
+
+    private static class CountingGroup extends LoadBalancedMasterSlaveAsyncPolicy.GroupPolicy {
+        private final ArrayList<Policy.ServerPolicy> servers;
+        private final AtomicInteger lookups = new AtomicInteger();
+
+        /** Thread whose lookups are counted, other lookups come from the replicators */
+        private volatile Thread countedThread;
+
+        CountingGroup(ArrayList<Policy.ServerPolicy> servers) {
+            this.servers = servers;
+        }
+
+        @Override
+        public ArrayList<Policy.ServerPolicy> getServers() {
+            return new ArrayList<Policy.ServerPolicy>(servers);
+        }
+
+        @Override
+        public MasterInfo getMasterInfo() throws RemoteException {
+            if (Thread.currentThread() == countedThread) {
+                lookups.incrementAndGet();
+            }
+            return super.getMasterInfo();
+        }
+    }
+
+    private static class Server extends LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy
+            implements KernelObjectStub {
+        @Override
+        public InetSocketAddress $__getHostname() {
+            return null;
+        }
+
+        @Override
+        public void $__updateHostname(InetSocketAddress hostname) {}
+
+        @Override
+        public void $__setNextClientPolicy(Policy.ClientPolicy clientPolicy) {}
+    }
+}
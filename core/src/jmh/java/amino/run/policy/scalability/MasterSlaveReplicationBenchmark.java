@@ -0,0 +1,176 @@
+package amino.run.policy.scalability;
+
+import amino.run.common.AppObject;
+import amino.run.kernel.common.KernelOID;
+import amino.run.policy.Policy;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.ReplicationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures write throughput of {@link LoadBalancedMasterSlaveSyncPolicy} and {@link
+ * LoadBalancedMasterSlaveAsyncPolicy}, with a master and a slave in the same process, under a load
+ * of writes only. Every write has a simulated slave round trip of {@code rttInMicros}
+ * microseconds. For the asynchronous policy, the largest number of writes slave lagged behind
+ * master is printed after every iteration.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MasterSlaveReplicationBenchmark {
+    public static class Counter implements Serializable {
+        private long cnt;
+
+        public void increment() {
+            cnt++;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
+
+    @Param({"sync", "async"})
+    public String replication;
+
+    @Param({"200"})
+    public long rttInMicros;
+
+    private LoadBalancedMasterSlaveBase.GroupPolicy group;
+    private LoadBalancedMasterSlaveBase.ServerPolicy master;
+    private String method;
+    private long requestId;
+    private long maxLag;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final ArrayList<Policy.ServerPolicy> servers = new ArrayList<Policy.ServerPolicy>();
+        boolean async = "async".equals(replication);
+        group =
+                async
+                        ? new LoadBalancedMasterSlaveAsyncPolicy.GroupPolicy() {
+                            @Override
+                            public ArrayList<Policy.ServerPolicy> getServers() {
+                                return servers;
+                            }
+                        }
+                        : new LoadBalancedMasterSlaveSyncPolicy.GroupPolicy() {
+                            @Override
+                            public ArrayList<Policy.ServerPolicy> getServers() {
+                                return servers;
+                            }
+                        };
+
+        for (int i = 0; i < 2; i++) {
+            LoadBalancedMasterSlaveBase.ServerPolicy server =
+                    async ? new AsyncServer(rttInMicros) : new SyncServer(rttInMicros);
+            server.$__setKernelOID(new KernelOID(i));
+            server.$__initialize(new AppObject(new Counter_Stub()));
+            server.onCreate(group);
+            servers.add(server);
+        }
+        for (Policy.ServerPolicy server : servers) {
+            ((LoadBalancedMasterSlaveBase.ServerPolicy) server).start();
+        }
+
+        long deadline = System.currentTimeMillis() + 10000L;
+        while (group.getMaster() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        master = group.getMaster();
+        if (master == null) {
+            throw new IllegalStateException("no master elected");
+        }
+        method = Counter.class.getMethod("increment").toGenericString();
+    }
+
+    @TearDown(Level.Iteration)
+    public void printLag() {
+        if (master instanceof AsyncServer) {
+            System.out.println("\nmax replication lag: " + maxLag + " writes");
+            maxLag = 0;
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        for (Policy.ServerPolicy server : group.getServers()) {
+            server.onDestroy();
+        }
+    }
+
+    @Benchmark
+    public MethodInvocationResponse write() throws Exception {
+        MethodInvocationResponse response =
+                master.onRPC(
+                        new MethodInvocationRequest(
+                                "client",
+                                requestId++,
+                                method,
+                                new ArrayList<Object>(),
+                                MethodInvocationRequest.MethodType.MUTABLE));
+        if (master instanceof AsyncServer) {
+            AsyncServer server = (AsyncServer) master;
+            long lag =
+                    server.getIndexOfLargestCommittedEntry()
+                            - server.getIndexOfLargestReplicatedEntry();
+            if (lag > maxLag) {
+                maxLag = lag;
+            }
+        }
+        return response;
+    }
+
+    private static void roundTrip(long rttInMicros) {
+        long end = System.nanoTime() + TimeUnit.MICROSECONDS.toNanos(rttInMicros);
+        while (System.nanoTime() < end) {
+            // busy wait, sleeps are too coarse
+        }
+    }
+
+    private static class SyncServer extends LoadBalancedMasterSlaveSyncPolicy.ServerPolicy {
+        private final long rttInMicros;
+
+        SyncServer(long rttInMicros) {
+            this.rttInMicros = rttInMicros;
+        }
+
+        @Override
+        public ReplicationResponse handleReplication(ReplicationRequest request) {
+            roundTrip(rttInMicros);
+            return super.handleReplication(request);
+        }
+    }
+
+    private static class AsyncServer extends LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy {
+        private final long rttInMicros;
+
+        AsyncServer(long rttInMicros) {
+            this.rttInMicros = rttInMicros;
+        }
+
+        @Override
+        public ReplicationResponse handleReplication(ReplicationRequest request) {
+            roundTrip(rttInMicros);
+            return super.handleReplication(request);
+        }
+    }
+}
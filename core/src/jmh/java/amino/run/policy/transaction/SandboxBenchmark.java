@@ -0,0 +1,105 @@
+package amino.run.policy.transaction;
+
+import amino.run.common.AppObject;
+import amino.run.policy.DefaultPolicy;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of transactions on an app object of {@code accounts} accounts, with
+ * sandboxes created by {@link AppObjectSandboxProvider} and by {@link CopyOnWriteSandboxProvider}.
+ * A transaction creates its sandbox, makes one call to it and commits it, as {@link
+ * TwoPCCoordinatorPolicy} does.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SandboxBenchmark {
+    public static class Ledger implements Serializable {
+        private long[] balances;
+
+        public Ledger(int accounts) {
+            balances = new long[accounts];
+        }
+
+        @Immutable
+        public long getBalance(Integer account) {
+            return balances[account];
+        }
+
+        public void deposit(Integer account) {
+            balances[account]++;
+        }
+    }
+
+    /** Stands for the generated stub, which app objects wrap */
+    public static class LedgerStub extends Ledger {
+        public LedgerStub(int accounts) {
+            super(accounts);
+        }
+    }
+
+    @Param({"100", "100000"})
+    public int accounts;
+
+    @Param({"clone", "copyOnWrite"})
+    public String sandbox;
+
+    private DefaultPolicy.DefaultServerPolicy origin;
+    private SandboxProvider provider;
+    private String getBalance;
+    private String deposit;
+    private ArrayList<Object> params;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        origin = new DefaultPolicy.DefaultServerPolicy();
+        origin.$__initialize(new AppObject(new LedgerStub(accounts)));
+        provider =
+                "clone".equals(sandbox)
+                        ? new AppObjectSandboxProvider()
+                        : new CopyOnWriteSandboxProvider();
+        getBalance = Ledger.class.getMethod("getBalance", Integer.class).toGenericString();
+        deposit = Ledger.class.getMethod("deposit", Integer.class).toGenericString();
+        params = new ArrayList<Object>();
+        params.add(accounts / 2);
+    }
+
+    @Benchmark
+    public Object read() throws Exception {
+        return transaction(getBalance);
+    }
+
+    @Benchmark
+    public Object write() throws Exception {
+        return transaction(deposit);
+    }
+
+    private Object transaction(String method) throws Exception {
+        UUID transactionId = UUID.randomUUID();
+        AppObjectShimServerPolicy shim =
+                (AppObjectShimServerPolicy) provider.getSandbox(origin, transactionId);
+        Object result = shim.onRPC(method, params);
+        origin.$__initialize(shim.getResultAppObject());
+        provider.removeSandbox(transactionId);
+        return result;
+    }
+}
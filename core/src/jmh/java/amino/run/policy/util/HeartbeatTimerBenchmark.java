@@ -0,0 +1,122 @@
+package amino.run.policy.util;
+
+import java.util.Random;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Simulates the heartbeat handling of the OMS for many kernel servers. Every kernel server has a
+ * heartbeat timeout timer, and every received heartbeat resets the timer of a random server, the
+ * same as {@code KernelServerManager.receiveHeartBeat}. Compares {@link ResettableTimer} on the
+ * shared {@link HashedWheelTimer} against the previous implementation, which created a new {@link
+ * Timer} thread on every reset.
+ *
+ * <p>The previous implementation keeps one thread alive per kernel server, so running it with 10k
+ * servers needs a correspondingly high thread limit.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HeartbeatTimerBenchmark {
+    /** Long enough for the timers to never expire during the benchmark */
+    private static final long HEARTBEAT_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    @Param({"10000"})
+    public int kernelServers;
+
+    private ResettableTimer[] timers;
+    private LegacyTimer[] legacyTimers;
+    private Random random;
+
+    /** ResettableTimer as it was implemented before the shared timer */
+    private static class LegacyTimer {
+        private final TimerTask templateTask;
+        private TimerTask task;
+        private Timer timer;
+
+        LegacyTimer(TimerTask templateTask) {
+            this.templateTask = templateTask;
+        }
+
+        void start() {
+            timer = new Timer();
+            task =
+                    new TimerTask() {
+                        public void run() {
+                            templateTask.run();
+                        }
+                    };
+            timer.schedule(task, HEARTBEAT_TIMEOUT);
+        }
+
+        void reset() {
+            cancel();
+            start();
+        }
+
+        void cancel() {
+            if (timer != null) {
+                timer.cancel();
+                timer.purge();
+            }
+            if (task != null) {
+                task.cancel();
+                task = null;
+            }
+        }
+    }
+
+    private static TimerTask noop() {
+        return new TimerTask() {
+            @Override
+            public void run() {}
+        };
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        random = new Random(0);
+        timers = new ResettableTimer[kernelServers];
+        legacyTimers = new LegacyTimer[kernelServers];
+        for (int i = 0; i < kernelServers; i++) {
+            timers[i] = new ResettableTimer(noop(), HEARTBEAT_TIMEOUT);
+            timers[i].start();
+            legacyTimers[i] = new LegacyTimer(noop());
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (int i = 0; i < kernelServers; i++) {
+            timers[i].cancel();
+            legacyTimers[i].cancel();
+        }
+    }
+
+    @Benchmark
+    public void sharedTimer() {
+        timers[random.nextInt(kernelServers)].reset();
+    }
+
+    @Benchmark
+    public void timerPerReset() {
+        legacyTimers[random.nextInt(kernelServers)].reset();
+    }
+}
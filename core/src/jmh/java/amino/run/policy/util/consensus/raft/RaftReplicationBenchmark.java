@@ -0,0 +1,102 @@
+package amino.run.policy.util.consensus.raft;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the throughput of operations replicated through RAFT with replicas in the same process.
+ * Replicas call each other directly, so the measurement is dominated by the replication protocol.
+ * Run with {@code -t <threads>} to vary the number of concurrent clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(16)
+public class RaftReplicationBenchmark {
+    @Param({"3", "5"})
+    public int replicas;
+
+    private Server[] servers;
+    private Server leader;
+
+    /** State machine counting the operations applied to it */
+    private static class Counter implements StateMachineApplier {
+        final AtomicLong count = new AtomicLong();
+
+        @Override
+        public Object apply(Object operation) {
+            return count.incrementAndGet();
+        }
+
+        @Override
+        public Object snapshot() {
+            return count.get();
+        }
+
+        @Override
+        public void restore(Object snapshot) {
+            count.set((Long) snapshot);
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws java.lang.Exception {
+        servers = new Server[replicas];
+        for (int i = 0; i < replicas; i++) {
+            servers[i] = new Server(new Counter());
+        }
+        for (Server server : servers) {
+            for (Server other : servers) {
+                if (server != other) {
+                    server.addServer(other.getMyServerID(), other);
+                }
+            }
+        }
+        for (Server server : servers) {
+            server.start();
+        }
+        servers[0].become(Server.State.CANDIDATE, Server.State.FOLLOWER);
+
+        long deadline = System.currentTimeMillis() + 10 * Server.LEADER_HEARTBEAT_TIMEOUT;
+        while (leader == null) {
+            for (Server server : servers) {
+                if (server.getState() == Server.State.LEADER) {
+                    leader = server;
+                }
+            }
+            if (System.currentTimeMillis() > deadline) {
+                throw new IllegalStateException("No RAFT leader elected");
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Server server : servers) {
+            server.stop();
+        }
+    }
+
+    @Benchmark
+    public Object replicate() throws java.lang.Exception {
+        return leader.applyToStateMachine("op");
+    }
+}
@@ -0,0 +1,100 @@
+package amino.run.policy.util.consensus.raft;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares reads appended to the log, as all operations were before, with reads confirmed with a
+ * heartbeat round (ReadIndex) and reads within the leader lease, on a group of three servers in
+ * one process. Run with {@code -bm avgt} for the latency instead of the throughput.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(8)
+@Fork(1)
+public class ReadBenchmark {
+    private static final int SERVER_COUNT = 3;
+
+    /** State machine of a counter, which reads return */
+    static class Counter implements StateMachineApplier {
+        private long value;
+
+        @Override
+        public Object apply(Object operation) {
+            if ("increment".equals(operation)) {
+                value++;
+            }
+            return value;
+        }
+
+        @Override
+        public Object snapshot() {
+            return value;
+        }
+
+        @Override
+        public void restore(Object snapshot) {
+            value = (Long) snapshot;
+        }
+    }
+
+    @Param({"log", "readIndex", "lease"})
+    public String mode;
+
+    private Server[] servers;
+    private Server leader;
+
+    @Setup(Level.Trial)
+    public void setUp() throws java.lang.Exception {
+        servers = new Server[SERVER_COUNT];
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            servers[i] = new Server(new Counter());
+            servers[i].setLeaderLease("lease".equals(mode));
+        }
+        for (Server s : servers) {
+            for (Server other : servers) {
+                if (s != other) {
+                    s.addServer(other.getMyServerID(), other);
+                }
+            }
+            s.start();
+        }
+        servers[0].become(Server.State.CANDIDATE, Server.State.FOLLOWER);
+        while (servers[0].getState() != Server.State.LEADER) {
+            Thread.sleep(10);
+        }
+        leader = servers[0];
+        /* Commit an entry of the leader's term, which reads need */
+        leader.applyToStateMachine("increment");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        for (Server s : servers) {
+            s.stop();
+        }
+    }
+
+    @Benchmark
+    public Object read() throws java.lang.Exception {
+        return "log".equals(mode)
+                ? leader.applyToStateMachine("get")
+                : leader.readFromStateMachine("get");
+    }
+}
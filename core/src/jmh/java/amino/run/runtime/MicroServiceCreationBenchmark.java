@@ -0,0 +1,151 @@
+package amino.run.runtime;
+
+import amino.run.app.DMSpec;
+import amino.run.app.Language;
+import amino.run.app.MicroServiceSpec;
+import amino.run.kernel.common.ServerInfo;
+import amino.run.kernel.server.KernelServer;
+import amino.run.kernel.server.KernelServerImpl;
+import amino.run.oms.OMSServer;
+import amino.run.oms.OMSServerImpl;
+import amino.run.policy.DefaultPolicy;
+import amino.run.policy.atleastoncerpc.AtLeastOnceRPCPolicy;
+import amino.run.policy.primitive.ImmutablePolicy;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the latency of creating a {@code KeyValueStore} microservice with a chain of 1, 2 or 3
+ * DMs. The OMS and a kernel server run in this JVM, and talk to each other through RMI over
+ * loopback, so the number of calls to the OMS per chain shows in the measurement.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MicroServiceCreationBenchmark {
+    private static final String[] DMS = {
+        DefaultPolicy.class.getName(),
+        AtLeastOnceRPCPolicy.class.getName(),
+        ImmutablePolicy.class.getName()
+    };
+
+    @Param({"1", "2", "3"})
+    public int chainLength;
+
+    private PrintStream stdout;
+    private OMSServerImpl oms;
+    private KernelServerImpl kernelServer;
+    private Registry registry;
+    private ScheduledExecutorService heartbeat;
+    private MicroServiceSpec spec;
+    private final List<Object> microServices = new ArrayList<Object>();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        stdout = System.out;
+        System.setOut(
+                new PrintStream(
+                        new OutputStream() {
+                            @Override
+                            public void write(int b) {}
+                        }));
+        Logger.getLogger("amino.run").setLevel(java.util.logging.Level.WARNING);
+
+        ServerSocket socket = new ServerSocket(0);
+        int port = socket.getLocalPort();
+        socket.close();
+        InetSocketAddress host = new InetSocketAddress("127.0.0.1", port);
+        System.setProperty("java.rmi.server.hostname", "127.0.0.1");
+
+        oms = new OMSServerImpl();
+        OMSServer omsStub = (OMSServer) UnicastRemoteObject.exportObject(oms, 0);
+        kernelServer = new KernelServerImpl(host, omsStub);
+        KernelServer kernelServerStub =
+                (KernelServer) UnicastRemoteObject.exportObject(kernelServer, 0);
+        registry = LocateRegistry.createRegistry(port);
+        registry.rebind("io.amino.run.kernelserver", kernelServerStub);
+
+        final ServerInfo srvInfo =
+                KernelServerImpl.createServerInfo(host, new HashMap<String, String>());
+        kernelServer.setRegion(srvInfo.getRegion());
+        omsStub.registerKernelServer(srvInfo);
+
+        final OMSServer heartbeatOms = omsStub;
+        heartbeat = Executors.newSingleThreadScheduledExecutor();
+        heartbeat.scheduleAtFixedRate(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            heartbeatOms.receiveHeartBeat(srvInfo);
+                        } catch (Exception e) {
+                            /* The next heartbeat is sent anyway */
+                        }
+                    }
+                },
+                0,
+                OMSServer.KS_HEARTBEAT_TIMEOUT / 3,
+                TimeUnit.MILLISECONDS);
+
+        MicroServiceSpec.Builder builder =
+                MicroServiceSpec.newBuilder()
+                        .setLang(Language.java)
+                        .setJavaClassName("amino.run.demo.KeyValueStore");
+        for (int i = 0; i < chainLength; i++) {
+            builder.addDMSpec(DMSpec.newBuilder().setName(DMS[i]).create());
+        }
+        spec = builder.create();
+    }
+
+    @TearDown(Level.Iteration)
+    public void deleteMicroServices() {
+        for (Object microService : microServices) {
+            MicroService.delete_(microService);
+        }
+        microServices.clear();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        heartbeat.shutdownNow();
+        UnicastRemoteObject.unexportObject(registry, true);
+        UnicastRemoteObject.unexportObject(kernelServer, true);
+        UnicastRemoteObject.unexportObject(oms, true);
+        System.setOut(stdout);
+    }
+
+    @Benchmark
+    public Object create() throws Exception {
+        Object microService = MicroService.new_(spec);
+        microServices.add(microService);
+        return microService;
+    }
+}
@@ -60,6 +60,12 @@ public class MicroServiceSpec implements Serializable {
 
     private NodeSelectorSpec nodeSelectorSpec;
 
+    /**
+     * Maximum number of RPCs executed concurrently on each kernel object of the microservice. 0
+     * uses the kernel default.
+     */
+    private int maxConcurrentRPCs;
+
     public static Builder newBuilder() {
         return new Builder();
     }
@@ -130,6 +136,14 @@ public class MicroServiceSpec implements Serializable {
         this.nodeSelectorSpec = nodeSelectorSpec;
     }
 
+    public int getMaxConcurrentRPCs() {
+        return maxConcurrentRPCs;
+    }
+
+    public void setMaxConcurrentRPCs(int maxConcurrentRPCs) {
+        this.maxConcurrentRPCs = maxConcurrentRPCs;
+    }
+
     public static MicroServiceSpec fromYaml(String yamlString) {
         Yaml yaml = new Yaml();
         return yaml.loadAs(yamlString, MicroServiceSpec.class);
@@ -145,6 +159,11 @@ public class MicroServiceSpec implements Serializable {
         if (nodeSelectorSpec != null) {
             nodeSelectorSpec.validate();
         }
+
+        if (maxConcurrentRPCs < 0) {
+            throw new IllegalArgumentException(
+                    "invalid argument: maxConcurrentRPCs can not be negative");
+        }
     }
 
     @Override
@@ -158,7 +177,8 @@ public class MicroServiceSpec implements Serializable {
                 && Objects.equals(sourceFileLocation, that.sourceFileLocation)
                 && Objects.equals(constructorName, that.constructorName)
                 && Objects.equals(dmList, that.dmList)
-                && Objects.equals(nodeSelectorSpec, that.nodeSelectorSpec);
+                && Objects.equals(nodeSelectorSpec, that.nodeSelectorSpec)
+                && maxConcurrentRPCs == that.maxConcurrentRPCs;
     }
 
     @Override
@@ -170,7 +190,8 @@ public class MicroServiceSpec implements Serializable {
                 sourceFileLocation,
                 constructorName,
                 dmList,
-                nodeSelectorSpec);
+                nodeSelectorSpec,
+                maxConcurrentRPCs);
     }
 
     @Override
@@ -187,6 +208,7 @@ public class MicroServiceSpec implements Serializable {
         private String constructorName;
         private List<DMSpec> dmList = new ArrayList<DMSpec>();
         private NodeSelectorSpec nodeSelectorSpec;
+        private int maxConcurrentRPCs;
 
         public Builder setName(String name) {
             this.name = name;
@@ -225,6 +247,11 @@ public class MicroServiceSpec implements Serializable {
             return this;
         }
 
+        public Builder setMaxConcurrentRPCs(int maxConcurrentRPCs) {
+            this.maxConcurrentRPCs = maxConcurrentRPCs;
+            return this;
+        }
+
         public MicroServiceSpec create() {
             MicroServiceSpec spec = new MicroServiceSpec();
             spec.setName(name);
@@ -234,6 +261,7 @@ public class MicroServiceSpec implements Serializable {
             spec.setConstructorName(constructorName);
             spec.setDmList(dmList);
             spec.setNodeSelectorSpec(nodeSelectorSpec);
+            spec.setMaxConcurrentRPCs(maxConcurrentRPCs);
             return spec;
         }
     }
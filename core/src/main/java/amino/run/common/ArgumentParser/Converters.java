@@ -89,4 +89,13 @@ public final class Converters {
             super(MIN_VALUE, MAX_VALUE);
         }
     }
+
+    /** Custom Converter type to handle counts and rates, which must not be negative */
+    public static class NonNegativeIntConverter
+            extends com.google.devtools.common.options.Converters.RangeConverter {
+        /** Initializing the RangeConverter Class constructor with 0 as min value */
+        public NonNegativeIntConverter() {
+            super(0, Integer.MAX_VALUE);
+        }
+    }
 }
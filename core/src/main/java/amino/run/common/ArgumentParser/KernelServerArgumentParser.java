@@ -30,4 +30,34 @@ public class KernelServerArgumentParser extends OMSArgumentParser {
             converter = Converters.LabelConverter.class,
             category = "startup")
     public Map<String, String> labels = new HashMap<String, String>();
+
+    @Option(
+            name = "transport",
+            help = "transport for kernel RPCs from other kernel servers: rmi or nio",
+            defaultValue = "rmi",
+            category = "startup")
+    public String transport;
+
+    @Option(
+            name = "transport-port",
+            help = "port of the nio transport",
+            defaultValue = "0",
+            category = "startup",
+            converter = Converters.PortConverter.class)
+    public Integer transportPort;
+
+    @Option(
+            name = "traces-per-second",
+            help = "number of new RPC traces to sample per second. 0 disables tracing.",
+            defaultValue = "10",
+            category = "startup",
+            converter = Converters.NonNegativeIntConverter.class)
+    public Integer tracesPerSecond;
+
+    @Option(
+            name = "trace-file",
+            help = "file to append the spans of sampled RPC traces to",
+            defaultValue = "",
+            category = "startup")
+    public String traceFile;
 }
@@ -28,4 +28,12 @@ public class OMSArgumentParser extends OptionsBase {
             category = "startup",
             converter = Converters.PortConverter.class)
     public Integer servicePort;
+
+    @Option(
+            name = "metrics-port",
+            help = "port of the http endpoint serving metrics at /metrics. 0 disables it.",
+            defaultValue = "0",
+            category = "startup",
+            converter = Converters.PortConverter.class)
+    public Integer metricsPort;
 }
@@ -0,0 +1,163 @@
+package amino.run.common;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * Helpers for the asynchronous RPC path ({@code onRPCAsync} and the {@code *Async} methods of app
+ * stubs). Asynchronous RPCs complete their futures exceptionally with the same exceptions the
+ * synchronous RPCs throw.
+ */
+public class Futures {
+    /**
+     * Threads running blocking work of asynchronous RPCs. More than the cores, as the work mostly
+     * waits for RPCs.
+     */
+    private static final int THREADS = 2 * Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Executor running blocking work on behalf of asynchronous RPCs. Work is queued while all
+     * threads are busy. It is never run by the submitting thread, which may be the selector thread
+     * of the NIO transport completing an RPC.
+     */
+    private static final ExecutorService executor =
+            Executors.newFixedThreadPool(
+                    THREADS,
+                    new ThreadFactory() {
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "AsyncRPC-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
+    private Futures() {}
+
+    /** @return executor for blocking work of asynchronous RPCs */
+    public static Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * @param t failure
+     * @return future completed exceptionally with the given failure
+     */
+    public static <T> CompletableFuture<T> failed(Throwable t) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        future.completeExceptionally(t);
+        return future;
+    }
+
+    /**
+     * Runs the task on the calling thread.
+     *
+     * @param task task to run
+     * @return future completed with the result or failure of the task
+     */
+    public static <T> CompletableFuture<T> complete(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<T>();
+        try {
+            future.complete(task.call());
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+        }
+        return future;
+    }
+
+    /**
+     * Runs the task on the executor of asynchronous RPCs.
+     *
+     * @param task task to run
+     * @return future completed with the result or failure of the task
+     */
+    public static <T> CompletableFuture<T> submit(final Callable<T> task) {
+        final CompletableFuture<T> future = new CompletableFuture<T>();
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            future.complete(task.call());
+                        } catch (Throwable t) {
+                            future.completeExceptionally(t);
+                        }
+                    }
+                });
+        return future;
+    }
+
+    /**
+     * Strips the wrappers {@link CompletableFuture} adds around failures of dependent stages.
+     *
+     * @param t failure as seen by a dependent stage
+     * @return original failure
+     */
+    public static Throwable unwrap(Throwable t) {
+        while ((t instanceof CompletionException || t instanceof ExecutionException)
+                && t.getCause() != null) {
+            t = t.getCause();
+        }
+        return t;
+    }
+
+    /**
+     * Waits for the future and rethrows its failure as is, like the synchronous RPC would.
+     *
+     * @param future future to wait for
+     * @return result of the future
+     * @throws Exception failure of the future
+     */
+    public static <T> T get(CompletableFuture<T> future) throws Exception {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            Throwable cause = unwrap(e);
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Replaces an {@link AppExceptionWrapper} failure with the exception thrown by the app. Used by
+     * the {@code *Async} methods of app stubs.
+     *
+     * @param future future of an RPC through the client policy
+     * @return future completing with the result of the RPC or the exception thrown by the app
+     */
+    public static <T> CompletableFuture<T> unwrapAppException(CompletableFuture<T> future) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        future.whenComplete(
+                new BiConsumer<T, Throwable>() {
+                    @Override
+                    public void accept(T value, Throwable t) {
+                        if (t == null) {
+                            result.complete(value);
+                            return;
+                        }
+                        t = unwrap(t);
+                        if (t instanceof AppExceptionWrapper
+                                && ((AppExceptionWrapper) t).getException() != null) {
+                            t = ((AppExceptionWrapper) t).getException();
+                        }
+                        result.completeExceptionally(t);
+                    }
+                });
+        return result;
+    }
+}
@@ -0,0 +1,161 @@
+package amino.run.common;
+
+import amino.run.compiler.GlobalStubConstants;
+import amino.run.policy.Library;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.apache.harmony.rmi.common.RMIUtil;
+
+/**
+ * Precompiled method dispatch table for a stubbed class. The stub compiler assigns every stub
+ * method a small integer ID at stub generation time and emits a switch based implementation of
+ * {@link #invoke} into the stub as a static field named {@link #DISPATCHER_FIELD}. {@link
+ * ObjectHandler} resolves the method name of an RPC to its ID once per call and invokes it directly
+ * through the switch, avoiding {@link java.lang.reflect.Method#invoke} and the boxing of parameters
+ * into a fresh {@code Object[]}.
+ *
+ * <p>Classes without a generated dispatcher (e.g. Graal objects or dynamically loaded classes)
+ * fall back to reflective invocation in {@link ObjectHandler}.
+ */
+public abstract class MethodDispatcher {
+    private static final Logger logger = Logger.getLogger(MethodDispatcher.class.getName());
+
+    /** Name of the static field holding the dispatcher in generated stubs */
+    public static final String DISPATCHER_FIELD = "$__methodDispatcher";
+
+    /** Marker for classes which do not have a generated dispatcher */
+    private static final MethodDispatcher NONE =
+            new MethodDispatcher(new String[0]) {
+                @Override
+                public Object invoke(Object target, int methodId, ArrayList<Object> params)
+                        throws Throwable {
+                    throw new NoSuchMethodException(String.valueOf(methodId));
+                }
+            };
+
+    /** Dispatchers resolved so far, keyed by the class of the invoked object */
+    private static final ConcurrentHashMap<Class<?>, MethodDispatcher> dispatchers =
+            new ConcurrentHashMap<Class<?>, MethodDispatcher>();
+
+    /** Generic method names indexed by method ID */
+    private final String[] methodNames;
+
+    /** Method IDs keyed by generic method name. Read only after construction. */
+    private final HashMap<String, Integer> methodIds;
+
+    protected MethodDispatcher(String[] methodNames) {
+        this.methodNames = methodNames;
+        this.methodIds = new HashMap<String, Integer>(methodNames.length * 2);
+        for (int i = 0; i < methodNames.length; i++) {
+            methodIds.put(methodNames[i], i);
+        }
+    }
+
+    /**
+     * Gets the ID assigned to the method at stub generation time.
+     *
+     * @param method generic method name, as returned by {@link
+     *     java.lang.reflect.Method#toGenericString()}
+     * @return method ID, or -1 if the method is not known to this dispatcher
+     */
+    public int getMethodId(String method) {
+        Integer id = methodIds.get(method);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * Gets the generic name of the method with the given ID.
+     *
+     * @param methodId method ID
+     * @return generic method name
+     */
+    public String getMethodName(int methodId) {
+        return methodNames[methodId];
+    }
+
+    /** @return number of methods known to this dispatcher */
+    public int getMethodCount() {
+        return methodNames.length;
+    }
+
+    /**
+     * Invokes the method with the given ID on the target object. Exceptions thrown by the invoked
+     * method are propagated as is, i.e., they are not wrapped in {@link
+     * java.lang.reflect.InvocationTargetException}.
+     *
+     * @param target object to invoke the method on
+     * @param methodId method ID
+     * @param params method parameters
+     * @return return value of the method, or null for void methods
+     * @throws Throwable exception thrown by the invoked method
+     */
+    public abstract Object invoke(Object target, int methodId, ArrayList<Object> params)
+            throws Throwable;
+
+    /**
+     * Gets the generated dispatcher for objects of the given class. App objects are instances of
+     * their stub class, hence the dispatcher is declared on the class itself. Server and group
+     * policy objects are instances of the policy class, hence the dispatcher is looked up on the
+     * corresponding policy stub.
+     *
+     * @param cls class of the object to be invoked
+     * @return dispatcher, or null if the class does not have a generated dispatcher
+     */
+    public static MethodDispatcher forClass(Class<?> cls) {
+        MethodDispatcher dispatcher = dispatchers.get(cls);
+        if (dispatcher == null) {
+            dispatcher = resolve(cls);
+            dispatchers.putIfAbsent(cls, dispatcher);
+        }
+        return dispatcher == NONE ? null : dispatcher;
+    }
+
+    private static MethodDispatcher resolve(Class<?> cls) {
+        MethodDispatcher dispatcher = getDeclaredDispatcher(cls);
+        if (dispatcher != null) {
+            return dispatcher;
+        }
+
+        if (Library.ServerPolicyLibrary.class.isAssignableFrom(cls)
+                || Library.GroupPolicyLibrary.class.isAssignableFrom(cls)) {
+            String policyStubClassName =
+                    GlobalStubConstants.getPolicyPackageName()
+                            + "."
+                            + RMIUtil.getShortName(cls)
+                            + GlobalStubConstants.STUB_SUFFIX;
+            try {
+                Class<?> stubClass = Class.forName(policyStubClassName, true, cls.getClassLoader());
+                // Dispatcher casts the target to the stub's superclass. Do not use it for
+                // subclasses of the policy, as their own methods are unknown to it.
+                if (stubClass.getSuperclass() == cls) {
+                    dispatcher = getDeclaredDispatcher(stubClass);
+                }
+            } catch (ClassNotFoundException e) {
+                logger.log(Level.FINE, "No policy stub found for " + cls.getName(), e);
+            }
+        }
+
+        return dispatcher != null ? dispatcher : NONE;
+    }
+
+    private static MethodDispatcher getDeclaredDispatcher(Class<?> cls) {
+        try {
+            Field field = cls.getDeclaredField(DISPATCHER_FIELD);
+            if (!Modifier.isStatic(field.getModifiers())) {
+                return null;
+            }
+            field.setAccessible(true);
+            return (MethodDispatcher) field.get(null);
+        } catch (NoSuchFieldException e) {
+            return null;
+        } catch (IllegalAccessException e) {
+            logger.log(Level.WARNING, "Failed to access method dispatcher of " + cls.getName(), e);
+            return null;
+        }
+    }
+}
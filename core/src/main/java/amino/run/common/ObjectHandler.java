@@ -2,9 +2,11 @@ package amino.run.common;
 
 import amino.run.graal.io.*;
 import java.io.*;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.Hashtable;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.logging.Logger;
 import org.graalvm.polyglot.*;
 
@@ -27,23 +29,40 @@ public class ObjectHandler implements Serializable {
 
     /**
      * Table of strings of method names and function pointers to the actual methods For invoking
-     * RPCs on the object. Constructed at construction time to reduce overhead from reflection.
+     * RPCs on the object. Only used for methods which are not known to the {@link #dispatcher}.
+     * Constructed lazily on the first such call, and read only afterwards.
      */
-    private Hashtable<String, Method> methods;
+    private volatile Map<String, Method> methods;
+
+    /**
+     * Precompiled dispatch table generated by the stub compiler. Null if the object's class does
+     * not have one, in which case all methods are invoked through reflection.
+     */
+    private MethodDispatcher dispatcher;
 
     protected Class<?> getClass(Object obj) {
         return obj.getClass();
     }
 
     private void fillMethodTable(Object obj) {
-        Class<?> cl = getClass(obj);
-        this.methods = new Hashtable<String, Method>();
-        // Grab the methods of the class
-        Method[] methods = cl.getMethods();
-        for (int i = 0; i < methods.length; i++) {
-            if (this.methods.get(methods[i].toGenericString()) == null)
-                this.methods.put(methods[i].toGenericString(), methods[i]);
+        this.methods = null;
+        this.dispatcher = isGraalObject(obj) ? null : MethodDispatcher.forClass(obj.getClass());
+    }
+
+    private Map<String, Method> getMethodTable() {
+        Map<String, Method> table = this.methods;
+        if (table == null) {
+            Class<?> cl = getClass(object);
+            table = new HashMap<String, Method>();
+            // Grab the methods of the class
+            Method[] methods = cl.getMethods();
+            for (int i = 0; i < methods.length; i++) {
+                if (table.get(methods[i].toGenericString()) == null)
+                    table.put(methods[i].toGenericString(), methods[i]);
+            }
+            this.methods = table;
         }
+        return table;
     }
 
     public boolean isGraalObject() {
@@ -76,6 +95,17 @@ public class ObjectHandler implements Serializable {
      * @return the return value from the method
      */
     public Object invoke(String method, ArrayList<Object> params) throws Exception {
+        if (dispatcher != null) {
+            int methodId = dispatcher.getMethodId(method);
+            if (methodId >= 0) {
+                try {
+                    return dispatcher.invoke(object, methodId, params);
+                } catch (Throwable e) {
+                    // Wrap the same way as Method.invoke does, callers unwrap it.
+                    throw new InvocationTargetException(e);
+                }
+            }
+        }
 
         Object[] p = params.toArray();
         if (isGraalObject()) {
@@ -96,6 +126,7 @@ public class ObjectHandler implements Serializable {
             // amino.run.common.VarargsFunctionReflectionTest
             p = new Object[] {inParams.toArray()};
         }
+        Map<String, Method> methods = getMethodTable();
         Method m = methods.get(method);
 
         if (m == null) {
@@ -112,6 +143,7 @@ public class ObjectHandler implements Serializable {
 
     public void setObject(Serializable object) {
         this.object = object;
+        fillMethodTable(object);
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
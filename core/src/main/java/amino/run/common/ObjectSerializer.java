@@ -0,0 +1,317 @@
+package amino.run.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamConstants;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Java serialization with reusable buffers and object streams, so that serializing an object does
+ * not allocate more than its result. Every thread has its own growable buffer, {@link
+ * ObjectOutputStream} and {@link ObjectInputStream}:
+ *
+ * <ul>
+ *   <li>The streams are created once, and reset between objects instead of being recreated, so
+ *       that the stream header is written and read once per thread. Serialized bytes are the
+ *       header followed by the object, i.e. exactly what a new {@link ObjectOutputStream} writes.
+ *   <li>{@link #deepCopy} reads the copy straight from the buffer it was written to.
+ *   <li>{@link #digest} hashes the buffer instead of copying it.
+ * </ul>
+ *
+ * <p>Handle tables of both streams are cleared after every object, so that no object is retained
+ * by a thread after a call returns. Buffers larger than {@link #MAX_RETAINED_BYTES} are dropped
+ * after use. Calls made while the streams of the thread are in use, e.g. from the {@code
+ * writeObject} method of an object being serialized, and calls after a stream failed, use new
+ * streams.
+ */
+public final class ObjectSerializer {
+    /** Largest buffer kept for reuse by a thread */
+    static final int MAX_RETAINED_BYTES = 1 << 20;
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final byte[] STREAM_HEADER =
+            new byte[] {
+                (byte) (ObjectStreamConstants.STREAM_MAGIC >>> 8),
+                (byte) ObjectStreamConstants.STREAM_MAGIC,
+                (byte) (ObjectStreamConstants.STREAM_VERSION >>> 8),
+                (byte) ObjectStreamConstants.STREAM_VERSION
+            };
+    /** Clears the handle table of the input stream, by reading a null object after a reset */
+    private static final byte[] RELEASE =
+            new byte[] {ObjectStreamConstants.TC_RESET, ObjectStreamConstants.TC_NULL};
+
+    private static final ThreadLocal<ObjectSerializer> serializers =
+            new ThreadLocal<ObjectSerializer>() {
+                @Override
+                protected ObjectSerializer initialValue() {
+                    return new ObjectSerializer();
+                }
+            };
+
+    private final Buffer buffer = new Buffer();
+    private final Feed feed = new Feed();
+    private ObjectOutputStream out;
+    private ObjectInputStream in;
+    private boolean inUse;
+
+    private ObjectSerializer() {}
+
+    /**
+     * Serializes an object
+     *
+     * @param object object to serialize
+     * @return serialized object, as written by a new {@link ObjectOutputStream}
+     * @throws IOException if the object cannot be serialized
+     */
+    public static byte[] toBytes(Object object) throws IOException {
+        ObjectSerializer s = acquire();
+        boolean ok = false;
+        try {
+            s.write(object);
+            byte[] bytes = new byte[STREAM_HEADER.length + s.buffer.size()];
+            System.arraycopy(STREAM_HEADER, 0, bytes, 0, STREAM_HEADER.length);
+            System.arraycopy(
+                    s.buffer.array(), 0, bytes, STREAM_HEADER.length, s.buffer.size());
+            s.releaseOutput();
+            ok = true;
+            return bytes;
+        } finally {
+            release(s, ok);
+        }
+    }
+
+    /**
+     * Deserializes an object
+     *
+     * @param bytes serialized object
+     * @return deserialized object
+     * @throws IOException if the bytes are not a serialized object
+     * @throws ClassNotFoundException if the class of a serialized object is not found
+     */
+    public static Object toObject(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (!hasStreamHeader(bytes)) {
+            /* Let a new stream report what is wrong */
+            return new ObjectInputStream(new ByteArrayInputStream(bytes)).readObject();
+        }
+        ObjectSerializer s = acquire();
+        boolean ok = false;
+        try {
+            Object object =
+                    s.read(bytes, STREAM_HEADER.length, bytes.length - STREAM_HEADER.length);
+            s.releaseInput();
+            ok = true;
+            return object;
+        } finally {
+            release(s, ok);
+        }
+    }
+
+    /**
+     * Copies an object by serializing and deserializing it, without copying the serialized bytes
+     *
+     * @param object object to copy
+     * @return deep copy of the object
+     * @throws IOException if the object cannot be serialized
+     * @throws ClassNotFoundException if the class of a serialized object is not found
+     */
+    public static Object deepCopy(Object object) throws IOException, ClassNotFoundException {
+        ObjectSerializer s = acquire();
+        boolean ok = false;
+        try {
+            s.write(object);
+            Object copy = s.read(s.buffer.array(), 0, s.buffer.size());
+            s.releaseOutput();
+            s.releaseInput();
+            ok = true;
+            return copy;
+        } finally {
+            release(s, ok);
+        }
+    }
+
+    /**
+     * Computes the digest of the serialized form of an object, as written by {@link #toBytes}
+     *
+     * @param object object to digest
+     * @param digest digest to update. Its state is reset first.
+     * @return digest of the serialized object
+     * @throws IOException if the object cannot be serialized
+     */
+    public static byte[] digest(Object object, MessageDigest digest) throws IOException {
+        ObjectSerializer s = acquire();
+        boolean ok = false;
+        try {
+            s.write(object);
+            digest.reset();
+            digest.update(STREAM_HEADER);
+            digest.update(s.buffer.array(), 0, s.buffer.size());
+            s.releaseOutput();
+            ok = true;
+            return digest.digest();
+        } finally {
+            release(s, ok);
+        }
+    }
+
+    private static boolean hasStreamHeader(byte[] bytes) {
+        if (bytes.length < STREAM_HEADER.length) {
+            return false;
+        }
+        for (int i = 0; i < STREAM_HEADER.length; i++) {
+            if (bytes[i] != STREAM_HEADER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static ObjectSerializer acquire() {
+        ObjectSerializer s = serializers.get();
+        if (s.inUse) {
+            /* Nested call, e.g. from writeObject of an object being serialized */
+            s = new ObjectSerializer();
+        }
+        s.inUse = true;
+        return s;
+    }
+
+    private static void release(ObjectSerializer s, boolean ok) {
+        s.inUse = false;
+        if (!ok) {
+            /* Streams may be left in the middle of an object */
+            if (serializers.get() == s) {
+                serializers.remove();
+            }
+            return;
+        }
+        s.buffer.trim();
+    }
+
+    private void write(Object object) throws IOException {
+        if (out == null) {
+            out = new ObjectOutputStream(buffer);
+            /* The stream header is added to the results */
+            buffer.reset();
+        }
+        out.writeObject(object);
+        out.flush();
+    }
+
+    private Object read(byte[] bytes, int offset, int length)
+            throws IOException, ClassNotFoundException {
+        if (in == null) {
+            feed.set(STREAM_HEADER, 0, STREAM_HEADER.length);
+            in = new ObjectInputStream(feed);
+        }
+        feed.set(bytes, offset, length);
+        return in.readObject();
+    }
+
+    /** Clears the buffer and the handle table of the output stream */
+    private void releaseOutput() throws IOException {
+        out.reset();
+        out.flush();
+        buffer.reset();
+    }
+
+    /** Clears the handle table of the input stream */
+    private void releaseInput() throws IOException, ClassNotFoundException {
+        feed.set(RELEASE, 0, RELEASE.length);
+        in.readObject();
+        feed.set(null, 0, 0);
+    }
+
+    /** Growable byte array output stream, exposing its array */
+    static final class Buffer extends OutputStream {
+        private byte[] bytes = new byte[INITIAL_CAPACITY];
+        private int size;
+
+        @Override
+        public void write(int b) {
+            ensureCapacity(size + 1);
+            bytes[size++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            ensureCapacity(size + len);
+            System.arraycopy(b, off, bytes, size, len);
+            size += len;
+        }
+
+        private void ensureCapacity(int capacity) {
+            if (capacity < 0) {
+                throw new OutOfMemoryError("Serialized object too large");
+            }
+            if (capacity > bytes.length) {
+                int newCapacity = bytes.length << 1;
+                if (newCapacity < capacity) {
+                    newCapacity = capacity;
+                }
+                bytes = Arrays.copyOf(bytes, newCapacity < 0 ? Integer.MAX_VALUE : newCapacity);
+            }
+        }
+
+        byte[] array() {
+            return bytes;
+        }
+
+        int size() {
+            return size;
+        }
+
+        void reset() {
+            size = 0;
+        }
+
+        /** Drops the array if it grew too large to keep around */
+        void trim() {
+            if (bytes.length > MAX_RETAINED_BYTES) {
+                bytes = new byte[INITIAL_CAPACITY];
+                size = 0;
+            }
+        }
+    }
+
+    /** Input stream reading the byte array it is currently set to */
+    private static final class Feed extends InputStream {
+        private byte[] bytes;
+        private int pos;
+        private int end;
+
+        void set(byte[] bytes, int offset, int length) {
+            this.bytes = bytes;
+            pos = offset;
+            end = offset + length;
+        }
+
+        @Override
+        public int read() {
+            return pos < end ? bytes[pos++] & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos >= end) {
+                return -1;
+            }
+            int n = Math.min(len, end - pos);
+            System.arraycopy(bytes, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+
+        @Override
+        public int available() {
+            return end - pos;
+        }
+    }
+}
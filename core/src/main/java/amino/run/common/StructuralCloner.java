@@ -0,0 +1,488 @@
+package amino.run.common;
+
+import amino.run.runtime.annotations.Immutable;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.net.Inet4Address;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Hashtable;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deep copies object graphs by walking them, instead of serializing and deserializing them. The
+ * copy is the object graph Java serialization would produce:
+ *
+ * <ul>
+ *   <li>Identity and cycles are preserved.
+ *   <li>Objects are instantiated like serialization does, by calling the no-arg constructor of the
+ *       first non-serializable superclass. Non-transient fields of serializable classes are
+ *       copied, transient ones keep their default values.
+ *   <li>Primitive arrays are copied with {@link System#arraycopy}.
+ *   <li>Common collections, whose serialized form is custom, are copied through their API.
+ * </ul>
+ *
+ * <p>Instances of immutable JDK types, e.g. {@link String} and boxed primitives, enums and classes
+ * annotated with {@link Immutable} are shared with the original rather than copied.
+ *
+ * <p>Graphs holding an object of a class with a custom serialized form, i.e. a class defining
+ * {@code writeObject}, {@code readObject}, {@code writeReplace}, {@code readResolve} or {@code
+ * serialPersistentFields}, or implementing {@link Externalizable}, are copied by serialization as
+ * a whole, as are graphs holding objects which are not serializable. Fields of every class are
+ * looked up once and cached.
+ */
+public final class StructuralCloner {
+    private static final Logger logger = Logger.getLogger(StructuralCloner.class.getName());
+
+    private static final Set<Class<?>> IMMUTABLE_CLASSES =
+            new HashSet<Class<?>>(
+                    Arrays.<Class<?>>asList(
+                            String.class,
+                            Boolean.class,
+                            Byte.class,
+                            Character.class,
+                            Short.class,
+                            Integer.class,
+                            Long.class,
+                            Float.class,
+                            Double.class,
+                            BigInteger.class,
+                            BigDecimal.class,
+                            UUID.class,
+                            URI.class,
+                            InetSocketAddress.class,
+                            Inet4Address.class,
+                            Inet6Address.class,
+                            Class.class));
+
+    /** Collections copied by adding the copies of their elements to a new instance */
+    private static final Set<Class<?>> COLLECTION_CLASSES =
+            new HashSet<Class<?>>(
+                    Arrays.<Class<?>>asList(
+                            ArrayList.class,
+                            LinkedList.class,
+                            ArrayDeque.class,
+                            Vector.class,
+                            HashSet.class,
+                            LinkedHashSet.class));
+
+    /** Maps copied by putting the copies of their entries into a new instance */
+    private static final Set<Class<?>> MAP_CLASSES =
+            new HashSet<Class<?>>(
+                    Arrays.<Class<?>>asList(
+                            HashMap.class, Hashtable.class, ConcurrentHashMap.class));
+
+    private static final ConcurrentHashMap<Class<?>, ClassInfo> classes =
+            new ConcurrentHashMap<Class<?>, ClassInfo>();
+
+    /** Marks objects whose copy is being created, to detect cycles through them */
+    private static final Object PENDING = new Object();
+
+    private static final Object reflectionFactory;
+    private static final Method newConstructorForSerialization;
+
+    static {
+        Object factory = null;
+        Method method = null;
+        try {
+            Class<?> cls = Class.forName("sun.reflect.ReflectionFactory");
+            factory = cls.getMethod("getReflectionFactory").invoke(null);
+            method =
+                    cls.getMethod(
+                            "newConstructorForSerialization", Class.class, Constructor.class);
+        } catch (Exception e) {
+            logger.log(
+                    Level.INFO,
+                    "Serialization constructors are not available, objects are copied by serialization",
+                    e);
+        }
+        reflectionFactory = factory;
+        newConstructorForSerialization = method;
+    }
+
+    private enum Kind {
+        IMMUTABLE,
+        PRIMITIVE_ARRAY,
+        OBJECT_ARRAY,
+        COLLECTION,
+        MAP,
+        TREE_SET,
+        TREE_MAP,
+        OBJECT_HANDLER,
+        OBJECT,
+        /** Copied by serialization */
+        SERIALIZE
+    }
+
+    /** Thrown when the graph has to be copied by serialization */
+    private static final class Fallback extends Exception {
+        private Fallback() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final Fallback FALLBACK = new Fallback();
+
+    private final IdentityHashMap<Object, Object> copies = new IdentityHashMap<Object, Object>();
+
+    private StructuralCloner() {}
+
+    /**
+     * Deep copies an object graph
+     *
+     * @param object object to copy
+     * @return copy of the object, as deserializing the serialized object would return
+     * @throws IOException if the graph has to be serialized, and cannot be
+     * @throws ClassNotFoundException if the graph has to be serialized, and the class of a
+     *     serialized object is not found
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T deepCopy(T object) throws IOException, ClassNotFoundException {
+        try {
+            return (T) new StructuralCloner().copy(object);
+        } catch (Fallback e) {
+            return (T) ObjectSerializer.deepCopy(object);
+        }
+    }
+
+    /**
+     * @param cls class to check
+     * @return whether instances of the class are copied by walking them, rather than shared or
+     *     serialized
+     */
+    static boolean isCopiedStructurally(Class<?> cls) {
+        Kind kind = info(cls).kind;
+        return kind != Kind.IMMUTABLE && kind != Kind.SERIALIZE;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Object copy(Object object) throws Fallback {
+        if (object == null) {
+            return null;
+        }
+        Object copy = copies.get(object);
+        if (copy != null) {
+            if (copy == PENDING) {
+                throw FALLBACK;
+            }
+            return copy;
+        }
+
+        ClassInfo info = info(object.getClass());
+        switch (info.kind) {
+            case IMMUTABLE:
+                return object;
+            case PRIMITIVE_ARRAY:
+                {
+                    int length = Array.getLength(object);
+                    copy = Array.newInstance(info.cls.getComponentType(), length);
+                    System.arraycopy(object, 0, copy, 0, length);
+                    copies.put(object, copy);
+                    return copy;
+                }
+            case OBJECT_ARRAY:
+                {
+                    Object[] array = (Object[]) object;
+                    Object[] arrayCopy =
+                            (Object[]) Array.newInstance(info.cls.getComponentType(), array.length);
+                    copies.put(object, arrayCopy);
+                    for (int i = 0; i < array.length; i++) {
+                        arrayCopy[i] = copy(array[i]);
+                    }
+                    return arrayCopy;
+                }
+            case COLLECTION:
+                {
+                    Collection<Object> collection = (Collection<Object>) info.newInstance();
+                    copies.put(object, collection);
+                    for (Object element : (Collection<Object>) object) {
+                        collection.add(copy(element));
+                    }
+                    return collection;
+                }
+            case TREE_SET:
+                {
+                    copies.put(object, PENDING);
+                    TreeSet<Object> set = (TreeSet<Object>) object;
+                    TreeSet<Object> setCopy =
+                            new TreeSet<Object>((Comparator<Object>) copy(set.comparator()));
+                    copies.put(object, setCopy);
+                    for (Object element : set) {
+                        setCopy.add(copy(element));
+                    }
+                    return setCopy;
+                }
+            case MAP:
+                {
+                    Map<Object, Object> map = (Map<Object, Object>) info.newInstance();
+                    copies.put(object, map);
+                    copyEntries((Map<Object, Object>) object, map);
+                    return map;
+                }
+            case TREE_MAP:
+                {
+                    copies.put(object, PENDING);
+                    TreeMap<Object, Object> map = (TreeMap<Object, Object>) object;
+                    Comparator<Object> comparator = (Comparator<Object>) copy(map.comparator());
+                    TreeMap<Object, Object> mapCopy = new TreeMap<Object, Object>(comparator);
+                    copies.put(object, mapCopy);
+                    copyEntries(map, mapCopy);
+                    return mapCopy;
+                }
+            case OBJECT_HANDLER:
+                {
+                    ObjectHandler handler = (ObjectHandler) object;
+                    if (handler.isGraalObject()) {
+                        throw FALLBACK;
+                    }
+                    copies.put(object, PENDING);
+                    Serializable appObjectCopy = (Serializable) copy(handler.getObject());
+                    ObjectHandler handlerCopy =
+                            info.cls == AppObject.class
+                                    ? new AppObject(appObjectCopy)
+                                    : new ObjectHandler(appObjectCopy);
+                    copies.put(object, handlerCopy);
+                    return handlerCopy;
+                }
+            case OBJECT:
+                copy = info.newInstance();
+                copies.put(object, copy);
+                info.copyFields(object, copy, this);
+                return copy;
+            default:
+                throw FALLBACK;
+        }
+    }
+
+    private void copyEntries(Map<Object, Object> map, Map<Object, Object> copy) throws Fallback {
+        for (Map.Entry<Object, Object> entry : map.entrySet()) {
+            copy.put(copy(entry.getKey()), copy(entry.getValue()));
+        }
+    }
+
+    private static ClassInfo info(Class<?> cls) {
+        ClassInfo info = classes.get(cls);
+        if (info == null) {
+            info = new ClassInfo(cls);
+            ClassInfo existing = classes.putIfAbsent(cls, info);
+            if (existing != null) {
+                info = existing;
+            }
+        }
+        return info;
+    }
+
+    /** How instances of a class are copied */
+    private static final class ClassInfo {
+        private final Class<?> cls;
+        private final Kind kind;
+        /** Constructor creating instances, for collections and objects */
+        private final Constructor<?> constructor;
+        /** Serialized fields of the class and its superclasses, for objects */
+        private final Field[] fields;
+
+        private ClassInfo(Class<?> cls) {
+            this.cls = cls;
+            Kind k;
+            Constructor<?> c = null;
+            Field[] f = null;
+            try {
+                k = kind(cls);
+                if (k == Kind.COLLECTION || k == Kind.MAP) {
+                    c = cls.getConstructor();
+                } else if (k == Kind.OBJECT) {
+                    c = serializationConstructor(cls);
+                    f = serializedFields(cls);
+                }
+            } catch (Exception e) {
+                /* E.g. fields of the class are not accessible */
+                logger.log(Level.FINE, cls + " is copied by serialization", e);
+                k = Kind.SERIALIZE;
+                c = null;
+                f = null;
+            }
+            kind = k;
+            constructor = c;
+            fields = f;
+        }
+
+        private static Kind kind(Class<?> cls) throws Exception {
+            if (IMMUTABLE_CLASSES.contains(cls)
+                    || Enum.class.isAssignableFrom(cls)
+                    || cls.isAnnotationPresent(Immutable.class)) {
+                return Kind.IMMUTABLE;
+            }
+            if (cls.isArray()) {
+                return cls.getComponentType().isPrimitive()
+                        ? Kind.PRIMITIVE_ARRAY
+                        : Kind.OBJECT_ARRAY;
+            }
+            if (COLLECTION_CLASSES.contains(cls)) {
+                return Kind.COLLECTION;
+            }
+            if (MAP_CLASSES.contains(cls)) {
+                return Kind.MAP;
+            }
+            if (cls == TreeSet.class) {
+                return Kind.TREE_SET;
+            }
+            if (cls == TreeMap.class) {
+                return Kind.TREE_MAP;
+            }
+            if (cls == AppObject.class || cls == ObjectHandler.class) {
+                return Kind.OBJECT_HANDLER;
+            }
+            if (newConstructorForSerialization == null
+                    || !Serializable.class.isAssignableFrom(cls)
+                    || Externalizable.class.isAssignableFrom(cls)
+                    || Proxy.isProxyClass(cls)
+                    || cls.getName().startsWith("java.")) {
+                return Kind.SERIALIZE;
+            }
+            for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+                if (hasCustomSerialization(c)) {
+                    return Kind.SERIALIZE;
+                }
+            }
+            return Kind.OBJECT;
+        }
+
+        private static boolean hasCustomSerialization(Class<?> cls) {
+            for (Method method : cls.getDeclaredMethods()) {
+                String name = method.getName();
+                Class<?>[] params = method.getParameterTypes();
+                if ((name.equals("writeReplace") || name.equals("readResolve"))
+                        && params.length == 0) {
+                    return true;
+                }
+                if (Serializable.class.isAssignableFrom(cls)
+                        && !Modifier.isStatic(method.getModifiers())
+                        && ((name.equals("writeObject")
+                                        && params.length == 1
+                                        && params[0] == ObjectOutputStream.class)
+                                || (name.equals("readObject")
+                                        && params.length == 1
+                                        && params[0] == ObjectInputStream.class)
+                                || (name.equals("readObjectNoData") && params.length == 0))) {
+                    return true;
+                }
+            }
+            try {
+                cls.getDeclaredField("serialPersistentFields");
+                return true;
+            } catch (NoSuchFieldException e) {
+                return false;
+            }
+        }
+
+        /** @return constructor instantiating the class as deserialization does */
+        private static Constructor<?> serializationConstructor(Class<?> cls) throws Exception {
+            Class<?> base = cls;
+            while (Serializable.class.isAssignableFrom(base)) {
+                base = base.getSuperclass();
+            }
+            Constructor<?> baseConstructor = base.getDeclaredConstructor();
+            int modifiers = baseConstructor.getModifiers();
+            if (Modifier.isPrivate(modifiers)
+                    || (!Modifier.isPublic(modifiers)
+                            && !Modifier.isProtected(modifiers)
+                            && base.getPackage() != cls.getPackage())) {
+                /* Deserialization fails the same way */
+                throw new IllegalAccessException("No accessible constructor in " + base);
+            }
+            Constructor<?> constructor =
+                    (Constructor<?>)
+                            newConstructorForSerialization.invoke(
+                                    reflectionFactory, cls, baseConstructor);
+            constructor.setAccessible(true);
+            return constructor;
+        }
+
+        private static Field[] serializedFields(Class<?> cls) {
+            List<Field> fields = new ArrayList<Field>();
+            for (Class<?> c = cls;
+                    c != null && Serializable.class.isAssignableFrom(c);
+                    c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (!Modifier.isStatic(modifiers) && !Modifier.isTransient(modifiers)) {
+                        field.setAccessible(true);
+                        fields.add(field);
+                    }
+                }
+            }
+            return fields.toArray(new Field[fields.size()]);
+        }
+
+        private Object newInstance() throws Fallback {
+            try {
+                return constructor.newInstance();
+            } catch (Exception e) {
+                logger.log(Level.FINE, "Failed to instantiate " + cls, e);
+                throw FALLBACK;
+            }
+        }
+
+        private void copyFields(Object object, Object copy, StructuralCloner cloner)
+                throws Fallback {
+            try {
+                for (Field field : fields) {
+                    Class<?> type = field.getType();
+                    if (!type.isPrimitive()) {
+                        field.set(copy, cloner.copy(field.get(object)));
+                    } else if (type == int.class) {
+                        field.setInt(copy, field.getInt(object));
+                    } else if (type == long.class) {
+                        field.setLong(copy, field.getLong(object));
+                    } else if (type == boolean.class) {
+                        field.setBoolean(copy, field.getBoolean(object));
+                    } else if (type == double.class) {
+                        field.setDouble(copy, field.getDouble(object));
+                    } else if (type == float.class) {
+                        field.setFloat(copy, field.getFloat(object));
+                    } else if (type == byte.class) {
+                        field.setByte(copy, field.getByte(object));
+                    } else if (type == char.class) {
+                        field.setChar(copy, field.getChar(object));
+                    } else {
+                        field.setShort(copy, field.getShort(object));
+                    }
+                }
+            } catch (IllegalAccessException e) {
+                logger.log(Level.FINE, "Failed to copy fields of " + cls, e);
+                throw FALLBACK;
+            }
+        }
+    }
+}
@@ -6,14 +6,8 @@ import amino.run.app.DMSpec;
 import amino.run.app.Language;
 import amino.run.runtime.annotations.AnnotationConfig;
 import amino.run.runtime.annotations.Immutable;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.ObjectInput;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutput;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.InvocationTargetException;
@@ -23,6 +17,7 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.graalvm.polyglot.Context;
@@ -31,6 +26,10 @@ import org.graalvm.polyglot.Source;
 public class Utils {
     private static final Logger logger = Logger.getLogger(Utils.class.getName());
 
+    /** Whether methods are immutable, keyed by their generic method strings */
+    private static final ConcurrentHashMap<String, Boolean> immutableMethods =
+            new ConcurrentHashMap<String, Boolean>();
+
     private Utils() {} // // so that nobody can accidentally create a Utils object
 
     public static class ObjectCloner { // see
@@ -41,27 +40,14 @@ public class Utils {
 
         public static Serializable deepCopy(Serializable oldObj)
                 throws IOException, ClassNotFoundException {
-            ObjectOutputStream oos = null;
-            ObjectInputStream ois = null;
             try {
-                ByteArrayOutputStream bos = new ByteArrayOutputStream();
-                oos = new ObjectOutputStream(bos);
-                // serialize and pass the object
-                oos.writeObject(oldObj);
-                oos.flush();
-                ByteArrayInputStream bin = new ByteArrayInputStream(bos.toByteArray());
-                ois = new ObjectInputStream(bin);
-                // return the new object
-                return (Serializable) ois.readObject();
+                return (Serializable) ObjectSerializer.deepCopy(oldObj);
             } catch (IOException e) {
                 logger.log(Level.SEVERE, "Exception in ObjectCloner = ", e);
                 throw (e);
             } catch (ClassNotFoundException e) {
                 logger.log(Level.SEVERE, "Exception in ObjectCloner = ", e);
                 throw (e);
-            } finally {
-                oos.close();
-                ois.close();
             }
         }
     }
@@ -93,7 +79,7 @@ public class Utils {
     }
 
     /**
-     * Serialize object into bytes.
+     * Serialize object into bytes. Buffers and streams are reused, see {@link ObjectSerializer}.
      *
      * @param object the object to be serialized. The object must implement {@link
      *     java.io.Serializable}.
@@ -101,55 +87,11 @@ public class Utils {
      * @throws Exception
      */
     public static final byte[] toBytes(Object object) throws IOException {
-        ByteArrayOutputStream bos = new ByteArrayOutputStream();
-        ObjectOutput out = null;
-        try {
-            out = new ObjectOutputStream(bos);
-            out.writeObject(object);
-            out.flush();
-            return bos.toByteArray();
-        } finally {
-            if (bos != null) {
-                try {
-                    bos.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream bos", e);
-                }
-            }
-
-            if (out != null) {
-                try {
-                    out.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream bos", e);
-                }
-            }
-        }
+        return ObjectSerializer.toBytes(object);
     }
 
     public static Object toObject(byte[] bytes) throws IOException, ClassNotFoundException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(bytes);
-        ObjectInput in = null;
-        try {
-            in = new ObjectInputStream(bis);
-            Object object = in.readObject();
-            return object;
-        } finally {
-            if (bis != null) {
-                try {
-                    bis.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream bis", e);
-                }
-            }
-            if (in != null) {
-                try {
-                    in.close();
-                } catch (IOException e) {
-                    logger.log(Level.WARNING, "failed to close stream in", e);
-                }
-            }
-        }
+        return ObjectSerializer.toObject(bytes);
     }
 
     /**
@@ -192,6 +134,37 @@ public class Utils {
         return method.getDeclaredAnnotation(Immutable.class) != null;
     }
 
+    /**
+     * Determines if the given method of an app object is annotated as immutable. Results are
+     * cached, as this is checked on every RPC by some DMs.
+     *
+     * @param appObject app object the method is invoked on
+     * @param method generic string of the method, as passed to {@link AppObject#invoke}
+     * @return <code>true</code> if the method is annotated as immutable; <code>false</code>
+     *     otherwise, including for graal app objects.
+     */
+    public static boolean isImmutableMethod(AppObject appObject, String method) {
+        Boolean immutable = immutableMethods.get(method);
+        if (immutable == null) {
+            immutable = false;
+            if (!appObject.isGraalObject()) {
+                /* Stubs override the methods of the app class, which carry the annotations */
+                for (Class<?> c = appObject.getObject().getClass();
+                        c != null && !immutable;
+                        c = c.getSuperclass()) {
+                    for (Method m : c.getDeclaredMethods()) {
+                        if (m.toGenericString().equals(method)) {
+                            immutable = isImmutableMethod(m);
+                            break;
+                        }
+                    }
+                }
+            }
+            immutableMethods.put(method, immutable);
+        }
+        return immutable;
+    }
+
     /**
      * Returns the annotation of specified type from the given annotations
      *
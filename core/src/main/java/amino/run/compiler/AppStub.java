@@ -14,6 +14,8 @@ import org.apache.harmony.rmi.compiler.RmicUtil;
  * @author aaasz
  */
 public final class AppStub extends Stub {
+    /** Suffix of the asynchronous variants of app methods */
+    public static final String ASYNC_SUFFIX = "Async";
 
     public AppStub(Class<?> cls) throws ClassNotFoundException {
         super(cls);
@@ -159,6 +161,91 @@ public final class AppStub extends Stub {
         return buffer.toString();
     }
 
+    /**
+     * Returns the asynchronous variant of the method, named {@code <method>Async}. It invokes the
+     * method through {@link amino.run.policy.Policy.ClientPolicy#onRPCAsync} and returns a {@link
+     * java.util.concurrent.CompletableFuture} of the return value instead of blocking the caller.
+     * The future completes exceptionally with the exception thrown by the method. No variant is
+     * generated if the class already has a method with the same signature.
+     *
+     * @param m : Method for which the asynchronous variant is generated.
+     * @return Stub code of the asynchronous variant.
+     */
+    @Override
+    protected String getMethodVariants(MethodStub m) {
+        String asyncName = m.name + ASYNC_SUFFIX;
+        try {
+            stubClass.getMethod(asyncName, m.parameters);
+            return "";
+        } catch (NoSuchMethodException e) {
+            // No conflicting method
+        }
+
+        StringBuilder buffer = new StringBuilder(EOLN);
+        buffer.append(
+                indenter.indent()
+                        + "// Asynchronous variant of "
+                        + m.name
+                        + EOLN
+                        + indenter.indent()
+                        + "public java.util.concurrent.CompletableFuture<Object> "
+                        + asyncName
+                        + "(");
+        StringBuilder cListParams = new StringBuilder("(");
+        for (int i = 0; i < m.numParams; i++) {
+            buffer.append(
+                    ((i > 0) ? ", " : "")
+                            + "final "
+                            + m.paramClassNames[i]
+                            + ' '
+                            + m.paramNames[i]);
+            cListParams.append(((i > 0) ? ", " : "") + m.paramNames[i]);
+        }
+        cListParams.append(")");
+        buffer.append(") {" + EOLN);
+
+        // Direct invocation completes on the calling thread
+        buffer.append(indenter.tIncrease() + "if ($__directInvocation) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "return amino.run.common.Futures.complete(new java.util.concurrent.Callable<Object>() {"
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease(3)
+                        + "public Object call() throws java.lang.Exception {"
+                        + EOLN);
+        String call = stubName + ".super." + m.name + cListParams;
+        if (m.retType == void.class) {
+            buffer.append(indenter.tIncrease(4) + call + ";" + EOLN);
+            buffer.append(indenter.tIncrease(4) + "return null;" + EOLN);
+        } else {
+            buffer.append(indenter.tIncrease(4) + "return " + call + ";" + EOLN);
+        }
+        buffer.append(indenter.tIncrease(3) + "}" + EOLN);
+        buffer.append(indenter.tIncrease(2) + "});" + EOLN);
+        buffer.append(indenter.tIncrease() + "}" + EOLN);
+
+        buffer.append(
+                indenter.tIncrease()
+                        + "java.util.ArrayList<Object> $__params = new java.util.ArrayList<Object>();"
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "String $__method = \""
+                        + m.genericName
+                        + "\";"
+                        + EOLN);
+        for (int i = 0; i < m.numParams; i++) {
+            buffer.append(indenter.tIncrease() + "$__params.add(" + m.paramNames[i] + ");" + EOLN);
+        }
+        buffer.append(
+                indenter.tIncrease()
+                        + "return amino.run.common.Futures.unwrapAppException($__client.onRPCAsync($__method, $__params));"
+                        + EOLN);
+        buffer.append(indenter.indent() + "}" + EOLN);
+        return buffer.toString();
+    }
+
     /**
      * Returns the stub implementation code section source for the methods
      *
@@ -8,6 +8,8 @@ import java.util.TreeSet;
 import org.apache.harmony.rmi.compiler.RmicUtil;
 
 public class PolicyStub extends Stub {
+    /** DM method which completes asynchronously through the DM chain */
+    private static final String ASYNC_RPC_METHOD = "onRPCAsync";
 
     public PolicyStub(Class<?> cls) {
         super(cls);
@@ -198,7 +200,7 @@ public class PolicyStub extends Stub {
         /* Override hashCode */
         buffer.append(indenter.indent() + "@Override" + EOLN);
         buffer.append(indenter.indent() + "public int hashCode() { " + EOLN);
-        buffer.append(indenter.tIncrease() + "return $__oid.getID();" + EOLN);
+        buffer.append(indenter.tIncrease() + "return $__oid.hashCode();" + EOLN);
         buffer.append(indenter.indent() + "}" + EOLN);
 
         return buffer.toString();
@@ -211,6 +213,10 @@ public class PolicyStub extends Stub {
      */
     @Override
     public String getMethodContent(MethodStub m, boolean isDMMethod) {
+        if (m.name.equals(ASYNC_RPC_METHOD)) {
+            return getAsyncRPCContent(m);
+        }
+
         StringBuilder buffer = new StringBuilder("");
 
         // Construct list of parameters and String holding the method name
@@ -307,6 +313,35 @@ public class PolicyStub extends Stub {
         }
     }
 
+    /**
+     * Returns the stub implementation of onRPCAsync. It sends the same kernel RPC as onRPC, but
+     * returns a future instead of waiting for the result. The future is not serializable, hence
+     * onRPCAsync itself is never invoked remotely.
+     *
+     * @param m onRPCAsync method stub
+     * @return Stub implementation code for onRPCAsync.
+     */
+    private String getAsyncRPCContent(MethodStub m) {
+        MethodStub onRPC = findMethod("onRPC", m.parameters);
+        StringBuilder buffer = new StringBuilder("");
+        buffer.append(
+                indenter.indent()
+                        + "java.util.ArrayList<Object> $__params = new java.util.ArrayList<Object>();"
+                        + EOLN);
+        buffer.append(
+                indenter.indent()
+                        + "String $__method = \""
+                        + onRPC.genericName
+                        + "\";"
+                        + EOLN);
+        for (int i = 0; i < m.numParams; i++) {
+            buffer.append(indenter.indent() + "$__params.add(" + m.paramNames[i] + ");" + EOLN);
+        }
+        buffer.append(
+                indenter.indent() + "return $__makeKernelRPCAsync($__method, $__params);" + EOLN);
+        return buffer.toString();
+    }
+
     private void addServerPolicyContent(StringBuilder buffer) {
         /* Implementation for makeRPC */
         buffer.append(
@@ -334,5 +369,26 @@ public class PolicyStub extends Stub {
         buffer.append(indenter.tIncrease(2) + "throw new java.rmi.RemoteException();" + EOLN);
         buffer.append(indenter.tIncrease() + "}" + EOLN);
         buffer.append(indenter.indent() + "}" + EOLN + EOLN);
+
+        /* Implementation for makeRPCAsync */
+        buffer.append(
+                indenter.indent()
+                        + "public java.util.concurrent.CompletableFuture<Object> $__makeKernelRPCAsync(java.lang.String method, java.util.ArrayList<Object> params) {"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "if ($__nextClientPolicy != null) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "return $__nextClientPolicy.onRPCAsync(method, params);"
+                        + EOLN);
+        buffer.append(indenter.tIncrease() + "}" + EOLN + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "amino.run.kernel.common.KernelRPC rpc = new amino.run.kernel.common.KernelRPC($__oid, method, params);"
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease()
+                        + "return amino.run.kernel.common.GlobalKernelReferences.nodeServer.getKernelClient().makeKernelRPCAsync(this, rpc);"
+                        + EOLN);
+        buffer.append(indenter.indent() + "}" + EOLN + EOLN);
     }
 }
@@ -1,5 +1,6 @@
 package amino.run.compiler;
 
+import amino.run.common.MethodDispatcher;
 import java.lang.reflect.Method;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -49,6 +50,12 @@ public abstract class Stub implements RmicConstants {
         String shortClassName = RMIUtil.getShortName(cls);
         stubName = shortClassName + stubSuffix;
         methods = getMethods();
+
+        /* Assign method IDs in the order methods are generated */
+        int methodId = 0;
+        for (MethodStub m : methods) {
+            m.methodId = methodId++;
+        }
     }
 
     /**
@@ -68,6 +75,8 @@ public abstract class Stub implements RmicConstants {
                 + indenter.hIncrease()
                 + getStubFields()
                 + EOLN
+                + getMethodDispatcher()
+                + EOLN
                 + getStubConstructors()
                 + EOLN
                 + getStubAdditionalMethods()
@@ -110,10 +119,109 @@ public abstract class Stub implements RmicConstants {
             } else {
                 buffer.append(EOLN + m.getStubImpl(true));
             }
+            buffer.append(getMethodVariants(m));
         }
         return buffer.toString();
     }
 
+    /**
+     * Finds the stub method with the given name and parameter types.
+     *
+     * @param name method name
+     * @param parameters method parameter types
+     * @return method stub, or null if the stub does not have such a method
+     */
+    protected MethodStub findMethod(String name, Class<?>... parameters) {
+        for (MethodStub m : methods) {
+            if (m.name.equals(name) && Arrays.equals(m.parameters, parameters)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns additional methods generated for a stub method, e.g. asynchronous variants of it.
+     * Generates none by default.
+     *
+     * @param m stub method
+     * @return Code of the additional methods.
+     */
+    protected String getMethodVariants(MethodStub m) {
+        return "";
+    }
+
+    /**
+     * Returns the precompiled method dispatcher for the stub. It is a static {@link
+     * amino.run.common.MethodDispatcher} holding the generic names of all stub methods, indexed by
+     * method ID, and a switch which invokes the method with a given ID on the target object.
+     *
+     * @return Method dispatcher field declaration.
+     */
+    private String getMethodDispatcher() {
+        StringBuilder buffer = new StringBuilder();
+        buffer.append(
+                indenter.indent()
+                        + "public static final amino.run.common.MethodDispatcher "
+                        + MethodDispatcher.DISPATCHER_FIELD
+                        + " ="
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease(2)
+                        + "new amino.run.common.MethodDispatcher(new java.lang.String[] {"
+                        + EOLN);
+        for (Iterator<MethodStub> i = methods.iterator(); i.hasNext(); ) {
+            MethodStub m = i.next();
+            buffer.append(
+                    indenter.tIncrease(3)
+                            + '"'
+                            + m.genericName
+                            + '"'
+                            + (i.hasNext() ? "," : "")
+                            + EOLN);
+        }
+        buffer.append(indenter.tIncrease(2) + "}) {" + EOLN);
+        buffer.append(
+                indenter.tIncrease(3)
+                        + "public java.lang.Object invoke(java.lang.Object $__target, int $__methodId, java.util.ArrayList<Object> $__params) throws java.lang.Throwable {"
+                        + EOLN);
+        buffer.append(
+                indenter.tIncrease(4)
+                        + className
+                        + " $__object = ("
+                        + className
+                        + ") $__target;"
+                        + EOLN);
+        buffer.append(indenter.tIncrease(4) + "switch ($__methodId) {" + EOLN);
+        for (MethodStub m : methods) {
+            StringBuilder call = new StringBuilder("$__object." + m.name + "(");
+            for (int i = 0; i < m.numParams; i++) {
+                call.append(
+                        ((i > 0) ? ", " : "")
+                                + RmicUtil.getReturnObjectString(
+                                        m.parameters[i], "$__params.get(" + i + ")"));
+            }
+            call.append(")");
+
+            buffer.append(indenter.tIncrease(5) + "case " + m.methodId + ":" + EOLN);
+            if (m.retType == void.class) {
+                buffer.append(indenter.tIncrease(6) + call + ";" + EOLN);
+                buffer.append(indenter.tIncrease(6) + "return null;" + EOLN);
+            } else {
+                buffer.append(indenter.tIncrease(6) + "return " + call + ";" + EOLN);
+            }
+        }
+        buffer.append(indenter.tIncrease(5) + "default:" + EOLN);
+        buffer.append(
+                indenter.tIncrease(6)
+                        + "throw new java.lang.NoSuchMethodException(java.lang.String.valueOf($__methodId));"
+                        + EOLN);
+        buffer.append(indenter.tIncrease(4) + "}" + EOLN);
+        buffer.append(indenter.tIncrease(3) + "}" + EOLN);
+        buffer.append(indenter.tIncrease(2) + "};" + EOLN);
+        return buffer.toString();
+    }
+
     public abstract TreeSet<MethodStub> getMethods();
 
     public abstract String getPackageStatement();
@@ -172,6 +280,9 @@ public abstract class Stub implements RmicConstants {
         /** The generic name of the method */
         final String genericName;
 
+        /** The ID of the method in the stub's method dispatcher */
+        int methodId;
+
         public String getGenericName() {
             return genericName;
         }
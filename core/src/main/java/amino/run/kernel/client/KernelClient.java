@@ -1,24 +1,41 @@
 package amino.run.kernel.client;
 
+import amino.run.common.Futures;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.kernel.common.KernelOID;
 import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectMovedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelObjectStub;
 import amino.run.kernel.common.KernelObjectStubNotCreatedException;
 import amino.run.kernel.common.KernelRPC;
 import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.common.codec.CodecSession;
+import amino.run.kernel.common.codec.KernelRPCCodec;
+import amino.run.kernel.common.codec.KernelRPCCodecRegistry;
+import amino.run.kernel.common.codec.UnknownMethodReferenceException;
+import amino.run.kernel.metrics.MetricsRegistry;
+import amino.run.kernel.metrics.RPCMetrics;
 import amino.run.kernel.server.KernelObject;
 import amino.run.kernel.server.KernelServer;
+import amino.run.kernel.tracing.Span;
+import amino.run.kernel.tracing.Tracer;
+import amino.run.kernel.transport.NioKernelServer;
+import amino.run.kernel.transport.NioTransportClient;
 import amino.run.oms.OMSServer;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.Hashtable;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -32,8 +49,18 @@ public class KernelClient {
     private OMSServer oms;
     /** List of hostnames matched to kernel server stubs */
     private Hashtable<InetSocketAddress, KernelServer> servers;
+    /** Client for kernel servers serving kernel RPCs through the NIO transport */
+    private NioTransportClient transportClient;
+    /** Locations of kernel objects learned from the OMS and from redirects */
+    private final KernelObjectLocationCache locations = new KernelObjectLocationCache();
+    /** Codec sessions negotiated with remote kernel servers */
+    private ConcurrentHashMap<InetSocketAddress, CodecSession> codecSessions;
 
     private static final Logger logger = Logger.getLogger(KernelClient.class.getName());
+    /** Attempts to resend an RPC after its kernel object was not found */
+    private static final int MAX_LOOKUP_RETRIES = 5;
+    /** Wait before resending an RPC to the location it was not found at, doubled every time */
+    private static final long LOOKUP_BACKOFF_MS = 100;
 
     /**
      * Add a host to the list of hosts that we've contacted
@@ -44,6 +71,7 @@ public class KernelClient {
         try {
             Registry registry = LocateRegistry.getRegistry(host.getHostName(), host.getPort());
             KernelServer server = (KernelServer) registry.lookup("io.amino.run.kernelserver");
+            server = selectTransport(host, server);
             servers.put(host, server);
             return server;
         } catch (Exception e) {
@@ -52,6 +80,40 @@ public class KernelClient {
         return null;
     }
 
+    /**
+     * Use the NIO transport for kernel RPCs if the kernel server offers it, RMI otherwise.
+     *
+     * @param host address of the kernel server
+     * @param server RMI stub of the kernel server
+     * @return kernel server to make kernel RPCs on
+     */
+    private KernelServer selectTransport(InetSocketAddress host, KernelServer server) {
+        InetSocketAddress transportAddress;
+        try {
+            transportAddress = server.getTransportAddress();
+        } catch (RemoteException e) {
+            logger.log(Level.FINE, "Could not get transport address of " + host, e);
+            return server;
+        }
+        if (transportAddress == null) {
+            return server;
+        }
+
+        try {
+            return new NioKernelServer(server, getTransportClient(), transportAddress);
+        } catch (IOException e) {
+            logger.warning("Could not start NIO transport. Using RMI. " + e.toString());
+            return server;
+        }
+    }
+
+    private synchronized NioTransportClient getTransportClient() throws IOException {
+        if (transportClient == null) {
+            transportClient = new NioTransportClient();
+        }
+        return transportClient;
+    }
+
     private KernelServer getServer(InetSocketAddress host) {
         KernelServer server = servers.get(host);
         if (server == null) {
@@ -63,55 +125,211 @@ public class KernelClient {
     public KernelClient(OMSServer oms) {
         this.oms = oms;
         servers = new Hashtable<InetSocketAddress, KernelServer>();
+        codecSessions = new ConcurrentHashMap<InetSocketAddress, CodecSession>();
     }
 
-    private Object tryMakeKernelRPC(KernelServer server, KernelRPC rpc)
-            throws KernelObjectNotFoundException, Exception {
-        Object ret = null;
+    /**
+     * Get the codec session for the given kernel server, negotiating the codec on first use. Falls
+     * back to Java serialization if the server does not take part in the negotiation.
+     *
+     * @param host address of the kernel server
+     * @param server kernel server stub
+     * @return codec session
+     */
+    private CodecSession getCodecSession(InetSocketAddress host, KernelServer server) {
+        CodecSession session = codecSessions.get(host);
+        if (session != null) {
+            return session;
+        }
+
+        KernelRPCCodec codec;
         try {
-            ret = server.makeKernelRPC(rpc);
-        } catch (KernelRPCException e) {
-            if (!(e.getException() instanceof InvocationTargetException)) {
-                /* Not an invocation exception */
-                throw e.getException();
-            }
+            byte[] codecIds = server.getKernelRPCCodecs();
+            codec =
+                    codecIds == null
+                            ? KernelRPCCodecRegistry.getFallback()
+                            : KernelRPCCodecRegistry.negotiate(codecIds);
+        } catch (Exception e) {
+            /* Do not remember the fallback, the server may just be unreachable at the moment */
+            logger.log(Level.FINE, "Codec negotiation with " + host + " failed", e);
+            return new CodecSession(KernelRPCCodecRegistry.getFallback());
+        }
 
-            /* Invocation target exception wraps exception thrown by an invoked method or constructor */
-            /* If invocation exception is with any exception,including runtime, app exceptions, unwrap it
-            and throw. Else it is invocation exception with error. Throw the invocation exception as is */
-            Throwable cause = e.getException().getCause();
-            if (cause instanceof InvocationTargetException) {
-                cause = cause.getCause();
+        session = new CodecSession(codec);
+        CodecSession existing = codecSessions.putIfAbsent(host, session);
+        return existing != null ? existing : session;
+    }
+
+    /**
+     * Send the RPC to the kernel server. If the server cannot resolve a method ID of the codec
+     * session, the session is reset and the RPC is sent once more with the method names in full.
+     */
+    private Object sendKernelRPC(
+            KernelServer server, KernelRPC rpc, CodecSession session, boolean resend)
+            throws Exception {
+        try {
+            Object ret = server.makeKernelRPC(rpc);
+            if (session != null) {
+                session.acknowledge(rpc);
+            }
+            return ret;
+        } catch (RemoteException e) {
+            if (session == null || !resend || !UnknownMethodReferenceException.isCauseOf(e)) {
+                throw e;
             }
+            logger.log(Level.FINE, "Kernel server lost codec session. Resending RPC.", e);
+            session.reset();
+            return sendKernelRPC(server, rpc, session, false);
+        } catch (Exception e) {
+            /* Server has decoded the RPC */
+            if (session != null) {
+                session.acknowledge(rpc);
+            }
+            throw e;
+        }
+    }
 
-            throw (cause instanceof Exception) ? ((Exception) cause) : e.getException();
+    private Object tryMakeKernelRPC(InetSocketAddress host, KernelServer server, KernelRPC rpc)
+            throws KernelObjectNotFoundException, Exception {
+        CodecSession session = null;
+        if (server != GlobalKernelReferences.nodeServer) {
+            session = getCodecSession(host, server);
+        }
+        rpc.setCodecSession(session);
 
+        Object ret = null;
+        try {
+            ret = sendKernelRPC(server, rpc, session, true);
+        } catch (KernelRPCException e) {
+            throw unwrap(e);
         } catch (KernelObjectMigratingException e) {
-            Thread.sleep(100);
+            /* Server already waited for the migration to finish. Ask the OMS for the location. */
             throw new KernelObjectNotFoundException(
                     "Kernel object was migrating. Try again later.");
         }
         return ret;
     }
 
-    private Object lookupAndTryMakeKernelRPC(KernelObjectStub stub, KernelRPC rpc)
+    /**
+     * Gets the exception to throw to the caller of a kernel RPC which failed on the server.
+     *
+     * @param e exception thrown by the kernel server
+     * @return exception thrown by the invoked method
+     */
+    private static Exception unwrap(KernelRPCException e) {
+        if (!(e.getException() instanceof InvocationTargetException)) {
+            /* Not an invocation exception */
+            return e.getException();
+        }
+
+        /* Invocation target exception wraps exception thrown by an invoked method or constructor */
+        /* If invocation exception is with any exception,including runtime, app exceptions, unwrap it
+        and throw. Else it is invocation exception with error. Throw the invocation exception as is */
+        Throwable cause = e.getException().getCause();
+        if (cause instanceof InvocationTargetException) {
+            cause = cause.getCause();
+        }
+
+        return (cause instanceof Exception) ? ((Exception) cause) : e.getException();
+    }
+
+    /**
+     * Resend the RPC after the kernel object was not found at the location known to the stub. The
+     * new location is taken from the redirect hint of the old location if there is one, else from
+     * the location cache, and only as a last resort from the OMS. While the OMS still reports the
+     * old location, e.g. until a migration completes, the RPC is resent there after a backoff.
+     * Gives up after {@link #MAX_LOOKUP_RETRIES} attempts.
+     */
+    private Object lookupAndTryMakeKernelRPC(
+            KernelObjectStub stub, KernelRPC rpc, KernelObjectNotFoundException cause)
             throws KernelObjectNotFoundException, Exception {
-        InetSocketAddress host, oldHost = stub.$__getHostname();
+        long backoff = LOOKUP_BACKOFF_MS;
+        for (int attempt = 1; ; attempt++) {
+            InetSocketAddress oldHost = stub.$__getHostname();
+            InetSocketAddress host = locateKernelObject(stub.$__getKernelOID(), oldHost, cause);
+            if (host.equals(oldHost)) {
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new KernelObjectNotFoundException("Interrupted while looking up object.");
+                }
+                backoff *= 2;
+            }
 
-        try {
-            host = oms.lookupKernelObject(stub.$__getKernelOID());
-        } catch (RemoteException e) {
-            throw new KernelObjectNotFoundException("Could not find oms.");
-        } catch (KernelObjectNotFoundException e) {
-            throw new KernelObjectNotFoundException("This object does not exist!");
+            stub.$__updateHostname(host);
+            try {
+                return tryMakeKernelRPC(host, getServer(host), rpc);
+            } catch (KernelObjectNotFoundException e) {
+                if (attempt >= MAX_LOOKUP_RETRIES) {
+                    throw e;
+                }
+                cause = e;
+            }
+        }
+    }
+
+    /**
+     * Get the new location of a kernel object that was not found at its old location
+     *
+     * @param oid kernel object
+     * @param oldHost location the object was not found at
+     * @param cause exception thrown by the old location
+     * @return new location, or the old location if the OMS still reports it
+     * @throws KernelObjectNotFoundException if the OMS cannot be reached or does not know the
+     *     object
+     */
+    private InetSocketAddress locateKernelObject(
+            KernelOID oid, InetSocketAddress oldHost, KernelObjectNotFoundException cause)
+            throws KernelObjectNotFoundException {
+        InetSocketAddress host;
+        if (cause instanceof KernelObjectMovedException) {
+            host = ((KernelObjectMovedException) cause).getHost();
+            locations.redirect(oid, host);
+        } else {
+            locations.invalidate(oid, oldHost);
+            host = locations.lookup(oid);
+        }
+
+        if (host == null || host.equals(oldHost)) {
+            try {
+                host =
+                        oms.lookupKernelObject(
+                                oid, GlobalKernelReferences.nodeServer.getLocalHost());
+            } catch (RemoteException e) {
+                throw new KernelObjectNotFoundException("Could not find oms.");
+            } catch (KernelObjectNotFoundException e) {
+                locations.update(oid, null);
+                throw new KernelObjectNotFoundException("This object does not exist!");
+            }
+            locations.update(oid, host);
+        }
+        return host;
+    }
+
+    /**
+     * Get the location of the stub's kernel object. A remote location known to the stub is
+     * corrected from the location cache, so that the stub does not go to the old location of an
+     * object the OMS already announced as moved. Local locations are used as they are, as objects
+     * are invoked locally while they are moved away.
+     */
+    private InetSocketAddress resolveHost(KernelObjectStub stub) {
+        InetSocketAddress host = stub.$__getHostname();
+        if (host.equals(GlobalKernelReferences.nodeServer.getLocalHost())) {
+            return host;
         }
 
-        if (host.equals(oldHost)) {
-            throw new Error("Kernel object should be on the server!");
+        InetSocketAddress cached = locations.get(stub.$__getKernelOID());
+        if (cached != null && !cached.equals(host)) {
+            stub.$__updateHostname(cached);
+            return cached;
         }
+        return host;
+    }
 
-        stub.$__updateHostname(host);
-        return tryMakeKernelRPC(getServer(host), rpc);
+    /** @return location cache of kernel objects */
+    public KernelObjectLocationCache getLocationCache() {
+        return locations;
     }
 
     /**
@@ -125,7 +343,28 @@ public class KernelClient {
      */
     public Object makeKernelRPC(KernelObjectStub stub, KernelRPC rpc)
             throws KernelObjectNotFoundException, Exception {
-        InetSocketAddress host = stub.$__getHostname();
+        RPCMetrics metrics = MetricsRegistry.get(MetricsRegistry.Scope.CLIENT, stub, rpc);
+        Span span = Tracer.startClientSpan(metrics.getDM(), metrics.getMethod());
+        rpc.setTraceContext(Tracer.outgoing(span));
+        long start = metrics.start();
+        boolean failed = true;
+        try {
+            Object ret = invokeKernelRPC(stub, rpc);
+            failed = false;
+            return ret;
+        } finally {
+            metrics.end(start, failed);
+            if (span != null) {
+                span.setSerializationNanos(rpc.getSerializationNanos());
+                Tracer.finish(span, failed);
+            }
+        }
+    }
+
+    /** Make an RPC to the kernel server, without measuring it */
+    private Object invokeKernelRPC(KernelObjectStub stub, KernelRPC rpc)
+            throws KernelObjectNotFoundException, Exception {
+        InetSocketAddress host = resolveHost(stub);
         logger.log(Level.FINE, "Making RPC to " + host.toString() + " RPC: " + rpc.toString());
 
         // Check whether this object is local.
@@ -138,14 +377,125 @@ public class KernelClient {
 
         // Call the server
         try {
-            return tryMakeKernelRPC(server, rpc);
+            return tryMakeKernelRPC(host, server, rpc);
         } catch (KernelObjectNotFoundException e) {
             logger.warning(
                     String.format(
                             "Object was not found at the target location. Host:%s oid:%d method:%s",
                             host.toString(), rpc.getOID().getID(), rpc.getMethod()));
-            return lookupAndTryMakeKernelRPC(stub, rpc);
+            return lookupAndTryMakeKernelRPC(stub, rpc, e);
+        }
+    }
+
+    /**
+     * Make an RPC to the kernel server without waiting for its result. Kernel servers reached
+     * through the NIO transport are called asynchronously. For all others, and whenever the RPC has
+     * to be retried elsewhere, the synchronous {@link #makeKernelRPC} runs on the executor of
+     * asynchronous RPCs.
+     *
+     * @param stub
+     * @param rpc
+     * @return future completed with the return value of the RPC. Completes exceptionally with
+     *     {@link RemoteException} when the kernel server cannot be contacted or cannot find the
+     *     object, or with the exception thrown by the invoked method.
+     */
+    public CompletableFuture<Object> makeKernelRPCAsync(
+            final KernelObjectStub stub, final KernelRPC rpc) {
+        InetSocketAddress host = resolveHost(stub);
+        KernelServer server = null;
+        if (!host.equals(GlobalKernelReferences.nodeServer.getLocalHost())) {
+            server = getServer(host);
         }
+        if (!(server instanceof NioKernelServer)) {
+            return submitKernelRPC(stub, rpc, true);
+        }
+
+        final CodecSession session = getCodecSession(host, server);
+        rpc.setCodecSession(session);
+        /* Continue the trace of the caller, without a span of its own */
+        rpc.setTraceContext(Tracer.current());
+        final RPCMetrics metrics = MetricsRegistry.get(MetricsRegistry.Scope.CLIENT, stub, rpc);
+        final long start = metrics.start();
+        final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        result.whenComplete(
+                new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object ret, Throwable t) {
+                        metrics.end(start, t != null);
+                    }
+                });
+        ((NioKernelServer) server)
+                .makeKernelRPCAsync(rpc)
+                .whenComplete(
+                        new BiConsumer<Object, Throwable>() {
+                            @Override
+                            public void accept(Object ret, Throwable t) {
+                                t = Futures.unwrap(t);
+                                if (t == null) {
+                                    session.acknowledge(rpc);
+                                    result.complete(ret);
+                                } else if (t instanceof KernelRPCException) {
+                                    /* Server has decoded the RPC */
+                                    session.acknowledge(rpc);
+                                    result.completeExceptionally(unwrap((KernelRPCException) t));
+                                } else if (t instanceof RemoteException
+                                        && !UnknownMethodReferenceException.isCauseOf(t)) {
+                                    result.completeExceptionally(t);
+                                } else {
+                                    /* Object moved or codec session lost. Retry synchronously */
+                                    logger.log(Level.FINE, "Retrying asynchronous kernel RPC", t);
+                                    if (t instanceof KernelObjectMovedException) {
+                                        locations.redirect(
+                                                stub.$__getKernelOID(),
+                                                ((KernelObjectMovedException) t).getHost());
+                                    }
+                                    if (UnknownMethodReferenceException.isCauseOf(t)) {
+                                        session.reset();
+                                    } else if (!(t instanceof RemoteException)) {
+                                        /* Server has decoded the RPC */
+                                        session.acknowledge(rpc);
+                                    }
+                                    /* Measured as part of this RPC */
+                                    forward(submitKernelRPC(stub, rpc, false), result);
+                                }
+                            }
+                        });
+        return result;
+    }
+
+    /**
+     * Make the RPC synchronously on the executor of asynchronous RPCs
+     *
+     * @param measure whether to record the metrics of the RPC, false if the caller records them
+     */
+    private CompletableFuture<Object> submitKernelRPC(
+            final KernelObjectStub stub, final KernelRPC rpc, final boolean measure) {
+        return Futures.submit(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        try {
+                            return measure ? makeKernelRPC(stub, rpc) : invokeKernelRPC(stub, rpc);
+                        } catch (KernelObjectNotFoundException e) {
+                            throw new RemoteException(e.getMessage(), e);
+                        }
+                    }
+                });
+    }
+
+    private static void forward(
+            CompletableFuture<Object> from, final CompletableFuture<Object> to) {
+        from.whenComplete(
+                new BiConsumer<Object, Throwable>() {
+                    @Override
+                    public void accept(Object ret, Throwable t) {
+                        if (t == null) {
+                            to.complete(ret);
+                        } else {
+                            to.completeExceptionally(Futures.unwrap(t));
+                        }
+                    }
+                });
     }
 
     public void copyObjectToServer(InetSocketAddress host, KernelOID oid, KernelObject object)
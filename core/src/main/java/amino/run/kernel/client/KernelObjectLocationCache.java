@@ -0,0 +1,107 @@
+package amino.run.kernel.client;
+
+import amino.run.kernel.common.KernelOID;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Locations of kernel objects known to this kernel server. The OMS pushes the new location of a
+ * kernel object to the kernel servers which looked it up when the object moves, and the kernel
+ * server an object was moved away from answers RPCs for it with the new location. Either way,
+ * kernel object stubs on this server learn about the move once, instead of each one asking the
+ * OMS.
+ *
+ * <p>Entries are hints only. An RPC sent to a stale location fails and is retried through the OMS.
+ */
+public class KernelObjectLocationCache {
+    private final ConcurrentHashMap<KernelOID, InetSocketAddress> locations =
+            new ConcurrentHashMap<KernelOID, InetSocketAddress>();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong redirects = new AtomicLong();
+
+    /**
+     * Gets the location of the kernel object, counting the lookup towards the hit rate.
+     *
+     * @param oid kernel object ID
+     * @return known location, or null if the location is not cached
+     */
+    public InetSocketAddress lookup(KernelOID oid) {
+        InetSocketAddress host = locations.get(oid);
+        if (host == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return host;
+    }
+
+    /**
+     * Gets the location of the kernel object without counting the lookup.
+     *
+     * @param oid kernel object ID
+     * @return known location, or null if the location is not cached
+     */
+    public InetSocketAddress get(KernelOID oid) {
+        return locations.get(oid);
+    }
+
+    /**
+     * Updates the location of the kernel object.
+     *
+     * @param oid kernel object ID
+     * @param host new location, or null if the kernel object was deleted
+     */
+    public void update(KernelOID oid, InetSocketAddress host) {
+        if (host == null) {
+            locations.remove(oid);
+        } else {
+            locations.put(oid, host);
+        }
+    }
+
+    /**
+     * Updates the location of the kernel object from a redirect hint of the kernel server it was
+     * moved away from.
+     *
+     * @param oid kernel object ID
+     * @param host new location
+     */
+    public void redirect(KernelOID oid, InetSocketAddress host) {
+        redirects.incrementAndGet();
+        locations.put(oid, host);
+    }
+
+    /**
+     * Removes the location of the kernel object if it is still the given one.
+     *
+     * @param oid kernel object ID
+     * @param host stale location
+     */
+    public void invalidate(KernelOID oid, InetSocketAddress host) {
+        locations.remove(oid, host);
+    }
+
+    /** @return number of lookups served from the cache */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /** @return number of lookups that had to go to the OMS */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /** @return ratio of lookups served from the cache, 0 if there were no lookups */
+    public double getHitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0 : (double) h / total;
+    }
+
+    /** @return number of redirect hints received from kernel servers */
+    public long getRedirectCount() {
+        return redirects.get();
+    }
+}
@@ -3,18 +3,19 @@ package amino.run.kernel.common;
 import java.io.Serializable;
 
 /**
- * ID for a MicroService kernel object
+ * ID for a MicroService kernel object. IDs are 64-bit, and handed out by the OMS in disjoint
+ * blocks leased to kernel servers, so that IDs never collide.
  *
  * @author iyzhang
  */
 public class KernelOID implements Serializable {
-    private int oid;
+    private long oid;
 
-    public KernelOID(int oid) {
+    public KernelOID(long oid) {
         this.oid = oid;
     }
 
-    public int getID() {
+    public long getID() {
         return this.oid;
     }
 
@@ -27,7 +28,7 @@ public class KernelOID implements Serializable {
 
     @Override
     public int hashCode() {
-        return oid;
+        return (int) (oid ^ (oid >>> 32));
     }
 
     @Override
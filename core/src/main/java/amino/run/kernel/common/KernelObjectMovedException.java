@@ -0,0 +1,22 @@
+package amino.run.kernel.common;
+
+import java.net.InetSocketAddress;
+
+/**
+ * MicroService Kernel throws this exception if it receives an RPC for a kernel object that was
+ * moved to another kernel server. It carries the address of that server, so that the caller can
+ * resend the RPC there without asking the OMS.
+ */
+public class KernelObjectMovedException extends KernelObjectNotFoundException {
+    private final InetSocketAddress host;
+
+    public KernelObjectMovedException(String message, InetSocketAddress host) {
+        super(message);
+        this.host = host;
+    }
+
+    /** @return address of the kernel server the object was moved to */
+    public InetSocketAddress getHost() {
+        return host;
+    }
+}
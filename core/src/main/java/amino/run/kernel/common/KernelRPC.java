@@ -1,6 +1,15 @@
 package amino.run.kernel.common;
 
 import amino.run.graal.io.*;
+import amino.run.kernel.common.codec.CodecSession;
+import amino.run.kernel.common.codec.JavaSerializationCodec;
+import amino.run.kernel.common.codec.KernelRPCCodec;
+import amino.run.kernel.common.codec.KernelRPCCodecRegistry;
+import amino.run.kernel.tracing.TraceContext;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.*;
 import org.graalvm.polyglot.*;
@@ -8,14 +17,31 @@ import org.graalvm.polyglot.*;
 /**
  * MicroService Kernel RPC Includes the object being called, the method and the parameters
  *
+ * <p>With the {@link JavaSerializationCodec}, negotiated with kernel servers which predate codecs,
+ * the fields are serialized directly, i.e. in the format those kernel servers read. Otherwise, the
+ * fields are written as null and followed by the trace context of the RPC, the ID of the {@link
+ * KernelRPCCodec} and the contents encoded by the codec. For sampled traces, the time spent
+ * encoding and decoding the RPC is measured, for the spans of the RPC.
+ *
  * @author iyzhang
  */
 public class KernelRPC implements Serializable {
+    /** Serial version of the class before codecs were introduced, which older peers expect */
+    private static final long serialVersionUID = 3312464131805707866L;
+
     private KernelOID oid;
     private String method;
     private ArrayList<Object> params;
+    /** Codec session negotiated with the receiving kernel server, if any */
+    private transient CodecSession codecSession;
+    /** Trace context of the caller, if any */
+    private transient TraceContext traceContext;
+    /** Time spent encoding or decoding the RPC, if its trace is sampled */
+    private transient long serializationNanos;
+    /** {@link System#nanoTime()} when the RPC was decoded, if its trace is sampled */
+    private transient long decodedAt;
 
-    public KernelRPC(KernelOID oid, String method, ArrayList<Object> params) throws Exception {
+    public KernelRPC(KernelOID oid, String method, ArrayList<Object> params) {
         this.oid = oid;
         this.method = method;
         this.params = params;
@@ -33,6 +59,92 @@ public class KernelRPC implements Serializable {
         return params;
     }
 
+    /**
+     * Sets the codec session to encode this RPC with when it is serialized. Without a session, the
+     * RPC is encoded with the default codec.
+     *
+     * @param codecSession codec session negotiated with the receiving kernel server
+     */
+    public void setCodecSession(CodecSession codecSession) {
+        this.codecSession = codecSession;
+    }
+
+    public TraceContext getTraceContext() {
+        return traceContext;
+    }
+
+    /** @param traceContext trace context of the caller, sent along with the RPC */
+    public void setTraceContext(TraceContext traceContext) {
+        this.traceContext = traceContext;
+    }
+
+    /**
+     * @return nanoseconds spent encoding the RPC when it was last sent, or decoding it when it was
+     *     received. 0 if its trace is not sampled.
+     */
+    public long getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    /** @return {@link System#nanoTime()} when the RPC was decoded. 0 if not measured. */
+    public long getDecodedAt() {
+        return decodedAt;
+    }
+
+    private static boolean isSampled(TraceContext context) {
+        return context != null && context.isSampled();
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        long start = isSampled(traceContext) ? System.nanoTime() : 0;
+        KernelRPCCodec codec =
+                codecSession != null
+                        ? codecSession.getCodec()
+                        : KernelRPCCodecRegistry.getDefault();
+        boolean legacy = codec.getId() == JavaSerializationCodec.ID;
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("oid", legacy ? oid : null);
+        fields.put("method", legacy ? method : null);
+        fields.put("params", legacy ? params : null);
+        out.writeFields();
+        if (!legacy) {
+            TraceContext.write(traceContext, out);
+            out.writeByte(codec.getId());
+            codec.write(this, codecSession, out);
+        }
+        if (start != 0) {
+            serializationNanos = System.nanoTime() - start;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        oid = (KernelOID) fields.get("oid", null);
+        if (oid != null) {
+            // Written with Java serialization, possibly by a kernel server which predates codecs
+            method = (String) fields.get("method", null);
+            params = (ArrayList<Object>) fields.get("params", null);
+            return;
+        }
+
+        traceContext = TraceContext.read(in);
+        long start = isSampled(traceContext) ? System.nanoTime() : 0;
+        byte codecId = in.readByte();
+        KernelRPCCodec codec = KernelRPCCodecRegistry.get(codecId);
+        if (codec == null) {
+            throw new InvalidObjectException("Unknown KernelRPC codec " + codecId);
+        }
+        KernelRPC rpc = codec.read(in);
+        oid = rpc.oid;
+        method = rpc.method;
+        params = rpc.params;
+        if (start != 0) {
+            decodedAt = System.nanoTime();
+            serializationNanos = decodedAt - start;
+        }
+    }
+
     @Override
     public String toString() {
         String ret = method;
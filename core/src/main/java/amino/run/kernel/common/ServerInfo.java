@@ -6,6 +6,7 @@ import amino.run.app.Requirement;
 import amino.run.kernel.server.KernelServerImpl;
 import java.io.Serializable;
 import java.net.InetSocketAddress;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,9 @@ public class ServerInfo implements Serializable {
 
     private Map<String, String> labels = new HashMap<String, String>();
 
+    /* Resource usage, sent along with heartbeats */
+    private ServerLoad load;
+
     public ServerInfo(InetSocketAddress addr) {
         this.host = addr;
     }
@@ -28,6 +32,20 @@ public class ServerInfo implements Serializable {
         return labels.get(KernelServerImpl.REGION_KEY);
     }
 
+    /** @return resource usage measured for the last heartbeat, or null if not measured */
+    public ServerLoad getLoad() {
+        return load;
+    }
+
+    public void setLoad(ServerLoad load) {
+        this.load = load;
+    }
+
+    /** @return labels of the kernel server, which must not be modified */
+    public Map<String, String> getLabels() {
+        return Collections.unmodifiableMap(labels);
+    }
+
     public void addLabels(Map keyValues) {
         if (keyValues == null) {
             throw new NullPointerException("Labels must not be null");
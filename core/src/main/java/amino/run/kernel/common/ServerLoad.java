@@ -0,0 +1,63 @@
+package amino.run.kernel.common;
+
+import java.io.Serializable;
+
+/**
+ * Resource usage of a kernel server, measured when it sends a heartbeat to the OMS. The OMS uses
+ * it to place new microservices and replicas on lightly loaded servers.
+ */
+public class ServerLoad implements Serializable {
+    private final double cpuLoad;
+    private final long heapUsed;
+    private final long heapMax;
+    private final int kernelObjects;
+    private final double rpcRate;
+
+    /**
+     * @param cpuLoad system load average per processor, or a negative value if not available
+     * @param heapUsed used heap memory in bytes
+     * @param heapMax maximum heap memory in bytes
+     * @param kernelObjects number of kernel objects on the server
+     * @param rpcRate kernel RPCs served per second since the previous heartbeat
+     */
+    public ServerLoad(
+            double cpuLoad, long heapUsed, long heapMax, int kernelObjects, double rpcRate) {
+        this.cpuLoad = cpuLoad;
+        this.heapUsed = heapUsed;
+        this.heapMax = heapMax;
+        this.kernelObjects = kernelObjects;
+        this.rpcRate = rpcRate;
+    }
+
+    public double getCpuLoad() {
+        return cpuLoad;
+    }
+
+    public long getHeapUsed() {
+        return heapUsed;
+    }
+
+    public long getHeapMax() {
+        return heapMax;
+    }
+
+    /** @return fraction of the maximum heap in use, from 0 to 1 */
+    public double getHeapUsage() {
+        return heapMax <= 0 ? 0 : (double) heapUsed / heapMax;
+    }
+
+    public int getKernelObjects() {
+        return kernelObjects;
+    }
+
+    public double getRpcRate() {
+        return rpcRate;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ServerLoad{cpu=%.2f, heap=%d/%d, kernelObjects=%d, rpcRate=%.1f}",
+                cpuLoad, heapUsed, heapMax, kernelObjects, rpcRate);
+    }
+}
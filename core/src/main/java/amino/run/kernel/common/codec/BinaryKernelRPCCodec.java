@@ -0,0 +1,451 @@
+package amino.run.kernel.common.codec;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.policy.Upcalls;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Compact binary encoding of {@link KernelRPC}. Layout of an encoded RPC:
+ *
+ * <pre>
+ * version        byte
+ * dictionary     boolean, followed by the session ID as two longs and the generation as varint
+ * oid            varint
+ * method count   varint, followed by one method reference per method
+ * param count    varint, 0 for null, otherwise the number of params + 1, followed by the params
+ * </pre>
+ *
+ * <p>Policy stubs nest the parameters of an RPC as {@code [method, [method, params]]} along the DM
+ * chain, i.e. the parameters of a call to the {@code onRPC} upcall of a server policy are the
+ * method and parameters of the next call. The codec flattens the nesting of such calls into a list
+ * of methods and the innermost parameters, which are written with a one byte type tag. Parameters
+ * of other calls are never flattened, whatever their shape. Strings, boxed primitives and byte
+ * arrays are written without class descriptors. Everything else falls back to Java serialization.
+ *
+ * <p>Method references are varints. 0 stands for null and 1 for a method name written in full.
+ * {@code (id << 2) | 2} defines method ID {@code id} and is followed by the method name. {@code
+ * (id << 2) | 3} refers to a previously defined method ID. See {@link CodecSession}.
+ *
+ * <p>The receiver keeps one dictionary per sending session, i.e. per kernel client it hears from,
+ * and replaces it when the session starts over with a new generation. Dictionaries of the least
+ * recently heard from sessions are dropped beyond {@link #MAX_SESSIONS}, which their senders notice
+ * by {@link UnknownMethodReferenceException}.
+ */
+public class BinaryKernelRPCCodec implements KernelRPCCodec {
+    public static final byte ID = 1;
+
+    private static final byte VERSION = 3;
+
+    /** Maximum number of sending sessions the receiver keeps a dictionary for */
+    private static final int MAX_SESSIONS = 1024;
+
+    /** Longest string that is guaranteed to fit in {@link ObjectOutput#writeUTF} */
+    private static final int MAX_UTF_LENGTH = 65535 / 3;
+
+    private static final int REF_NULL = 0;
+    private static final int REF_LITERAL = 1;
+    private static final int REF_DEFINE = 2;
+    private static final int REF_ID = 3;
+
+    private static final byte TAG_NULL = 0;
+    private static final byte TAG_STRING = 1;
+    private static final byte TAG_INTEGER = 2;
+    private static final byte TAG_LONG = 3;
+    private static final byte TAG_TRUE = 4;
+    private static final byte TAG_FALSE = 5;
+    private static final byte TAG_DOUBLE = 6;
+    private static final byte TAG_FLOAT = 7;
+    private static final byte TAG_SHORT = 8;
+    private static final byte TAG_BYTE = 9;
+    private static final byte TAG_CHARACTER = 10;
+    private static final byte TAG_BYTES = 11;
+    private static final byte TAG_OBJECT = 12;
+
+    /** Name and parameter types of the onRPC upcall in generic method strings */
+    private static final String ON_RPC = ".onRPC(java.lang.String,java.util.ArrayList";
+
+    /** Whether onRPC methods belong to server policies, by generic method string */
+    private static final ConcurrentHashMap<String, Boolean> serverPolicyOnRPCs =
+            new ConcurrentHashMap<String, Boolean>();
+
+    /** Method dictionaries of the sending sessions by session ID. Least recently used first. */
+    private static final Map<UUID, ReceivedDictionary> dictionaries =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<UUID, ReceivedDictionary>(16, 0.75f, true) {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<UUID, ReceivedDictionary> eldest) {
+                            return size() > MAX_SESSIONS;
+                        }
+                    });
+
+    /** Methods defined by the current generation of the dictionary of a sending session */
+    private static class ReceivedDictionary {
+        final int generation;
+        final ConcurrentHashMap<Integer, String> methods = new ConcurrentHashMap<Integer, String>();
+
+        ReceivedDictionary(int generation) {
+            this.generation = generation;
+        }
+    }
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void write(KernelRPC rpc, CodecSession session, ObjectOutput out) throws IOException {
+        CodecSession.Dictionary dict = session == null ? null : session.getDictionary();
+        out.writeByte(VERSION);
+        out.writeBoolean(dict != null);
+        if (dict != null) {
+            out.writeLong(dict.sessionId.getMostSignificantBits());
+            out.writeLong(dict.sessionId.getLeastSignificantBits());
+            writeVarInt(out, dict.generation);
+        }
+        writeVarLong(out, rpc.getOID().getID());
+
+        ArrayList<String> methods = new ArrayList<String>();
+        methods.add(rpc.getMethod());
+        ArrayList<Object> params = rpc.getParams();
+        while (isNested(methods.get(methods.size() - 1), params)) {
+            methods.add((String) params.get(0));
+            params = (ArrayList<Object>) params.get(1);
+        }
+
+        writeVarInt(out, methods.size());
+        for (String method : methods) {
+            writeMethod(out, dict, method);
+        }
+
+        if (params == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        writeVarInt(out, params.size() + 1);
+        for (Object param : params) {
+            writeValue(out, param);
+        }
+    }
+
+    @Override
+    public KernelRPC read(ObjectInput in) throws IOException, ClassNotFoundException {
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new InvalidObjectException("Unsupported KernelRPC encoding version " + version);
+        }
+        UUID sessionId = null;
+        int generation = 0;
+        if (in.readBoolean()) {
+            sessionId = new UUID(in.readLong(), in.readLong());
+            generation = readVarInt(in);
+        }
+        KernelOID oid = new KernelOID(readVarLong(in));
+
+        int methodCount = readVarInt(in);
+        String[] methods = new String[methodCount];
+        for (int i = 0; i < methodCount; i++) {
+            methods[i] = readMethod(in, sessionId, generation);
+        }
+
+        int paramCount = readVarInt(in);
+        ArrayList<Object> params = null;
+        if (paramCount > 0) {
+            params = new ArrayList<Object>(paramCount - 1);
+            for (int i = 0; i < paramCount - 1; i++) {
+                params.add(readValue(in));
+            }
+        }
+
+        for (int i = methodCount - 1; i > 0; i--) {
+            ArrayList<Object> nested = new ArrayList<Object>(2);
+            nested.add(methods[i]);
+            nested.add(params);
+            params = nested;
+        }
+        return new KernelRPC(oid, methods[0], params);
+    }
+
+    /**
+     * Checks whether the parameters are a nested {@code [method, params]} pair as built by policy
+     * stubs along the DM chain, i.e. whether the method is the {@code onRPC} upcall of a server
+     * policy.
+     *
+     * @param method RPC method
+     * @param params RPC parameters
+     * @return true if the parameters can be flattened
+     */
+    static boolean isNested(String method, ArrayList<Object> params) {
+        return params != null
+                && params.size() == 2
+                && params.get(0) instanceof String
+                && params.get(1) != null
+                && params.get(1).getClass() == ArrayList.class
+                && isServerPolicyOnRPC(method);
+    }
+
+    /**
+     * @param method generic string of a method
+     * @return true if the method is {@link Upcalls.ServerUpcalls#onRPC} of a server policy class
+     */
+    private static boolean isServerPolicyOnRPC(String method) {
+        int name = method == null ? -1 : method.indexOf(ON_RPC);
+        if (name < 0) {
+            return false;
+        }
+        Boolean result = serverPolicyOnRPCs.get(method);
+        if (result == null) {
+            String className = method.substring(method.lastIndexOf(' ', name) + 1, name);
+            try {
+                Class<?> cls =
+                        Class.forName(
+                                className, false, BinaryKernelRPCCodec.class.getClassLoader());
+                result = Upcalls.ServerUpcalls.class.isAssignableFrom(cls);
+            } catch (ClassNotFoundException e) {
+                result = false;
+            }
+            serverPolicyOnRPCs.putIfAbsent(method, result);
+        }
+        return result;
+    }
+
+    private void writeMethod(ObjectOutput out, CodecSession.Dictionary dict, String method)
+            throws IOException {
+        if (method == null) {
+            writeVarInt(out, REF_NULL);
+            return;
+        }
+        if (dict != null && method.length() <= MAX_UTF_LENGTH) {
+            int id = dict.getConfirmedId(method);
+            if (id >= 0) {
+                writeVarInt(out, (id << 2) | REF_ID);
+                return;
+            }
+            id = dict.define(method);
+            if (id >= 0) {
+                writeVarInt(out, (id << 2) | REF_DEFINE);
+                out.writeUTF(method);
+                return;
+            }
+        }
+        writeVarInt(out, REF_LITERAL);
+        writeString(out, method);
+    }
+
+    private String readMethod(ObjectInput in, UUID sessionId, int generation)
+            throws IOException, ClassNotFoundException {
+        int ref = readVarInt(in);
+        if (ref == REF_NULL) {
+            return null;
+        }
+        if (ref == REF_LITERAL) {
+            return readString(in);
+        }
+        if (sessionId == null) {
+            throw new InvalidObjectException("Method reference without a dictionary");
+        }
+
+        int id = ref >>> 2;
+        if ((ref & 3) == REF_DEFINE) {
+            if (id >= CodecSession.MAX_METHODS) {
+                throw new InvalidObjectException("Method ID out of range: " + id);
+            }
+            String method = in.readUTF();
+            ReceivedDictionary dict = getDictionary(sessionId, generation, true);
+            if (dict != null) {
+                dict.methods.put(id, method);
+            }
+            return method;
+        }
+
+        ReceivedDictionary dict = getDictionary(sessionId, generation, false);
+        String method = dict == null ? null : dict.methods.get(id);
+        if (method == null) {
+            throw new UnknownMethodReferenceException(
+                    String.format(
+                            "Unknown method %d in dictionary %s/%d", id, sessionId, generation));
+        }
+        return method;
+    }
+
+    /**
+     * @param sessionId ID of the sending session
+     * @param generation generation of the dictionary of the session
+     * @param create whether to replace the dictionary of the session by an empty one of the given
+     *     generation if it is older
+     * @return dictionary of the given generation, or null if the session has none, or a newer one
+     */
+    private static ReceivedDictionary getDictionary(
+            UUID sessionId, int generation, boolean create) {
+        synchronized (dictionaries) {
+            ReceivedDictionary dict = dictionaries.get(sessionId);
+            if (create && (dict == null || dict.generation < generation)) {
+                dict = new ReceivedDictionary(generation);
+                dictionaries.put(sessionId, dict);
+            }
+            return dict != null && dict.generation == generation ? dict : null;
+        }
+    }
+
+    private void writeString(ObjectOutput out, String value) throws IOException {
+        if (value.length() <= MAX_UTF_LENGTH) {
+            out.writeBoolean(true);
+            out.writeUTF(value);
+        } else {
+            out.writeBoolean(false);
+            out.writeObject(value);
+        }
+    }
+
+    private String readString(ObjectInput in) throws IOException, ClassNotFoundException {
+        return in.readBoolean() ? in.readUTF() : (String) in.readObject();
+    }
+
+    private void writeValue(ObjectOutput out, Object value) throws IOException {
+        if (value == null) {
+            out.writeByte(TAG_NULL);
+            return;
+        }
+
+        Class<?> cls = value.getClass();
+        if (cls == String.class && ((String) value).length() <= MAX_UTF_LENGTH) {
+            out.writeByte(TAG_STRING);
+            out.writeUTF((String) value);
+        } else if (cls == Integer.class) {
+            out.writeByte(TAG_INTEGER);
+            writeVarInt(out, zigZag((Integer) value));
+        } else if (cls == Long.class) {
+            out.writeByte(TAG_LONG);
+            writeVarLong(out, zigZag((Long) value));
+        } else if (cls == Boolean.class) {
+            out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+        } else if (cls == Double.class) {
+            out.writeByte(TAG_DOUBLE);
+            out.writeDouble((Double) value);
+        } else if (cls == Float.class) {
+            out.writeByte(TAG_FLOAT);
+            out.writeFloat((Float) value);
+        } else if (cls == Short.class) {
+            out.writeByte(TAG_SHORT);
+            out.writeShort((Short) value);
+        } else if (cls == Byte.class) {
+            out.writeByte(TAG_BYTE);
+            out.writeByte((Byte) value);
+        } else if (cls == Character.class) {
+            out.writeByte(TAG_CHARACTER);
+            out.writeChar((Character) value);
+        } else if (cls == byte[].class) {
+            byte[] bytes = (byte[]) value;
+            out.writeByte(TAG_BYTES);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        } else {
+            out.writeByte(TAG_OBJECT);
+            out.writeObject(value);
+        }
+    }
+
+    private Object readValue(ObjectInput in) throws IOException, ClassNotFoundException {
+        byte tag = in.readByte();
+        switch (tag) {
+            case TAG_NULL:
+                return null;
+            case TAG_STRING:
+                return in.readUTF();
+            case TAG_INTEGER:
+                return unZigZag(readVarInt(in));
+            case TAG_LONG:
+                return unZigZag(readVarLong(in));
+            case TAG_TRUE:
+                return Boolean.TRUE;
+            case TAG_FALSE:
+                return Boolean.FALSE;
+            case TAG_DOUBLE:
+                return in.readDouble();
+            case TAG_FLOAT:
+                return in.readFloat();
+            case TAG_SHORT:
+                return in.readShort();
+            case TAG_BYTE:
+                return in.readByte();
+            case TAG_CHARACTER:
+                return in.readChar();
+            case TAG_BYTES:
+                byte[] bytes = new byte[readVarInt(in)];
+                in.readFully(bytes);
+                return bytes;
+            case TAG_OBJECT:
+                return in.readObject();
+            default:
+                throw new InvalidObjectException("Unknown KernelRPC parameter tag " + tag);
+        }
+    }
+
+    private static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    private static int unZigZag(int value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(ObjectOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    static int readVarInt(ObjectInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+
+    private static void writeVarLong(ObjectOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(ObjectInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Malformed varint");
+    }
+}
@@ -0,0 +1,127 @@
+package amino.run.kernel.common.codec;
+
+import amino.run.kernel.common.KernelRPC;
+import java.util.ArrayList;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Sender side state of the codec negotiated with one kernel server. Besides the codec itself, the
+ * session holds a dictionary of method names which lets {@link BinaryKernelRPCCodec} send a small
+ * method ID instead of the full generic method signature.
+ *
+ * <p>A method name is sent in full together with its ID until an RPC carrying the definition has
+ * been acknowledged, i.e., until the receiver is known to have decoded it. Only then is the ID sent
+ * on its own. If the receiver loses its dictionary, it rejects the RPC with {@link
+ * UnknownMethodReferenceException} and the sender calls {@link #reset()} and resends the RPC.
+ */
+public class CodecSession {
+    /** Upper bound on the number of methods in a dictionary. Further methods are sent in full. */
+    static final int MAX_METHODS = 4096;
+
+    private final KernelRPCCodec codec;
+    /** Identifies the session to the receiver, which keeps one dictionary per session */
+    private final UUID id = UUID.randomUUID();
+    /** Generation of the last dictionary created */
+    private final AtomicInteger generations = new AtomicInteger();
+    private volatile Dictionary dictionary = new Dictionary(id, 0);
+
+    public CodecSession(KernelRPCCodec codec) {
+        this.codec = codec;
+    }
+
+    public KernelRPCCodec getCodec() {
+        return codec;
+    }
+
+    /** @return current method dictionary */
+    Dictionary getDictionary() {
+        return dictionary;
+    }
+
+    /**
+     * Marks the method IDs defined by the given RPC as known to the receiver. Must only be called
+     * once the receiver has decoded the RPC.
+     *
+     * @param rpc RPC sent through this session
+     */
+    @SuppressWarnings("unchecked")
+    public void acknowledge(KernelRPC rpc) {
+        Dictionary dict = dictionary;
+        String method = rpc.getMethod();
+        ArrayList<Object> params = rpc.getParams();
+        dict.confirm(method);
+        while (BinaryKernelRPCCodec.isNested(method, params)) {
+            method = (String) params.get(0);
+            params = (ArrayList<Object>) params.get(1);
+            dict.confirm(method);
+        }
+    }
+
+    /** Discards the method dictionary and starts over with a new one. */
+    public void reset() {
+        dictionary = new Dictionary(id, generations.incrementAndGet());
+    }
+
+    /**
+     * Method dictionary. Identified on the wire by the ID of the session and a generation, so that
+     * the receiver can tell the dictionaries of different senders apart and replaces the dictionary
+     * of a sender when it starts over.
+     */
+    static class Dictionary {
+        final UUID sessionId;
+        final int generation;
+        private final AtomicInteger nextMethodId = new AtomicInteger();
+        private final ConcurrentHashMap<String, Integer> methodIds =
+                new ConcurrentHashMap<String, Integer>();
+        private final ConcurrentHashMap<String, Boolean> confirmed =
+                new ConcurrentHashMap<String, Boolean>();
+
+        Dictionary(UUID sessionId, int generation) {
+            this.sessionId = sessionId;
+            this.generation = generation;
+        }
+
+        /**
+         * @param method method name
+         * @return ID of the method if the receiver is known to have it, -1 otherwise
+         */
+        int getConfirmedId(String method) {
+            if (confirmed.containsKey(method)) {
+                return methodIds.get(method);
+            }
+            return -1;
+        }
+
+        /**
+         * Assigns an ID to the method unless it already has one.
+         *
+         * @param method method name
+         * @return ID of the method, or -1 if the dictionary is full
+         */
+        int define(String method) {
+            Integer id = methodIds.get(method);
+            if (id != null) {
+                return id;
+            }
+            if (methodIds.size() >= MAX_METHODS) {
+                return -1;
+            }
+            synchronized (this) {
+                id = methodIds.get(method);
+                if (id == null) {
+                    id = nextMethodId.getAndIncrement();
+                    methodIds.put(method, id);
+                }
+            }
+            return id;
+        }
+
+        private void confirm(String method) {
+            if (method != null && methodIds.containsKey(method)) {
+                confirmed.put(method, Boolean.TRUE);
+            }
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package amino.run.kernel.common.codec;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayList;
+
+/**
+ * Codec writing the fields of {@link KernelRPC} with plain Java serialization, the fallback when a
+ * kernel server does not support codec negotiation. {@link KernelRPC} serializes its fields
+ * directly when this codec is negotiated, without a codec ID in front, as kernel servers which
+ * predate codecs expect. {@link #write} and {@link #read} encode the same fields for callers
+ * encoding RPCs themselves.
+ */
+public class JavaSerializationCodec implements KernelRPCCodec {
+    public static final byte ID = 0;
+
+    @Override
+    public byte getId() {
+        return ID;
+    }
+
+    @Override
+    public void write(KernelRPC rpc, CodecSession session, ObjectOutput out) throws IOException {
+        out.writeObject(rpc.getOID());
+        out.writeObject(rpc.getMethod());
+        out.writeObject(rpc.getParams());
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public KernelRPC read(ObjectInput in) throws IOException, ClassNotFoundException {
+        KernelOID oid = (KernelOID) in.readObject();
+        String method = (String) in.readObject();
+        ArrayList<Object> params = (ArrayList<Object>) in.readObject();
+        return new KernelRPC(oid, method, params);
+    }
+}
@@ -0,0 +1,37 @@
+package amino.run.kernel.common.codec;
+
+import amino.run.kernel.common.KernelRPC;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Encodes the contents of a {@link KernelRPC} on the wire. {@link KernelRPC} writes the ID of the
+ * codec in front of the encoded contents, so that the receiver can pick the matching codec from
+ * {@link KernelRPCCodecRegistry}. Codecs must be stateless apart from the {@link CodecSession}
+ * passed in by the sender.
+ */
+public interface KernelRPCCodec {
+    /** @return ID of the codec on the wire. Must be unique within {@link KernelRPCCodecRegistry}. */
+    byte getId();
+
+    /**
+     * Writes the object ID, method and parameters of the RPC.
+     *
+     * @param rpc RPC to encode
+     * @param session session negotiated with the receiver, or null if there is none
+     * @param out stream to write to
+     * @throws IOException
+     */
+    void write(KernelRPC rpc, CodecSession session, ObjectOutput out) throws IOException;
+
+    /**
+     * Reads an RPC previously written by {@link #write}.
+     *
+     * @param in stream to read from
+     * @return decoded RPC
+     * @throws IOException
+     * @throws ClassNotFoundException
+     */
+    KernelRPC read(ObjectInput in) throws IOException, ClassNotFoundException;
+}
@@ -0,0 +1,79 @@
+package amino.run.kernel.common.codec;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Registry of the {@link KernelRPCCodec}s known to this process, in order of preference. Kernel
+ * clients negotiate the codec with each kernel server by asking for its supported codec IDs and
+ * picking the most preferred codec known to both sides.
+ */
+public class KernelRPCCodecRegistry {
+    private static final JavaSerializationCodec javaCodec = new JavaSerializationCodec();
+    private static final Map<Byte, KernelRPCCodec> codecs =
+            new LinkedHashMap<Byte, KernelRPCCodec>();
+
+    static {
+        register(new BinaryKernelRPCCodec());
+        register(javaCodec);
+    }
+
+    private KernelRPCCodecRegistry() {}
+
+    /**
+     * Registers a codec. Codecs registered earlier are preferred during negotiation.
+     *
+     * @param codec codec to register
+     */
+    public static synchronized void register(KernelRPCCodec codec) {
+        if (codecs.containsKey(codec.getId())) {
+            throw new IllegalArgumentException("Codec ID " + codec.getId() + " already in use");
+        }
+        codecs.put(codec.getId(), codec);
+    }
+
+    /**
+     * @param id codec ID
+     * @return codec with the given ID, or null if there is none
+     */
+    public static synchronized KernelRPCCodec get(byte id) {
+        return codecs.get(id);
+    }
+
+    /** @return codec used when no codec was negotiated */
+    public static KernelRPCCodec getDefault() {
+        return get(BinaryKernelRPCCodec.ID);
+    }
+
+    /** @return codec understood by every kernel server */
+    public static KernelRPCCodec getFallback() {
+        return javaCodec;
+    }
+
+    /** @return IDs of all registered codecs, in order of preference */
+    public static synchronized byte[] getSupportedIds() {
+        byte[] ids = new byte[codecs.size()];
+        int i = 0;
+        for (Byte id : codecs.keySet()) {
+            ids[i++] = id;
+        }
+        return ids;
+    }
+
+    /**
+     * Picks the most preferred codec supported by the remote side.
+     *
+     * @param remoteIds codec IDs supported by the remote side
+     * @return negotiated codec, or the fallback codec if there is no common codec
+     */
+    public static synchronized KernelRPCCodec negotiate(byte[] remoteIds) {
+        for (KernelRPCCodec codec : codecs.values()) {
+            for (byte id : remoteIds) {
+                if (id == codec.getId()) {
+                    return codec;
+                }
+            }
+        }
+        return javaCodec;
+    }
+}
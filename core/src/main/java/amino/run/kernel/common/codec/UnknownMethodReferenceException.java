@@ -0,0 +1,32 @@
+package amino.run.kernel.common.codec;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link BinaryKernelRPCCodec} on the receiving side when an RPC refers to a method ID
+ * that the receiver does not know, e.g. because the receiver was restarted or evicted the session.
+ * The sender is expected to reset its {@link CodecSession} and resend the RPC.
+ */
+public class UnknownMethodReferenceException extends IOException {
+    public UnknownMethodReferenceException(String message) {
+        super(message);
+    }
+
+    /**
+     * Checks whether the given exception was caused by an {@link UnknownMethodReferenceException}.
+     *
+     * @param e exception received from the remote side
+     * @return true if the cause chain contains an {@link UnknownMethodReferenceException}
+     */
+    public static boolean isCauseOf(Throwable e) {
+        for (Throwable t = e; t != null; t = t.getCause()) {
+            if (t instanceof UnknownMethodReferenceException) {
+                return true;
+            }
+            if (t.getCause() == t) {
+                break;
+            }
+        }
+        return false;
+    }
+}
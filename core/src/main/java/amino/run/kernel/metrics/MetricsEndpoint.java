@@ -0,0 +1,82 @@
+package amino.run.kernel.metrics;
+
+import amino.run.kernel.tracing.Span;
+import amino.run.kernel.tracing.Tracer;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.logging.Logger;
+
+/**
+ * HTTP endpoint serving the metrics of {@link MetricsRegistry} at {@code /metrics}, in the
+ * Prometheus text format, for monitoring systems to pull. The most recent spans of sampled RPC
+ * traces are served at {@code /traces}, one span per line as written by {@link Span#toLine()}.
+ */
+public class MetricsEndpoint {
+    private static final Logger logger = Logger.getLogger(MetricsEndpoint.class.getName());
+    public static final String PATH = "/metrics";
+    public static final String TRACES_PATH = "/traces";
+
+    private final HttpServer server;
+
+    /**
+     * Starts serving metrics
+     *
+     * @param address address to listen on. Port 0 picks a free port.
+     * @throws IOException if the address cannot be bound
+     */
+    public MetricsEndpoint(InetSocketAddress address) throws IOException {
+        server = HttpServer.create(address, 0);
+        server.createContext(
+                PATH,
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        StringWriter text = new StringWriter();
+                        MetricsRegistry.writeText(text);
+                        send(exchange, "text/plain; version=0.0.4; charset=utf-8", text);
+                    }
+                });
+        server.createContext(
+                TRACES_PATH,
+                new HttpHandler() {
+                    @Override
+                    public void handle(HttpExchange exchange) throws IOException {
+                        StringWriter text = new StringWriter();
+                        for (Span span : Tracer.getRecentSpans()) {
+                            text.write(span.toLine());
+                            text.write('\n');
+                        }
+                        send(exchange, "text/plain; charset=utf-8", text);
+                    }
+                });
+        server.start();
+        logger.info(String.format("Metrics endpoint ready at port(%s)", getLocalPort()));
+    }
+
+    private static void send(HttpExchange exchange, String contentType, StringWriter text)
+            throws IOException {
+        byte[] body = text.toString().getBytes(Charset.forName("UTF-8"));
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, body.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(body);
+        } finally {
+            out.close();
+        }
+    }
+
+    public int getLocalPort() {
+        return server.getAddress().getPort();
+    }
+
+    public void stop() {
+        server.stop(0);
+    }
+}
@@ -0,0 +1,440 @@
+package amino.run.kernel.metrics;
+
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelObjectStub;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.policy.Library;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Registry of the {@link RPCMetrics} of this JVM, keyed by scope, microservice, DM and method.
+ * Metrics are created on first use and registered as MXBeans named {@code
+ * amino.run:type=RPCMetrics,scope=...,microservice=...,dm=...,method=...}. {@link #writeText}
+ * writes all of them in the Prometheus text format, for {@link MetricsEndpoint}.
+ *
+ * <p>Names are parsed and metrics created on first use only, later lookups of the metrics of an RPC
+ * are hash map lookups. Metrics of a microservice are removed when it is deleted, see {@link
+ * #remove}. DM and method names are kept for the life of the JVM, as they are bounded by the
+ * classes loaded. The platform MBean server is looked up once, when the class is loaded. If JMX is
+ * not available, metrics are still recorded and written, but not registered. All methods are
+ * thread-safe.
+ */
+public final class MetricsRegistry {
+    private static final Logger logger = Logger.getLogger(MetricsRegistry.class.getName());
+
+    /** Where an RPC was measured */
+    public enum Scope {
+        /** Kernel RPCs served by the kernel server, one per DM in the chain of a microservice */
+        SERVER,
+        /** Kernel RPCs made by the kernel client, including the time spent in the transport */
+        CLIENT,
+        /** Calls to the OMS */
+        OMS
+    }
+
+    private static final ConcurrentHashMap<Key, RPCMetrics> metrics =
+            new ConcurrentHashMap<Key, RPCMetrics>();
+    /** Metrics of kernel RPCs keyed by the class of the target instead of the DM name */
+    private static final ConcurrentHashMap<Key, RPCMetrics> kernelRPCMetrics =
+            new ConcurrentHashMap<Key, RPCMetrics>();
+    /** DM names by policy or stub class */
+    private static final ConcurrentHashMap<Class<?>, String> dmNames =
+            new ConcurrentHashMap<Class<?>, String>();
+    /** Method names by the generic method strings kernel RPCs are made with */
+    private static final ConcurrentHashMap<String, String> methodNames =
+            new ConcurrentHashMap<String, String>();
+    /** Platform MBean server, or null if JMX is not available */
+    private static final MBeanServer mbeanServer = platformMBeanServer();
+
+    private MetricsRegistry() {}
+
+    private static final class Key {
+        private final Scope scope;
+        private final MicroServiceID microServiceId;
+        /** DM name, or class of the policy or stub */
+        private final Object dm;
+        private final String method;
+        private final int hash;
+
+        private Key(Scope scope, MicroServiceID microServiceId, Object dm, String method) {
+            this.scope = scope;
+            this.microServiceId = microServiceId;
+            this.dm = dm;
+            this.method = method;
+            int h = scope.hashCode();
+            h = 31 * h + (microServiceId == null ? 0 : microServiceId.hashCode());
+            h = 31 * h + dm.hashCode();
+            hash = 31 * h + method.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key key = (Key) o;
+            return scope == key.scope
+                    && (microServiceId == null
+                            ? key.microServiceId == null
+                            : microServiceId.equals(key.microServiceId))
+                    && dm.equals(key.dm)
+                    && method.equals(key.method);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * Gets the metrics of a method, creating them on first use
+     *
+     * @param scope where the RPC is measured
+     * @param microServiceId microservice the method is invoked on, or null
+     * @param dm name of the DM, or of the remote interface, the method is invoked on
+     * @param method method name
+     * @return metrics of the method
+     */
+    public static RPCMetrics get(
+            Scope scope, MicroServiceID microServiceId, String dm, String method) {
+        Key key = new Key(scope, microServiceId, dm, method);
+        RPCMetrics m = metrics.get(key);
+        if (m == null) {
+            RPCMetrics newMetrics = new RPCMetrics(scope, microServiceId, dm, method);
+            m = metrics.putIfAbsent(key, newMetrics);
+            if (m == null) {
+                m = newMetrics;
+                register(m);
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Gets the metrics of a kernel RPC. RPCs forwarded along a DM chain with {@code onRPC} are
+     * accounted to the application method they carry.
+     *
+     * @param scope where the RPC is measured
+     * @param target kernel object, or stub of the kernel object, the RPC is made on
+     * @param rpc kernel RPC
+     * @return metrics of the RPC
+     */
+    public static RPCMetrics get(Scope scope, Object target, KernelRPC rpc) {
+        String method = methodName(rpc);
+        MicroServiceID microServiceId = microServiceId(target);
+        Class<?> cls = target == null ? Object.class : target.getClass();
+        Key key = new Key(scope, microServiceId, cls, method);
+        RPCMetrics m = kernelRPCMetrics.get(key);
+        if (m == null) {
+            m = get(scope, microServiceId, dmName(cls), method);
+            kernelRPCMetrics.put(key, m);
+        }
+        return m;
+    }
+
+    /** @return all metrics created so far */
+    public static List<RPCMetrics> getAll() {
+        return new ArrayList<RPCMetrics>(metrics.values());
+    }
+
+    /**
+     * Forgets the metrics of a microservice in all scopes and unregisters their MXBeans. Called
+     * when the microservice, or one of its kernel objects on this kernel server, is deleted.
+     * Metrics of kernel objects of the microservice still in use are created again on their next
+     * RPC.
+     *
+     * @param microServiceId microservice to forget the metrics of, or null to do nothing
+     */
+    public static void remove(MicroServiceID microServiceId) {
+        if (microServiceId == null) {
+            return;
+        }
+        Iterator<Key> keys = kernelRPCMetrics.keySet().iterator();
+        while (keys.hasNext()) {
+            if (microServiceId.equals(keys.next().microServiceId)) {
+                keys.remove();
+            }
+        }
+        Iterator<Map.Entry<Key, RPCMetrics>> entries = metrics.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<Key, RPCMetrics> entry = entries.next();
+            if (microServiceId.equals(entry.getKey().microServiceId)) {
+                entries.remove();
+                unregister(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Forgets the metrics of the microservice a kernel object belongs to, see {@link
+     * #remove(MicroServiceID)}
+     *
+     * @param target kernel object being deleted
+     */
+    public static void removeKernelObject(Object target) {
+        remove(microServiceId(target));
+    }
+
+    /** Forgets all metrics. Only meant for tests. */
+    static void clear() {
+        for (RPCMetrics m : getAll()) {
+            unregister(m);
+        }
+        metrics.clear();
+        kernelRPCMetrics.clear();
+    }
+
+    /**
+     * Wraps an object implementing a remote interface, so that calls through the interface are
+     * measured, e.g. calls to the OMS made through its RMI stub.
+     *
+     * @param iface interface to measure calls of
+     * @param target object implementing the interface
+     * @param scope scope to account calls to
+     * @return object implementing the interface, forwarding calls to the target
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T instrument(Class<T> iface, T target, Scope scope) {
+        return (T)
+                Proxy.newProxyInstance(
+                        iface.getClassLoader(),
+                        new Class<?>[] {iface},
+                        new Instrumentation(iface.getSimpleName(), target, scope));
+    }
+
+    /**
+     * @param object object returned by {@link #instrument}, or any other object
+     * @return object the given object forwards calls to if it was returned by {@link
+     *     #instrument}, or else the given object itself
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T unwrap(T object) {
+        if (object != null && Proxy.isProxyClass(object.getClass())) {
+            InvocationHandler handler = Proxy.getInvocationHandler(object);
+            if (handler instanceof Instrumentation) {
+                return (T) ((Instrumentation) handler).target;
+            }
+        }
+        return object;
+    }
+
+    /** Measures calls through an interface and forwards them to the target */
+    private static final class Instrumentation implements InvocationHandler {
+        private final String name;
+        private final Object target;
+        private final Scope scope;
+
+        private Instrumentation(String name, Object target, Scope scope) {
+            this.name = name;
+            this.target = target;
+            this.scope = scope;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(target, args);
+            }
+            RPCMetrics m = get(scope, null, name, method.getName());
+            long start = m.start();
+            boolean failed = true;
+            try {
+                Object ret = method.invoke(target, args);
+                failed = false;
+                return ret;
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            } finally {
+                m.end(start, failed);
+            }
+        }
+    }
+
+    private static MicroServiceID microServiceId(Object target) {
+        if (target instanceof Library.ServerPolicyLibrary) {
+            ReplicaID replicaId = ((Library.ServerPolicyLibrary) target).getReplicaId();
+            return replicaId == null ? null : replicaId.getOID();
+        }
+        if (target instanceof Library.GroupPolicyLibrary) {
+            return ((Library.GroupPolicyLibrary) target).getMicroServiceId();
+        }
+        return null;
+    }
+
+    /**
+     * @return simple name of the DM a policy or policy stub class belongs to, e.g. {@code
+     *     DefaultPolicy} for {@code DefaultPolicy.DefaultServerPolicy}
+     */
+    public static String dmName(Class<?> cls) {
+        String name = dmNames.get(cls);
+        if (name == null) {
+            Class<?> c = cls;
+            if (KernelObjectStub.class.isAssignableFrom(c) && c.getSuperclass() != null) {
+                /* Stubs extend the class they are generated for */
+                c = c.getSuperclass();
+            }
+            while (c.getEnclosingClass() != null) {
+                c = c.getEnclosingClass();
+            }
+            name = c.getSimpleName();
+            dmNames.put(cls, name);
+        }
+        return name;
+    }
+
+    /**
+     * @param rpc kernel RPC
+     * @return name of the method invoked by the RPC. For RPCs forwarded along a DM chain with
+     *     {@code onRPC}, name of the application method they carry.
+     */
+    public static String methodName(KernelRPC rpc) {
+        String method = methodName(rpc.getMethod());
+        if (method.startsWith("onRPC")
+                && !rpc.getParams().isEmpty()
+                && rpc.getParams().get(0) instanceof String) {
+            method = methodName((String) rpc.getParams().get(0));
+        }
+        return method;
+    }
+
+    /**
+     * @param method generic method string, e.g. {@code public java.lang.String
+     *     amino.run.demo.KeyValueStore.get(java.lang.String)}, or plain method name
+     * @return method name, e.g. {@code get}
+     */
+    static String methodName(String method) {
+        String name = methodNames.get(method);
+        if (name == null) {
+            int end = method.indexOf('(');
+            if (end < 0) {
+                end = method.length();
+            }
+            int start = Math.max(method.lastIndexOf('.', end), method.lastIndexOf(' ', end)) + 1;
+            name = method.substring(start, end);
+            methodNames.put(method, name);
+        }
+        return name;
+    }
+
+    private static ObjectName objectName(RPCMetrics m) throws Exception {
+        return new ObjectName(
+                String.format(
+                        "amino.run:type=RPCMetrics,scope=%s,microservice=%s,dm=%s,method=%s",
+                        m.getScope(),
+                        ObjectName.quote(m.getMicroService()),
+                        ObjectName.quote(m.getDM()),
+                        ObjectName.quote(m.getMethod())));
+    }
+
+    /**
+     * @return platform MBean server, or null if it is not available, e.g. when JMX classes fail to
+     *     link in a test class loader
+     */
+    private static MBeanServer platformMBeanServer() {
+        try {
+            return ManagementFactory.getPlatformMBeanServer();
+        } catch (Exception e) {
+            logger.log(Level.WARNING, "JMX is not available, metrics are not registered", e);
+        } catch (LinkageError e) {
+            logger.log(Level.WARNING, "JMX is not available, metrics are not registered", e);
+        }
+        return null;
+    }
+
+    private static void register(RPCMetrics m) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            mbeanServer.registerMBean(m, objectName(m));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Could not register " + m + " with JMX", e);
+        } catch (LinkageError e) {
+            logger.log(Level.FINE, "Could not register " + m + " with JMX", e);
+        }
+    }
+
+    private static void unregister(RPCMetrics m) {
+        if (mbeanServer == null) {
+            return;
+        }
+        try {
+            mbeanServer.unregisterMBean(objectName(m));
+        } catch (Exception e) {
+            logger.log(Level.FINE, "Could not unregister " + m + " from JMX", e);
+        } catch (LinkageError e) {
+            logger.log(Level.FINE, "Could not unregister " + m + " from JMX", e);
+        }
+    }
+
+    /**
+     * Writes all metrics in the Prometheus text format. Latencies are written as summaries in
+     * seconds.
+     *
+     * @param out writer to write to
+     * @throws IOException if writing fails
+     */
+    public static void writeText(Writer out) throws IOException {
+        List<RPCMetrics> all = getAll();
+        out.write("# TYPE amino_rpc_latency_seconds summary\n");
+        for (RPCMetrics m : all) {
+            LatencyHistogram.Snapshot latency = m.getLatency();
+            String labels = labels(m);
+            for (double quantile : new double[] {0.5, 0.9, 0.99, 0.999}) {
+                out.write(
+                        String.format(
+                                "amino_rpc_latency_seconds{%s,quantile=\"%s\"} %s\n",
+                                labels, quantile, seconds(latency.getPercentile(quantile))));
+            }
+            out.write(
+                    String.format(
+                            "amino_rpc_latency_seconds_sum{%s} %s\n",
+                            labels, seconds(latency.getSum())));
+            out.write(
+                    String.format(
+                            "amino_rpc_latency_seconds_count{%s} %d\n",
+                            labels, latency.getCount()));
+        }
+        out.write("# TYPE amino_rpc_errors_total counter\n");
+        for (RPCMetrics m : all) {
+            out.write(String.format("amino_rpc_errors_total{%s} %d\n", labels(m), m.getErrors()));
+        }
+        out.write("# TYPE amino_rpc_in_flight gauge\n");
+        for (RPCMetrics m : all) {
+            out.write(String.format("amino_rpc_in_flight{%s} %d\n", labels(m), m.getInFlight()));
+        }
+    }
+
+    private static String labels(RPCMetrics m) {
+        return String.format(
+                "scope=\"%s\",microservice=\"%s\",dm=\"%s\",method=\"%s\"",
+                m.getScope().toString().toLowerCase(),
+                escape(m.getMicroService()),
+                escape(m.getDM()),
+                escape(m.getMethod()));
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+
+    private static String seconds(long nanos) {
+        return Double.toString(nanos / 1e9);
+    }
+}
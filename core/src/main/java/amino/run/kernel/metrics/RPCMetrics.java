@@ -0,0 +1,138 @@
+package amino.run.kernel.metrics;
+
+import amino.run.common.MicroServiceID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies, errors and RPCs in flight of one method, invoked on one DM of one microservice. RPCs
+ * are measured as:
+ *
+ * <pre>
+ * long start = metrics.start();
+ * boolean failed = true;
+ * try {
+ *     ...
+ *     failed = false;
+ * } finally {
+ *     metrics.end(start, failed);
+ * }
+ * </pre>
+ */
+public class RPCMetrics implements RPCMetricsMXBean {
+    private final MetricsRegistry.Scope scope;
+    private final MicroServiceID microServiceId;
+    private final String dm;
+    private final String method;
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final AtomicLong errors = new AtomicLong();
+    /** Number of RPCs started. RPCs in flight are those started but not recorded yet. */
+    private final AtomicLong started = new AtomicLong();
+
+    RPCMetrics(
+            MetricsRegistry.Scope scope, MicroServiceID microServiceId, String dm, String method) {
+        this.scope = scope;
+        this.microServiceId = microServiceId;
+        this.dm = dm;
+        this.method = method;
+    }
+
+    /**
+     * Marks the start of an RPC
+     *
+     * @return start time to pass to {@link #end}
+     */
+    public long start() {
+        started.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Marks the end of an RPC
+     *
+     * @param start start time returned by {@link #start}
+     * @param failed whether the RPC threw an exception
+     */
+    public void end(long start, boolean failed) {
+        latency.record(System.nanoTime() - start);
+        if (failed) {
+            errors.incrementAndGet();
+        }
+    }
+
+    /** @return microservice the method belongs to, or null if not invoked on a microservice */
+    public MicroServiceID getMicroServiceId() {
+        return microServiceId;
+    }
+
+    public LatencyHistogram.Snapshot getLatency() {
+        return latency.snapshot();
+    }
+
+    @Override
+    public MetricsRegistry.Scope getScope() {
+        return scope;
+    }
+
+    @Override
+    public String getMicroService() {
+        return microServiceId == null ? "" : microServiceId.getID().toString();
+    }
+
+    @Override
+    public String getDM() {
+        return dm;
+    }
+
+    @Override
+    public String getMethod() {
+        return method;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.snapshot().getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.get();
+    }
+
+    @Override
+    public long getInFlight() {
+        /* Count recorded RPCs first, so that all of them are counted as started */
+        long recorded = latency.snapshot().getCount();
+        return Math.max(0, started.get() - recorded);
+    }
+
+    @Override
+    public double getMeanNanos() {
+        return latency.snapshot().getMean();
+    }
+
+    @Override
+    public long getP50Nanos() {
+        return latency.snapshot().getPercentile(0.5);
+    }
+
+    @Override
+    public long getP99Nanos() {
+        return latency.snapshot().getPercentile(0.99);
+    }
+
+    @Override
+    public long getP999Nanos() {
+        return latency.snapshot().getPercentile(0.999);
+    }
+
+    @Override
+    public long getMaxNanos() {
+        return latency.snapshot().getMax();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("RPCMetrics{%s %s %s.%s}", scope, getMicroService(), dm, method);
+    }
+}
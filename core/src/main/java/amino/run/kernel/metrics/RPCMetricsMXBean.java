@@ -0,0 +1,28 @@
+package amino.run.kernel.metrics;
+
+/** JMX view of the {@link RPCMetrics} of one method. Latencies are in nanoseconds. */
+public interface RPCMetricsMXBean {
+    MetricsRegistry.Scope getScope();
+
+    String getMicroService();
+
+    String getDM();
+
+    String getMethod();
+
+    long getCount();
+
+    long getErrors();
+
+    long getInFlight();
+
+    double getMeanNanos();
+
+    long getP50Nanos();
+
+    long getP99Nanos();
+
+    long getP999Nanos();
+
+    long getMaxNanos();
+}
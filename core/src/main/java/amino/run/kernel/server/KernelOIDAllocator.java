@@ -0,0 +1,109 @@
+package amino.run.kernel.server;
+
+import amino.run.kernel.common.KernelOID;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.logging.Logger;
+
+/**
+ * Allocates IDs for kernel objects created on a kernel server. IDs are taken from blocks leased
+ * from the OMS, so that creating a kernel object only takes a call to the OMS once every {@link
+ * #BLOCK_SIZE} objects. The locations of new kernel objects are registered with the OMS in batches
+ * by {@link #registerPending()}. Until then, the OMS resolves their IDs to this server, as the
+ * owner of the block, once it knows them to be allocated: IDs below a registered one, and all IDs
+ * of a block once the next block is leased. Kernel objects are registered before they are moved,
+ * see {@link KernelServerImpl#moveKernelObjectToServer}.
+ *
+ * <p>All methods are thread-safe.
+ */
+class KernelOIDAllocator {
+    private static final Logger logger = Logger.getLogger(KernelOIDAllocator.class.getName());
+
+    /** Number of IDs leased from the OMS at once */
+    static final int BLOCK_SIZE = 1024;
+
+    private final InetSocketAddress host;
+
+    /* Remaining IDs of the current block are [next, end) */
+    private long next;
+    private long end;
+
+    /** Kernel objects created since the last registration, guarded by itself */
+    private final LinkedHashSet<KernelOID> pending = new LinkedHashSet<KernelOID>();
+    /** Held while registering, so that discarded objects are not registered concurrently */
+    private final Object registrationLock = new Object();
+
+    KernelOIDAllocator(InetSocketAddress host) {
+        this.host = host;
+    }
+
+    /**
+     * Allocate the ID of a new kernel object on this server
+     *
+     * @return new kernel object ID
+     * @throws RemoteException if a new block of IDs could not be leased from the OMS
+     */
+    KernelOID allocate() throws RemoteException {
+        KernelOID oid;
+        synchronized (this) {
+            if (next == end) {
+                next = KernelServerImpl.oms.leaseKernelOIDs(host, BLOCK_SIZE);
+                end = next + BLOCK_SIZE;
+            }
+            oid = new KernelOID(next++);
+        }
+        synchronized (pending) {
+            pending.add(oid);
+        }
+        return oid;
+    }
+
+    /**
+     * Forget a kernel object whose location has not been registered yet, because it was deleted
+     * or is moved to another server, which registers it.
+     *
+     * @param oid kernel object ID
+     */
+    void discard(KernelOID oid) {
+        synchronized (registrationLock) {
+            synchronized (pending) {
+                pending.remove(oid);
+            }
+        }
+    }
+
+    /** Register the locations of all kernel objects allocated since the last registration. */
+    void registerPending() {
+        synchronized (registrationLock) {
+            ArrayList<KernelOID> oids;
+            synchronized (pending) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                oids = new ArrayList<KernelOID>(pending);
+                pending.clear();
+            }
+            try {
+                KernelServerImpl.oms.registerKernelObjects(oids, host);
+            } catch (RemoteException e) {
+                /* Lookups still resolve to this server. Retry with the next batch */
+                logger.warning(
+                        String.format(
+                                "Failed to register %d kernel objects with OMS: %s",
+                                oids.size(), e));
+                synchronized (pending) {
+                    pending.addAll(oids);
+                }
+            }
+        }
+    }
+
+    /** @return number of kernel objects whose locations have not been registered yet */
+    int getPendingCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+}
@@ -2,66 +2,227 @@ package amino.run.kernel.server;
 
 import amino.run.common.ObjectHandler;
 import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectMovedException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
 import java.util.ArrayList;
-import java.util.concurrent.Semaphore;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * A single MicroService kernel object that can receive RPCs. These are stored in the MicroService
  * kernel server.
  *
+ * <p>Admission of RPCs is controlled by a single atomic state word holding the number of RPCs in
+ * flight and a migrating flag. Admitting an RPC below the concurrency limit is a single CAS. RPCs
+ * over the limit park until an RPC finishes, and a migration parks until the RPCs in flight have
+ * drained.
+ *
  * @author iyzhang
  */
 public class KernelObject extends ObjectHandler {
+    /** Default maximum number of RPCs executed concurrently on one kernel object */
+    public static final int DEFAULT_MAX_CONCURRENT_RPCS = 100;
+    /** Maximum time an RPC waits for an ongoing migration of the object to finish */
+    private static final long MIGRATION_WAIT_MS = 2000;
+    /** Flag in {@link #state} set while the object is being migrated */
+    private static final int MIGRATING = 1 << 30;
+    /** Mask of the number of RPCs in flight in {@link #state} */
+    private static final int IN_FLIGHT = MIGRATING - 1;
+
+    private static final AtomicIntegerFieldUpdater<KernelObject> STATE =
+            AtomicIntegerFieldUpdater.newUpdater(KernelObject.class, "state");
+
+    /** Number of RPCs in flight, and {@link #MIGRATING} flag */
+    private transient volatile int state;
 
-    private static final int MAX_CONCURRENT_RPCS = 100;
-    private Boolean coalesced;
-    private Semaphore rpcCounter;
+    private volatile int maxConcurrentRPCs = DEFAULT_MAX_CONCURRENT_RPCS;
+    /** Threads parked because {@link #maxConcurrentRPCs} RPCs are in flight */
+    private transient ConcurrentLinkedQueue<Thread> waiters;
+    /** Thread parked in {@link #coalesce()} until RPCs in flight have drained */
+    private transient volatile Thread drainer;
+    /** Released when the object was moved away. Null while the object is not migrating. */
+    private transient volatile CountDownLatch migration;
+    /** Kernel server the object was moved to */
+    private transient volatile InetSocketAddress movedTo;
 
     public KernelObject(Object obj) {
         super(obj);
-        coalesced = false;
-        rpcCounter = new Semaphore(MAX_CONCURRENT_RPCS, true);
+        waiters = new ConcurrentLinkedQueue<Thread>();
     }
 
     public Object invoke(String method, ArrayList<Object> params) throws Exception {
-        Object ret;
+        enter();
+        try {
+            return super.invoke(method, params);
+        } finally {
+            exit();
+        }
+    }
+
+    /**
+     * Admits an RPC. Parks while the concurrency limit is reached.
+     *
+     * @throws KernelObjectMovedException if the object was migrated to another kernel server
+     * @throws KernelObjectMigratingException if the object is being migrated
+     * @throws InterruptedException if interrupted while waiting for admission
+     */
+    private void enter() throws Exception {
+        Thread current = null;
+        while (true) {
+            int s = state;
+            if ((s & MIGRATING) != 0) {
+                redirect();
+            }
+            if ((s & IN_FLIGHT) < maxConcurrentRPCs) {
+                if (STATE.compareAndSet(this, s, s + 1)) {
+                    return;
+                }
+                continue;
+            }
 
-        if (coalesced) {
-            // Object has been migrated to the other kernel server.
-            throw new KernelObjectMigratingException(
-                    "Object in this kernel server was migrated and is no longer valid.");
+            if (current == null) {
+                current = Thread.currentThread();
+            }
+            waiters.add(current);
+            /* Check again, an RPC might have finished before this thread was queued */
+            s = state;
+            if ((s & MIGRATING) == 0 && (s & IN_FLIGHT) >= maxConcurrentRPCs) {
+                LockSupport.park(this);
+            }
+            waiters.remove(current);
+            if (Thread.interrupted()) {
+                /* Pass on the wake up this thread might have consumed */
+                wakeWaiter();
+                throw new InterruptedException();
+            }
         }
+    }
 
-        rpcCounter.acquire();
+    private void exit() {
+        int s = STATE.decrementAndGet(this);
+        if (!waiters.isEmpty()) {
+            wakeWaiter();
+        }
+        Thread d = drainer;
+        if (d != null && (s & IN_FLIGHT) <= 1) {
+            LockSupport.unpark(d);
+        }
+    }
 
-        // Added try finally so that, when the super.invoke(...) throws exceptions,
-        // then we safely release the rpcCounter
-        try {
-            ret = super.invoke(method, params);
-        } finally {
-            rpcCounter.release();
+    private void wakeWaiter() {
+        Thread waiter = waiters.poll();
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
         }
+    }
 
-        return ret;
+    private void wakeAllWaiters() {
+        Thread waiter;
+        while ((waiter = waiters.poll()) != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+
+    /**
+     * Waits for an ongoing migration of the object to finish and redirects the caller to the new
+     * location once it is known.
+     */
+    private void redirect() throws Exception {
+        CountDownLatch latch = migration;
+        if (latch != null) {
+            latch.await(MIGRATION_WAIT_MS, TimeUnit.MILLISECONDS);
+        }
+        InetSocketAddress host = movedTo;
+        if (host != null) {
+            throw new KernelObjectMovedException("Object was moved to " + host, host);
+        }
+        throw new KernelObjectMigratingException(
+                "Object in this kernel server was migrated and is no longer valid.");
     }
 
+    /**
+     * Stops admitting RPCs and waits until the RPCs in flight have drained. The migration is
+     * usually requested by an RPC of the object itself, so that one RPC remains in flight.
+     */
     public void coalesce() {
-        coalesced = true;
-        while (rpcCounter.availablePermits() < MAX_CONCURRENT_RPCS - 1) {
-            try {
-                Thread.sleep(10); // TODO: Quinton: Why sleep for an arbitrary amount of time here?
-                // Seems like we need to block on a semaphore here instead.
-            } catch (InterruptedException e) {
-                continue;
+        migration = new CountDownLatch(1);
+        movedTo = null;
+        drainer = Thread.currentThread();
+        int s;
+        do {
+            s = state;
+        } while (!STATE.compareAndSet(this, s, s | MIGRATING));
+        wakeAllWaiters();
+
+        boolean interrupted = false;
+        while ((state & IN_FLIGHT) > 1) {
+            LockSupport.park(this);
+            if (Thread.interrupted()) {
+                interrupted = true;
             }
         }
+        drainer = null;
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
 
-        return;
+    /**
+     * Marks the migration of the object as finished. RPCs waiting for the migration, and all later
+     * RPCs still reaching this copy of the object, are redirected to the new host.
+     *
+     * @param host kernel server the object was moved to
+     */
+    public void moved(InetSocketAddress host) {
+        movedTo = host;
+        int s;
+        do {
+            s = state;
+        } while ((s & MIGRATING) == 0 && !STATE.compareAndSet(this, s, s | MIGRATING));
+        CountDownLatch latch = migration;
+        if (latch != null) {
+            latch.countDown();
+        }
     }
 
     public void uncoalesce() {
-        coalesced = false;
-        // reset the rpc semaphore
-        rpcCounter = new Semaphore(MAX_CONCURRENT_RPCS, true);
+        int s;
+        do {
+            s = state;
+        } while (!STATE.compareAndSet(this, s, s & ~MIGRATING));
+        wakeAllWaiters();
+    }
+
+    /**
+     * Sets the maximum number of RPCs executed concurrently on this object.
+     *
+     * @param maxConcurrentRPCs concurrency limit, at least 1
+     */
+    public void setMaxConcurrentRPCs(int maxConcurrentRPCs) {
+        if (maxConcurrentRPCs < 1 || maxConcurrentRPCs > IN_FLIGHT) {
+            throw new IllegalArgumentException(
+                    "Invalid maximum number of concurrent RPCs: " + maxConcurrentRPCs);
+        }
+        this.maxConcurrentRPCs = maxConcurrentRPCs;
+        wakeAllWaiters();
+    }
+
+    public int getMaxConcurrentRPCs() {
+        return maxConcurrentRPCs;
+    }
+
+    /** @return number of RPCs currently executing on this object */
+    public int getInFlightCount() {
+        return state & IN_FLIGHT;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        in.defaultReadObject();
+        waiters = new ConcurrentLinkedQueue<Thread>();
     }
 }
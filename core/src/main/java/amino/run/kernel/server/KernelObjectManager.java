@@ -1,10 +1,15 @@
 package amino.run.kernel.server;
 
 import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectMovedException;
 import amino.run.kernel.common.KernelObjectNotCreatedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import java.lang.reflect.Constructor;
+import java.net.InetSocketAddress;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Logger;
 
@@ -15,8 +20,22 @@ import java.util.logging.Logger;
  */
 public class KernelObjectManager {
     private static final Logger logger = Logger.getLogger(KernelObjectManager.class.getName());
+    /** Maximum number of moved kernel objects to keep forwarding addresses for */
+    private static final int MAX_FORWARDING_ADDRESSES = 4096;
+
     private ConcurrentHashMap<KernelOID, KernelObject> objects;
 
+    /** New hosts of kernel objects recently moved away from this server */
+    private final Map<KernelOID, InetSocketAddress> forwardingAddresses =
+            Collections.synchronizedMap(
+                    new LinkedHashMap<KernelOID, InetSocketAddress>() {
+                        @Override
+                        protected boolean removeEldestEntry(
+                                Map.Entry<KernelOID, InetSocketAddress> eldest) {
+                            return size() > MAX_FORWARDING_ADDRESSES;
+                        }
+                    });
+
     public KernelObjectManager() {
         objects = new ConcurrentHashMap<KernelOID, KernelObject>();
     }
@@ -32,6 +51,12 @@ public class KernelObjectManager {
     public KernelObject lookupObject(KernelOID oid) throws KernelObjectNotFoundException {
         KernelObject object = objects.get(oid);
         if (object == null) {
+            InetSocketAddress host = forwardingAddresses.get(oid);
+            if (host != null) {
+                throw new KernelObjectMovedException(
+                        "Kernel object with id: " + oid.toString() + " was moved to " + host,
+                        host);
+            }
             throw new KernelObjectNotFoundException(
                     "Could not find kernel object with id: " + oid.toString() + " on local host.");
         }
@@ -45,9 +70,27 @@ public class KernelObjectManager {
      * @param object
      */
     public void addObject(KernelOID oid, KernelObject object) {
+        forwardingAddresses.remove(oid);
         objects.put(oid, object);
     }
 
+    /**
+     * Remove a kernel object moved to another server. RPCs still reaching this server for the
+     * object are answered with the address of the new server.
+     *
+     * @param oid
+     * @param host server the object was moved to
+     * @return the removed kernel object
+     * @throws KernelObjectNotFoundException if we do not have the object
+     */
+    public KernelObject removeMovedObject(KernelOID oid, InetSocketAddress host)
+            throws KernelObjectNotFoundException {
+        forwardingAddresses.put(oid, host);
+        KernelObject object = removeObject(oid);
+        object.moved(host);
+        return object;
+    }
+
     public KernelObject removeObject(KernelOID oid) throws KernelObjectNotFoundException {
         KernelObject object = objects.remove(oid);
         if (object == null) {
@@ -107,4 +150,9 @@ public class KernelObjectManager {
         Collection<KernelOID> values = objects.keySet();
         return values.toArray(new KernelOID[values.size()]);
     }
+
+    /** @return number of kernel objects on this server */
+    public int size() {
+        return objects.size();
+    }
 }
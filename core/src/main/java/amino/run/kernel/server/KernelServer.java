@@ -11,8 +11,10 @@ import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelObjectStubNotCreatedException;
 import amino.run.kernel.common.KernelRPC;
 import amino.run.kernel.common.KernelRPCException;
+import java.net.InetSocketAddress;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Map;
 
 /**
  * Interface for the MicroService Kernel Server
@@ -24,6 +26,34 @@ public interface KernelServer extends Remote {
             throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
                     KernelRPCException;
 
+    /**
+     * Gets the IDs of the {@link amino.run.kernel.common.codec.KernelRPCCodec}s this kernel server
+     * can decode, in order of preference.
+     *
+     * @return supported codec IDs
+     * @throws RemoteException
+     */
+    byte[] getKernelRPCCodecs() throws RemoteException;
+
+    /**
+     * Gets the address of the {@link amino.run.kernel.transport.NioTransportServer} of this kernel
+     * server. Kernel clients send kernel RPCs to this address instead of going through RMI.
+     *
+     * @return transport address, or null if kernel RPCs are only served through RMI
+     * @throws RemoteException
+     */
+    InetSocketAddress getTransportAddress() throws RemoteException;
+
+    /**
+     * Notifies this kernel server of the new locations of kernel objects it looked up. Pushed by
+     * the OMS when such kernel objects move or are deleted.
+     *
+     * @param locations new locations by kernel object ID, null for kernel objects that were deleted
+     * @throws RemoteException
+     */
+    void updateKernelObjectLocations(Map<KernelOID, InetSocketAddress> locations)
+            throws RemoteException;
+
     void copyKernelObject(KernelOID oid, KernelObject object)
             throws RemoteException, KernelObjectNotFoundException,
                     KernelObjectStubNotCreatedException, MicroServiceNotFoundException,
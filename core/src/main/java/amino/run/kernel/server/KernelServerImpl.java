@@ -10,6 +10,16 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.Notification;
 import amino.run.kernel.client.KernelClient;
 import amino.run.kernel.common.*;
+import amino.run.kernel.common.codec.KernelRPCCodecRegistry;
+import amino.run.kernel.metrics.MetricsEndpoint;
+import amino.run.kernel.metrics.MetricsRegistry;
+import amino.run.kernel.metrics.RPCMetrics;
+import amino.run.kernel.tracing.FileSpanExporter;
+import amino.run.kernel.tracing.Span;
+import amino.run.kernel.tracing.TraceContext;
+import amino.run.kernel.tracing.Tracer;
+import amino.run.kernel.transport.NioTransportServer;
+import amino.run.oms.ChainRegistration;
 import amino.run.oms.OMSServer;
 import amino.run.policy.Library;
 import amino.run.policy.Policy;
@@ -18,13 +28,18 @@ import amino.run.policy.util.ResettableTimer;
 import amino.run.runtime.EventHandler;
 import amino.run.runtime.MicroService;
 import com.google.devtools.common.options.OptionsParser;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryUsage;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +56,8 @@ public class KernelServerImpl implements KernelServer {
     public static String KERNEL_SERVER_PORT_OPT = "--kernel-server-port";
     public static String DEFAULT_REGION = "default-region";
     public static String REGION_KEY = "region";
+    public static String TRANSPORT_RMI = "rmi";
+    public static String TRANSPORT_NIO = "nio";
 
     private InetSocketAddress host;
     private String region;
@@ -48,20 +65,34 @@ public class KernelServerImpl implements KernelServer {
     private KernelObjectManager objectManager;
     /** stub for the OMS */
     public static OMSServer oms;
+    /** allocator for IDs of kernel objects created on this server */
+    private KernelOIDAllocator oidAllocator;
     /** local kernel client for making RPCs */
     private KernelClient client;
+    /** NIO transport for kernel RPCs, or null if kernel RPCs are only served through RMI */
+    private NioTransportServer transportServer;
     // heartbeat period is 1/3of the heartbeat timeout period
     static final long KS_HEARTBEAT_PERIOD = OMSServer.KS_HEARTBEAT_TIMEOUT / 3;
 
     // heartbeat timer
     private ResettableTimer ksHeartbeatSendTimer;
 
+    /** Number of kernel RPCs served, for the RPC rate sent with heartbeats */
+    private final AtomicLong rpcCount = new AtomicLong();
+    /* RPC count and time of the last load measurement, accessed by the heartbeat timer only */
+    private long lastRpcCount;
+    private long lastLoadTime = System.nanoTime();
+
     public KernelServerImpl(InetSocketAddress host, InetSocketAddress omsHost) {
         OMSServer oms = null;
         try {
             Registry registry =
                     LocateRegistry.getRegistry(omsHost.getHostName(), omsHost.getPort());
-            oms = (OMSServer) registry.lookup("io.amino.run.oms");
+            oms =
+                    MetricsRegistry.instrument(
+                            OMSServer.class,
+                            (OMSServer) registry.lookup("io.amino.run.oms"),
+                            MetricsRegistry.Scope.OMS);
         } catch (Exception e) {
             logger.severe("Could not find OMS: " + e.toString());
         }
@@ -76,6 +107,7 @@ public class KernelServerImpl implements KernelServer {
         this.oms = oms;
         this.host = host;
         objectManager = new KernelObjectManager();
+        oidAllocator = new KernelOIDAllocator(host);
         client = new KernelClient(oms);
         GlobalKernelReferences.nodeServer = this;
     }
@@ -98,9 +130,13 @@ public class KernelServerImpl implements KernelServer {
      */
     @Override
     public Object makeKernelRPC(KernelRPC rpc)
-            throws KernelObjectNotFoundException, KernelRPCException {
+            throws KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
         KernelObject object = null;
         object = objectManager.lookupObject(rpc.getOID());
+        rpcCount.incrementAndGet();
+        RPCMetrics metrics =
+                MetricsRegistry.get(MetricsRegistry.Scope.SERVER, object.getObject(), rpc);
 
         logger.log(
                 Level.FINE,
@@ -111,15 +147,77 @@ public class KernelServerImpl implements KernelServer {
                         + " params: "
                         + rpc.getParams().toString());
 
+        Span span =
+                Tracer.startServerSpan(
+                        rpc.getTraceContext(), metrics.getDM(), metrics.getMethod());
+        if (span != null && rpc.getDecodedAt() != 0) {
+            span.setSerializationNanos(rpc.getSerializationNanos());
+            span.setQueueNanos(System.nanoTime() - rpc.getDecodedAt());
+        }
+        /* RPCs made while serving this one continue its trace */
+        TraceContext callerContext =
+                Tracer.setCurrent(span != null ? span.getContext() : rpc.getTraceContext());
+
         Object ret = null;
+        long start = metrics.start();
+        boolean failed = true;
         try {
             ret = object.invoke(rpc.getMethod(), rpc.getParams());
+            failed = false;
+        } catch (KernelObjectMovedException e) {
+            /* Object was moved away while the RPC waited for the migration to finish */
+            throw e;
+        } catch (KernelObjectMigratingException e) {
+            throw e;
         } catch (Exception e) {
             throw new KernelRPCException(e);
+        } finally {
+            metrics.end(start, failed);
+            Tracer.setCurrent(callerContext);
+            if (span != null) {
+                Tracer.finish(span, failed);
+            }
         }
         return ret;
     }
 
+    /**
+     * Update the locations of kernel objects in the location cache of the kernel client. This is a
+     * public RMI interface, invoked by the OMS.
+     *
+     * @param locations new locations by kernel object ID, null for kernel objects that were deleted
+     */
+    @Override
+    public void updateKernelObjectLocations(Map<KernelOID, InetSocketAddress> locations) {
+        for (Map.Entry<KernelOID, InetSocketAddress> entry : locations.entrySet()) {
+            client.getLocationCache().update(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Get the codecs this kernel server can decode RPCs with. This is a public RMI interface.
+     *
+     * @return supported codec IDs, in order of preference
+     */
+    @Override
+    public byte[] getKernelRPCCodecs() {
+        return KernelRPCCodecRegistry.getSupportedIds();
+    }
+
+    /**
+     * Get the address kernel RPCs can be sent to without going through RMI. This is a public RMI
+     * interface.
+     *
+     * @return transport address, or null if the NIO transport is not started
+     */
+    @Override
+    public InetSocketAddress getTransportAddress() {
+        if (transportServer == null) {
+            return null;
+        }
+        return new InetSocketAddress(host.getAddress(), transportServer.getLocalPort());
+    }
+
     /**
      * Move a kernel object to this server.
      *
@@ -146,6 +244,8 @@ public class KernelServerImpl implements KernelServer {
                         "Started adding %d objects. First OID: %s", spContainers.size(), oid));
 
         List<String> serverPolicies = new ArrayList<String>();
+        List<Library.ServerPolicyLibrary> created = new ArrayList<Library.ServerPolicyLibrary>();
+        ChainRegistration registration = new ChainRegistration();
 
         for (PolicyContainer spContainer : firstServerPolicy.getProcessedPolicies()) {
             // Add Server Policy object in the same order as client side has created.
@@ -160,21 +260,39 @@ public class KernelServerImpl implements KernelServer {
             EventHandler policyHandler = new EventHandler(host, policyObjList);
             policyObjList.add(serverPolicyStub);
             serverPolicyStub.setReplicaId(serverPolicy.getReplicaId());
-            oms.setReplicaDispatcher(serverPolicy.getReplicaId(), policyHandler);
+            registration.setReplicaDispatcher(serverPolicy.getReplicaId(), policyHandler);
 
             KernelOID koid = serverPolicy.$__getKernelOID();
 
-            objectManager.addObject(koid, new KernelObject(serverPolicy));
-            oms.registerKernelObject(koid, host);
+            KernelObject kernelObject = new KernelObject(serverPolicy);
+            MicroServiceSpec spec = serverPolicy.getSpec();
+            if (spec != null && spec.getMaxConcurrentRPCs() > 0) {
+                kernelObject.setMaxConcurrentRPCs(spec.getMaxConcurrentRPCs());
+            }
+            objectManager.addObject(koid, kernelObject);
+            registration.moveKernelObject(koid, host);
 
             serverPolicies.add(serverPolicy.toString());
+            created.add(serverPolicy);
+        }
 
+        /* Register the new locations and handlers of the whole chain in one call */
+        try {
+            oms.registerChain(registration);
+        } catch (ClassNotFoundException e) {
+            /* Only thrown when group policies are created */
+            throw new RemoteException("Failed to register " + registration, e);
+        } catch (KernelObjectNotCreatedException e) {
+            throw new RemoteException("Failed to register " + registration, e);
+        }
+
+        for (Library.ServerPolicyLibrary serverPolicy : created) {
             try {
                 serverPolicy.onCreate(serverPolicy.getGroup());
             } catch (Exception e) {
                 String exceptionMsg =
                         "Initialization failed at copyKernelObject for KernelObject("
-                                + koid.getID()
+                                + serverPolicy.$__getKernelOID().getID()
                                 + ").  ";
                 logger.severe(exceptionMsg);
                 throw new RemoteException(exceptionMsg, e);
@@ -189,6 +307,23 @@ public class KernelServerImpl implements KernelServer {
     }
 
     /** LOCAL INTERFACES * */
+    /**
+     * Start serving kernel RPCs through the NIO transport in addition to RMI.
+     *
+     * @param port port to listen on. 0 picks a free port.
+     * @throws IOException if the port cannot be bound
+     */
+    public void startTransport(int port) throws IOException {
+        if (transportServer == null) {
+            transportServer =
+                    new NioTransportServer(this, new InetSocketAddress(host.getAddress(), port));
+            logger.info(
+                    String.format(
+                            "Kernel RPC transport ready at port(%s)",
+                            transportServer.getLocalPort()));
+        }
+    }
+
     /**
      * Create a new kernel object locally on this server.
      *
@@ -198,9 +333,9 @@ public class KernelServerImpl implements KernelServer {
     public KernelOID newKernelObject(Class<?> cl, Object... args)
             throws KernelObjectNotCreatedException {
         KernelOID oid = null;
-        // get OID
+        // get OID from the block leased from the OMS. The location is registered later.
         try {
-            oid = oms.registerKernelObject(host);
+            oid = oidAllocator.allocate();
         } catch (RemoteException e) {
             throw new KernelObjectNotCreatedException("Error making RPC to OMS: " + e);
         }
@@ -252,6 +387,8 @@ public class KernelServerImpl implements KernelServer {
 
         logger.fine("Moving object " + oid.toString() + " to " + host.toString());
 
+        /* The OMS only finds objects which are known to be allocated, register them first */
+        registerKernelObjects();
         try {
             client.copyObjectToServer(host, oid, object);
         } catch (RemoteException e) {
@@ -281,7 +418,7 @@ public class KernelServerImpl implements KernelServer {
             kernel object is not uncoalesced before method invocation, it throws KernelObjectMigratingException. */
             objectManager.lookupObject(serverPolicy.$__getKernelOID()).uncoalesce();
             serverPolicy.onDestroy();
-            objectManager.removeObject(serverPolicy.$__getKernelOID());
+            objectManager.removeMovedObject(serverPolicy.$__getKernelOID(), host);
         } while ((appObject != null)
                 && ((objectStub = appObject.getObject()) != null)
                 && (objectStub instanceof KernelObjectStub));
@@ -306,8 +443,10 @@ public class KernelServerImpl implements KernelServer {
             ((Policy.GroupPolicy) object.getObject()).onDestroy();
         }
 
+        oidAllocator.discard(oid);
         oms.unRegisterKernelObject(oid, host);
         objectManager.removeObject(oid);
+        MetricsRegistry.removeKernelObject(object.getObject());
     }
 
     /**
@@ -365,7 +504,19 @@ public class KernelServerImpl implements KernelServer {
                 String.format(
                         "Got request to create microservice with spec '%s' and %d parameters.",
                         spec, args.length));
-        return (AppObjectStub) MicroService.new_(spec, args);
+        try {
+            return (AppObjectStub) MicroService.new_(spec, args);
+        } finally {
+            registerKernelObjects();
+        }
+    }
+
+    /**
+     * Register the locations of the kernel objects created on this server since the last
+     * registration with the OMS, in one batch. Until then, the OMS resolves them to this server.
+     */
+    public void registerKernelObjects() {
+        oidAllocator.registerPending();
     }
 
     public class MemoryStatThread extends Thread {
@@ -392,8 +543,31 @@ public class KernelServerImpl implements KernelServer {
         return new MemoryStatThread();
     }
 
+    /**
+     * Measure the resource usage of this server, to be sent to the OMS with the next heartbeat.
+     *
+     * @return resource usage since the previous measurement
+     */
+    ServerLoad measureLoad() {
+        long now = System.nanoTime();
+        long count = rpcCount.get();
+        double seconds = (now - lastLoadTime) / 1e9;
+        double rpcRate = seconds > 0 ? (count - lastRpcCount) / seconds : 0;
+        lastRpcCount = count;
+        lastLoadTime = now;
+
+        double cpuLoad =
+                ManagementFactory.getOperatingSystemMXBean().getSystemLoadAverage()
+                        / Runtime.getRuntime().availableProcessors();
+        MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+        return new ServerLoad(
+                cpuLoad, heap.getUsed(), heap.getMax(), objectManager.size(), rpcRate);
+    }
+
     /** Send HeartBeats to OMS. */
     private void sendHeartBeat(ServerInfo srvinfo) {
+        registerKernelObjects();
+        srvinfo.setLoad(measureLoad());
         try {
             oms.receiveHeartBeat(srvinfo);
         } catch (Exception e) {
@@ -436,6 +610,17 @@ public class KernelServerImpl implements KernelServer {
             Registry registry = LocateRegistry.createRegistry(ksArgs.kernelServerPort);
             registry.rebind("io.amino.run.kernelserver", stub);
 
+            if (TRANSPORT_NIO.equals(ksArgs.transport)) {
+                server.startTransport(ksArgs.transportPort);
+            }
+            Tracer.setTracesPerSecond(ksArgs.tracesPerSecond);
+            if (!ksArgs.traceFile.isEmpty()) {
+                Tracer.setExporter(new FileSpanExporter(new File(ksArgs.traceFile)));
+            }
+            if (ksArgs.metricsPort > 0) {
+                new MetricsEndpoint(new InetSocketAddress(host.getAddress(), ksArgs.metricsPort));
+            }
+
             // Register against OMS
             ServerInfo srvInfo = createServerInfo(host, ksArgs.labels);
             server.setRegion(srvInfo.getRegion());
@@ -0,0 +1,63 @@
+package amino.run.kernel.tracing;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides which new traces are sampled, adapting the sampling probability to the rate of new
+ * traces, so that about {@code tracesPerSecond} traces are sampled per second however busy the
+ * server is. The rate is measured over windows of {@link #WINDOW_NANOS} and smoothed, so that
+ * tracing can stay on in production.
+ */
+public class AdaptiveSampler {
+    static final long WINDOW_NANOS = 1000000000L;
+
+    private final double tracesPerSecond;
+    private final AtomicLong requests = new AtomicLong();
+    private volatile long windowStart = System.nanoTime();
+    /** Smoothed rate of new traces per second */
+    private double rate = -1;
+    private volatile double probability = 1;
+
+    /** @param tracesPerSecond number of traces to sample per second. 0 disables sampling. */
+    public AdaptiveSampler(double tracesPerSecond) {
+        if (tracesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid traces per second: " + tracesPerSecond);
+        }
+        this.tracesPerSecond = tracesPerSecond;
+    }
+
+    /** @return whether to sample a new trace */
+    public boolean sample() {
+        return sample(System.nanoTime());
+    }
+
+    boolean sample(long now) {
+        if (tracesPerSecond == 0) {
+            return false;
+        }
+        requests.incrementAndGet();
+        if (now - windowStart >= WINDOW_NANOS) {
+            adjust(now);
+        }
+        double p = probability;
+        return p >= 1 || ThreadLocalRandom.current().nextDouble() < p;
+    }
+
+    private synchronized void adjust(long now) {
+        long elapsed = now - windowStart;
+        if (elapsed < WINDOW_NANOS) {
+            /* Adjusted by another thread */
+            return;
+        }
+        double windowRate = requests.getAndSet(0) * 1e9 / elapsed;
+        rate = rate < 0 ? windowRate : (rate + windowRate) / 2;
+        probability = rate <= tracesPerSecond ? 1 : tracesPerSecond / rate;
+        windowStart = now;
+    }
+
+    /** @return current probability of sampling a new trace */
+    public double getProbability() {
+        return probability;
+    }
+}
@@ -0,0 +1,130 @@
+package amino.run.kernel.tracing;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Appends finished spans to a file, one span per line as written by {@link Span#toLine()}. Spans
+ * are queued and written by a background thread. When the queue is full, spans are dropped rather
+ * than slowing down RPCs. {@link #read} reads the spans back, e.g. for {@link TraceReport}.
+ */
+public class FileSpanExporter implements SpanExporter {
+    private static final Logger logger = Logger.getLogger(FileSpanExporter.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    static final int QUEUE_CAPACITY = 10000;
+
+    private final File file;
+    private final BlockingQueue<Span> queue = new ArrayBlockingQueue<Span>(QUEUE_CAPACITY);
+    private final AtomicLong dropped = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean closed;
+
+    /**
+     * @param file file to append spans to
+     * @throws IOException if the file cannot be opened
+     */
+    public FileSpanExporter(File file) throws IOException {
+        this.file = file;
+        final Writer out =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), UTF8));
+        writer =
+                new Thread("SpanExporterThread") {
+                    @Override
+                    public void run() {
+                        write(out);
+                    }
+                };
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public void export(Span span) {
+        if (closed || !queue.offer(span)) {
+            dropped.incrementAndGet();
+        }
+    }
+
+    private void write(Writer out) {
+        try {
+            while (!closed || !queue.isEmpty()) {
+                Span span = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (span == null) {
+                    out.flush();
+                    continue;
+                }
+                out.write(span.toLine());
+                out.write('\n');
+                if (queue.isEmpty()) {
+                    out.flush();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to write spans to " + file, e);
+        } finally {
+            try {
+                out.close();
+            } catch (IOException e) {
+                logger.log(Level.FINE, "Failed to close " + file, e);
+            }
+        }
+    }
+
+    /** @return number of spans dropped because the queue was full */
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    /** Writes the queued spans and closes the file */
+    public void close() throws InterruptedException {
+        closed = true;
+        writer.join();
+    }
+
+    /**
+     * Reads the spans written to a file
+     *
+     * @param file file written by a {@link FileSpanExporter}
+     * @return spans in the order they were written
+     * @throws IOException if the file cannot be read or holds an invalid span
+     */
+    public static List<Span> read(File file) throws IOException {
+        List<Span> spans = new ArrayList<Span>();
+        BufferedReader in =
+                new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                try {
+                    spans.add(Span.fromLine(line));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid span in " + file + ": " + line, e);
+                }
+            }
+        } finally {
+            in.close();
+        }
+        return spans;
+    }
+}
@@ -0,0 +1,199 @@
+package amino.run.kernel.tracing;
+
+/**
+ * Timing of one hop of a traced RPC. Kernel clients record a {@link Kind#CLIENT} span for every
+ * kernel RPC they make, and kernel servers a {@link Kind#SERVER} span for every kernel RPC they
+ * serve, i.e. for every DM of a chain. The server span is a child of the client span.
+ *
+ * <p>Client spans last from making the RPC until its result is returned, and include encoding the
+ * RPC. Server spans last while the RPC is served. Decoding the RPC and waiting to be served happen
+ * before, and are recorded in the server span separately, so that the rest of the client span is
+ * the time spent in the transport.
+ */
+public class Span {
+    public enum Kind {
+        CLIENT,
+        SERVER
+    }
+
+    private final Kind kind;
+    private final long traceId;
+    private final long spanId;
+    private final long parentSpanId;
+    private final String host;
+    private final String dm;
+    private final String method;
+    /** Wall clock time the span started at, to line up spans of different hosts */
+    private final long startMillis;
+
+    private final long startNanos;
+    private long durationNanos;
+    private long serializationNanos;
+    private long queueNanos;
+    private boolean error;
+
+    Span(
+            Kind kind,
+            long traceId,
+            long spanId,
+            long parentSpanId,
+            String host,
+            String dm,
+            String method,
+            long startMillis,
+            long durationNanos) {
+        this.kind = kind;
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.parentSpanId = parentSpanId;
+        this.host = host;
+        this.dm = dm;
+        this.method = method;
+        this.startMillis = startMillis;
+        this.startNanos = System.nanoTime();
+        this.durationNanos = durationNanos;
+    }
+
+    /** Ends the span, measuring its duration */
+    void end() {
+        durationNanos = System.nanoTime() - startNanos;
+    }
+
+    /** @return context to pass to the next hop, with this span as parent */
+    public TraceContext getContext() {
+        return new TraceContext(traceId, spanId, true);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getSpanId() {
+        return spanId;
+    }
+
+    /** @return ID of the parent span, or 0 if this span started the trace */
+    public long getParentSpanId() {
+        return parentSpanId;
+    }
+
+    public String getHost() {
+        return host;
+    }
+
+    public String getDM() {
+        return dm;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    public long getStartMillis() {
+        return startMillis;
+    }
+
+    public long getDurationNanos() {
+        return durationNanos;
+    }
+
+    /** @return time spent encoding the RPC for client spans, decoding it for server spans */
+    public long getSerializationNanos() {
+        return serializationNanos;
+    }
+
+    public void setSerializationNanos(long serializationNanos) {
+        this.serializationNanos = serializationNanos;
+    }
+
+    /** @return time the RPC waited on the server between being decoded and being served */
+    public long getQueueNanos() {
+        return queueNanos;
+    }
+
+    public void setQueueNanos(long queueNanos) {
+        this.queueNanos = queueNanos;
+    }
+
+    public boolean isError() {
+        return error;
+    }
+
+    public void setError(boolean error) {
+        this.error = error;
+    }
+
+    /** @return the given ID as 16 hex digits */
+    static String id(long id) {
+        String hex = Long.toHexString(id);
+        return "0000000000000000".substring(hex.length()) + hex;
+    }
+
+    /** @return span as one line of tab separated fields, as written by {@link FileSpanExporter} */
+    public String toLine() {
+        return kind
+                + "\t"
+                + id(traceId)
+                + "\t"
+                + id(spanId)
+                + "\t"
+                + id(parentSpanId)
+                + "\t"
+                + host
+                + "\t"
+                + dm
+                + "\t"
+                + method
+                + "\t"
+                + startMillis
+                + "\t"
+                + durationNanos
+                + "\t"
+                + serializationNanos
+                + "\t"
+                + queueNanos
+                + "\t"
+                + error;
+    }
+
+    /**
+     * @param line line written by {@link #toLine()}
+     * @return span read from the line
+     * @throws IllegalArgumentException if the line is not a valid span
+     */
+    public static Span fromLine(String line) {
+        String[] fields = line.split("\t", -1);
+        if (fields.length != 12) {
+            throw new IllegalArgumentException("Invalid span: " + line);
+        }
+        Span span =
+                new Span(
+                        Kind.valueOf(fields[0]),
+                        parseId(fields[1]),
+                        parseId(fields[2]),
+                        parseId(fields[3]),
+                        fields[4],
+                        fields[5],
+                        fields[6],
+                        Long.parseLong(fields[7]),
+                        Long.parseLong(fields[8]));
+        span.serializationNanos = Long.parseLong(fields[9]);
+        span.queueNanos = Long.parseLong(fields[10]);
+        span.error = Boolean.parseBoolean(fields[11]);
+        return span;
+    }
+
+    private static long parseId(String id) {
+        /* IDs use all 64 bits, which parseLong does not accept in hex */
+        return Long.parseLong(id.substring(0, 8), 16) << 32 | Long.parseLong(id.substring(8), 16);
+    }
+
+    @Override
+    public String toString() {
+        return toLine();
+    }
+}
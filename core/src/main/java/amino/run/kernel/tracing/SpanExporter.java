@@ -0,0 +1,12 @@
+package amino.run.kernel.tracing;
+
+/** Receives the spans finished by the {@link Tracer}, e.g. to write them to a file. */
+public interface SpanExporter {
+    /**
+     * Exports a finished span. Called on the thread which finished the span, so implementations
+     * must not block.
+     *
+     * @param span finished span
+     */
+    void export(Span span);
+}
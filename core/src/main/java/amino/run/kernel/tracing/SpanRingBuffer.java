@@ -0,0 +1,39 @@
+package amino.run.kernel.tracing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/** Lock-free buffer of the most recently finished spans. Older spans are overwritten. */
+public class SpanRingBuffer implements SpanExporter {
+    private final AtomicReferenceArray<Span> spans;
+    private final AtomicLong next = new AtomicLong();
+
+    /** @param capacity number of spans kept */
+    public SpanRingBuffer(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        spans = new AtomicReferenceArray<Span>(capacity);
+    }
+
+    @Override
+    public void export(Span span) {
+        spans.set((int) (next.getAndIncrement() % spans.length()), span);
+    }
+
+    /** @return spans in the buffer, oldest first */
+    public List<Span> getSpans() {
+        long end = next.get();
+        long start = Math.max(0, end - spans.length());
+        List<Span> result = new ArrayList<Span>((int) (end - start));
+        for (long i = start; i < end; i++) {
+            Span span = spans.get((int) (i % spans.length()));
+            if (span != null) {
+                result.add(span);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,88 @@
+package amino.run.kernel.tracing;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Trace context carried by a {@link amino.run.kernel.common.KernelRPC}: the trace, the span of the
+ * caller, and whether the trace is sampled. Traces which are not sampled still carry a context, so
+ * that the hops further down do not start traces of their own.
+ */
+public final class TraceContext {
+    /** Context of RPCs whose trace is not sampled */
+    public static final TraceContext NOT_SAMPLED = new TraceContext(0, 0, false);
+
+    /* Encoding of a context on the wire */
+    private static final byte NONE = 0;
+    private static final byte UNSAMPLED = 1;
+    private static final byte SAMPLED = 2;
+
+    private final long traceId;
+    private final long spanId;
+    private final boolean sampled;
+
+    TraceContext(long traceId, long spanId, boolean sampled) {
+        this.traceId = traceId;
+        this.spanId = spanId;
+        this.sampled = sampled;
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    /** @return ID of the span the context was created for */
+    public long getSpanId() {
+        return spanId;
+    }
+
+    public boolean isSampled() {
+        return sampled;
+    }
+
+    /**
+     * Writes a context. Only sampled contexts are written with their IDs.
+     *
+     * @param context context to write, or null
+     * @param out stream to write to
+     * @throws IOException
+     */
+    public static void write(TraceContext context, ObjectOutput out) throws IOException {
+        if (context == null) {
+            out.writeByte(NONE);
+        } else if (!context.sampled) {
+            out.writeByte(UNSAMPLED);
+        } else {
+            out.writeByte(SAMPLED);
+            out.writeLong(context.traceId);
+            out.writeLong(context.spanId);
+        }
+    }
+
+    /**
+     * Reads a context written by {@link #write}
+     *
+     * @param in stream to read from
+     * @return context read, or null if none was written
+     * @throws IOException
+     */
+    public static TraceContext read(ObjectInput in) throws IOException {
+        byte type = in.readByte();
+        switch (type) {
+            case NONE:
+                return null;
+            case UNSAMPLED:
+                return NOT_SAMPLED;
+            case SAMPLED:
+                return new TraceContext(in.readLong(), in.readLong(), true);
+            default:
+                throw new IOException("Invalid trace context type " + type);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return sampled ? Span.id(traceId) + "/" + Span.id(spanId) : "not sampled";
+    }
+}
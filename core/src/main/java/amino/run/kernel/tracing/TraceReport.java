@@ -0,0 +1,160 @@
+package amino.run.kernel.tracing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays span files written by {@link FileSpanExporter}, e.g. collected from all kernel servers,
+ * and prints every trace as a tree of hops. Each hop shows its duration split into serialization,
+ * queueing, transport and execution:
+ *
+ * <ul>
+ *   <li>serialization: encoding the RPC on the client, decoding it on the server
+ *   <li>queueing: time between decoding the RPC and serving it
+ *   <li>transport: client span duration not spent serializing, queueing or in the server span
+ *   <li>execution: server span duration, including the nested hops
+ * </ul>
+ *
+ * <p>Usage: {@code java amino.run.kernel.tracing.TraceReport <span file>...}
+ */
+public class TraceReport {
+    private final Map<Long, List<Span>> traces = new LinkedHashMap<Long, List<Span>>();
+
+    /** @param spans spans of any number of traces, in any order */
+    public TraceReport(Collection<Span> spans) {
+        for (Span span : spans) {
+            List<Span> trace = traces.get(span.getTraceId());
+            if (trace == null) {
+                trace = new ArrayList<Span>();
+                traces.put(span.getTraceId(), trace);
+            }
+            trace.add(span);
+        }
+    }
+
+    /** @return number of traces */
+    public int size() {
+        return traces.size();
+    }
+
+    /**
+     * Prints all traces
+     *
+     * @param out stream to print to
+     */
+    public void print(PrintStream out) {
+        for (Map.Entry<Long, List<Span>> trace : traces.entrySet()) {
+            out.println("trace " + Span.id(trace.getKey()));
+            Map<Long, List<Span>> children = new HashMap<Long, List<Span>>();
+            Map<Long, Span> byId = new HashMap<Long, Span>();
+            for (Span span : trace.getValue()) {
+                byId.put(span.getSpanId(), span);
+            }
+            List<Span> roots = new ArrayList<Span>();
+            for (Span span : trace.getValue()) {
+                if (byId.containsKey(span.getParentSpanId())) {
+                    List<Span> siblings = children.get(span.getParentSpanId());
+                    if (siblings == null) {
+                        siblings = new ArrayList<Span>();
+                        children.put(span.getParentSpanId(), siblings);
+                    }
+                    siblings.add(span);
+                } else {
+                    /* Trace root, or parent was not sampled into the files */
+                    roots.add(span);
+                }
+            }
+            for (Span root : sort(roots)) {
+                print(out, root, children, 1);
+            }
+        }
+    }
+
+    private static List<Span> sort(List<Span> spans) {
+        Collections.sort(
+                spans,
+                new Comparator<Span>() {
+                    @Override
+                    public int compare(Span a, Span b) {
+                        return a.getStartMillis() < b.getStartMillis()
+                                ? -1
+                                : (a.getStartMillis() == b.getStartMillis() ? 0 : 1);
+                    }
+                });
+        return spans;
+    }
+
+    private static void print(
+            PrintStream out, Span span, Map<Long, List<Span>> children, int depth) {
+        List<Span> nested = children.get(span.getSpanId());
+        if (nested == null) {
+            nested = Collections.emptyList();
+        }
+
+        StringBuilder line = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            line.append("  ");
+        }
+        line.append(
+                String.format(
+                        "%s %s %s.%s %s",
+                        span.getKind(),
+                        span.getHost(),
+                        span.getDM(),
+                        span.getMethod(),
+                        millis(span.getDurationNanos())));
+        if (span.getKind() == Span.Kind.CLIENT) {
+            line.append(" (serialization ").append(millis(span.getSerializationNanos()));
+            if (nested.size() == 1 && nested.get(0).getKind() == Span.Kind.SERVER) {
+                Span server = nested.get(0);
+                long transport =
+                        span.getDurationNanos()
+                                - span.getSerializationNanos()
+                                - server.getSerializationNanos()
+                                - server.getQueueNanos()
+                                - server.getDurationNanos();
+                line.append(", transport ").append(millis(transport));
+            }
+            line.append(")");
+        } else {
+            line.append(" (serialization ")
+                    .append(millis(span.getSerializationNanos()))
+                    .append(", queueing ")
+                    .append(millis(span.getQueueNanos()))
+                    .append(")");
+        }
+        if (span.isError()) {
+            line.append(" ERROR");
+        }
+        out.println(line);
+
+        for (Span child : sort(new ArrayList<Span>(nested))) {
+            print(out, child, children, depth + 1);
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format("%.3fms", nanos / 1e6);
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length == 0) {
+            System.out.println("Usage: java " + TraceReport.class.getName() + " <span file>...");
+            return;
+        }
+        List<Span> spans = new ArrayList<Span>();
+        for (String file : args) {
+            spans.addAll(FileSpanExporter.read(new File(file)));
+        }
+        new TraceReport(spans).print(System.out);
+    }
+}
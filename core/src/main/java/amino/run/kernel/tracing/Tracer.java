@@ -0,0 +1,150 @@
+package amino.run.kernel.tracing;
+
+import amino.run.kernel.common.GlobalKernelReferences;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Traces kernel RPCs across kernel servers. The trace context of the RPC being served is bound to
+ * the serving thread, so that the kernel RPCs it makes in turn, e.g. to the next DM of the chain
+ * or to a group policy, continue the same trace. Kernel RPCs made outside of a trace start a new
+ * trace, sampled by an {@link AdaptiveSampler}.
+ *
+ * <p>Finished spans are kept in a {@link SpanRingBuffer} of the most recent spans, and passed to
+ * the exporter set with {@link #setExporter}, if any. Unsampled RPCs only cost a few thread local
+ * accesses per hop.
+ */
+public final class Tracer {
+    private static final Logger logger = Logger.getLogger(Tracer.class.getName());
+    public static final double DEFAULT_TRACES_PER_SECOND = 10;
+    public static final int RECENT_SPANS = 4096;
+
+    private static final ThreadLocal<TraceContext> current = new ThreadLocal<TraceContext>();
+    private static final SpanRingBuffer recent = new SpanRingBuffer(RECENT_SPANS);
+    private static volatile AdaptiveSampler sampler =
+            new AdaptiveSampler(DEFAULT_TRACES_PER_SECOND);
+    private static volatile SpanExporter exporter;
+
+    private Tracer() {}
+
+    /** @return trace context bound to the current thread, or null if there is none */
+    public static TraceContext current() {
+        return current.get();
+    }
+
+    /**
+     * Binds a trace context to the current thread
+     *
+     * @param context context to bind, or null to unbind
+     * @return context bound before, to restore later
+     */
+    public static TraceContext setCurrent(TraceContext context) {
+        TraceContext previous = current.get();
+        if (context == null) {
+            current.remove();
+        } else {
+            current.set(context);
+        }
+        return previous;
+    }
+
+    /**
+     * Starts the span of a kernel RPC made by this thread. Continues the trace bound to this
+     * thread, or starts a new trace if the sampler says so.
+     *
+     * @param dm name of the DM the RPC is made on
+     * @param method name of the method
+     * @return span, or null if the trace is not sampled
+     */
+    public static Span startClientSpan(String dm, String method) {
+        TraceContext parent = current.get();
+        if (parent == null) {
+            if (!sampler.sample()) {
+                return null;
+            }
+            return newSpan(Span.Kind.CLIENT, newId(), 0, dm, method);
+        }
+        if (!parent.isSampled()) {
+            return null;
+        }
+        return newSpan(Span.Kind.CLIENT, parent.getTraceId(), parent.getSpanId(), dm, method);
+    }
+
+    /**
+     * Starts the span of a kernel RPC served by this kernel server
+     *
+     * @param parent trace context received with the RPC, or null
+     * @param dm name of the DM serving the RPC
+     * @param method name of the method
+     * @return span, or null if the trace is not sampled
+     */
+    public static Span startServerSpan(TraceContext parent, String dm, String method) {
+        if (parent == null || !parent.isSampled()) {
+            return null;
+        }
+        return newSpan(Span.Kind.SERVER, parent.getTraceId(), parent.getSpanId(), dm, method);
+    }
+
+    /**
+     * @param span span of a kernel RPC made by this thread, or null if it is not sampled
+     * @return trace context to send with the RPC
+     */
+    public static TraceContext outgoing(Span span) {
+        return span != null ? span.getContext() : TraceContext.NOT_SAMPLED;
+    }
+
+    private static Span newSpan(
+            Span.Kind kind, long traceId, long parentId, String dm, String method) {
+        String host =
+                GlobalKernelReferences.nodeServer == null
+                        ? ""
+                        : String.valueOf(GlobalKernelReferences.nodeServer.getLocalHost());
+        return new Span(
+                kind, traceId, newId(), parentId, host, dm, method, System.currentTimeMillis(), 0);
+    }
+
+    private static long newId() {
+        long id;
+        do {
+            id = ThreadLocalRandom.current().nextLong();
+        } while (id == 0);
+        return id;
+    }
+
+    /**
+     * Ends a span and exports it
+     *
+     * @param span span to end
+     * @param error whether the RPC failed
+     */
+    public static void finish(Span span, boolean error) {
+        span.end();
+        span.setError(error);
+        recent.export(span);
+        SpanExporter e = exporter;
+        if (e != null) {
+            try {
+                e.export(span);
+            } catch (RuntimeException ex) {
+                logger.log(Level.WARNING, "Failed to export span " + span, ex);
+            }
+        }
+    }
+
+    /** @return most recently finished spans, oldest first */
+    public static List<Span> getRecentSpans() {
+        return recent.getSpans();
+    }
+
+    /** @param tracesPerSecond number of new traces to sample per second. 0 disables tracing. */
+    public static void setTracesPerSecond(double tracesPerSecond) {
+        sampler = new AdaptiveSampler(tracesPerSecond);
+    }
+
+    /** @param spanExporter exporter to pass finished spans to, or null */
+    public static void setExporter(SpanExporter spanExporter) {
+        exporter = spanExporter;
+    }
+}
@@ -0,0 +1,15 @@
+package amino.run.kernel.transport;
+
+/**
+ * Types of the frames exchanged between {@link NioTransportClient} and {@link NioTransportServer}
+ */
+final class FrameType {
+    /** Serialized {@link amino.run.kernel.common.KernelRPC} */
+    static final byte REQUEST = 0;
+    /** Serialized return value of the RPC */
+    static final byte RESPONSE = 1;
+    /** Serialized exception thrown by the RPC */
+    static final byte ERROR = 2;
+
+    private FrameType() {}
+}
@@ -0,0 +1,201 @@
+package amino.run.kernel.transport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Framed, full duplex connection on top of a non-blocking {@link SocketChannel} driven by a {@link
+ * NioEventLoop}. Each frame is laid out as
+ *
+ * <pre>
+ * length     int, size of the rest of the frame
+ * request ID long
+ * type       byte
+ * payload    length - 9 bytes
+ * </pre>
+ *
+ * Frames may be sent from any thread. They are written by the sending thread as long as the socket
+ * accepts them, and by the loop thread otherwise. Received frames are handed to the {@link
+ * Listener} on the loop thread, so listeners must not block.
+ */
+public class NioConnection implements NioEventLoop.Handler {
+    /** Callback for received frames */
+    public interface Listener {
+        void onFrame(NioConnection connection, long requestId, byte type, byte[] payload);
+
+        void onClose(NioConnection connection);
+    }
+
+    private static final int HEADER_LENGTH = 8 + 1;
+    private static final int INITIAL_BUFFER_SIZE = 64 * 1024;
+
+    private final SocketChannel channel;
+    private final NioEventLoop loop;
+    private final Listener listener;
+    /** Frames not yet completely written. Guarded by writeLock together with socket writes. */
+    private final ConcurrentLinkedQueue<ByteBuffer> writeQueue =
+            new ConcurrentLinkedQueue<ByteBuffer>();
+    private final Object writeLock = new Object();
+    private final Runnable flushTask =
+            new Runnable() {
+                @Override
+                public void run() {
+                    flush();
+                }
+            };
+    private ByteBuffer readBuffer = ByteBuffer.allocate(INITIAL_BUFFER_SIZE);
+    private SelectionKey key;
+    private volatile boolean closed;
+
+    public NioConnection(SocketChannel channel, NioEventLoop loop, Listener listener)
+            throws IOException {
+        this.channel = channel;
+        this.loop = loop;
+        this.listener = listener;
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        loop.register(channel, SelectionKey.OP_READ, this);
+    }
+
+    /** @return true if the connection was closed */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /**
+     * Queues a frame for sending.
+     *
+     * @param requestId request ID the frame belongs to
+     * @param type frame type
+     * @param payload frame payload
+     */
+    public void send(long requestId, byte type, byte[] payload) {
+        ByteBuffer frame = ByteBuffer.allocate(4 + HEADER_LENGTH + payload.length);
+        frame.putInt(HEADER_LENGTH + payload.length);
+        frame.putLong(requestId);
+        frame.put(type);
+        frame.put(payload);
+        frame.flip();
+
+        synchronized (writeLock) {
+            if (writeQueue.isEmpty() && !closed) {
+                /* Write directly from the calling thread to save a hand off to the loop */
+                try {
+                    channel.write(frame);
+                } catch (IOException e) {
+                    close();
+                    return;
+                }
+                if (!frame.hasRemaining()) {
+                    return;
+                }
+            }
+            writeQueue.add(frame);
+        }
+        loop.execute(flushTask);
+    }
+
+    /** Closes the connection. Pending frames are discarded. */
+    public void close() {
+        loop.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        if (key != null) {
+                            loop.close(key);
+                        } else {
+                            try {
+                                channel.close();
+                            } catch (IOException e) {
+                                // Already closed
+                            }
+                            onClose();
+                        }
+                    }
+                });
+    }
+
+    @Override
+    public void onReady(SelectionKey key) throws IOException {
+        this.key = key;
+        if (key.isReadable()) {
+            read();
+        }
+        if (key.isValid() && key.isWritable()) {
+            flush();
+        }
+    }
+
+    @Override
+    public void onClose() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writeQueue.clear();
+        listener.onClose(this);
+    }
+
+    private void read() throws IOException {
+        if (channel.read(readBuffer) < 0) {
+            throw new IOException("Connection closed by peer");
+        }
+
+        readBuffer.flip();
+        while (readBuffer.remaining() >= 4) {
+            int length = readBuffer.getInt(readBuffer.position());
+            if (length < HEADER_LENGTH) {
+                throw new IOException("Malformed frame of length " + length);
+            }
+            if (readBuffer.remaining() < 4 + length) {
+                if (readBuffer.capacity() < 4 + length) {
+                    ByteBuffer larger = ByteBuffer.allocate(4 + length);
+                    larger.put(readBuffer);
+                    readBuffer = larger;
+                    return;
+                }
+                break;
+            }
+            readBuffer.getInt();
+            long requestId = readBuffer.getLong();
+            byte type = readBuffer.get();
+            byte[] payload = new byte[length - HEADER_LENGTH];
+            readBuffer.get(payload);
+            listener.onFrame(this, requestId, type, payload);
+        }
+        readBuffer.compact();
+    }
+
+    /** Writes as much of the queue as the socket accepts. Runs on the loop thread. */
+    private void flush() {
+        if (closed) {
+            return;
+        }
+        if (key == null) {
+            key = loop.keyFor(channel);
+            if (key == null) {
+                /* Not registered yet. Registration task runs before this one, unless closed. */
+                return;
+            }
+        }
+        try {
+            synchronized (writeLock) {
+                ByteBuffer frame;
+                while ((frame = writeQueue.peek()) != null) {
+                    channel.write(frame);
+                    if (frame.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    writeQueue.poll();
+                }
+            }
+            key.interestOps(SelectionKey.OP_READ);
+        } catch (IOException e) {
+            loop.close(key);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package amino.run.kernel.transport;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Single thread running a {@link Selector} for a set of channels. All channel registrations and
+ * interest changes happen on the loop thread. Other threads hand work to the loop through {@link
+ * #execute(Runnable)}.
+ */
+public class NioEventLoop implements Runnable {
+    private static final Logger logger = Logger.getLogger(NioEventLoop.class.getName());
+
+    /** Callback for channels registered with the loop. Runs on the loop thread. */
+    public interface Handler {
+        /**
+         * Called when the channel of the key is ready for one of its interest operations.
+         *
+         * @param key selection key of the channel
+         * @throws IOException closes the channel
+         */
+        void onReady(SelectionKey key) throws IOException;
+
+        /** Called once the channel was closed by the loop after a failure or on shutdown. */
+        void onClose();
+    }
+
+    private final Selector selector;
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private final Thread thread;
+    private volatile boolean running = true;
+
+    public NioEventLoop(String name) throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs the task on the loop thread.
+     *
+     * @param task task to run
+     */
+    public void execute(Runnable task) {
+        tasks.add(task);
+        if (Thread.currentThread() != thread) {
+            selector.wakeup();
+        }
+    }
+
+    /**
+     * Registers the channel with the loop.
+     *
+     * @param channel non-blocking channel
+     * @param ops initial interest operations
+     * @param handler callback for ready operations
+     */
+    public void register(final SelectableChannel channel, final int ops, final Handler handler) {
+        execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            channel.register(selector, ops, handler);
+                        } catch (ClosedChannelException e) {
+                            handler.onClose();
+                        }
+                    }
+                });
+    }
+
+    /**
+     * @param channel channel registered through {@link #register}
+     * @return selection key of the channel, or null if it is not registered (yet)
+     */
+    public SelectionKey keyFor(SelectableChannel channel) {
+        return channel.keyFor(selector);
+    }
+
+    /**
+     * Closes the channel of the key and notifies its handler. Must be called on the loop thread.
+     *
+     * @param key selection key of the channel
+     */
+    public void close(SelectionKey key) {
+        key.cancel();
+        try {
+            key.channel().close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close channel", e);
+        }
+        ((Handler) key.attachment()).onClose();
+    }
+
+    /** Stops the loop and closes all registered channels. */
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    private void runTasks() {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    @Override
+    public void run() {
+        while (running) {
+            runTasks();
+
+            try {
+                /* Tasks queued by the loop thread itself do not wake up the selector */
+                if (tasks.isEmpty()) {
+                    selector.select();
+                } else {
+                    selector.selectNow();
+                }
+            } catch (IOException e) {
+                logger.log(Level.SEVERE, "Selector failed", e);
+                break;
+            }
+
+            Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+            while (it.hasNext()) {
+                SelectionKey key = it.next();
+                it.remove();
+                if (!key.isValid()) {
+                    continue;
+                }
+                try {
+                    ((Handler) key.attachment()).onReady(key);
+                } catch (IOException e) {
+                    logger.log(Level.FINE, "Closing channel after I/O failure", e);
+                    close(key);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Closing channel after unexpected failure", e);
+                    close(key);
+                }
+            }
+        }
+
+        /* Registrations queued before the shutdown, e.g. of just accepted channels, must not be
+        dropped. Their channels would never be closed. */
+        runTasks();
+        for (SelectionKey key : selector.keys()) {
+            close(key);
+        }
+        try {
+            selector.close();
+        } catch (IOException e) {
+            logger.log(Level.FINE, "Failed to close selector", e);
+        }
+    }
+}
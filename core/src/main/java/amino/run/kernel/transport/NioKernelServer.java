@@ -0,0 +1,101 @@
+package amino.run.kernel.transport;
+
+import amino.run.app.MicroServiceSpec;
+import amino.run.common.AppObjectStub;
+import amino.run.common.MicroServiceCreationException;
+import amino.run.common.MicroServiceNotFoundException;
+import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectMigratingException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelObjectStubNotCreatedException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.server.KernelObject;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * {@link KernelServer} sending kernel RPCs through a {@link NioTransportClient}. All other calls
+ * go to the RMI stub of the kernel server.
+ */
+public class NioKernelServer implements KernelServer {
+    private final KernelServer rmiServer;
+    private final NioTransportClient client;
+    private final InetSocketAddress transportAddress;
+
+    /**
+     * @param rmiServer RMI stub of the kernel server
+     * @param client client to send kernel RPCs with
+     * @param transportAddress address of the {@link NioTransportServer} of the kernel server
+     */
+    public NioKernelServer(
+            KernelServer rmiServer, NioTransportClient client, InetSocketAddress transportAddress) {
+        this.rmiServer = rmiServer;
+        this.client = client;
+        this.transportAddress = transportAddress;
+    }
+
+    @Override
+    public Object makeKernelRPC(KernelRPC rpc)
+            throws RemoteException, KernelObjectNotFoundException, KernelObjectMigratingException,
+                    KernelRPCException {
+        try {
+            return client.call(transportAddress, rpc);
+        } catch (RemoteException e) {
+            throw e;
+        } catch (KernelObjectNotFoundException e) {
+            throw e;
+        } catch (KernelObjectMigratingException e) {
+            throw e;
+        } catch (KernelRPCException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RemoteException("Kernel RPC failed", e);
+        }
+    }
+
+    /**
+     * Sends the kernel RPC without waiting for its result.
+     *
+     * @param rpc RPC to send
+     * @return future completed with the return value of the RPC, or exceptionally with the
+     *     exception {@link #makeKernelRPC} would have thrown
+     */
+    public CompletableFuture<Object> makeKernelRPCAsync(KernelRPC rpc) {
+        return client.callAsync(transportAddress, rpc);
+    }
+
+    @Override
+    public byte[] getKernelRPCCodecs() throws RemoteException {
+        return rmiServer.getKernelRPCCodecs();
+    }
+
+    @Override
+    public InetSocketAddress getTransportAddress() throws RemoteException {
+        return transportAddress;
+    }
+
+    @Override
+    public void updateKernelObjectLocations(Map<KernelOID, InetSocketAddress> locations)
+            throws RemoteException {
+        rmiServer.updateKernelObjectLocations(locations);
+    }
+
+    @Override
+    public void copyKernelObject(KernelOID oid, KernelObject object)
+            throws RemoteException, KernelObjectNotFoundException,
+                    KernelObjectStubNotCreatedException, MicroServiceNotFoundException,
+                    MicroServiceReplicaNotFoundException {
+        rmiServer.copyKernelObject(oid, object);
+    }
+
+    @Override
+    public AppObjectStub createMicroService(MicroServiceSpec spec, Object... args)
+            throws RemoteException, MicroServiceCreationException, ClassNotFoundException {
+        return rmiServer.createMicroService(spec, args);
+    }
+}
@@ -0,0 +1,295 @@
+package amino.run.kernel.transport;
+
+import amino.run.common.Futures;
+import amino.run.common.Utils;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.policy.util.HashedWheelTimer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.MarshalException;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends kernel RPCs to {@link NioTransportServer}s. Keeps a small fixed pool of long lived
+ * connections per server, all driven by one {@link NioEventLoop}. Every RPC is tagged with a
+ * request ID, so that any number of RPCs can be in flight on a connection and responses can arrive
+ * out of order.
+ *
+ * <p>RPCs without a response within the call timeout fail, so that callers do not wait forever on
+ * a server which died without its connections being closed.
+ */
+public class NioTransportClient implements NioConnection.Listener {
+    /** Default number of connections per server */
+    public static final int DEFAULT_POOL_SIZE = 2;
+
+    /** Default time to wait for the response to an RPC */
+    public static final long DEFAULT_CALL_TIMEOUT = 60000L; // milliseconds
+
+    private final int poolSize;
+    private final long callTimeoutMillis;
+    private final NioEventLoop loop;
+    private final AtomicLong nextRequestId = new AtomicLong();
+    private final ConcurrentHashMap<InetSocketAddress, ConnectionPool> pools =
+            new ConcurrentHashMap<InetSocketAddress, ConnectionPool>();
+    /** RPCs awaiting a response, keyed by request ID */
+    private final ConcurrentHashMap<Long, PendingCall> pendingCalls =
+            new ConcurrentHashMap<Long, PendingCall>();
+
+    public NioTransportClient() throws IOException {
+        this(DEFAULT_POOL_SIZE);
+    }
+
+    public NioTransportClient(int poolSize) throws IOException {
+        this(poolSize, DEFAULT_CALL_TIMEOUT);
+    }
+
+    /**
+     * @param poolSize number of connections per server
+     * @param callTimeoutMillis time to wait for the response to an RPC
+     * @throws IOException if the event loop cannot be started
+     */
+    public NioTransportClient(int poolSize, long callTimeoutMillis) throws IOException {
+        this.poolSize = poolSize;
+        this.callTimeoutMillis = callTimeoutMillis;
+        loop = new NioEventLoop("NioTransportClient");
+    }
+
+    /**
+     * Sends the RPC and waits for its result.
+     *
+     * @param address address of the {@link NioTransportServer}
+     * @param rpc RPC to send
+     * @return return value of the RPC
+     * @throws RemoteException if the server cannot be reached, the RPC cannot be encoded or there
+     *     is no response within the call timeout
+     * @throws Exception exception thrown by {@link
+     *     amino.run.kernel.server.KernelServer#makeKernelRPC} on the server
+     */
+    public Object call(InetSocketAddress address, KernelRPC rpc) throws Exception {
+        PendingCall call = new PendingCall();
+        send(address, rpc, call);
+        try {
+            if (!call.done.await(callTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                /* Either fails the call, or the response is being handed over right now */
+                timeOut(call, address);
+                call.done.await();
+            }
+        } catch (InterruptedException e) {
+            pendingCalls.remove(call.requestId);
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting for RPC response", e);
+        }
+        return call.getResult();
+    }
+
+    /**
+     * Sends the RPC without waiting for its result. The response is decoded and the future
+     * completed on the executor of asynchronous RPCs, never on the event loop thread.
+     *
+     * @param address address of the {@link NioTransportServer}
+     * @param rpc RPC to send
+     * @return future completed with the return value of the RPC, or exceptionally with the
+     *     exception {@link #call} would have thrown
+     */
+    public CompletableFuture<Object> callAsync(final InetSocketAddress address, KernelRPC rpc) {
+        final AsyncPendingCall call = new AsyncPendingCall();
+        try {
+            send(address, rpc, call);
+        } catch (RemoteException e) {
+            call.future.completeExceptionally(e);
+            return call.future;
+        }
+        call.timeout =
+                HashedWheelTimer.getSharedTimer()
+                        .schedule(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        timeOut(call, address);
+                                    }
+                                },
+                                callTimeoutMillis);
+        return call.future;
+    }
+
+    private void send(InetSocketAddress address, KernelRPC rpc, PendingCall call)
+            throws RemoteException {
+        byte[] request;
+        try {
+            request = Utils.toBytes(rpc);
+        } catch (IOException e) {
+            throw new MarshalException("Failed to encode RPC", e);
+        }
+
+        NioConnection connection = getPool(address).next();
+        call.connection = connection;
+        call.requestId = nextRequestId.incrementAndGet();
+        pendingCalls.put(call.requestId, call);
+        connection.send(call.requestId, FrameType.REQUEST, request);
+        if (connection.isClosed()) {
+            /* Closed before the call was registered, i.e., onClose() may have missed it */
+            fail(call.requestId, connection);
+        }
+    }
+
+    /** Closes all connections. */
+    public void shutdown() {
+        loop.shutdown();
+    }
+
+    @Override
+    public void onFrame(NioConnection connection, long requestId, byte type, byte[] payload) {
+        PendingCall call = pendingCalls.remove(requestId);
+        if (call == null) {
+            return;
+        }
+        call.complete(type, payload);
+    }
+
+    @Override
+    public void onClose(NioConnection connection) {
+        for (Long requestId : pendingCalls.keySet()) {
+            fail(requestId, connection);
+        }
+    }
+
+    private void timeOut(PendingCall call, InetSocketAddress address) {
+        if (pendingCalls.remove(call.requestId, call)) {
+            call.fail(
+                    new RemoteException(
+                            String.format(
+                                    "No response from %s within %d ms",
+                                    address, callTimeoutMillis)));
+        }
+    }
+
+    private void fail(Long requestId, NioConnection connection) {
+        PendingCall call = pendingCalls.get(requestId);
+        if (call != null && call.connection == connection && pendingCalls.remove(requestId, call)) {
+            call.fail(new ConnectException("Connection to kernel server closed"));
+        }
+    }
+
+    private ConnectionPool getPool(InetSocketAddress address) {
+        ConnectionPool pool = pools.get(address);
+        if (pool == null) {
+            pool = new ConnectionPool(address);
+            ConnectionPool existing = pools.putIfAbsent(address, pool);
+            if (existing != null) {
+                pool = existing;
+            }
+        }
+        return pool;
+    }
+
+    /** Connections to one server. Closed connections are replaced on next use. */
+    private class ConnectionPool {
+        private final InetSocketAddress address;
+        private final NioConnection[] connections = new NioConnection[poolSize];
+        private final AtomicInteger next = new AtomicInteger();
+
+        ConnectionPool(InetSocketAddress address) {
+            this.address = address;
+        }
+
+        NioConnection next() throws RemoteException {
+            int index = (next.getAndIncrement() & Integer.MAX_VALUE) % connections.length;
+            synchronized (connections) {
+                NioConnection connection = connections[index];
+                if (connection == null || connection.isClosed()) {
+                    try {
+                        connection =
+                                new NioConnection(
+                                        SocketChannel.open(address),
+                                        loop,
+                                        NioTransportClient.this);
+                    } catch (IOException e) {
+                        throw new ConnectException("Failed to connect to " + address, e);
+                    }
+                    connections[index] = connection;
+                }
+                return connection;
+            }
+        }
+    }
+
+    private static class PendingCall {
+        volatile NioConnection connection;
+        volatile long requestId;
+        final CountDownLatch done = new CountDownLatch(1);
+        private byte type;
+        private byte[] payload;
+        private Exception failure;
+
+        void complete(byte type, byte[] payload) {
+            this.type = type;
+            this.payload = payload;
+            done.countDown();
+        }
+
+        void fail(Exception failure) {
+            this.failure = failure;
+            done.countDown();
+        }
+
+        Object getResult() throws Exception {
+            if (failure != null) {
+                throw failure;
+            }
+
+            Object result;
+            try {
+                result = Utils.toObject(payload);
+            } catch (Exception e) {
+                throw new UnmarshalException("Failed to decode RPC response", e);
+            }
+            if (type != FrameType.ERROR) {
+                return result;
+            }
+            if (result instanceof Exception) {
+                throw (Exception) result;
+            }
+            throw new RemoteException("Kernel server failed", (Throwable) result);
+        }
+    }
+
+    /** Call completing a future instead of waking up a waiting thread. */
+    private static class AsyncPendingCall extends PendingCall implements Runnable {
+        final CompletableFuture<Object> future = new CompletableFuture<Object>();
+        volatile HashedWheelTimer.Timeout timeout;
+
+        @Override
+        void complete(byte type, byte[] payload) {
+            super.complete(type, payload);
+            Futures.getExecutor().execute(this);
+        }
+
+        @Override
+        void fail(Exception failure) {
+            super.fail(failure);
+            Futures.getExecutor().execute(this);
+        }
+
+        @Override
+        public void run() {
+            HashedWheelTimer.Timeout t = timeout;
+            if (t != null) {
+                t.cancel();
+            }
+            try {
+                future.complete(getResult());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
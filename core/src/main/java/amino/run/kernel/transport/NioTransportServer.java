@@ -0,0 +1,165 @@
+package amino.run.kernel.transport;
+
+import amino.run.common.Utils;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.server.KernelServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Accepts kernel RPCs from {@link NioTransportClient}s and invokes them on the local kernel server.
+ * Connections are read and written by a single {@link NioEventLoop}. RPCs are invoked on a separate
+ * thread pool, so a connection can carry many RPCs at once and responses are sent in the order the
+ * RPCs complete.
+ */
+public class NioTransportServer implements NioConnection.Listener {
+    private static final Logger logger = Logger.getLogger(NioTransportServer.class.getName());
+
+    /** Maximum number of RPCs invoked at once. Further RPCs wait for a thread to become free. */
+    static final int MAX_RPC_THREADS = 256;
+
+    private final KernelServer server;
+    private final NioEventLoop loop;
+    private final ServerSocketChannel serverChannel;
+    private final ExecutorService executor;
+
+    /**
+     * Starts listening for RPCs.
+     *
+     * @param server kernel server to invoke RPCs on
+     * @param address address to listen on. Port 0 picks a free port.
+     * @throws IOException if the address cannot be bound
+     */
+    public NioTransportServer(KernelServer server, InetSocketAddress address) throws IOException {
+        this.server = server;
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.socket().setReuseAddress(true);
+        serverChannel.socket().bind(address);
+        serverChannel.configureBlocking(false);
+        ThreadPoolExecutor pool =
+                new ThreadPoolExecutor(
+                        MAX_RPC_THREADS,
+                        MAX_RPC_THREADS,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new DaemonThreadFactory());
+        /* Idle servers do not keep threads */
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        loop = new NioEventLoop("NioTransportServer-" + getLocalPort());
+        loop.register(
+                serverChannel,
+                SelectionKey.OP_ACCEPT,
+                new NioEventLoop.Handler() {
+                    @Override
+                    public void onReady(SelectionKey key) throws IOException {
+                        accept();
+                    }
+
+                    @Override
+                    public void onClose() {}
+                });
+    }
+
+    /** @return port the server is listening on */
+    public int getLocalPort() {
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /** Stops accepting RPCs and closes all connections. */
+    public void shutdown() {
+        loop.shutdown();
+        executor.shutdown();
+    }
+
+    private void accept() throws IOException {
+        SocketChannel channel;
+        while ((channel = serverChannel.accept()) != null) {
+            new NioConnection(channel, loop, this);
+        }
+    }
+
+    @Override
+    public void onFrame(
+            final NioConnection connection,
+            final long requestId,
+            byte type,
+            final byte[] payload) {
+        if (type != FrameType.REQUEST) {
+            logger.warning("Dropping unexpected frame of type " + type);
+            return;
+        }
+        executor.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        invoke(connection, requestId, payload);
+                    }
+                });
+    }
+
+    @Override
+    public void onClose(NioConnection connection) {}
+
+    private void invoke(NioConnection connection, long requestId, byte[] payload) {
+        KernelRPC rpc;
+        try {
+            rpc = (KernelRPC) Utils.toObject(payload);
+        } catch (Exception e) {
+            sendError(connection, requestId, new UnmarshalException("Failed to decode RPC", e));
+            return;
+        }
+
+        Object ret;
+        try {
+            ret = server.makeKernelRPC(rpc);
+        } catch (Exception e) {
+            sendError(connection, requestId, e);
+            return;
+        }
+
+        byte[] response;
+        try {
+            response = Utils.toBytes(ret);
+        } catch (IOException e) {
+            sendError(
+                    connection, requestId, new RemoteException("Failed to encode response", e));
+            return;
+        }
+        connection.send(requestId, FrameType.RESPONSE, response);
+    }
+
+    private void sendError(NioConnection connection, long requestId, Exception error) {
+        try {
+            connection.send(requestId, FrameType.ERROR, Utils.toBytes(error));
+        } catch (IOException e) {
+            logger.log(Level.WARNING, "Failed to encode error. Closing connection.", e);
+            connection.close();
+        }
+    }
+
+    private static class DaemonThreadFactory implements ThreadFactory {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, "NioTransportWorker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package amino.run.oms;
+
+import amino.run.app.MicroServiceSpec;
+import amino.run.common.MicroServiceID;
+import amino.run.common.ReplicaID;
+import amino.run.kernel.common.KernelOID;
+import amino.run.runtime.EventHandler;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Everything the OMS has to register when a policy chain, or a replica of it, is created or
+ * migrated. Kernel servers collect the registrations of a chain in one descriptor and pass it to
+ * {@link OMSServer#registerChain(ChainRegistration)}, instead of registering the microservice, each
+ * group policy, each replica and each moved kernel object separately.
+ *
+ * <p>The OMS applies the registrations in this order: the microservice, group policies, new
+ * replicas, replica dispatchers and kernel object locations. Either all of them are applied, or
+ * none.
+ */
+public class ChainRegistration implements Serializable {
+    private final MicroServiceID microServiceId;
+    private final MicroServiceSpec spec;
+    private boolean newMicroService;
+    private final ArrayList<Class<?>> groupPolicyClasses = new ArrayList<Class<?>>();
+    private final LinkedHashMap<ReplicaID, EventHandler> replicas =
+            new LinkedHashMap<ReplicaID, EventHandler>();
+    private final LinkedHashMap<ReplicaID, EventHandler> replicaDispatchers =
+            new LinkedHashMap<ReplicaID, EventHandler>();
+    private final LinkedHashMap<KernelOID, InetSocketAddress> kernelObjects =
+            new LinkedHashMap<KernelOID, InetSocketAddress>();
+
+    /**
+     * @param microServiceId microservice the chain belongs to
+     * @param spec microservice spec, passed to new group policies
+     */
+    public ChainRegistration(MicroServiceID microServiceId, MicroServiceSpec spec) {
+        this.microServiceId = microServiceId;
+        this.spec = spec;
+    }
+
+    /** Registration without group policies, e.g. when a chain is migrated */
+    public ChainRegistration() {
+        this(null, null);
+    }
+
+    /** Register the microservice itself, with the ID given to the constructor */
+    public ChainRegistration registerMicroService() {
+        if (microServiceId == null) {
+            throw new IllegalStateException("No microservice ID to register");
+        }
+        newMicroService = true;
+        return this;
+    }
+
+    /**
+     * Create a group policy for the microservice on the kernel server within the OMS. Group
+     * policies are returned by {@link OMSServer#registerChain(ChainRegistration)} in the order in
+     * which they were added.
+     */
+    public ChainRegistration createGroupPolicy(Class<?> groupPolicyClass) {
+        if (microServiceId == null) {
+            throw new IllegalStateException("No microservice to create a group policy for");
+        }
+        groupPolicyClasses.add(groupPolicyClass);
+        return this;
+    }
+
+    /** Add a new replica of the microservice with the given ID and event handler */
+    public ChainRegistration addReplica(ReplicaID replicaId, EventHandler dispatcher) {
+        replicas.put(replicaId, dispatcher);
+        return this;
+    }
+
+    /** Replace the event handler of an existing replica, e.g. after it was moved */
+    public ChainRegistration setReplicaDispatcher(ReplicaID replicaId, EventHandler dispatcher) {
+        replicaDispatchers.put(replicaId, dispatcher);
+        return this;
+    }
+
+    /** Register the new location of an existing kernel object, after it was moved */
+    public ChainRegistration moveKernelObject(KernelOID oid, InetSocketAddress host) {
+        kernelObjects.put(oid, host);
+        return this;
+    }
+
+    public MicroServiceID getMicroServiceId() {
+        return microServiceId;
+    }
+
+    public MicroServiceSpec getSpec() {
+        return spec;
+    }
+
+    public boolean isNewMicroService() {
+        return newMicroService;
+    }
+
+    public List<Class<?>> getGroupPolicyClasses() {
+        return groupPolicyClasses;
+    }
+
+    public Map<ReplicaID, EventHandler> getReplicas() {
+        return replicas;
+    }
+
+    public Map<ReplicaID, EventHandler> getReplicaDispatchers() {
+        return replicaDispatchers;
+    }
+
+    public Map<KernelOID, InetSocketAddress> getKernelObjects() {
+        return kernelObjects;
+    }
+
+    /** @return whether there is nothing to register */
+    public boolean isEmpty() {
+        return !newMicroService
+                && groupPolicyClasses.isEmpty()
+                && replicas.isEmpty()
+                && replicaDispatchers.isEmpty()
+                && kernelObjects.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+                "ChainRegistration{microService=%s, new=%s, groupPolicies=%d, replicas=%d, dispatchers=%d, kernelObjects=%d}",
+                microServiceId,
+                newMicroService,
+                groupPolicyClasses.size(),
+                replicas.size(),
+                replicaDispatchers.size(),
+                kernelObjects.size());
+    }
+}
@@ -5,31 +5,73 @@ import amino.run.kernel.common.KernelObjectNotFoundException;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.Random;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Tracks all kernel objects in this application.
  *
+ * <p>Kernel object IDs are drawn from a 64-bit counter, so that they never collide. Kernel servers
+ * lease blocks of IDs with {@link #lease(InetSocketAddress, int)}, create kernel objects with IDs
+ * from their blocks without asking the OMS, and register them later in batches with {@link
+ * #register(List, InetSocketAddress)}. Until then, lookups of an ID resolve to the kernel server
+ * holding the block it was taken from, if the ID is known to be allocated. Kernel servers allocate
+ * the IDs of a block in order, so IDs below the highest registered one are, and so are all IDs of
+ * a block once the kernel server leased the next one. Lookups of other IDs of the block fail.
+ *
+ * <p>A lease is dropped once every ID of its block was registered or removed, or when the kernel
+ * server holding it registers again after a restart, see {@link #release(InetSocketAddress)}.
+ *
  * @author iyzhang
  */
 public class GlobalKernelObjectManager {
     private ConcurrentHashMap<KernelOID, InetSocketAddress> kernelObjects;
-    private Random oidGenerator;
+    /** Next kernel object ID which has not been handed out */
+    private final AtomicLong nextOid = new AtomicLong(1);
+    /** Leased blocks of IDs with unregistered kernel objects, by the first ID of the block */
+    private final ConcurrentSkipListMap<Long, Lease> leases =
+            new ConcurrentSkipListMap<Long, Lease>();
+
+    /** Block of kernel object IDs leased to a kernel server. Updated with the manager locked. */
+    private static class Lease {
+        final long first;
+        /** First ID after the block */
+        final long end;
+
+        final InetSocketAddress host;
+        /** First ID of the block not known to be allocated */
+        volatile long allocated;
+        /** Number of IDs of the block registered or removed */
+        long settled;
+        /** Removed kernel objects, which must no longer resolve to the kernel server */
+        final Set<KernelOID> removed =
+                Collections.newSetFromMap(new ConcurrentHashMap<KernelOID, Boolean>());
+
+        Lease(long first, long end, InetSocketAddress host) {
+            this.first = first;
+            this.end = end;
+            this.host = host;
+            this.allocated = first;
+        }
+    }
 
     /**
-     * Randomly generate a new kernel object id
+     * Generate a new kernel object id
      *
      * @return
      */
     private KernelOID generateKernelOID() {
-        return new KernelOID(oidGenerator.nextInt());
+        return new KernelOID(nextOid.getAndIncrement());
     }
 
     public GlobalKernelObjectManager() {
         kernelObjects = new ConcurrentHashMap<KernelOID, InetSocketAddress>();
-        oidGenerator = new Random(new Date().getTime());
     }
 
     /**
@@ -44,6 +86,63 @@ public class GlobalKernelObjectManager {
         return oid;
     }
 
+    /**
+     * Lease a block of kernel object IDs to a kernel server
+     *
+     * @param host kernel server which creates kernel objects with the IDs
+     * @param count number of IDs in the block
+     * @return first ID of the block. The block holds the IDs from the first ID to first ID + count
+     *     - 1.
+     */
+    public synchronized long lease(InetSocketAddress host, int count) {
+        if (count <= 0) {
+            throw new IllegalArgumentException("Invalid kernel object ID count " + count);
+        }
+        /* Kernel servers lease a block once they allocated all IDs of their previous ones */
+        for (Lease lease : leases.values()) {
+            if (lease.host.equals(host)) {
+                lease.allocated = lease.end;
+            }
+        }
+        long first = nextOid.getAndAdd(count);
+        leases.put(first, new Lease(first, first + count, host));
+        return first;
+    }
+
+    /**
+     * Release all blocks leased to a kernel server. Kernel objects created with IDs from the blocks
+     * which have not been registered yet are no longer found.
+     *
+     * @param host kernel server
+     */
+    public synchronized void release(InetSocketAddress host) {
+        Iterator<Lease> it = leases.values().iterator();
+        while (it.hasNext()) {
+            if (it.next().host.equals(host)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Register kernel objects created by a kernel server with IDs from its leased blocks. Kernel
+     * objects which have already been moved to another server or were removed keep their location.
+     *
+     * @param oids
+     * @param host
+     */
+    public synchronized void register(List<KernelOID> oids, InetSocketAddress host) {
+        for (KernelOID oid : oids) {
+            Lease lease = leaseOf(oid);
+            if (lease == null || lease.removed.contains(oid)) {
+                continue;
+            }
+            if (kernelObjects.putIfAbsent(oid, host) == null) {
+                settle(lease, oid);
+            }
+        }
+    }
+
     /**
      * Move a kernel object by registering a new host for this object
      *
@@ -51,10 +150,12 @@ public class GlobalKernelObjectManager {
      * @param host
      * @throws KernelObjectNotFoundException
      */
-    public void register(KernelOID oid, InetSocketAddress host)
+    public synchronized void register(KernelOID oid, InetSocketAddress host)
             throws KernelObjectNotFoundException {
-        if (lookup(oid) != null) {
-            kernelObjects.put(oid, host);
+        lookup(oid);
+        if (kernelObjects.put(oid, host) == null) {
+            /* Was not registered yet, so it was found through its lease */
+            settle(leaseOf(oid), oid);
         }
     }
 
@@ -65,10 +166,25 @@ public class GlobalKernelObjectManager {
      * @param host
      * @throws KernelObjectNotFoundException
      */
-    public void unRegister(KernelOID oid, InetSocketAddress host)
+    public synchronized void unRegister(KernelOID oid, InetSocketAddress host)
             throws KernelObjectNotFoundException {
-        InetSocketAddress oidHost = lookup(oid);
+        Lease lease = leaseOf(oid);
+        InetSocketAddress oidHost = kernelObjects.get(oid);
+        if (oidHost == null
+                && lease != null
+                && lease.host.equals(host)
+                && !lease.removed.contains(oid)) {
+            /* Not registered yet. The kernel server holding the lease knows it allocated the ID */
+            lease.removed.add(oid);
+            settle(lease, oid);
+            return;
+        }
+
+        oidHost = lookup(oid);
         if (oidHost.equals(host)) {
+            if (lease != null) {
+                lease.removed.add(oid);
+            }
             kernelObjects.remove(oid);
         } else {
             throw new KernelObjectNotFoundException(
@@ -88,12 +204,44 @@ public class GlobalKernelObjectManager {
      */
     public InetSocketAddress lookup(KernelOID oid) throws KernelObjectNotFoundException {
         InetSocketAddress host = kernelObjects.get(oid);
+        if (host == null) {
+            /* Not registered yet. The object lives on the server which leased its ID */
+            Lease lease = leaseOf(oid);
+            if (lease != null && oid.getID() < lease.allocated && !lease.removed.contains(oid)) {
+                host = lease.host;
+            }
+        }
         if (host == null) {
             throw new KernelObjectNotFoundException("Not a valid kernel object id.");
         }
         return host;
     }
 
+    /** @return lease of the block the ID was taken from, or null if the lease was dropped */
+    private Lease leaseOf(KernelOID oid) {
+        Map.Entry<Long, Lease> entry = leases.floorEntry(oid.getID());
+        if (entry == null || oid.getID() >= entry.getValue().end) {
+            return null;
+        }
+        return entry.getValue();
+    }
+
+    /**
+     * Count a kernel object with an ID of the lease as registered or removed, and drop the lease
+     * with the IDs of its removed objects once all its IDs are.
+     */
+    private void settle(Lease lease, KernelOID oid) {
+        lease.allocated = Math.max(lease.allocated, oid.getID() + 1);
+        if (++lease.settled == lease.end - lease.first) {
+            leases.remove(lease.first);
+        }
+    }
+
+    /** @return number of leases with unregistered IDs. Only meant for tests. */
+    int getLeaseCount() {
+        return leases.size();
+    }
+
     /**
      * get all the kernel objects from the oms system
      *
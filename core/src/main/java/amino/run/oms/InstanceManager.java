@@ -144,6 +144,26 @@ public class InstanceManager {
         return rid;
     }
 
+    /**
+     * Adds a replica with the given id to this microservice instance
+     *
+     * @param rid
+     * @param dispatcher
+     */
+    public void addReplica(ReplicaID rid, EventHandler dispatcher) {
+        replicaDispatchers.put(rid, dispatcher);
+    }
+
+    /**
+     * Checks whether the replica belongs to this microservice instance
+     *
+     * @param rid
+     * @return
+     */
+    public boolean hasReplica(ReplicaID rid) {
+        return replicaDispatchers.containsKey(rid);
+    }
+
     /**
      * Removes the replica from this microservice instance
      *
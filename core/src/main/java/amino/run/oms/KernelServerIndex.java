@@ -0,0 +1,314 @@
+package amino.run.oms;
+
+import amino.run.app.NodeSelectorSpec;
+import amino.run.app.NodeSelectorTerm;
+import amino.run.app.Operator;
+import amino.run.app.Requirement;
+import amino.run.kernel.common.ServerInfo;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Inverted index of kernel server labels, answering {@link NodeSelectorSpec} queries without
+ * matching the spec against every server.
+ *
+ * <p>Every registered server is given a slot, i.e. a bit position. For every label key, the index
+ * holds the set of servers having a label with that key, and for every value of the key, the set
+ * of servers having that label. A spec is compiled into a {@link Selector}, which is evaluated by
+ * combining these sets. Results are cached per selector, and are valid until the next server is
+ * added or removed.
+ *
+ * <p>Servers are selected with the same semantics as {@link
+ * ServerInfo#matchNodeSelectorSpec(NodeSelectorSpec)}.
+ *
+ * <p>All methods are thread-safe.
+ */
+class KernelServerIndex {
+    /** Maximum number of cached query results */
+    static final int MAX_CACHED_SELECTORS = 1024;
+
+    /** Servers and the labels they were indexed with, by slot. Free slots hold null. */
+    private final ArrayList<InetSocketAddress> hosts = new ArrayList<InetSocketAddress>();
+
+    private final ArrayList<Map<String, String>> labels = new ArrayList<Map<String, String>>();
+    private final HashMap<InetSocketAddress, Integer> slots =
+            new HashMap<InetSocketAddress, Integer>();
+    /** Slots in use */
+    private final BitSet live = new BitSet();
+
+    private final HashMap<String, LabelKey> keys = new HashMap<String, LabelKey>();
+
+    /** Incremented whenever a server is added or removed */
+    private volatile long version;
+
+    private final ConcurrentHashMap<Selector, Result> cache =
+            new ConcurrentHashMap<Selector, Result>();
+
+    /** Servers having labels with a given key */
+    private static final class LabelKey {
+        private final BitSet servers = new BitSet();
+        private final HashMap<String, BitSet> values = new HashMap<String, BitSet>();
+    }
+
+    /** Servers selected by a selector, at a version of the index */
+    private static final class Result {
+        private final long version;
+        private final List<InetSocketAddress> hosts;
+
+        private Result(long version, List<InetSocketAddress> hosts) {
+            this.version = version;
+            this.hosts = hosts;
+        }
+    }
+
+    /**
+     * Adds a server to the index, or replaces its labels if it is indexed already.
+     *
+     * @param info registration information of the server
+     */
+    synchronized void add(ServerInfo info) {
+        InetSocketAddress host = info.getHost();
+        remove(host);
+
+        int slot = live.nextClearBit(0);
+        Map<String, String> serverLabels = new HashMap<String, String>(info.getLabels());
+        if (slot == hosts.size()) {
+            hosts.add(host);
+            labels.add(serverLabels);
+        } else {
+            hosts.set(slot, host);
+            labels.set(slot, serverLabels);
+        }
+        slots.put(host, slot);
+        live.set(slot);
+
+        for (Map.Entry<String, String> label : serverLabels.entrySet()) {
+            if (label.getValue() == null) {
+                continue;
+            }
+            LabelKey key = keys.get(label.getKey());
+            if (key == null) {
+                key = new LabelKey();
+                keys.put(label.getKey(), key);
+            }
+            key.servers.set(slot);
+            BitSet servers = key.values.get(label.getValue());
+            if (servers == null) {
+                servers = new BitSet();
+                key.values.put(label.getValue(), servers);
+            }
+            servers.set(slot);
+        }
+        version++;
+    }
+
+    /**
+     * Removes a server from the index.
+     *
+     * @param host address of the server
+     */
+    synchronized void remove(InetSocketAddress host) {
+        Integer slot = slots.remove(host);
+        if (slot == null) {
+            return;
+        }
+
+        for (Map.Entry<String, String> label : labels.get(slot).entrySet()) {
+            LabelKey key = keys.get(label.getKey());
+            if (key == null) {
+                continue;
+            }
+            key.servers.clear(slot);
+            BitSet servers = key.values.get(label.getValue());
+            if (servers != null) {
+                servers.clear(slot);
+                if (servers.isEmpty()) {
+                    key.values.remove(label.getValue());
+                }
+            }
+            if (key.servers.isEmpty()) {
+                keys.remove(label.getKey());
+            }
+        }
+        hosts.set(slot, null);
+        labels.set(slot, null);
+        live.clear(slot);
+        version++;
+    }
+
+    /**
+     * Returns addresses of the servers selected by the given spec
+     *
+     * @param spec node selector spec, or null to select all servers
+     * @return addresses of the selected servers
+     */
+    List<InetSocketAddress> getServers(NodeSelectorSpec spec) {
+        Selector selector = Selector.compile(spec);
+        Result result = cache.get(selector);
+        if (result == null || result.version != version) {
+            result = evaluate(selector);
+            if (cache.size() >= MAX_CACHED_SELECTORS) {
+                cache.clear();
+            }
+            cache.put(selector, result);
+        }
+        return new ArrayList<InetSocketAddress>(result.hosts);
+    }
+
+    /** @return number of indexed servers */
+    synchronized int size() {
+        return slots.size();
+    }
+
+    private synchronized Result evaluate(Selector selector) {
+        BitSet selected;
+        if (selector.terms.isEmpty()) {
+            selected = (BitSet) live.clone();
+        } else {
+            selected = new BitSet();
+            for (List<Condition> term : selector.terms) {
+                selected.or(match(term));
+            }
+        }
+
+        ArrayList<InetSocketAddress> selectedHosts =
+                new ArrayList<InetSocketAddress>(selected.cardinality());
+        for (int slot = selected.nextSetBit(0); slot >= 0; slot = selected.nextSetBit(slot + 1)) {
+            selectedHosts.add(hosts.get(slot));
+        }
+        return new Result(version, Collections.unmodifiableList(selectedHosts));
+    }
+
+    /** @return servers meeting all conditions of a term. A term without conditions selects none. */
+    private BitSet match(List<Condition> term) {
+        BitSet servers = new BitSet();
+        for (int i = 0; i < term.size(); i++) {
+            BitSet matches = match(term.get(i));
+            if (i == 0) {
+                servers = matches;
+            } else {
+                servers.and(matches);
+            }
+            if (servers.isEmpty()) {
+                break;
+            }
+        }
+        return servers;
+    }
+
+    private BitSet match(Condition condition) {
+        BitSet servers = new BitSet();
+        LabelKey key = keys.get(condition.key);
+        if (key == null) {
+            return servers;
+        }
+
+        switch (condition.operator) {
+            case Equal:
+            case In:
+                for (String value : condition.values) {
+                    BitSet withValue = key.values.get(value);
+                    if (withValue != null) {
+                        servers.or(withValue);
+                    }
+                }
+                break;
+            case NotIn:
+                servers.or(key.servers);
+                for (String value : condition.values) {
+                    BitSet withValue = key.values.get(value);
+                    if (withValue != null) {
+                        servers.andNot(withValue);
+                    }
+                }
+                break;
+            case Exists:
+                servers.or(key.servers);
+                break;
+        }
+        return servers;
+    }
+
+    /**
+     * Compiled {@link NodeSelectorSpec}. Unlike specs, selectors are immutable, and equal whenever
+     * they select the same servers for the same reason, so they can be used as cache keys.
+     */
+    static final class Selector {
+        private static final Selector ALL = new Selector(new ArrayList<List<Condition>>());
+
+        /** Terms of the spec, each a list of conditions. No terms select all servers. */
+        private final List<List<Condition>> terms;
+
+        private Selector(List<List<Condition>> terms) {
+            this.terms = terms;
+        }
+
+        static Selector compile(NodeSelectorSpec spec) {
+            if (spec == null || spec.getNodeSelectorTerms().isEmpty()) {
+                return ALL;
+            }
+            List<List<Condition>> terms = new ArrayList<List<Condition>>();
+            for (NodeSelectorTerm term : spec.getNodeSelectorTerms()) {
+                List<Condition> conditions = new ArrayList<Condition>();
+                for (Requirement requirement : term.getMatchRequirements()) {
+                    conditions.add(new Condition(requirement));
+                }
+                terms.add(conditions);
+            }
+            return new Selector(terms);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return this == o || (o instanceof Selector && terms.equals(((Selector) o).terms));
+        }
+
+        @Override
+        public int hashCode() {
+            return terms.hashCode();
+        }
+    }
+
+    /** Compiled {@link Requirement} */
+    private static final class Condition {
+        private final String key;
+        private final Operator operator;
+        private final Set<String> values;
+
+        private Condition(Requirement requirement) {
+            key = requirement.getKey();
+            operator = requirement.getOperator();
+            values =
+                    requirement.getValues() == null
+                            ? Collections.<String>emptySet()
+                            : new HashSet<String>(requirement.getValues());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Condition)) {
+                return false;
+            }
+            Condition that = (Condition) o;
+            return key.equals(that.key)
+                    && operator == that.operator
+                    && values.equals(that.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return (key.hashCode() * 31 + operator.hashCode()) * 31 + values.hashCode();
+        }
+    }
+}
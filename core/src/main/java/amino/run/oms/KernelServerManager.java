@@ -3,9 +3,11 @@ package amino.run.oms;
 import amino.run.app.MicroServiceSpec;
 import amino.run.app.NodeSelectorSpec;
 import amino.run.kernel.common.GlobalKernelReferences;
+import amino.run.kernel.common.KernelOID;
 import amino.run.kernel.common.KernelServerNotFoundException;
 import amino.run.kernel.common.ServerInfo;
 import amino.run.kernel.server.KernelServer;
+import amino.run.kernel.server.KernelServerImpl;
 import amino.run.policy.util.ResettableTimer;
 import java.net.InetSocketAddress;
 import java.rmi.NotBoundException;
@@ -14,6 +16,10 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -40,8 +46,34 @@ public class KernelServerManager {
     private static final Logger logger = Logger.getLogger(KernelServerManager.class.getName());
     private ConcurrentHashMap<InetSocketAddress, KernelServerInfo> servers;
     private ConcurrentHashMap<String, ArrayList<InetSocketAddress>> regions;
+    /* Index of server labels, for node selector queries */
+    private final KernelServerIndex index = new KernelServerIndex();
+    /* Load of kernel servers, reported with heartbeats */
+    private final ServerLoadModel loadModel = new ServerLoadModel();
     private static final Random randgen = new Random();
 
+    /* Kernel servers which looked up the location of a kernel object, by kernel object ID */
+    private final ConcurrentHashMap<KernelOID, Set<InetSocketAddress>> locationSubscribers =
+            new ConcurrentHashMap<KernelOID, Set<InetSocketAddress>>();
+    /* Location updates not pushed yet, by kernel server. Guarded by itself. */
+    private final Map<InetSocketAddress, Map<KernelOID, InetSocketAddress>> pendingLocations =
+            new HashMap<InetSocketAddress, Map<KernelOID, InetSocketAddress>>();
+
+    /**
+     * Sends kernel object locations to kernel servers. A single thread keeps the updates for an
+     * object in order. At most one push per kernel server is queued at a time.
+     */
+    private final ExecutorService locationNotifier =
+            Executors.newSingleThreadExecutor(
+                    new ThreadFactory() {
+                        @Override
+                        public Thread newThread(Runnable r) {
+                            Thread thread = new Thread(r, "KernelObjectLocationNotifier");
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+
     public KernelServerManager() {
         servers = new ConcurrentHashMap<InetSocketAddress, KernelServerInfo>();
         regions = new ConcurrentHashMap<String, ArrayList<InetSocketAddress>>();
@@ -60,6 +92,8 @@ public class KernelServerManager {
         String region = srvInfo.getRegion();
         KernelServerInfo kernelServerInfo = servers.remove(host);
         kernelServerInfo.heartBeatTimer.cancel();
+        index.remove(host);
+        loadModel.remove(host);
 
         // Removing from the regions map
         ArrayList<InetSocketAddress> serversInRegion = regions.get(region);
@@ -78,6 +112,12 @@ public class KernelServerManager {
     public void registerKernelServer(ServerInfo info) throws RemoteException, NotBoundException {
         InetSocketAddress host = info.getHost();
         String region = info.getRegion();
+        if (region == null) {
+            // Kernel servers label themselves with KernelServerImpl.DEFAULT_REGION by default
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Kernel server %s has no %s label", host, KernelServerImpl.REGION_KEY));
+        }
         Registry registry = LocateRegistry.getRegistry(host.getHostName(), host.getPort());
         KernelServer server = (KernelServer) registry.lookup("io.amino.run.kernelserver");
 
@@ -103,6 +143,10 @@ public class KernelServerManager {
         if (oldServer != null) {
             oldServer.heartBeatTimer.cancel();
         }
+        index.add(info);
+        if (info.getLoad() != null) {
+            loadModel.report(host, info.getLoad(), System.currentTimeMillis());
+        }
 
         logger.info(String.format("Registered new kernel server: %s in region %s", host, region));
     }
@@ -110,13 +154,19 @@ public class KernelServerManager {
     public void receiveHeartBeat(ServerInfo srvinfo) throws KernelServerNotFoundException {
         InetSocketAddress host = srvinfo.getHost();
         String region = srvinfo.getRegion();
-        logger.fine(
-                String.format(
-                        "Received HeartBeat from kernel server: %s in region %s", host, region));
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(
+                    String.format(
+                            "Received HeartBeat from kernel server: %s in region %s",
+                            host, region));
+        }
 
         KernelServerInfo kernelServerInfo = servers.get(host);
         if (kernelServerInfo != null) {
             kernelServerInfo.heartBeatTimer.reset();
+            if (srvinfo.getLoad() != null) {
+                loadModel.report(host, srvinfo.getLoad(), System.currentTimeMillis());
+            }
             return;
         }
 
@@ -126,19 +176,135 @@ public class KernelServerManager {
     }
 
     /**
-     * Returns a list of addresses of servers whose labels match the given {@code NodeSelectorSpec}
+     * Returns a list of addresses of servers whose labels match the given {@code NodeSelectorSpec}.
+     * Servers are looked up in the label index rather than matched one by one.
      *
      * @param spec {@code NodeSelectorSpec} instance
      * @return a list of {@code InetSocketAddress}
      */
     public List<InetSocketAddress> getServers(NodeSelectorSpec spec) {
-        List<InetSocketAddress> nodes = new ArrayList<InetSocketAddress>();
-        for (Map.Entry<InetSocketAddress, KernelServerInfo> entry : servers.entrySet()) {
-            if (entry.getValue().config.matchNodeSelectorSpec(spec)) {
-                nodes.add(entry.getKey());
+        return index.getServers(spec);
+    }
+
+    /**
+     * Chooses servers for new microservices or replicas among the servers matching the given
+     * {@code NodeSelectorSpec}, and records the placements in the load model.
+     *
+     * @param spec {@code NodeSelectorSpec} instance, or null to choose among all servers
+     * @param strategy placement strategy
+     * @param count number of servers to choose
+     * @param excluded servers not to choose, e.g. those already holding replicas. With {@link
+     *     PlacementStrategy.Kind#SPREAD_BY_LABEL}, their label values count as used.
+     * @return up to {@code count} distinct servers, fewer if not enough servers match
+     */
+    public List<InetSocketAddress> selectServers(
+            NodeSelectorSpec spec,
+            PlacementStrategy strategy,
+            int count,
+            Collection<InetSocketAddress> excluded) {
+        List<InetSocketAddress> candidates = getServers(spec);
+        Map<String, Integer> labelUses = null;
+        if (strategy.getKind() == PlacementStrategy.Kind.SPREAD_BY_LABEL) {
+            labelUses = new HashMap<String, Integer>();
+            for (InetSocketAddress host : excluded) {
+                addLabelUse(labelUses, getLabel(host, strategy.getLabelKey()));
+            }
+        }
+        candidates.removeAll(new HashSet<InetSocketAddress>(excluded));
+
+        long now = System.currentTimeMillis();
+        List<InetSocketAddress> selected = new ArrayList<InetSocketAddress>();
+        while (selected.size() < count && !candidates.isEmpty()) {
+            int index;
+            switch (strategy.getKind()) {
+                case POWER_OF_TWO_CHOICES:
+                    index = selectPowerOfTwoChoices(candidates, now);
+                    break;
+                case SPREAD_BY_LABEL:
+                    index = selectSpreadByLabel(candidates, strategy.getLabelKey(), labelUses, now);
+                    break;
+                default:
+                    index = selectLeastLoaded(candidates, now);
+                    break;
+            }
+            InetSocketAddress host = candidates.remove(index);
+            loadModel.recordPlacement(host, now);
+            if (labelUses != null) {
+                addLabelUse(labelUses, getLabel(host, strategy.getLabelKey()));
+            }
+            selected.add(host);
+        }
+        return selected;
+    }
+
+    /** @return index of the least loaded candidate */
+    private int selectLeastLoaded(List<InetSocketAddress> candidates, long now) {
+        int best = 0;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            double score = loadModel.score(candidates.get(i), now);
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best;
+    }
+
+    /** @return index of the less loaded of two random candidates */
+    private int selectPowerOfTwoChoices(List<InetSocketAddress> candidates, long now) {
+        int first = randgen.nextInt(candidates.size());
+        if (candidates.size() == 1) {
+            return first;
+        }
+        int second = randgen.nextInt(candidates.size() - 1);
+        if (second >= first) {
+            second++;
+        }
+        return loadModel.score(candidates.get(second), now)
+                        < loadModel.score(candidates.get(first), now)
+                ? second
+                : first;
+    }
+
+    /** @return index of the least loaded candidate among those whose label value is used least */
+    private int selectSpreadByLabel(
+            List<InetSocketAddress> candidates,
+            String labelKey,
+            Map<String, Integer> labelUses,
+            long now) {
+        int[] uses = new int[candidates.size()];
+        int leastUses = Integer.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            Integer n = labelUses.get(getLabel(candidates.get(i), labelKey));
+            uses[i] = n == null ? 0 : n;
+            leastUses = Math.min(leastUses, uses[i]);
+        }
+
+        int best = 0;
+        double bestScore = Double.MAX_VALUE;
+        for (int i = 0; i < candidates.size(); i++) {
+            if (uses[i] != leastUses) {
+                continue;
+            }
+            double score = loadModel.score(candidates.get(i), now);
+            if (score < bestScore) {
+                best = i;
+                bestScore = score;
             }
         }
-        return nodes;
+        return best;
+    }
+
+    private static void addLabelUse(Map<String, Integer> labelUses, String value) {
+        Integer uses = labelUses.get(value);
+        labelUses.put(value, uses == null ? 1 : uses + 1);
+    }
+
+    /** @return value of the label of a server, or null if the server or label does not exist */
+    private String getLabel(InetSocketAddress host, String labelKey) {
+        KernelServerInfo kernelServerInfo = servers.get(host);
+        return kernelServerInfo == null ? null : kernelServerInfo.config.getLabels().get(labelKey);
     }
 
     public ArrayList<String> getRegions() {
@@ -160,7 +326,93 @@ public class KernelServerManager {
     }
 
     /**
-     * Gets the best suitable server from the given NodeSelector
+     * Subscribes a kernel server to the location of a kernel object, because it caches the location
+     * it looked up.
+     *
+     * @param oid kernel object ID
+     * @param server kernel server caching the location
+     */
+    public void subscribeKernelObjectLocation(KernelOID oid, InetSocketAddress server) {
+        Set<InetSocketAddress> subscribers = locationSubscribers.get(oid);
+        if (subscribers == null) {
+            Set<InetSocketAddress> newSubscribers =
+                    Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+            subscribers = locationSubscribers.putIfAbsent(oid, newSubscribers);
+            if (subscribers == null) {
+                subscribers = newSubscribers;
+            }
+        }
+        subscribers.add(server);
+    }
+
+    /**
+     * Pushes the new location of a kernel object to the kernel servers which looked it up, so that
+     * they update their location caches. Other kernel servers learn the location from a redirect
+     * or from the OMS on their next RPC to the object.
+     *
+     * <p>Updates are sent asynchronously. Updates for a kernel server which are queued behind a
+     * push to it are coalesced and sent with one RPC, the latest location of each object winning.
+     *
+     * @param oid kernel object ID
+     * @param host new location, or null if the kernel object was deleted
+     */
+    public void notifyKernelObjectLocation(KernelOID oid, InetSocketAddress host) {
+        Set<InetSocketAddress> subscribers =
+                host == null ? locationSubscribers.remove(oid) : locationSubscribers.get(oid);
+        if (subscribers == null) {
+            return;
+        }
+        for (InetSocketAddress server : subscribers) {
+            queueKernelObjectLocation(server, oid, host);
+        }
+    }
+
+    private void queueKernelObjectLocation(
+            final InetSocketAddress server, KernelOID oid, InetSocketAddress host) {
+        synchronized (pendingLocations) {
+            Map<KernelOID, InetSocketAddress> pending = pendingLocations.get(server);
+            if (pending != null) {
+                /* Push to the server is queued already */
+                pending.put(oid, host);
+                return;
+            }
+            pending = new HashMap<KernelOID, InetSocketAddress>();
+            pending.put(oid, host);
+            pendingLocations.put(server, pending);
+        }
+        locationNotifier.execute(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        pushKernelObjectLocations(server);
+                    }
+                });
+    }
+
+    private void pushKernelObjectLocations(InetSocketAddress server) {
+        Map<KernelOID, InetSocketAddress> locations;
+        synchronized (pendingLocations) {
+            locations = pendingLocations.remove(server);
+        }
+        KernelServerInfo info = servers.get(server);
+        if (locations == null || info == null) {
+            return;
+        }
+        try {
+            info.remoteRef.updateKernelObjectLocations(locations);
+        } catch (RemoteException e) {
+            logger.log(
+                    Level.FINE,
+                    String.format(
+                            "Failed to update locations of %d kernel objects on kernel server: %s",
+                            locations.size(), server),
+                    e);
+        }
+    }
+
+    /**
+     * Gets the best suitable server from the given NodeSelector, i.e. the less loaded of two random
+     * matching servers
      *
      * @param spec
      * @return
@@ -170,15 +422,18 @@ public class KernelServerManager {
         if (spec != null) {
             nodeSelector = spec.getNodeSelectorSpec();
         }
-        // If nodeSelector is null then return the list of address of all kernel servers
-        List<InetSocketAddress> hosts = getServers(nodeSelector);
+        // If nodeSelector is null then choose among all kernel servers
+        List<InetSocketAddress> hosts =
+                selectServers(
+                        nodeSelector,
+                        PlacementStrategy.powerOfTwoChoices(),
+                        1,
+                        Collections.<InetSocketAddress>emptyList());
 
         if (hosts.size() <= 0) {
             logger.severe("Could not find kernel server for the given requirements");
             return null;
         }
-        // In future we can consider some other specific things to select the
-        // best one among the list
-        return hosts.get(randgen.nextInt(hosts.size()));
+        return hosts.get(0);
     }
 }
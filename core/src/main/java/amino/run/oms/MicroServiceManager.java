@@ -10,6 +10,8 @@ import amino.run.kernel.common.KernelOID;
 import amino.run.runtime.EventHandler;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Map;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -55,6 +57,16 @@ public class MicroServiceManager {
         return oid;
     }
 
+    /**
+     * Adds a microservice with an id generated by the caller
+     *
+     * @param microServiceId
+     * @param dispatcher
+     */
+    public void addInstance(MicroServiceID microServiceId, EventHandler dispatcher) {
+        microServices.put(microServiceId, new InstanceManager(microServiceId, dispatcher));
+    }
+
     /**
      * Adds the group policy dispatcher to microservice
      *
@@ -125,6 +137,66 @@ public class MicroServiceManager {
         }
     }
 
+    /**
+     * Add replicas with ids generated by the caller. Either all replicas are added, or none.
+     *
+     * @param replicas replica ids and their event handlers
+     * @throws MicroServiceNotFoundException if the microservice of any replica does not exist
+     */
+    public void addReplicas(Map<ReplicaID, EventHandler> replicas)
+            throws MicroServiceNotFoundException {
+        for (ReplicaID replicaId : replicas.keySet()) {
+            getInstance(replicaId.getOID());
+        }
+        for (Map.Entry<ReplicaID, EventHandler> replica : replicas.entrySet()) {
+            InstanceManager instance = getInstance(replica.getKey().getOID());
+            synchronized (instance) {
+                if (instance.getReferenceCount() == 0) {
+                    /* MicroService object could have been deleted in another thread */
+                    removeReplicas(replicas.keySet());
+                    throw new MicroServiceNotFoundException("MicroService object is deleted.");
+                }
+                instance.addReplica(replica.getKey(), replica.getValue());
+            }
+        }
+    }
+
+    /**
+     * Remove replicas, if they exist
+     *
+     * @param replicaIds
+     */
+    public void removeReplicas(Collection<ReplicaID> replicaIds) {
+        for (ReplicaID replicaId : replicaIds) {
+            InstanceManager instance = microServices.get(replicaId.getOID());
+            if (instance != null) {
+                synchronized (instance) {
+                    instance.removeReplica(replicaId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Checks that replicas exist
+     *
+     * @param replicaIds
+     * @throws MicroServiceNotFoundException
+     * @throws MicroServiceReplicaNotFoundException
+     */
+    public void checkReplicas(Collection<ReplicaID> replicaIds)
+            throws MicroServiceNotFoundException, MicroServiceReplicaNotFoundException {
+        for (ReplicaID replicaId : replicaIds) {
+            InstanceManager instance = getInstance(replicaId.getOID());
+            synchronized (instance) {
+                if (!instance.hasReplica(replicaId)) {
+                    throw new MicroServiceReplicaNotFoundException(
+                            "Failed to find microservice replica " + replicaId);
+                }
+            }
+        }
+    }
+
     /**
      * Remove an instance of a microservice
      *
@@ -25,6 +25,11 @@ public interface OMSServer extends Remote {
 
     KernelOID registerKernelObject(InetSocketAddress host) throws RemoteException;
 
+    long leaseKernelOIDs(InetSocketAddress host, int count) throws RemoteException;
+
+    void registerKernelObjects(List<KernelOID> oids, InetSocketAddress host)
+            throws RemoteException;
+
     void registerKernelObject(KernelOID oid, InetSocketAddress host)
             throws RemoteException, KernelObjectNotFoundException;
 
@@ -34,10 +39,28 @@ public interface OMSServer extends Remote {
     InetSocketAddress lookupKernelObject(KernelOID oid)
             throws RemoteException, KernelObjectNotFoundException;
 
+    /**
+     * Finds the host of a kernel object, and subscribes the requesting kernel server to the new
+     * locations of the kernel object when it moves or is deleted.
+     *
+     * @param oid kernel object ID
+     * @param requester kernel server caching the location of the kernel object
+     * @return host of the kernel object
+     */
+    InetSocketAddress lookupKernelObject(KernelOID oid, InetSocketAddress requester)
+            throws RemoteException, KernelObjectNotFoundException;
+
     ArrayList<String> getRegions() throws RemoteException;
 
     List<InetSocketAddress> getServers(NodeSelectorSpec spec) throws RemoteException;
 
+    List<InetSocketAddress> selectServers(
+            NodeSelectorSpec spec,
+            PlacementStrategy strategy,
+            int count,
+            List<InetSocketAddress> excluded)
+            throws RemoteException;
+
     void registerKernelServer(ServerInfo info) throws RemoteException, NotBoundException;
 
     void receiveHeartBeat(ServerInfo srvinfo) throws RemoteException, KernelServerNotFoundException;
@@ -52,6 +75,11 @@ public interface OMSServer extends Remote {
 
     MicroServiceID registerMicroService() throws RemoteException;
 
+    List<Policy.GroupPolicy> registerChain(ChainRegistration registration)
+            throws RemoteException, ClassNotFoundException, KernelObjectNotCreatedException,
+                    KernelObjectNotFoundException, MicroServiceNotFoundException,
+                    MicroServiceReplicaNotFoundException;
+
     ReplicaID registerReplica(MicroServiceID microServiceId)
             throws RemoteException, MicroServiceNotFoundException;
 
@@ -17,6 +17,7 @@ import amino.run.kernel.common.KernelObjectNotCreatedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelServerNotFoundException;
 import amino.run.kernel.common.ServerInfo;
+import amino.run.kernel.metrics.MetricsEndpoint;
 import amino.run.kernel.server.KernelServer;
 import amino.run.kernel.server.KernelServerImpl;
 import amino.run.policy.Policy;
@@ -32,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.json.JSONException;
@@ -72,11 +74,41 @@ public class OMSServerImpl implements OMSServer, Registry {
         return oid;
     }
 
+    /**
+     * Lease a block of kernel object IDs to a kernel server, which creates kernel objects with
+     * them without contacting the OMS.
+     *
+     * @param host kernel server
+     * @param count number of IDs
+     * @return first ID of the block of count IDs
+     */
+    public long leaseKernelOIDs(InetSocketAddress host, int count) throws RemoteException {
+        long first = kernelObjectManager.lease(host, count);
+        logger.info(
+                String.format(
+                        "[OMS] Leased kernel object IDs %d to %d to host %s",
+                        first, first + count - 1, host));
+        return first;
+    }
+
+    /**
+     * Register kernel objects created with leased IDs
+     *
+     * @param oids kernel object IDs
+     * @param host kernel server holding the kernel objects
+     */
+    public void registerKernelObjects(List<KernelOID> oids, InetSocketAddress host)
+            throws RemoteException {
+        logger.fine("[OMS] Registering " + oids.size() + " kernel objects on host " + host);
+        kernelObjectManager.register(oids, host);
+    }
+
     /** Register a new host for this kernel object. Used to move a kernel object */
     public void registerKernelObject(KernelOID oid, InetSocketAddress host)
             throws KernelObjectNotFoundException {
         logger.info("[OMS] Registering new host for " + oid.toString() + " on " + host.toString());
         kernelObjectManager.register(oid, host);
+        serverManager.notifyKernelObjectLocation(oid, host);
     }
 
     /**
@@ -91,6 +123,7 @@ public class OMSServerImpl implements OMSServer, Registry {
             throws KernelObjectNotFoundException {
         logger.info("[OMS] UnRegistering " + oid.toString() + " on host " + host.toString());
         kernelObjectManager.unRegister(oid, host);
+        serverManager.notifyKernelObjectLocation(oid, null);
     }
 
     /**
@@ -105,9 +138,19 @@ public class OMSServerImpl implements OMSServer, Registry {
         return ko;
     }
 
+    @Override
+    public InetSocketAddress lookupKernelObject(KernelOID oid, InetSocketAddress requester)
+            throws KernelObjectNotFoundException {
+        InetSocketAddress ko = lookupKernelObject(oid);
+        serverManager.subscribeKernelObjectLocation(oid, requester);
+        return ko;
+    }
+
     @Override
     public void registerKernelServer(ServerInfo info) throws RemoteException, NotBoundException {
         serverManager.registerKernelServer(info);
+        /* Blocks of kernel object IDs leased by an earlier run of the kernel server are unused */
+        kernelObjectManager.release(info.getHost());
     }
 
     @Override
@@ -138,6 +181,27 @@ public class OMSServerImpl implements OMSServer, Registry {
         return serverManager.getServers(spec);
     }
 
+    /**
+     * Chooses servers for new microservices or replicas among the servers matching the specified
+     * node selector, according to the load they report with their heartbeats
+     *
+     * @param spec node selector, or null to choose among all servers
+     * @param strategy placement strategy
+     * @param count number of servers to choose
+     * @param excluded servers not to choose
+     * @return up to {@code count} distinct servers
+     * @throws RemoteException
+     */
+    @Override
+    public List<InetSocketAddress> selectServers(
+            NodeSelectorSpec spec,
+            PlacementStrategy strategy,
+            int count,
+            List<InetSocketAddress> excluded)
+            throws RemoteException {
+        return serverManager.selectServers(spec, strategy, count, excluded);
+    }
+
     @Override
     public MicroServiceID create(String microServiceSpec, Object... args)
             throws MicroServiceCreationException {
@@ -314,6 +378,10 @@ public class OMSServerImpl implements OMSServer, Registry {
                                     localKernelServer, omsArgs.servicePort);
             registry.rebind("io.amino.run.kernelserver", localKernelServerStub);
 
+            if (omsArgs.metricsPort > 0) {
+                new MetricsEndpoint(new InetSocketAddress(omsArgs.omsIP, omsArgs.metricsPort));
+            }
+
             // Log being used in examples gradle task "run", hence modify accordingly.
             logger.info(String.format("OMS ready at port (%s)!", omsArgs.omsPort));
 
@@ -339,6 +407,84 @@ public class OMSServerImpl implements OMSServer, Registry {
         return objectManager.addInstance(null);
     }
 
+    /**
+     * Register a policy chain, or a replica of it, in one call. Either all registrations are
+     * applied, or none: registrations which were applied before one failed are undone.
+     *
+     * @param registration registrations of the chain
+     * @return group policy stubs created for the chain, in the order they were requested
+     * @throws ClassNotFoundException
+     * @throws KernelObjectNotCreatedException if a group policy could not be created
+     * @throws KernelObjectNotFoundException if a moved kernel object does not exist
+     * @throws MicroServiceNotFoundException if the microservice does not exist
+     * @throws MicroServiceReplicaNotFoundException if a replica whose dispatcher is set does not
+     *     exist
+     */
+    @Override
+    public List<Policy.GroupPolicy> registerChain(ChainRegistration registration)
+            throws ClassNotFoundException, KernelObjectNotCreatedException,
+                    KernelObjectNotFoundException, MicroServiceNotFoundException,
+                    MicroServiceReplicaNotFoundException {
+        MicroServiceID microServiceId = registration.getMicroServiceId();
+        logger.fine("[OMS] Registering " + registration);
+
+        /* Check everything which is only read, before anything is changed */
+        objectManager.checkReplicas(registration.getReplicaDispatchers().keySet());
+        for (KernelOID oid : registration.getKernelObjects().keySet()) {
+            kernelObjectManager.lookup(oid);
+        }
+
+        List<Policy.GroupPolicy> groups = new ArrayList<Policy.GroupPolicy>();
+        boolean registered = false;
+        try {
+            if (registration.isNewMicroService()) {
+                objectManager.addInstance(microServiceId, null);
+            }
+            for (Class<?> groupPolicyClass : registration.getGroupPolicyClasses()) {
+                groups.add(
+                        createGroupPolicy(
+                                groupPolicyClass, microServiceId, registration.getSpec()));
+            }
+            objectManager.addReplicas(registration.getReplicas());
+            for (Map.Entry<ReplicaID, EventHandler> dispatcher :
+                    registration.getReplicaDispatchers().entrySet()) {
+                objectManager.setReplicaDispatcher(dispatcher.getKey(), dispatcher.getValue());
+            }
+            for (Map.Entry<KernelOID, InetSocketAddress> location :
+                    registration.getKernelObjects().entrySet()) {
+                registerKernelObject(location.getKey(), location.getValue());
+            }
+            registered = true;
+        } finally {
+            if (!registered) {
+                undoRegisterChain(registration, groups);
+            }
+        }
+        return groups;
+    }
+
+    /** Undo the registrations of a chain which failed to register */
+    private void undoRegisterChain(
+            ChainRegistration registration, List<Policy.GroupPolicy> groups) {
+        MicroServiceID microServiceId = registration.getMicroServiceId();
+        logger.warning("[OMS] Failed to register " + registration + ". Undoing it.");
+        objectManager.removeReplicas(registration.getReplicas().keySet());
+        for (Policy.GroupPolicy group : groups) {
+            try {
+                deleteGroupPolicy(microServiceId, group.$__getKernelOID());
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to delete group policy " + group, e);
+            }
+        }
+        if (registration.isNewMicroService()) {
+            try {
+                objectManager.removeInstance(microServiceId);
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to remove " + microServiceId, e);
+            }
+        }
+    }
+
     /**
      * Register a replica of a given microservice
      *
@@ -0,0 +1,63 @@
+package amino.run.oms;
+
+import java.io.Serializable;
+
+/**
+ * Strategy the OMS uses to choose kernel servers for new microservices and replicas, among the
+ * servers matching a node selector. Servers are compared by the load they report with their
+ * heartbeats.
+ */
+public class PlacementStrategy implements Serializable {
+    public enum Kind {
+        /** Choose the least loaded servers */
+        LEAST_LOADED,
+        /** Choose the less loaded of two random servers. Avoids herding on one server. */
+        POWER_OF_TWO_CHOICES,
+        /**
+         * Spread servers over the values of a label, e.g. regions or racks, choosing the least
+         * loaded server for the value used least so far
+         */
+        SPREAD_BY_LABEL
+    }
+
+    private final Kind kind;
+    private final String labelKey;
+
+    private PlacementStrategy(Kind kind, String labelKey) {
+        this.kind = kind;
+        this.labelKey = labelKey;
+    }
+
+    public static PlacementStrategy leastLoaded() {
+        return new PlacementStrategy(Kind.LEAST_LOADED, null);
+    }
+
+    public static PlacementStrategy powerOfTwoChoices() {
+        return new PlacementStrategy(Kind.POWER_OF_TWO_CHOICES, null);
+    }
+
+    /**
+     * @param labelKey key of the label to spread servers over
+     * @return strategy spreading servers over the values of the label
+     */
+    public static PlacementStrategy spreadByLabel(String labelKey) {
+        if (labelKey == null || labelKey.isEmpty()) {
+            throw new IllegalArgumentException("Label key must not be empty");
+        }
+        return new PlacementStrategy(Kind.SPREAD_BY_LABEL, labelKey);
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /** @return key of the label to spread servers over, or null if not spreading by label */
+    public String getLabelKey() {
+        return labelKey;
+    }
+
+    @Override
+    public String toString() {
+        return labelKey == null ? kind.toString() : kind + "(" + labelKey + ")";
+    }
+}
@@ -0,0 +1,133 @@
+package amino.run.oms;
+
+import amino.run.kernel.common.ServerLoad;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Estimated load of kernel servers, built from the {@link ServerLoad} reported with heartbeats.
+ * Reports are smoothed with an exponentially weighted moving average, whose weights decay with a
+ * half-life of {@link #HALF_LIFE_MS}, so that a single busy or idle heartbeat does not swing
+ * placement decisions.
+ *
+ * <p>Servers report their load every few seconds only, so servers chosen in between would look as
+ * idle as before. Every placement on a server therefore adds to its estimated load, until the
+ * placement decays or shows in the reported load.
+ *
+ * <p>Loads are compared by a single score, adding up CPU load per processor, heap usage, and
+ * kernel objects and RPC rates scaled by {@link #OBJECTS_PER_UNIT} and {@link #RPCS_PER_UNIT}.
+ * Servers which have not reported their load yet score 0.
+ *
+ * <p>All methods are thread-safe.
+ */
+class ServerLoadModel {
+    /** Half-life of reported loads and placements */
+    static final long HALF_LIFE_MS = 10000;
+    /** Number of kernel objects adding 1 to the score of a server */
+    static final double OBJECTS_PER_UNIT = 1000;
+    /** Kernel RPCs per second adding 1 to the score of a server */
+    static final double RPCS_PER_UNIT = 1000;
+    /** Score added by placing a microservice or replica on a server */
+    static final double PLACEMENT_SCORE = 0.05;
+
+    private final ConcurrentHashMap<InetSocketAddress, Estimate> estimates =
+            new ConcurrentHashMap<InetSocketAddress, Estimate>();
+
+    /** Smoothed load of a server */
+    private static final class Estimate {
+        private long updated;
+        private boolean reported;
+        private double cpuLoad;
+        private double heapUsage;
+        private double kernelObjects;
+        private double rpcRate;
+        private double placements;
+
+        private Estimate(long now) {
+            updated = now;
+        }
+
+        /** Decay placements, and return the weight of a new report */
+        private double decay(long now) {
+            double weight = 1 - Math.pow(0.5, (double) Math.max(0, now - updated) / HALF_LIFE_MS);
+            placements *= 1 - weight;
+            updated = Math.max(updated, now);
+            return weight;
+        }
+
+        private synchronized void report(ServerLoad load, long now) {
+            double weight = decay(now);
+            double cpu = Math.max(0, load.getCpuLoad());
+            if (!reported) {
+                reported = true;
+                weight = 1;
+            }
+            cpuLoad += weight * (cpu - cpuLoad);
+            heapUsage += weight * (load.getHeapUsage() - heapUsage);
+            kernelObjects += weight * (load.getKernelObjects() - kernelObjects);
+            rpcRate += weight * (load.getRpcRate() - rpcRate);
+        }
+
+        private synchronized void place(long now) {
+            decay(now);
+            placements++;
+        }
+
+        private synchronized double score(long now) {
+            decay(now);
+            return cpuLoad
+                    + heapUsage
+                    + kernelObjects / OBJECTS_PER_UNIT
+                    + rpcRate / RPCS_PER_UNIT
+                    + placements * PLACEMENT_SCORE;
+        }
+    }
+
+    private Estimate estimate(InetSocketAddress host, long now) {
+        Estimate estimate = estimates.get(host);
+        if (estimate == null) {
+            Estimate newEstimate = new Estimate(now);
+            estimate = estimates.putIfAbsent(host, newEstimate);
+            if (estimate == null) {
+                estimate = newEstimate;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * Adds the load reported by a server
+     *
+     * @param host server address
+     * @param load reported load
+     * @param now current time in milliseconds
+     */
+    void report(InetSocketAddress host, ServerLoad load, long now) {
+        estimate(host, now).report(load, now);
+    }
+
+    /**
+     * Records that a microservice or replica was placed on a server
+     *
+     * @param host server address
+     * @param now current time in milliseconds
+     */
+    void recordPlacement(InetSocketAddress host, long now) {
+        estimate(host, now).place(now);
+    }
+
+    /**
+     * @param host server address
+     * @param now current time in milliseconds
+     * @return estimated load of the server, the lower the less loaded
+     */
+    double score(InetSocketAddress host, long now) {
+        Estimate estimate = estimates.get(host);
+        return estimate == null ? 0 : estimate.score(now);
+    }
+
+    /** Forgets the load of a server, after it was removed */
+    void remove(InetSocketAddress host) {
+        estimates.remove(host);
+    }
+}
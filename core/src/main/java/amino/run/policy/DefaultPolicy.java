@@ -8,7 +8,13 @@ import amino.run.kernel.common.KernelObjectStub;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -68,6 +74,32 @@ public class DefaultPolicy extends Policy {
 
     public static class DefaultGroupPolicy extends GroupPolicy {
         private static final Logger logger = Logger.getLogger(DefaultGroupPolicy.class.getName());
+        /** Maximum number of replicas created concurrently on a kernel server */
+        protected static final int MAX_CONCURRENT_REPLICATIONS = 16;
+        /**
+         * Threads creating replicas. Shared by all group policies on a kernel server, replicas
+         * wait in the queue while all threads are busy. Idle threads exit.
+         */
+        private static final ThreadPoolExecutor replicationExecutor =
+                new ThreadPoolExecutor(
+                        MAX_CONCURRENT_REPLICATIONS,
+                        MAX_CONCURRENT_REPLICATIONS,
+                        60L,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, "ReplicationThread");
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+
+        static {
+            replicationExecutor.allowCoreThreadTimeOut(true);
+        }
+
         private ConcurrentHashMap<ReplicaID, ServerPolicy> servers =
                 new ConcurrentHashMap<ReplicaID, ServerPolicy>();
 
@@ -169,6 +201,116 @@ public class DefaultPolicy extends Policy {
             return replica;
         }
 
+        /**
+         * Replicates a server policy on each of the given hosts concurrently, as {@link
+         * #replicate(ServerPolicy, InetSocketAddress, String)} does for one host. At most {@link
+         * #MAX_CONCURRENT_REPLICATIONS} replicas are created at a time on this kernel server.
+         *
+         * <p>Returns as soon as {@code quorum} replicas have been created. The remaining replicas
+         * are added to the local server list when they are ready, and failures to create them are
+         * logged. If so many replicas fail that the quorum cannot be reached, the replicas created
+         * so far, and those still being created, are terminated.
+         *
+         * @param replicaSource Server policy on which new replicas are created considering itself
+         *     as reference copy
+         * @param dests Host addresses on which replicated copies need to pin
+         * @param regions Region of each replica, in the order of {@code dests}
+         * @param quorum Number of replicas which need to be created, at most the number of hosts
+         * @return Replicas created when the quorum was reached, in the order they were created
+         * @throws RemoteException if the quorum cannot be reached for another reason than below
+         * @throws MicroServiceNotFoundException
+         * @throws MicroServiceReplicaNotFoundException
+         */
+        protected List<ServerPolicy> replicate(
+                final ServerPolicy replicaSource,
+                List<InetSocketAddress> dests,
+                List<String> regions,
+                int quorum)
+                throws RemoteException, MicroServiceNotFoundException,
+                        MicroServiceReplicaNotFoundException {
+            if (regions.size() != dests.size() || quorum < 0 || quorum > dests.size()) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "Invalid replication: %d hosts, %d regions, quorum %d",
+                                dests.size(), regions.size(), quorum));
+            }
+
+            final ReplicationBatch batch = new ReplicationBatch(dests.size(), quorum);
+            for (int i = 0; i < dests.size(); i++) {
+                final InetSocketAddress dest = dests.get(i);
+                final String region = regions.get(i);
+                replicationExecutor.execute(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                ServerPolicy replica = null;
+                                try {
+                                    if (batch.isAborted()) {
+                                        batch.failed(null);
+                                        return;
+                                    }
+                                    replica = replicate(replicaSource, dest, region);
+                                } catch (Throwable e) {
+                                    logger.log(
+                                            Level.WARNING,
+                                            String.format("Failed to create replica on %s", dest),
+                                            e);
+                                    batch.failed(e);
+                                    return;
+                                }
+                                if (!batch.succeeded(replica)) {
+                                    /* Quorum was missed meanwhile */
+                                    terminateQuietly(replica);
+                                }
+                            }
+                        });
+            }
+
+            try {
+                if (batch.awaitQuorum()) {
+                    return batch.getReplicas();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                batch.setFailure(e);
+            }
+
+            for (ServerPolicy replica : batch.abort()) {
+                terminateQuietly(replica);
+            }
+            Throwable failure = batch.getFailure();
+            if (failure instanceof RemoteException) {
+                throw (RemoteException) failure;
+            }
+            if (failure instanceof MicroServiceNotFoundException) {
+                throw (MicroServiceNotFoundException) failure;
+            }
+            if (failure instanceof MicroServiceReplicaNotFoundException) {
+                throw (MicroServiceReplicaNotFoundException) failure;
+            }
+            throw new RemoteException(
+                    String.format(
+                            "Failed to create a quorum of %d out of %d replicas",
+                            quorum, dests.size()),
+                    failure);
+        }
+
+        /**
+         * Replicates a server policy on each of the given hosts concurrently, in the same region.
+         *
+         * @see #replicate(ServerPolicy, List, List, int)
+         */
+        protected List<ServerPolicy> replicate(
+                ServerPolicy replicaSource,
+                List<InetSocketAddress> dests,
+                String region,
+                int quorum)
+                throws RemoteException, MicroServiceNotFoundException,
+                        MicroServiceReplicaNotFoundException {
+            return replicate(
+                    replicaSource, dests, Collections.nCopies(dests.size(), region), quorum);
+        }
+
         /**
          * Pin the server policy to kernel server with specified host
          *
@@ -198,5 +340,85 @@ public class DefaultPolicy extends Policy {
             server.terminate();
             removeServer(server);
         }
+
+        /** Terminates a replica which was rolled back, logging failures */
+        private void terminateQuietly(ServerPolicy server) {
+            try {
+                terminate(server);
+            } catch (RemoteException e) {
+                logger.log(Level.WARNING, "Failed to terminate replica " + server, e);
+            }
+        }
+    }
+
+    /** Progress of replicas created concurrently, for one call to create them */
+    private static final class ReplicationBatch {
+        private final int total;
+        private final int quorum;
+        private final List<ServerPolicy> replicas = new ArrayList<ServerPolicy>();
+        private int failed;
+        private Throwable failure;
+        private boolean aborted;
+
+        private ReplicationBatch(int total, int quorum) {
+            this.total = total;
+            this.quorum = quorum;
+        }
+
+        /**
+         * @return true if the replica was counted, false if the quorum was missed and the replica
+         *     needs to be rolled back
+         */
+        private synchronized boolean succeeded(ServerPolicy replica) {
+            if (aborted) {
+                return false;
+            }
+            replicas.add(replica);
+            notifyAll();
+            return true;
+        }
+
+        /** @param e cause of the failure, or null if the replica was skipped after an abort */
+        private synchronized void failed(Throwable e) {
+            failed++;
+            if (failure == null) {
+                failure = e;
+            }
+            notifyAll();
+        }
+
+        private synchronized void setFailure(Throwable e) {
+            if (failure == null) {
+                failure = e;
+            }
+        }
+
+        private synchronized Throwable getFailure() {
+            return failure;
+        }
+
+        private synchronized boolean isAborted() {
+            return aborted;
+        }
+
+        /** @return true once the quorum is reached, false once it cannot be reached any more */
+        private synchronized boolean awaitQuorum() throws InterruptedException {
+            while (replicas.size() < quorum && failed <= total - quorum) {
+                wait();
+            }
+            return replicas.size() >= quorum;
+        }
+
+        private synchronized List<ServerPolicy> getReplicas() {
+            return new ArrayList<ServerPolicy>(replicas);
+        }
+
+        /** Stops counting replicas, and returns those created so far to roll them back. */
+        private synchronized List<ServerPolicy> abort() {
+            aborted = true;
+            List<ServerPolicy> created = new ArrayList<ServerPolicy>(replicas);
+            replicas.clear();
+            return created;
+        }
     }
 }
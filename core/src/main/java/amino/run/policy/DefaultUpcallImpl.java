@@ -1,5 +1,6 @@
 package amino.run.policy;
 
+import amino.run.common.Futures;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.policy.transaction.IllegalComponentException;
@@ -10,8 +11,47 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 public abstract class DefaultUpcallImpl extends Library {
+    /** Whether a policy class overrides the default onRPC, keyed by policy class */
+    private static final ConcurrentHashMap<Class<?>, Boolean> onRPCOverrides =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
+    /**
+     * Checks whether the policy class overrides onRPC of the given default implementation. The
+     * default onRPCAsync implementations bridge to onRPC for such classes, so that DM's which do
+     * not implement onRPCAsync keep their behaviour.
+     */
+    private static boolean overridesOnRPC(Class<?> cls, Class<?> defaultImpl) {
+        Boolean overrides = onRPCOverrides.get(cls);
+        if (overrides == null) {
+            try {
+                overrides =
+                        cls.getMethod("onRPC", String.class, ArrayList.class).getDeclaringClass()
+                                != defaultImpl;
+            } catch (NoSuchMethodException e) {
+                overrides = false;
+            }
+            onRPCOverrides.put(cls, overrides);
+        }
+        return overrides;
+    }
+
+    private static Callable<Object> onRPCTask(
+            final Upcalls.ClientUpcalls client,
+            final String method,
+            final ArrayList<Object> params) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return client.onRPC(method, params);
+            }
+        };
+    }
 
     public abstract static class ClientPolicy extends ClientPolicyLibrary {
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
@@ -34,6 +74,59 @@ public abstract class DefaultUpcallImpl extends Library {
             return ret;
         }
 
+        public CompletableFuture<Object> onRPCAsync(String method, ArrayList<Object> params) {
+            if (this.hasTransaction()) {
+                /* Transaction context is bound to the calling thread */
+                return Futures.complete(onRPCTask(this, method, params));
+            }
+            if (overridesOnRPC(getClass(), ClientPolicy.class)) {
+                /* DM only implements the synchronous onRPC. Run it without blocking the caller. */
+                return Futures.submit(onRPCTask(this, method, params));
+            }
+
+            Policy.ServerPolicy server;
+            try {
+                server = getServer();
+            } catch (RemoteException e) {
+                return Futures.failed(e);
+            }
+
+            final CompletableFuture<Object> result = new CompletableFuture<Object>();
+            server.onRPCAsync(method, params)
+                    .whenComplete(
+                            new BiConsumer<Object, Throwable>() {
+                                @Override
+                                public void accept(Object ret, Throwable t) {
+                                    t = Futures.unwrap(t);
+                                    if (t instanceof RemoteException) {
+                                        /* Same as onRPC, refresh server and complete with null */
+                                        refreshServer(result);
+                                    } else if (t != null) {
+                                        result.completeExceptionally(t);
+                                    } else {
+                                        result.complete(ret);
+                                    }
+                                }
+                            });
+            return result;
+        }
+
+        private void refreshServer(final CompletableFuture<Object> result) {
+            Futures.getExecutor()
+                    .execute(
+                            new Runnable() {
+                                @Override
+                                public void run() {
+                                    try {
+                                        setServer(getGroup().onRefRequest());
+                                        result.complete(null);
+                                    } catch (RemoteException e) {
+                                        result.completeExceptionally(e);
+                                    }
+                                }
+                            });
+        }
+
         /**
          * Set the remote server policy in cache.
          *
@@ -70,6 +163,17 @@ public abstract class DefaultUpcallImpl extends Library {
             return appObject.invoke(method, params);
         }
 
+        public CompletableFuture<Object> onRPCAsync(
+                final String method, final ArrayList<Object> params) {
+            return Futures.complete(
+                    new Callable<Object>() {
+                        @Override
+                        public Object call() throws Exception {
+                            return onRPC(method, params);
+                        }
+                    });
+        }
+
         /* This function is here just to generate the stub for this function in all server policies */
         @Override
         public Policy.ServerPolicy replicate(String region) throws RemoteException {
@@ -16,6 +16,7 @@ import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.MultiDMConstructionHelper;
 import amino.run.common.ReplicaID;
+import amino.run.common.StructuralCloner;
 import amino.run.common.Utils;
 import amino.run.compiler.GlobalStubConstants;
 import amino.run.kernel.common.GlobalKernelReferences;
@@ -23,9 +24,12 @@ import amino.run.kernel.common.KernelOID;
 import amino.run.kernel.common.KernelObjectFactory;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.server.KernelServerImpl;
+import amino.run.oms.ChainRegistration;
 import amino.run.oms.OMSServer;
+import amino.run.oms.PlacementStrategy;
 import amino.run.policy.Policy.ServerPolicy;
 import amino.run.runtime.MicroService;
+import amino.run.runtime.util.PolicyCreationHelper;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
@@ -237,6 +241,10 @@ public abstract class Library implements Upcalls {
                 List<String> policyNames =
                         MultiDMConstructionHelper.getPolicyNames(processedPolicies);
 
+                // Replicas of the chain are registered with the OMS in one call, after the whole
+                // replica chain has been created.
+                ChainRegistration registration = new ChainRegistration(soid, getSpec());
+
                 // 1. Creates a new replica policy chain from already created policies before this
                 // policy (outer policies). Specifically, create instances from outermost up to this
                 // policy. Note that the newly created policy instances will point to already
@@ -248,7 +256,8 @@ public abstract class Library implements Upcalls {
                             policyNames,
                             processedPoliciesReplica,
                             soid,
-                            getSpec());
+                            getSpec(),
+                            registration);
                     policyNames.remove(0);
                 }
 
@@ -262,13 +271,24 @@ public abstract class Library implements Upcalls {
                 // (inner)
                 // to the innermost policy. Note that it does not include the current policy. This
                 // creates new group policies as well.
+                // The new group policies are created in one call to the OMS.
                 policyNames = new ArrayList<String>(this.nextPolicyNames);
                 int innerPolicySize = this.nextPolicyNames.size();
+                List<Policy.GroupPolicy> innerGroupPolicies =
+                        PolicyCreationHelper.createGroupPolicies(
+                                new ChainRegistration(soid, getSpec()), policyNames);
                 for (int j = outerPolicySize; j < innerPolicySize + outerPolicySize; j++) {
                     MicroService.createConnectedPolicy(
-                            null, null, policyNames, processedPoliciesReplica, soid, getSpec());
+                            innerGroupPolicies.get(j - outerPolicySize),
+                            null,
+                            policyNames,
+                            processedPoliciesReplica,
+                            soid,
+                            getSpec(),
+                            registration);
                     policyNames.remove(0);
                 }
+                PolicyCreationHelper.registerChain(registration);
 
                 // 4. Executes GroupPolicy.onCreate() in the chain starting from the inner most
                 // instance up to outer policy of this replica. This is because group policy of this
@@ -286,7 +306,7 @@ public abstract class Library implements Upcalls {
                 serverStub =
                         (ServerPolicy)
                                 processedPoliciesReplica.get(outerPolicySize - 1).serverPolicyStub;
-                serverStub = (ServerPolicy) Utils.ObjectCloner.deepCopy(serverStub);
+                serverStub = StructuralCloner.deepCopy(serverStub);
 
                 /* Remove the next DM client link for all server policy stubs on server side */
                 for (PolicyContainer container : processedPoliciesReplica) {
@@ -535,24 +555,66 @@ public abstract class Library implements Upcalls {
          */
         // TODO: Remove region parameter after spec is applied to all DMs and scripts.
         public List<InetSocketAddress> getAddressList(String region) throws RemoteException {
-            List<InetSocketAddress> serversInRegion;
+            return oms().getServers(getNodeSelector(region));
+        }
+
+        /**
+         * Chooses servers from nodeSelector or region to place new replicas on, according to the
+         * load reported by the servers.
+         *
+         * @param region
+         * @param strategy placement strategy
+         * @param count number of servers to choose
+         * @param excluded servers not to choose, e.g. those already holding replicas
+         * @return up to {@code count} distinct server addresses, fewer if not enough servers are
+         *     available
+         * @throws RemoteException
+         */
+        public List<InetSocketAddress> selectAddresses(
+                String region,
+                PlacementStrategy strategy,
+                int count,
+                List<InetSocketAddress> excluded)
+                throws RemoteException {
+            return oms().selectServers(getNodeSelector(region), strategy, count, excluded);
+        }
+
+        /**
+         * Chooses a server from nodeSelector or region to place a new replica on, according to
+         * the load reported by the servers.
+         *
+         * @param region
+         * @param strategy placement strategy
+         * @return server address, or null if no server is available
+         * @throws RemoteException
+         */
+        public InetSocketAddress selectAddress(String region, PlacementStrategy strategy)
+                throws RemoteException {
+            List<InetSocketAddress> addresses =
+                    selectAddresses(
+                            region, strategy, 1, Collections.<InetSocketAddress>emptyList());
+            return addresses.isEmpty() ? null : addresses.get(0);
+        }
+
+        /**
+         * @param region
+         * @return node selector of the spec, or one selecting the given region if the spec has
+         *     none, or null to select all servers
+         */
+        private NodeSelectorSpec getNodeSelector(String region) {
             NodeSelectorSpec nodeSelector = getSpec().getNodeSelectorSpec();
             if (null != nodeSelector) { // spec takes priority over region
-                serversInRegion = oms().getServers(nodeSelector);
-            } else {
-                if (region != null && !region.isEmpty()) {
-                    NodeSelectorTerm regionTerm = new NodeSelectorTerm();
-                    regionTerm.addMatchRequirements(
-                            new Requirement(
-                                    REGION_KEY, Operator.Equal, Collections.singletonList(region)));
-                    nodeSelector = new NodeSelectorSpec();
-                    nodeSelector.addNodeSelectorTerms(regionTerm);
-                    serversInRegion = oms().getServers(nodeSelector);
-                } else {
-                    serversInRegion = oms().getServers(null);
-                }
+                return nodeSelector;
+            }
+            if (region != null && !region.isEmpty()) {
+                NodeSelectorTerm regionTerm = new NodeSelectorTerm();
+                regionTerm.addMatchRequirements(
+                        new Requirement(
+                                REGION_KEY, Operator.Equal, Collections.singletonList(region)));
+                nodeSelector = new NodeSelectorSpec();
+                nodeSelector.addNodeSelectorTerms(regionTerm);
             }
-            return serversInRegion;
+            return nodeSelector;
         }
 
         public void $__setKernelOID(KernelOID oid) {
@@ -4,6 +4,7 @@ import amino.run.common.Notification;
 import java.io.Serializable;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Upcall interface used by Amino.Run kernel to invoke event handlers on client, server and group
@@ -57,6 +58,18 @@ public interface Upcalls {
          *     or an exception thrown by the Amino.Run kernel or network stack.
          */
         Object onRPC(String method, ArrayList<Object> params) throws Exception;
+
+        /**
+         * Asynchronous variant of {@link #onRPC}, invoked by the {@code *Async} methods of the
+         * appStub. The returned future completes with the return value of the remote method
+         * invocation, or exceptionally with the exception {@link #onRPC} would have thrown. The
+         * default implementation bridges to {@link #onRPC} for DM's which override only that.
+         *
+         * @param method The name of the method to be invoked.
+         * @param params the parameters to be passed to the remote method invocation.
+         * @return future of the return value from the remote method invocation.
+         */
+        CompletableFuture<Object> onRPCAsync(String method, ArrayList<Object> params);
     }
 
     /** Interface for server policy. */
@@ -110,6 +123,18 @@ public interface Upcalls {
          */
         Object onRPC(String method, ArrayList<Object> params) throws Exception;
 
+        /**
+         * Asynchronous variant of {@link #onRPC}. Invoked on server policy stubs, it sends the RPC
+         * to the replica without blocking the calling thread, e.g. to fan out an RPC to several
+         * replicas. The replica itself handles the RPC in {@link #onRPC}. The default
+         * implementation bridges to {@link #onRPC} for DM's which override only that.
+         *
+         * @param method Name of the method to be invoked.
+         * @param params Parameters to be passed to the method invocation.
+         * @return future of the return value of the method invocation.
+         */
+        CompletableFuture<Object> onRPCAsync(String method, ArrayList<Object> params);
+
         /**
          * Event handler to notify replicas of an SO that the set of replicas of this SO have
          * changed. Usually used to refresh the locally cached set of replicas (if the DM keeps
@@ -0,0 +1,273 @@
+package amino.run.policy.batching;
+
+import amino.run.kernel.common.KernelOID;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Coalesces concurrent calls to one {@link BatchingPolicy.ServerPolicy} into batches. A call made
+ * while no batch is being sent is sent right away. Otherwise the first call of a batch waits for
+ * more calls to join, until the batch fills up, the batches being sent complete, or the configured
+ * linger time has passed, and then sends the batch on behalf of all calls in it. The calls of a
+ * batch are executed on the server in the order they joined the batch.
+ */
+public class Batcher {
+    /** Batchers of this kernel server, keyed by the kernel OID of the server policy */
+    private static final ConcurrentHashMap<KernelOID, Batcher> batchers =
+            new ConcurrentHashMap<KernelOID, Batcher>();
+
+    private final int maxBatchSize;
+    private final long maxLingerNanos;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchChanged = lock.newCondition();
+    /** Calls of the open batch. Guarded by {@link #lock}. */
+    private ArrayList<Call> open = new ArrayList<Call>();
+    /** Number of batches being sent. Guarded by {@link #lock}. */
+    private int inFlight;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong largestBatch = new AtomicLong();
+
+    Batcher(int maxBatchSize, long maxLingerMicros) {
+        this.maxBatchSize = Math.max(1, maxBatchSize);
+        this.maxLingerNanos = TimeUnit.MICROSECONDS.toNanos(Math.max(0, maxLingerMicros));
+    }
+
+    /**
+     * Gets the batcher for the server policy with the given kernel OID, creating it with the given
+     * configuration if it does not exist yet.
+     *
+     * @param oid kernel OID of the server policy
+     * @param config batching configuration
+     * @return batcher
+     */
+    static Batcher get(KernelOID oid, BatchingPolicy.Config config) {
+        Batcher batcher = batchers.get(oid);
+        if (batcher == null) {
+            batcher = new Batcher(config.getMaxBatchSize(), config.getMaxLingerMicros());
+            Batcher existing = batchers.putIfAbsent(oid, batcher);
+            if (existing != null) {
+                batcher = existing;
+            }
+        }
+        return batcher;
+    }
+
+    /**
+     * Removes the batcher for the server policy with the given kernel OID, e.g. when the server
+     * policy was deleted. Calls already in its batches are sent as usual.
+     *
+     * @param oid kernel OID of the server policy
+     */
+    static void remove(KernelOID oid) {
+        if (oid != null) {
+            batchers.remove(oid);
+        }
+    }
+
+    /**
+     * Invokes the method on the server as part of a batch and waits for its result.
+     *
+     * @param server server policy to send the batch to
+     * @param method name of the method to be invoked
+     * @param params parameters of the method invocation
+     * @return return value of the method invocation
+     * @throws Exception exception thrown by the method invocation, or by sending the batch
+     */
+    Object call(BatchingPolicy.ServerPolicy server, String method, ArrayList<Object> params)
+            throws Exception {
+        Call call = new Call(method, params);
+        ArrayList<Call> batch = null;
+
+        lock.lock();
+        try {
+            open.add(call);
+            if (open.size() >= maxBatchSize || inFlight == 0) {
+                /* Nothing to wait for if the batch is full, or no other call is in flight */
+                batch = close();
+            } else if (open.size() == 1) {
+                /* First call of the batch waits for more calls to join */
+                long remaining = maxLingerNanos;
+                try {
+                    while (!call.sent && remaining > 0 && inFlight > 0) {
+                        remaining = batchChanged.awaitNanos(remaining);
+                    }
+                } catch (InterruptedException e) {
+                    /* Send the batch right away, the other calls in it depend on it */
+                    Thread.currentThread().interrupt();
+                }
+                if (!call.sent) {
+                    batch = close();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        if (batch != null) {
+            send(server, batch);
+        }
+        return call.getResult();
+    }
+
+    /** Closes the open batch to send it. Must be called holding {@link #lock}. */
+    private ArrayList<Call> close() {
+        ArrayList<Call> batch = open;
+        open = new ArrayList<Call>();
+        inFlight++;
+        for (Call call : batch) {
+            call.sent = true;
+        }
+        batchChanged.signalAll();
+        return batch;
+    }
+
+    private void send(BatchingPolicy.ServerPolicy server, ArrayList<Call> batch) {
+        try {
+            doSend(server, batch);
+        } finally {
+            lock.lock();
+            try {
+                inFlight--;
+                /* Wake up the first call of the open batch if it waits for this batch only */
+                batchChanged.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    private void doSend(BatchingPolicy.ServerPolicy server, ArrayList<Call> batch) {
+        ArrayList<String> methods = new ArrayList<String>(batch.size());
+        ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>(batch.size());
+        for (Call call : batch) {
+            methods.add(call.method);
+            params.add(call.params);
+        }
+
+        batches.incrementAndGet();
+        calls.addAndGet(batch.size());
+        long largest;
+        while (batch.size() > (largest = largestBatch.get())) {
+            if (largestBatch.compareAndSet(largest, batch.size())) {
+                break;
+            }
+        }
+
+        try {
+            ArrayList<Object> results = server.onBatchRPC(methods, params);
+            for (int i = 0; i < batch.size(); i++) {
+                Object result = results.get(i);
+                if (result instanceof BatchingPolicy.Failure) {
+                    batch.get(i).fail(((BatchingPolicy.Failure) result).getException());
+                } else {
+                    batch.get(i).complete(result);
+                }
+            }
+        } catch (Exception e) {
+            for (Call call : batch) {
+                call.fail(e);
+            }
+        } catch (Error e) {
+            for (Call call : batch) {
+                call.fail(new RuntimeException(e));
+            }
+            throw e;
+        }
+    }
+
+    /** @return statistics of the batches sent so far */
+    public Stats getStats() {
+        return new Stats(batches.get(), calls.get(), largestBatch.get());
+    }
+
+    /** Statistics of the batches sent by a batcher. */
+    public static class Stats implements Serializable {
+        private final long batchCount;
+        private final long callCount;
+        private final long largestBatchSize;
+
+        Stats(long batchCount, long callCount, long largestBatchSize) {
+            this.batchCount = batchCount;
+            this.callCount = callCount;
+            this.largestBatchSize = largestBatchSize;
+        }
+
+        /** @return number of batches sent */
+        public long getBatchCount() {
+            return batchCount;
+        }
+
+        /** @return number of calls sent in all batches */
+        public long getCallCount() {
+            return callCount;
+        }
+
+        /** @return largest number of calls sent in one batch */
+        public long getLargestBatchSize() {
+            return largestBatchSize;
+        }
+
+        /** @return average number of calls per batch, 0 if no batch was sent */
+        public double getAverageBatchSize() {
+            return batchCount == 0 ? 0 : (double) callCount / batchCount;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(
+                    "batches: %d, calls: %d, average batch size: %.2f, largest batch size: %d",
+                    batchCount, callCount, getAverageBatchSize(), largestBatchSize);
+        }
+    }
+
+    private static class Call {
+        final String method;
+        final ArrayList<Object> params;
+        /** Set once the call is part of a closed batch. Guarded by the lock of the batcher. */
+        boolean sent;
+
+        private final Object done = new Object();
+        private boolean completed;
+        private Object result;
+        private Exception failure;
+
+        Call(String method, ArrayList<Object> params) {
+            this.method = method;
+            this.params = params;
+        }
+
+        void complete(Object result) {
+            synchronized (done) {
+                this.result = result;
+                completed = true;
+                done.notifyAll();
+            }
+        }
+
+        void fail(Exception failure) {
+            synchronized (done) {
+                this.failure = failure;
+                completed = true;
+                done.notifyAll();
+            }
+        }
+
+        Object getResult() throws Exception {
+            synchronized (done) {
+                while (!completed) {
+                    done.wait();
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package amino.run.policy.batching;
+
+import amino.run.kernel.common.KernelObjectStub;
+import amino.run.policy.DefaultPolicy;
+import java.io.Serializable;
+import java.lang.reflect.InvocationTargetException;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Objects;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Coalesces concurrent RPCs to the same server into batches. Every client side kernel server keeps
+ * one {@link Batcher} per server, until the server fails or is deleted. Calls arriving while a
+ * batch is open are sent to the server in a single kernel RPC, which executes them in order and
+ * returns their results in order.
+ *
+ * <p>Suited for microservices with many small, independent calls, e.g. key value stores. Calls in
+ * a batch are not atomic, a failing call does not affect the others.
+ */
+public class BatchingPolicy extends DefaultPolicy {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 32;
+    public static final long DEFAULT_MAX_LINGER_MICROS = 200;
+
+    /** Configurations for BatchingPolicy */
+    public static class Config implements PolicyConfig {
+        /** Maximum number of calls sent in one batch */
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        /**
+         * Maximum time the first call of a batch waits for more calls to join while other batches
+         * are being sent
+         */
+        private long maxLingerMicros = DEFAULT_MAX_LINGER_MICROS;
+
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        public long getMaxLingerMicros() {
+            return maxLingerMicros;
+        }
+
+        public void setMaxLingerMicros(long maxLingerMicros) {
+            this.maxLingerMicros = maxLingerMicros;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return maxBatchSize == config.maxBatchSize && maxLingerMicros == config.maxLingerMicros;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(maxBatchSize, maxLingerMicros);
+        }
+    }
+
+    /** Result of a call in a batch which threw an exception on the server. */
+    public static class Failure implements Serializable {
+        private final Exception exception;
+
+        public Failure(Exception exception) {
+            this.exception = exception;
+        }
+
+        public Exception getException() {
+            return exception;
+        }
+    }
+
+    public static class ClientPolicy extends DefaultPolicy.DefaultClientPolicy {
+        private static final Logger logger = Logger.getLogger(ClientPolicy.class.getName());
+        private Config config;
+
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (hasTransaction()) {
+                /* Keep the transaction semantics of the default client policy */
+                return super.onRPC(method, params);
+            }
+
+            ServerPolicy server = (ServerPolicy) getServer();
+            try {
+                return Batcher.get(((KernelObjectStub) server).$__getKernelOID(), getConfig())
+                        .call(server, method, params);
+            } catch (RemoteException e) {
+                /* Same as the default client policy. Forget the batcher of the old server. */
+                Batcher.remove(((KernelObjectStub) server).$__getKernelOID());
+                setServer(getGroup().onRefRequest());
+                return null;
+            }
+        }
+
+        /** @return batcher statistics for the server of this client */
+        public Batcher.Stats getBatchStats() throws RemoteException {
+            return Batcher.get(((KernelObjectStub) getServer()).$__getKernelOID(), getConfig())
+                    .getStats();
+        }
+
+        private synchronized Config getConfig() {
+            if (config == null) {
+                try {
+                    config = ((GroupPolicy) getGroup()).getBatchingConfig();
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to get batching config. Using defaults.", e);
+                }
+                if (config == null) {
+                    config = new Config();
+                }
+            }
+            return config;
+        }
+    }
+
+    public static class ServerPolicy extends DefaultPolicy.DefaultServerPolicy {
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            /* Batcher of clients on this kernel server */
+            Batcher.remove($__getKernelOID());
+        }
+
+        /**
+         * Executes a batch of RPCs in order.
+         *
+         * @param methods names of the methods to be invoked
+         * @param params parameters of the method invocations
+         * @return results of the method invocations, in order. Calls which threw an exception have
+         *     a {@link Failure} as result.
+         * @throws RemoteException if the batch cannot be delivered
+         */
+        public ArrayList<Object> onBatchRPC(
+                ArrayList<String> methods, ArrayList<ArrayList<Object>> params)
+                throws RemoteException {
+            ArrayList<Object> results = new ArrayList<Object>(methods.size());
+            for (int i = 0; i < methods.size(); i++) {
+                try {
+                    results.add(onRPC(methods.get(i), params.get(i)));
+                } catch (InvocationTargetException e) {
+                    /* Same as the kernel client unwraps exceptions of invoked methods */
+                    Throwable cause = e.getCause();
+                    results.add(
+                            new Failure(
+                                    cause instanceof Exception ? (Exception) cause : (Exception) e));
+                } catch (Exception e) {
+                    results.add(new Failure(e));
+                }
+            }
+            return results;
+        }
+    }
+
+    public static class GroupPolicy extends DefaultPolicy.DefaultGroupPolicy {
+        /** @return batching configuration of the microservice, or null if not configured */
+        public Config getBatchingConfig() {
+            return (Config) getPolicyConfig(Config.class.getName());
+        }
+    }
+}
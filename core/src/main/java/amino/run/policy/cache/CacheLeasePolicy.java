@@ -2,6 +2,8 @@ package amino.run.policy.cache;
 
 import amino.run.common.AppObject;
 import amino.run.common.MicroServiceNotAvailableException;
+import amino.run.common.StructuralCloner;
+import amino.run.common.Utils;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.policy.DefaultPolicy;
 import java.io.Serializable;
@@ -15,6 +17,11 @@ import java.util.logging.Logger;
 /**
  * A caching policy between the mobile device and the server that uses leases for writing.
  *
+ * <p>Clients share read leases, and take an exclusive write lease to write, see {@link
+ * LeaseManager}. The server versions its object, so that clients holding the latest version do not
+ * fetch it again for a new lease, and writers send the fields they changed rather than the whole
+ * object, see {@link ObjectDelta}.
+ *
  * @author iyzhang
  */
 public class CacheLeasePolicy extends DefaultPolicy {
@@ -29,6 +36,14 @@ public class CacheLeasePolicy extends DefaultPolicy {
     // exactly the amount of
     // network latency between the client and the server, which is typically less than 1 sec.
 
+    /** Lease modes */
+    public enum LeaseMode {
+        /** Shared lease, for reading the cached object */
+        READ,
+        /** Exclusive lease, for reading and writing the cached object */
+        WRITE
+    }
+
     /**
      * Object representing a lease. Includes a lease ID, a timeout for the lease and the cached app
      * object
@@ -37,14 +52,30 @@ public class CacheLeasePolicy extends DefaultPolicy {
      */
     public static class CacheLease implements Serializable {
         public static final UUID NO_LEASE = new UUID(0L, 0L); // This is an invalid UUID
+        /** Version of no object */
+        public static final long NO_VERSION = -1L;
+
         private UUID lease;
         private Date leaseTimeout;
         private AppObject cachedObject;
+        private LeaseMode mode;
+        private long version;
 
         public CacheLease(UUID lease, Date leaseTimeout, AppObject cachedObject) {
+            this(lease, leaseTimeout, cachedObject, LeaseMode.WRITE, NO_VERSION);
+        }
+
+        public CacheLease(
+                UUID lease,
+                Date leaseTimeout,
+                AppObject cachedObject,
+                LeaseMode mode,
+                long version) {
             this.lease = lease;
             this.leaseTimeout = leaseTimeout;
             this.cachedObject = cachedObject;
+            this.mode = mode;
+            this.version = version;
         }
 
         public UUID getLease() {
@@ -55,52 +86,109 @@ public class CacheLeasePolicy extends DefaultPolicy {
             return leaseTimeout;
         }
 
+        /**
+         * @return the app object, or <code>null</code> if the client already holds this version
+         *     of the object
+         */
         public AppObject getCachedObject() {
             return cachedObject;
         }
+
+        public LeaseMode getMode() {
+            return mode;
+        }
+
+        /** @return version of the app object on the server */
+        public long getVersion() {
+            return version;
+        }
     }
 
     /**
      * Cache lease client policy. The client side proxy for the cache that holds the cached object,
      * gets leases from the server and writes locally.
      *
+     * <p>Calls to methods annotated with {@link amino.run.runtime.annotations.Immutable} are served
+     * from the cached object under a shared read lease, without contacting the server until the
+     * lease runs out. Other calls take the exclusive write lease, and the fields they change are
+     * synced to the server.
+     *
      * @author iyzhang
      */
     public static class ClientPolicy extends DefaultClientPolicy {
+        /** Longest time between two lease requests while the lease is not available */
+        private static final long MAX_LEASE_RETRY_INTERVAL = 1000L; // milliseconds
+
         protected UUID lease = CacheLease.NO_LEASE;
         protected Date leaseTimeout;
         protected AppObject cachedObject = null;
+        private LeaseMode leaseMode;
+        /** Version of the cached object */
+        private long version = CacheLease.NO_VERSION;
+        /** Clean state of the cached object */
+        private ObjectSnapshot snapshot;
 
         protected Boolean leaseStillValid() {
-            System.out.println("Lease: " + lease.toString());
             if (!lease.equals(CacheLease.NO_LEASE)) {
-                Date currentTime = new Date();
-                System.out.println(
-                        "Lease timeout: "
-                                + leaseTimeout.toString()
-                                + " current time: "
-                                + currentTime.toString());
-                return leaseTimeout.compareTo(currentTime) > 0;
+                return leaseTimeout.compareTo(new Date()) > 0;
             } else {
                 return false;
             }
         }
 
+        /**
+         * Sends the fields changed on the cached object to the server, or a copy of the whole
+         * object if its changes cannot be sent as a delta.
+         */
         protected void sync() throws Exception {
-            ((ServerPolicy) getServer()).syncObject(lease, cachedObject.getObject());
+            ObjectDelta delta = snapshot.diff(cachedObject.getObject(), version);
+            if (delta != null && delta.isEmpty()) {
+                return;
+            }
+            Serializable changes =
+                    delta != null ? delta : StructuralCloner.deepCopy(cachedObject.getObject());
+            try {
+                version = ((ServerPolicy) getServer()).syncObject(lease, changes);
+            } catch (LeaseExpiredException e) {
+                // The cached object has diverged from the server
+                discardCachedObject();
+                throw e;
+            }
         }
 
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
-            Object ret = null;
-            if (!leaseStillValid()) {
-                getNewLease(CacheLeasePolicy.DEFAULT_LEASE_PERIOD);
+            if (cachedObject == null) {
+                // The cached object tells which methods are immutable
+                getNewLease(LeaseMode.READ, CacheLeasePolicy.DEFAULT_LEASE_PERIOD);
             }
-            ret = cachedObject.invoke(method, params);
-            if (true) { // TODO: isMutable?
+
+            if (isMutable(method)) {
+                if (!leaseStillValid() || leaseMode != LeaseMode.WRITE) {
+                    getNewLease(LeaseMode.WRITE, CacheLeasePolicy.DEFAULT_LEASE_PERIOD);
+                }
+                Object ret = cachedObject.invoke(method, params);
                 sync();
+                return ret;
             }
-            return ret;
+
+            if (leaseStillValid()
+                    || requestLease(LeaseMode.READ, CacheLeasePolicy.DEFAULT_LEASE_PERIOD)) {
+                return cachedObject.invoke(method, params);
+            }
+            // Someone holds or waits for the write lease, so the cached object may be stale
+            return getServer().onRPC(method, params);
+        }
+
+        /**
+         * Methods of objects which cannot be inspected are taken as mutable.
+         *
+         * @param method method name
+         * @return <code>true</code> if the method may change the cached object
+         */
+        private boolean isMutable(String method) {
+            return cachedObject.getObject() == null
+                    || !Utils.isImmutableMethod(cachedObject, method);
         }
 
         protected void getNewLease(long timeoutMillisec) throws Exception {
@@ -115,13 +203,55 @@ public class CacheLeasePolicy extends DefaultPolicy {
                 if (cachelease == null) {
                     throw new LeaseNotAvailableException("Could not get lease.");
                 }
+                updateLease(cachelease);
+            } catch (RemoteException e) {
+                throw new MicroServiceNotAvailableException(
+                        "Could not contact MicroService server.", e);
+            } catch (KernelObjectNotFoundException e) {
+                throw new MicroServiceNotAvailableException(
+                        "Could not find server policy object.", e);
+            }
+        }
+
+        /**
+         * Gets a lease of the given mode, waiting for leases held by others to run out
+         *
+         * @param mode lease mode
+         * @param timeoutMillisec lease period, which is also how long to wait for the lease
+         * @throws LeaseNotAvailableException if the lease is not available within the lease period
+         */
+        protected void getNewLease(LeaseMode mode, long timeoutMillisec) throws Exception {
+            long deadline =
+                    System.currentTimeMillis() + timeoutMillisec + CacheLeasePolicy.LEASE_BUFFER;
+            long waitInMillis = 10L;
+            while (!requestLease(mode, timeoutMillisec)) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    throw new LeaseNotAvailableException("Could not get lease.");
+                }
+                Thread.sleep(Math.min(waitInMillis, remaining));
+                waitInMillis = Math.min(waitInMillis << 1, MAX_LEASE_RETRY_INTERVAL);
+            }
+        }
 
-                // If we have a new lease, then the object might have changed
-                if (!cachelease.getLease().equals(lease)) {
-                    cachedObject = cachelease.getCachedObject();
+        /**
+         * Asks the server once for a lease of the given mode. The server sends the app object only
+         * if the cached object is not the latest version.
+         *
+         * @param mode lease mode
+         * @param timeoutMillisec lease period
+         * @return <code>true</code> if the lease is granted; <code>false</code> otherwise
+         */
+        protected boolean requestLease(LeaseMode mode, long timeoutMillisec) throws Exception {
+            try {
+                CacheLease cachelease =
+                        ((ServerPolicy) getServer())
+                                .getLease(lease, mode, version, timeoutMillisec);
+                if (cachelease == null) {
+                    return false;
                 }
-                lease = cachelease.getLease();
-                leaseTimeout = cachelease.getLeaseTimeout();
+                updateLease(cachelease);
+                return true;
             } catch (RemoteException e) {
                 throw new MicroServiceNotAvailableException(
                         "Could not contact MicroService server.", e);
@@ -131,13 +261,31 @@ public class CacheLeasePolicy extends DefaultPolicy {
             }
         }
 
+        private void updateLease(CacheLease cachelease) throws Exception {
+            // The server sends the object only if ours is out of date
+            if (cachelease.getCachedObject() != null) {
+                cachedObject = cachelease.getCachedObject();
+                snapshot = new ObjectSnapshot(cachedObject.getObject());
+            }
+            version = cachelease.getVersion();
+            lease = cachelease.getLease();
+            leaseTimeout = cachelease.getLeaseTimeout();
+            leaseMode = cachelease.getMode();
+        }
+
+        private void discardCachedObject() {
+            cachedObject = null;
+            snapshot = null;
+            version = CacheLease.NO_VERSION;
+        }
+
         protected void releaseCurrentLease() throws Exception {
             try {
                 ((ServerPolicy) getServer()).releaseLease(lease);
             } finally {
                 lease = CacheLease.NO_LEASE;
                 leaseTimeout = new Date(0L); // The beginning of time.
-                cachedObject = null;
+                discardCachedObject();
             }
         }
     }
@@ -149,89 +297,104 @@ public class CacheLeasePolicy extends DefaultPolicy {
      */
     public static class ServerPolicy extends DefaultServerPolicy {
         private static final Logger logger = Logger.getLogger(ServerPolicy.class.getName());
-        private UUID lease;
-        private Date leaseTimeout;
+        private final LeaseManager leases = new LeaseManager();
+        /** Version of the app object, incremented by every write */
+        private long version;
 
-        public ServerPolicy() {
-            lease = CacheLease.NO_LEASE;
-        }
+        /**
+         * Grants a lease of the given mode, or renews or converts the lease the client holds
+         *
+         * @param lease the lease the client holds, or {@link CacheLease#NO_LEASE}
+         * @param mode lease mode
+         * @param version version of the object cached by the client, or {@link
+         *     CacheLease#NO_VERSION}
+         * @param timeoutMillisec lease period
+         * @return lease, with the app object unless the client holds its latest version; or
+         *     <code>null</code> if the lease is not available
+         */
+        public synchronized CacheLease getLease(
+                UUID lease, LeaseMode mode, long version, long timeoutMillisec) throws Exception {
+            CacheLease granted = leases.acquire(lease, mode, timeoutMillisec);
+            if (granted == null) {
+                logger.log(Level.FINE, "{0} lease not available", mode);
+                return null;
+            }
 
-        private Date generateTimeout() {
-            return generateTimeout(DEFAULT_LEASE_PERIOD);
+            AppObject object = version == this.version ? null : getAppObject();
+            logger.log(
+                    Level.FINE,
+                    "Granted {0} lease {1} on version {2} until {3}",
+                    new Object[] {
+                        mode, granted.getLease(), this.version, granted.getLeaseTimeout()
+                    });
+            return new CacheLease(
+                    granted.getLease(), granted.getLeaseTimeout(), object, mode, this.version);
         }
 
-        private Date generateTimeout(long leasePeriodMillisec) {
-            Date currentTime = new Date();
-            return new Date(currentTime.getTime() + leasePeriodMillisec);
+        public CacheLease getLease(long timeoutMillisec) throws Exception {
+            return getLease(
+                    CacheLease.NO_LEASE, LeaseMode.WRITE, CacheLease.NO_VERSION, timeoutMillisec);
         }
 
-        private CacheLease getNewLease(long timeoutMillisec) {
-            // Always generate a positive lease id
-            lease = UUID.randomUUID();
-            leaseTimeout = generateTimeout(timeoutMillisec);
-            return new CacheLease(lease, leaseTimeout, getAppObject());
-        }
+        public synchronized CacheLease getLease(UUID lease, long timeoutMillisec)
+                throws Exception {
+            logger.log(Level.FINE, "Get lease " + lease.toString());
 
-        private Boolean leaseStillValid() {
-            if (!lease.equals(CacheLease.NO_LEASE)) {
-                Date currentTime = new Date();
-                return currentTime.getTime() < leaseTimeout.getTime() + LEASE_BUFFER;
-            } else {
-                return false;
-            }
+            // Holders of a valid lease already have the latest object
+            long known = leases.isValid(lease) ? version : CacheLease.NO_VERSION;
+            return getLease(lease, LeaseMode.WRITE, known, timeoutMillisec);
         }
 
-        public CacheLease getLease(long timeoutMillisec) throws Exception {
-            if (leaseStillValid()) {
-                logger.log(Level.INFO, "Someone else holds the lease.");
-                return null;
-            } else {
-                CacheLease cachelease = getNewLease(timeoutMillisec);
-                logger.log(
-                        Level.INFO,
-                        "Granted lease "
-                                + cachelease.getLease().toString()
-                                + " on object "
-                                + cachelease.getCachedObject().toString()
-                                + " until "
-                                + cachelease.getLeaseTimeout().toString());
-                return cachelease;
+        public void releaseLease(UUID lease) throws Exception {
+            if (!leases.release(lease)) {
+                throw new LeaseExpiredException(
+                        "Attempt to release expired server lease " + lease);
             }
         }
 
-        public CacheLease getLease(UUID lease, long timeoutMillisec) throws Exception {
-            logger.log(
-                    Level.INFO,
-                    "Get lease " + lease.toString() + " currentlease: " + this.lease.toString());
-
-            if (this.lease.equals(lease)) {
-                // This person still has the lease, so just return it and renew the lease
-                leaseTimeout = generateTimeout(timeoutMillisec);
-                return new CacheLease(lease, leaseTimeout, null);
-            } else if (leaseStillValid()) {
-                // Someone else has a valid lease still, so this person can't have it
-                return null;
-            } else {
-                // Someone else's lease expired, so you can have a new lease
-                return getNewLease(timeoutMillisec);
+        /**
+         * Updates the app object with changes made under the write lease
+         *
+         * @param lease write lease
+         * @param object an {@link ObjectDelta} made on the current version of the app object, or
+         *     the whole object
+         * @return new version of the app object
+         * @throws LeaseExpiredException if the lease is not the write lease, or the delta was made
+         *     on another version
+         */
+        public synchronized long syncObject(UUID lease, Serializable object) throws Exception {
+            if (!leases.isWriteLease(lease)) {
+                throw new LeaseExpiredException("Attempt to sync with expired lease " + lease);
             }
-        }
 
-        public void releaseLease(UUID lease) throws Exception {
-            if (this.lease.equals(lease)) {
-                this.lease = CacheLease.NO_LEASE;
-                this.leaseTimeout = new Date(0L);
+            if (object instanceof ObjectDelta) {
+                ObjectDelta delta = (ObjectDelta) object;
+                if (delta.getBaseVersion() != version) {
+                    throw new LeaseExpiredException(
+                            String.format(
+                                    "Attempt to sync changes to version %s of object at version %s",
+                                    delta.getBaseVersion(), version));
+                }
+                delta.applyTo(getAppObject().getObject());
             } else {
-                throw new LeaseExpiredException(
-                        "Attempt to release expired server lease "
-                                + lease
-                                + " Current server lease is "
-                                + this.lease);
+                appObject.setObject(object);
             }
+            return ++version;
         }
 
-        public void syncObject(UUID lease, Serializable object) throws Exception {
-            appObject.setObject(object);
+        /** Calls which may write the app object give it a new version. */
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (Utils.isImmutableMethod(getAppObject(), method)) {
+                return super.onRPC(method, params);
+            }
+            synchronized (this) {
+                try {
+                    return super.onRPC(method, params);
+                } finally {
+                    version++;
+                }
+            }
         }
     }
 
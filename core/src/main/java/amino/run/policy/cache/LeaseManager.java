@@ -0,0 +1,134 @@
+package amino.run.policy.cache;
+
+import amino.run.policy.cache.CacheLeasePolicy.CacheLease;
+import amino.run.policy.cache.CacheLeasePolicy.LeaseMode;
+import java.io.Serializable;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Grants leases on the object of a {@link CacheLeasePolicy.ServerPolicy}. Any number of clients
+ * may hold a shared read lease at a time, as long as no client holds the exclusive write lease.
+ *
+ * <p>Clients are not reachable from the server, so read leases cannot be called back when a client
+ * asks for the write lease. Instead, from then on read leases are neither granted nor renewed, and
+ * the write lease is granted once the read leases of other clients run out. A writer thus waits at
+ * most one lease period, and clients denied a read lease meanwhile read from the server.
+ *
+ * <p>Leases are valid on the server {@link CacheLeasePolicy#LEASE_BUFFER} milliseconds longer than
+ * on clients.
+ */
+final class LeaseManager implements Serializable {
+    /** Timeouts of read leases */
+    private final HashMap<UUID, Long> readLeases = new HashMap<UUID, Long>();
+
+    private UUID writeLease = CacheLease.NO_LEASE;
+    private long writeLeaseTimeout;
+
+    /** Time until which read leases are not granted, as a client waits for the write lease */
+    private long writerWaitingUntil;
+
+    /**
+     * Grants a lease, or renews or converts the lease the client holds
+     *
+     * @param lease the lease the client holds, or {@link CacheLease#NO_LEASE}
+     * @param mode lease mode
+     * @param leasePeriodInMillis lease period
+     * @return granted lease without object and version, or <code>null</code> if the lease is not
+     *     available
+     */
+    synchronized CacheLease acquire(UUID lease, LeaseMode mode, long leasePeriodInMillis) {
+        long now = System.currentTimeMillis();
+        expireReadLeases(now);
+        long timeout = now + leasePeriodInMillis;
+
+        boolean holdsWriteLease = isWriteLease(lease, now);
+        if (!holdsWriteLease && isWriteLease(writeLease, now)) {
+            // Someone else has a valid write lease
+            return null;
+        }
+
+        UUID granted =
+                holdsWriteLease || readLeases.containsKey(lease) ? lease : UUID.randomUUID();
+        if (mode == LeaseMode.READ) {
+            if (holdsWriteLease) {
+                writeLease = CacheLease.NO_LEASE;
+            } else if (now < writerWaitingUntil) {
+                return null;
+            }
+            readLeases.put(granted, timeout);
+        } else {
+            long readLeasesEnd = 0L;
+            for (Map.Entry<UUID, Long> reader : readLeases.entrySet()) {
+                if (!reader.getKey().equals(lease)) {
+                    readLeasesEnd = Math.max(readLeasesEnd, validUntil(reader.getValue()));
+                }
+            }
+            if (readLeasesEnd > now) {
+                // Read leases held by others run out before anyone else gets one
+                writerWaitingUntil = Math.max(writerWaitingUntil, readLeasesEnd);
+                return null;
+            }
+            readLeases.remove(lease);
+            writeLease = granted;
+            writeLeaseTimeout = timeout;
+        }
+        return new CacheLease(granted, new Date(timeout), null, mode, CacheLease.NO_VERSION);
+    }
+
+    /**
+     * @param lease lease
+     * @return <code>true</code> if the given lease is a valid read or write lease
+     */
+    synchronized boolean isValid(UUID lease) {
+        long now = System.currentTimeMillis();
+        expireReadLeases(now);
+        return isWriteLease(lease, now) || readLeases.containsKey(lease);
+    }
+
+    /**
+     * @param lease lease
+     * @return <code>true</code> if the given lease is the valid write lease
+     */
+    synchronized boolean isWriteLease(UUID lease) {
+        return isWriteLease(lease, System.currentTimeMillis());
+    }
+
+    /**
+     * Releases the given lease, even if it has expired
+     *
+     * @param lease lease
+     * @return <code>false</code> if the given lease has been granted to someone else since, or was
+     *     never granted
+     */
+    synchronized boolean release(UUID lease) {
+        if (!CacheLease.NO_LEASE.equals(lease) && writeLease.equals(lease)) {
+            writeLease = CacheLease.NO_LEASE;
+            writeLeaseTimeout = 0L;
+            return true;
+        }
+        return readLeases.remove(lease) != null;
+    }
+
+    private boolean isWriteLease(UUID lease, long now) {
+        return !CacheLease.NO_LEASE.equals(lease)
+                && writeLease.equals(lease)
+                && now < validUntil(writeLeaseTimeout);
+    }
+
+    private void expireReadLeases(long now) {
+        Iterator<Long> timeouts = readLeases.values().iterator();
+        while (timeouts.hasNext()) {
+            if (validUntil(timeouts.next()) <= now) {
+                timeouts.remove();
+            }
+        }
+    }
+
+    private static long validUntil(long timeout) {
+        return timeout + CacheLeasePolicy.LEASE_BUFFER;
+    }
+}
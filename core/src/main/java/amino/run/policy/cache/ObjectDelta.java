@@ -0,0 +1,153 @@
+package amino.run.policy.cache;
+
+import java.io.Externalizable;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Changes made to the fields of an object on top of a version of the object. {@link
+ * CacheLeasePolicy.ClientPolicy} sends deltas to the server instead of the whole object, and
+ * {@link WriteThroughCachePolicy.ServerPolicy} sends them to clients.
+ *
+ * <p>Fields are the ones serialization writes, i.e. non-static, non-transient fields of the class
+ * of the object and its superclasses. They are named by their declaring class, so that fields
+ * hidden by subclasses are told apart. Classes whose serialized form is not their fields, see
+ * {@link #isSupported(Class)}, have to be transferred as a whole.
+ */
+public final class ObjectDelta implements Serializable {
+    /** Fields of classes by name, looked up once per class */
+    private static final ConcurrentHashMap<Class<?>, Map<String, Field>> fields =
+            new ConcurrentHashMap<Class<?>, Map<String, Field>>();
+
+    /** Whether deltas of classes are supported, looked up once per class */
+    private static final ConcurrentHashMap<Class<?>, Boolean> supported =
+            new ConcurrentHashMap<Class<?>, Boolean>();
+
+    private final long baseVersion;
+    private final HashMap<String, Object> values;
+
+    ObjectDelta(long baseVersion, HashMap<String, Object> values) {
+        this.baseVersion = baseVersion;
+        this.values = values;
+    }
+
+    /** @return version of the object the changes were made on */
+    public long getBaseVersion() {
+        return baseVersion;
+    }
+
+    /** @return names of the changed fields */
+    public Set<String> getFieldNames() {
+        return Collections.unmodifiableSet(values.keySet());
+    }
+
+    public boolean isEmpty() {
+        return values.isEmpty();
+    }
+
+    /**
+     * Sets the changed fields of the given object
+     *
+     * @param object object of the same class as the object the changes were made on
+     * @throws IllegalArgumentException if a changed field does not exist in the object
+     */
+    void applyTo(Object object) throws IllegalAccessException {
+        Map<String, Field> objectFields = fieldsOf(object.getClass());
+        for (Map.Entry<String, Object> value : values.entrySet()) {
+            Field field = objectFields.get(value.getKey());
+            if (field == null) {
+                throw new IllegalArgumentException(
+                        String.format(
+                                "field %s not found in %s",
+                                value.getKey(), object.getClass().getName()));
+            }
+            field.set(object, value.getValue());
+        }
+    }
+
+    /**
+     * Combines consecutive deltas into one, later values of a field replacing earlier ones
+     *
+     * @param deltas deltas in order, each made on the version the previous one resulted in
+     * @return changes made by all deltas on top of the base version of the first one
+     */
+    static ObjectDelta combine(List<ObjectDelta> deltas) {
+        HashMap<String, Object> values = new HashMap<String, Object>();
+        for (ObjectDelta delta : deltas) {
+            values.putAll(delta.values);
+        }
+        return new ObjectDelta(deltas.get(0).baseVersion, values);
+    }
+
+    /**
+     * Tells whether changes to objects of the given class can be described by deltas. They cannot
+     * if the class is an array, is {@link Externalizable} or customizes its serialized form, e.g.
+     * {@link java.util.ArrayList} keeps its elements in a transient field and writes them itself.
+     *
+     * @param cls class of an object
+     * @return <code>true</code> if the serialized form of objects of the class is their fields
+     */
+    static boolean isSupported(Class<?> cls) {
+        Boolean result = supported.get(cls);
+        if (result == null) {
+            result = !cls.isArray() && !Externalizable.class.isAssignableFrom(cls);
+            for (Class<?> c = cls; c != null && result; c = c.getSuperclass()) {
+                result =
+                        !declares(c, "writeObject", ObjectOutputStream.class)
+                                && !declares(c, "readObject", ObjectInputStream.class)
+                                && !declares(c, "readObjectNoData")
+                                && !declares(c, "writeReplace")
+                                && !declares(c, "readResolve");
+            }
+            supported.putIfAbsent(cls, result);
+        }
+        return result;
+    }
+
+    private static boolean declares(Class<?> cls, String name, Class<?>... parameterTypes) {
+        try {
+            cls.getDeclaredMethod(name, parameterTypes);
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param cls class of an object
+     * @return serialized fields of the class by name
+     */
+    static Map<String, Field> fieldsOf(Class<?> cls) {
+        Map<String, Field> result = fields.get(cls);
+        if (result == null) {
+            result = new LinkedHashMap<String, Field>();
+            for (Class<?> c = cls; c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    int modifiers = field.getModifiers();
+                    if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+                    result.put(c.getName() + "." + field.getName(), field);
+                }
+            }
+            fields.putIfAbsent(cls, result);
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "ObjectDelta{" + "baseVersion=" + baseVersion + ", fields=" + values.keySet() + '}';
+    }
+}
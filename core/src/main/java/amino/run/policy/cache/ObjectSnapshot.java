@@ -0,0 +1,88 @@
+package amino.run.policy.cache;
+
+import amino.run.common.ObjectSerializer;
+import amino.run.common.StructuralCloner;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Clean state of an object cached by {@link CacheLeasePolicy.ClientPolicy}, i.e. its state as last
+ * synced with the server, or of the object of {@link WriteThroughCachePolicy.ServerPolicy} as of
+ * its last version. Only digests of the serialized fields are kept, rather than a copy of the
+ * object. A field is dirty if its digest changed.
+ *
+ * <p>Objects not supported by {@link ObjectDelta} are digested as a whole.
+ */
+final class ObjectSnapshot {
+    /** Digest key of objects digested as a whole */
+    private static final String OBJECT = "";
+
+    private final HashMap<String, byte[]> digests = new HashMap<String, byte[]>();
+    private final MessageDigest md;
+
+    /**
+     * @param object clean object, may be <code>null</code>
+     * @throws IOException if a field of the object cannot be serialized
+     */
+    ObjectSnapshot(Object object) throws IOException, IllegalAccessException {
+        try {
+            md = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 not supported", e);
+        }
+
+        if (object != null && !ObjectDelta.isSupported(object.getClass())) {
+            digests.put(OBJECT, ObjectSerializer.digest(object, md));
+        } else if (object != null) {
+            for (Map.Entry<String, Field> field :
+                    ObjectDelta.fieldsOf(object.getClass()).entrySet()) {
+                digests.put(
+                        field.getKey(), ObjectSerializer.digest(field.getValue().get(object), md));
+            }
+        }
+    }
+
+    /**
+     * Finds the fields of the object changed since the snapshot was taken, and takes their
+     * current values as clean.
+     *
+     * @param object cached object, may be <code>null</code>
+     * @param baseVersion version of the clean object
+     * @return changes made to the object. Values are copies, so that the delta does not share
+     *     state with the object. <code>null</code> if an object digested as a whole changed, i.e.
+     *     it has to be transferred as a whole.
+     * @throws IOException if a field of the object cannot be serialized
+     */
+    ObjectDelta diff(Object object, long baseVersion)
+            throws IOException, ClassNotFoundException, IllegalAccessException {
+        HashMap<String, Object> changed = new HashMap<String, Object>();
+        if (object != null && !ObjectDelta.isSupported(object.getClass())) {
+            byte[] digest = ObjectSerializer.digest(object, md);
+            if (!Arrays.equals(digest, digests.get(OBJECT))) {
+                digests.put(OBJECT, digest);
+                return null;
+            }
+        } else if (object != null) {
+            for (Map.Entry<String, Field> field :
+                    ObjectDelta.fieldsOf(object.getClass()).entrySet()) {
+                Object value = field.getValue().get(object);
+                byte[] digest = ObjectSerializer.digest(value, md);
+                if (!Arrays.equals(digest, digests.get(field.getKey()))) {
+                    changed.put(field.getKey(), value);
+                    digests.put(field.getKey(), digest);
+                }
+            }
+        }
+
+        if (changed.isEmpty()) {
+            return new ObjectDelta(baseVersion, changed);
+        }
+        // Copied as a whole, so that objects shared by changed fields stay shared
+        return new ObjectDelta(baseVersion, StructuralCloner.deepCopy(changed));
+    }
+}
@@ -1,64 +1,315 @@
 package amino.run.policy.cache;
 
 import amino.run.common.AppObject;
+import amino.run.common.Utils;
 import amino.run.policy.DefaultPolicy;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.Objects;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
  * <code><WriteThroughCache</code> directs write operations onto cached object and through to remote
  * object before confirming write completion. Read operations will be invoked on cached object
  * directly.
  *
- * <p>State changes on remote object caused by one client will not automatically invalidate to
- * cached objects on other clients. Therefore <code>WriteThroughCache</code> may contain staled
- * object.
+ * <p>Methods annotated with {@link amino.run.runtime.annotations.Immutable} are reads, all other
+ * methods are writes. The server gives its object a new version on every write which changes it,
+ * and keeps the changes of the last {@link #MAX_DELTAS} versions. Every response of the server
+ * carries its version, along with the changes the client is missing, so that writes and
+ * revalidations bring the cached object up to date without transferring the whole object.
+ *
+ * <p>Clients are not reachable from the server, so changes made by other clients cannot be pushed
+ * to them. Instead, clients revalidate their cached object by version once it is older than the
+ * configured TTL, see {@link Config}. <code>WriteThroughCache</code> may thus serve reads from an
+ * object stale by up to one TTL.
  *
  * @author terryz
  */
 public class WriteThroughCachePolicy extends DefaultPolicy {
+    public static final long DEFAULT_TTL = 1000L; // milliseconds
+
+    /** Number of versions whose changes the server keeps for clients to catch up with */
+    static final int MAX_DELTAS = 64;
+
+    /** Version of clients which have not cached the object yet */
+    static final long NO_VERSION = -1L;
+
+    /** Configurations for WriteThroughCachePolicy */
+    public static class Config implements PolicyConfig {
+        /** Time for which clients serve reads from their cached object without revalidating it */
+        private long ttlInMillis = DEFAULT_TTL;
+
+        public long getTtlInMillis() {
+            return ttlInMillis;
+        }
+
+        public void setTtlInMillis(long ttlInMillis) {
+            this.ttlInMillis = ttlInMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return ttlInMillis == config.ttlInMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(ttlInMillis);
+        }
+    }
+
+    /**
+     * Response of the server, bringing the cached object of a client from the version the client
+     * holds to the version of the server. Carries the changes as an {@link ObjectDelta} if the
+     * server still has them, or else the whole object. Carries neither if the client is up to date.
+     */
+    public static class CacheUpdate implements Serializable {
+        private final long version;
+        private final long ttlInMillis;
+        private final ObjectDelta delta;
+        private final AppObject object;
+        private final Object result;
+
+        CacheUpdate(
+                long version,
+                long ttlInMillis,
+                ObjectDelta delta,
+                AppObject object,
+                Object result) {
+            this.version = version;
+            this.ttlInMillis = ttlInMillis;
+            this.delta = delta;
+            this.object = object;
+            this.result = result;
+        }
+
+        /** @return version of the object on the server */
+        public long getVersion() {
+            return version;
+        }
+
+        public long getTtlInMillis() {
+            return ttlInMillis;
+        }
+
+        /** @return changes since the version of the client, or <code>null</code> */
+        public ObjectDelta getDelta() {
+            return delta;
+        }
+
+        /** @return whole object, or <code>null</code> */
+        public AppObject getObject() {
+            return object;
+        }
+
+        /** @return return value of the write, or <code>null</code> for revalidations */
+        public Object getResult() {
+            return result;
+        }
+    }
 
     public static class ClientPolicy extends DefaultClientPolicy {
-        // TODO: Add a timeout for cachedObject
         private AppObject cachedObject = null;
+        /** Version of the cached object */
+        private long version = NO_VERSION;
+        /** Time at which the cached object has to be revalidated */
+        private volatile long expiry;
+        /** Reads of the cached object share the lock, updates take it exclusively */
+        private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
 
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
-            Object ret = null;
-
             // Extract app method name and params from input parameters
             AppContext context = extractAppContext(method, params);
 
-            if (isMethodMutable(context.getAppMethod(), context.getAppParams())) {
-                ret = getServer().onRPC(method, params);
-                cachedObject = ((ServerPolicy) getServer()).getObject();
-            } else {
-                if (cachedObject == null) {
-                    cachedObject = ((ServerPolicy) getServer()).getObject();
-                }
+            // The cached object also tells which methods are immutable
+            if (cachedObject == null || System.currentTimeMillis() >= expiry) {
+                update(((ServerPolicy) getServer()).getUpdate(version));
+            }
 
-                ret = cachedObject.invoke(method, params);
+            if (isMethodMutable(context.getAppMethod(), context.getAppParams())) {
+                CacheUpdate update = ((ServerPolicy) getServer()).write(method, params, version);
+                update(update);
+                return update.getResult();
             }
 
-            return ret;
+            lock.readLock().lock();
+            try {
+                return cachedObject.invoke(method, params);
+            } finally {
+                lock.readLock().unlock();
+            }
         }
 
         /**
          * Determines if the given method is immutable.
          *
          * @param method method name
-         * @param params types of method parameters
+         * @param params method parameters, methods are immutable regardless of them
          * @return <code>true</code> if the method is immutable; <code>false</code> otherwise
          */
         boolean isMethodMutable(String method, ArrayList<Object> params) {
-            // TODO: Need to determine based on annotations on methods
-            return true;
+            return cachedObject == null || !Utils.isImmutableMethod(cachedObject, method);
+        }
+
+        /**
+         * Brings the cached object to the version of the server. Updates may arrive out of order
+         * when the client is called concurrently, updates older than the cached object are
+         * dropped.
+         */
+        private void update(CacheUpdate update) throws IllegalAccessException {
+            lock.writeLock().lock();
+            try {
+                if (update.getVersion() < version) {
+                    return;
+                }
+                if (update.getObject() != null) {
+                    cachedObject = update.getObject();
+                } else if (update.getDelta() != null) {
+                    if (update.getDelta().getBaseVersion() > version) {
+                        // Misses changes made before the delta, revalidate on next call
+                        expiry = 0L;
+                        return;
+                    }
+                    update.getDelta().applyTo(cachedObject.getObject());
+                } else if (update.getVersion() != version) {
+                    expiry = 0L;
+                    return;
+                }
+                version = update.getVersion();
+                expiry = System.currentTimeMillis() + update.getTtlInMillis();
+            } finally {
+                lock.writeLock().unlock();
+            }
         }
     }
 
     public static class ServerPolicy extends DefaultServerPolicy {
+        private static final Logger logger = Logger.getLogger(ServerPolicy.class.getName());
+
+        private long version;
+        /** Changes of the last versions, oldest first */
+        private final LinkedList<ObjectDelta> deltas = new LinkedList<ObjectDelta>();
+        /** State of the app object as of the current version, taken before the first write */
+        private transient ObjectSnapshot snapshot;
+
+        private transient Config config;
+
         public AppObject getObject() {
             return getAppObject();
         }
+
+        /**
+         * Revalidates the cached object of a client
+         *
+         * @param version version of the cached object, or {@link #NO_VERSION}
+         * @return changes since the given version
+         */
+        public synchronized CacheUpdate getUpdate(long version) {
+            return newUpdate(version, null);
+        }
+
+        /**
+         * Invokes a write on the app object
+         *
+         * @param method method name
+         * @param params method parameters
+         * @param version version of the object cached by the client, or {@link #NO_VERSION}
+         * @return return value of the method, along with the changes since the given version
+         */
+        public synchronized CacheUpdate write(String method, ArrayList<Object> params, long version)
+                throws Exception {
+            return newUpdate(version, onRPC(method, params));
+        }
+
+        /** Calls which change the app object give it a new version. */
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            if (Utils.isImmutableMethod(getAppObject(), method)) {
+                return super.onRPC(method, params);
+            }
+            synchronized (this) {
+                if (snapshot == null) {
+                    snapshot = takeSnapshot();
+                }
+                try {
+                    return super.onRPC(method, params);
+                } finally {
+                    recordChanges();
+                }
+            }
+        }
+
+        private CacheUpdate newUpdate(long clientVersion, Object result) {
+            long ttl = getConfig().getTtlInMillis();
+            if (clientVersion == version) {
+                return new CacheUpdate(version, ttl, null, null, result);
+            }
+
+            if (clientVersion != NO_VERSION
+                    && !deltas.isEmpty()
+                    && clientVersion >= deltas.getFirst().getBaseVersion()
+                    && clientVersion < version) {
+                int first = deltas.size() - (int) (version - clientVersion);
+                ObjectDelta delta = ObjectDelta.combine(deltas.subList(first, deltas.size()));
+                return new CacheUpdate(version, ttl, delta, null, result);
+            }
+            return new CacheUpdate(version, ttl, null, getObject(), result);
+        }
+
+        /** Gives the app object a new version if it changed since the snapshot was taken. */
+        private void recordChanges() {
+            ObjectDelta delta = null;
+            if (snapshot != null) {
+                try {
+                    delta = snapshot.diff(getAppObject().getObject(), version);
+                } catch (Exception e) {
+                    logger.log(Level.WARNING, "Failed to find changes of the app object", e);
+                    snapshot = null;
+                }
+                if (delta != null && delta.isEmpty()) {
+                    return;
+                }
+            }
+
+            version++;
+            if (delta == null) {
+                // Clients of older versions get the whole object
+                deltas.clear();
+                return;
+            }
+            deltas.addLast(delta);
+            if (deltas.size() > MAX_DELTAS) {
+                deltas.removeFirst();
+            }
+        }
+
+        private ObjectSnapshot takeSnapshot() {
+            try {
+                return new ObjectSnapshot(getAppObject().getObject());
+            } catch (Exception e) {
+                logger.log(Level.WARNING, "Failed to take snapshot of the app object", e);
+                return null;
+            }
+        }
+
+        private Config getConfig() {
+            if (config == null) {
+                Config c = null;
+                if (getSpec() != null) {
+                    c = (Config) getPolicyConfig(Config.class.getName());
+                }
+                config = c != null ? c : new Config();
+            }
+            return config;
+        }
     }
 
     public static class GroupPolicy extends DefaultGroupPolicy {}
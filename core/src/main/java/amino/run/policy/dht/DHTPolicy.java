@@ -3,12 +3,12 @@ package amino.run.policy.dht;
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.NoKernelServerFoundException;
+import amino.run.oms.PlacementStrategy;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
-import java.util.List;
 import java.util.Objects;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -94,7 +94,9 @@ public class DHTPolicy extends DefaultPolicy {
                 created in unique regions and are evenly distributed to the best. */
                 int primaryReplicaIndex = regions.indexOf(region);
                 int shardCount = primaryReplicaIndex < numOfShards ? numOfShards : numOfShards - 1;
-                // Create replicas based on annotation
+                // Create replicas based on annotation. Shards are created concurrently.
+                ArrayList<InetSocketAddress> addresses = new ArrayList<InetSocketAddress>();
+                ArrayList<String> shardRegions = new ArrayList<String>();
                 for (int i = 0; i < shardCount; i++) {
                     region = regions.get(i % regions.size());
                     if (region == null) {
@@ -107,9 +109,10 @@ public class DHTPolicy extends DefaultPolicy {
                     }
 
                     logger.info(String.format("Creating shard %s in region %s", i, region));
-                    InetSocketAddress address = getAddress(region);
-                    replicate(server, address, region);
+                    addresses.add(getAddress(region));
+                    shardRegions.add(region);
                 }
+                replicate(server, addresses, shardRegions, addresses.size());
             } catch (RemoteException e) {
                 throw new Error(
                         "Could not create new group policy because the oms is not available.");
@@ -145,28 +148,25 @@ public class DHTPolicy extends DefaultPolicy {
         }
 
         /**
-         * Get a new host address for the given region.
+         * Get a new host address for the given region. The least loaded server is chosen, so that
+         * shards do not pile up on the same server.
          *
          * @param region
          * @throws NoKernelServerFoundException
          * @throws RemoteException
-         * @throws MicroServiceNotFoundException
-         * @throws MicroServiceReplicaNotFoundException
          */
         // TODO: Consider moving to Library so that other DMs can use this. Note that
         // some DMs may want a different behavior for exception e.g., null list should be fine if
         // the DM can switch to another label.
         private InetSocketAddress getAddress(String region)
                 throws NoKernelServerFoundException, RemoteException {
-            List<InetSocketAddress> addressList = getAddressList(region);
-            if (addressList == null || addressList.isEmpty()) {
+            InetSocketAddress address = selectAddress(region, PlacementStrategy.leastLoaded());
+            if (address == null) {
                 String msg = String.format("No kernel servers were found for %s", region);
                 logger.log(Level.SEVERE, msg);
                 throw new NoKernelServerFoundException();
             }
-
-            // TODO: this behavior may need to be changed since it always returns the first address.
-            return addressList.get(0);
+            return address;
         }
     }
 }
@@ -2,6 +2,7 @@ package amino.run.policy.replication;
 
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.common.Utils;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import amino.run.policy.util.consensus.raft.AlreadyVotedException;
@@ -14,12 +15,15 @@ import amino.run.policy.util.consensus.raft.PrevLogTermMismatch;
 import amino.run.policy.util.consensus.raft.RemoteRaftServer;
 import amino.run.policy.util.consensus.raft.Server;
 import amino.run.policy.util.consensus.raft.StateMachineApplier;
+import java.io.File;
+import java.io.IOException;
 import java.io.Serializable;
 import java.lang.reflect.InvocationTargetException;
 import java.net.InetSocketAddress;
 import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -30,6 +34,86 @@ import java.util.logging.Logger;
  * replicas, using RAFT algorithm. *
  */
 public class ConsensusRSMPolicy extends DefaultPolicy {
+    /** Configuration for ConsensusRSMPolicy */
+    public static class Config implements PolicyConfig {
+        /** How methods annotated with {@link amino.run.runtime.annotations.Immutable} are served */
+        public enum ReadMode {
+            /** Appended to the RAFT log and applied on all replicas, like all other methods */
+            LOG,
+            /** Applied on the leader only, after it confirms its leadership with a majority */
+            READ_INDEX,
+            /**
+             * Applied on the leader only, which confirms its leadership at most once per lease
+             * period. Assumes that clocks of all replicas run at similar rates.
+             */
+            LEASE
+        }
+
+        /**
+         * Directory in which every replica keeps its RAFT log and snapshots in a subdirectory. If
+         * not set, the log is kept in memory only, and replicas cannot recover it on restart.
+         */
+        private String logDirectory;
+        /** Number of applied operations after which a snapshot is taken and the log compacted */
+        private int snapshotInterval = Server.DEFAULT_SNAPSHOT_INTERVAL;
+        /** How reads are served, unless the log is kept for all of them */
+        private ReadMode readMode = ReadMode.READ_INDEX;
+        /**
+         * Whether followers serve reads once they applied all operations committed when the read
+         * started, instead of redirecting the client to the leader. Ignored for {@link
+         * ReadMode#LOG}.
+         */
+        private boolean followerReads = false;
+
+        public String getLogDirectory() {
+            return logDirectory;
+        }
+
+        public void setLogDirectory(String logDirectory) {
+            this.logDirectory = logDirectory;
+        }
+
+        public int getSnapshotInterval() {
+            return snapshotInterval;
+        }
+
+        public void setSnapshotInterval(int snapshotInterval) {
+            this.snapshotInterval = snapshotInterval;
+        }
+
+        public ReadMode getReadMode() {
+            return readMode;
+        }
+
+        public void setReadMode(ReadMode readMode) {
+            this.readMode = readMode;
+        }
+
+        public boolean isFollowerReads() {
+            return followerReads;
+        }
+
+        public void setFollowerReads(boolean followerReads) {
+            this.followerReads = followerReads;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return snapshotInterval == config.snapshotInterval
+                    && followerReads == config.followerReads
+                    && readMode == config.readMode
+                    && Objects.equals(logDirectory, config.logDirectory);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(logDirectory, snapshotInterval, readMode, followerReads);
+        }
+    }
+
     public static class RPC implements Serializable {
         String method;
         ArrayList<Object> params;
@@ -124,6 +208,7 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
         // There are so many servers and clients in this code,
         // include full package name to make it clear to the reader.
         private transient Server raftServer;
+        private transient Config.ReadMode readMode;
 
         public UUID getRaftServerId() {
             return raftServer.getMyServerID();
@@ -142,6 +227,14 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
                     term, leader, prevLogIndex, prevLogTerm, entries, leaderCommit);
         }
 
+        @Override
+        public int installSnapshot(
+                int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+                throws InvalidTermException {
+            return raftServer.installSnapshot(
+                    term, leader, lastIncludedIndex, lastIncludedTerm, data);
+        }
+
         @Override
         public int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
                 throws InvalidTermException, AlreadyVotedException, CandidateBehindException {
@@ -153,10 +246,36 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             return raftServer.applyToStateMachine(operation);
         }
 
+        @Override
+        public int readIndex() throws LeaderException, InterruptedException {
+            return raftServer.readIndex();
+        }
+
         @Override
         public void onCreate(Policy.GroupPolicy group) {
             super.onCreate(group);
-            raftServer = new Server(this);
+            Config config = null;
+            if (getSpec() != null) {
+                config = (Config) getPolicyConfig(Config.class.getName());
+            }
+            if (config == null) {
+                config = new Config();
+            }
+            if (config.getLogDirectory() == null) {
+                raftServer = new Server(this);
+            } else {
+                /* Every replica is a separate kernel object, and keeps its own log. */
+                File directory =
+                        new File(config.getLogDirectory(), "raft-" + $__getKernelOID().getID());
+                try {
+                    raftServer = new Server(this, directory, config.getSnapshotInterval());
+                } catch (IOException e) {
+                    throw new Error("Failed to open RAFT log in " + directory, e);
+                }
+            }
+            readMode = config.getReadMode();
+            raftServer.setLeaderLease(readMode == Config.ReadMode.LEASE);
+            raftServer.setFollowerReads(config.isFollowerReads());
         }
 
         /**
@@ -181,10 +300,7 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             this.raftServer.start();
         }
 
-        // TODO: This method should be thread safe
-        // We should not have multiple threads calling apply concurrently
-        // If we implement log compaction in the future, we also need to
-        // ensure snapshot operation and apply operation are synchronized.
+        // Server never calls apply, snapshot and restore concurrently.
         public Object apply(Object operation) throws Exception {
             RPC rpc = (RPC) operation;
             logger.fine(String.format("Applying %s(%s)", rpc.method, rpc.params));
@@ -195,12 +311,24 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
             return super.onRPC(rpc.method, rpc.params);
         }
 
+        /** Server serializes the snapshot right away, so the app object is not copied. */
+        public Object snapshot() throws Exception {
+            return appObject.getObject();
+        }
+
+        public void restore(Object snapshot) throws Exception {
+            appObject.setObject((Serializable) snapshot);
+        }
+
         @Override
         public Object onRPC(String method, ArrayList<Object> params) throws Exception {
-            return raftServer.applyToStateMachine(
-                    new RPC(
-                            method,
-                            params)); // first commit it to the logs of a consensus of replicas.
+            RPC rpc = new RPC(method, params);
+            if (readMode != Config.ReadMode.LOG && Utils.isImmutableMethod(appObject, method)) {
+                /* Reads do not change the state, so replicas need not apply them. */
+                return raftServer.readFromStateMachine(rpc);
+            }
+            // first commit it to the logs of a consensus of replicas.
+            return raftServer.applyToStateMachine(rpc);
         }
 
         @Override
@@ -227,11 +355,11 @@ public class ConsensusRSMPolicy extends DefaultPolicy {
                 // the first one in the region.
                 pin(consensusServer, addressList.get(0));
 
-                // Create additional replicas, one per region. TODO:  Create N-1 replicas on
-                // different servers in the same zone.
-                for (int i = 1; i < addressList.size(); i++) {
-                    replicate(consensusServer, addressList.get(i), region);
-                }
+                // Create additional replicas concurrently, one per region. TODO:  Create N-1
+                // replicas on different servers in the same zone.
+                List<InetSocketAddress> replicaAddresses =
+                        addressList.subList(1, addressList.size());
+                replicate(consensusServer, replicaAddresses, region, replicaAddresses.size());
 
                 // Tell all the servers about one another
                 ConcurrentHashMap<UUID, ServerPolicy> allServers =
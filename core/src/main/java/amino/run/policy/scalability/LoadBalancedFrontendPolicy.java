@@ -187,9 +187,8 @@ public class LoadBalancedFrontendPolicy extends DefaultPolicy {
                     addressList.remove(addr);
                     numnodes = addressList.size();
 
-                    for (count = 0; count < numnodes && count < replicaCount - 1; count++) {
-                        replicate(server, addressList.get(count), region);
-                    }
+                    count = Math.min(numnodes, replicaCount - 1);
+                    replicate(server, addressList.subList(0, count), region, count);
                 }
 
                 /* If the replicas created are less than the number of replicas configured,
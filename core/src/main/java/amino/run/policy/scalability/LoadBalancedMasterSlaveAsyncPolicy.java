@@ -0,0 +1,284 @@
+package amino.run.policy.scalability;
+
+import amino.run.policy.Policy;
+import amino.run.policy.scalability.masterslave.BatchingReplicator;
+import amino.run.policy.scalability.masterslave.Committer;
+import amino.run.policy.scalability.masterslave.Configuration;
+import amino.run.policy.scalability.masterslave.Context;
+import amino.run.policy.scalability.masterslave.LogEntry;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.Processor;
+import amino.run.policy.scalability.masterslave.ReplicationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.policy.scalability.masterslave.State;
+import amino.run.policy.scalability.masterslave.StateManager;
+import java.io.Serializable;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A master slave DM that replicates requests from master to slave asynchronously. Unlike {@link
+ * LoadBalancedMasterSlaveSyncPolicy}, master acknowledges a write as soon as it is committed
+ * locally. Writes are appended to a bounded replication log, and shipped to slave in batches by a
+ * background thread (see {@link BatchingReplicator}).
+ *
+ * <p>Slave lags at most {@link Config#getMaxReplicationLag()} writes behind master while it is
+ * reachable; these are the writes lost if master fails. Slave serves reads only within {@link
+ * Config#getMaxStalenessInMillis()} milliseconds after it last caught up with master, and
+ * redirects older reads to master.
+ *
+ * <p>TODO: Make Group Policy highly available, see {@link LoadBalancedMasterSlaveSyncPolicy}.
+ */
+public class LoadBalancedMasterSlaveAsyncPolicy extends LoadBalancedMasterSlaveBase {
+    public static final int DEFAULT_MAX_BATCH_SIZE = 128;
+    public static final int DEFAULT_MAX_REPLICATION_LAG = 1024;
+    public static final long DEFAULT_MAX_STALENESS_IN_MILLIS = 500L;
+
+    /** Configurations for LoadBalancedMasterSlaveAsyncPolicy */
+    public static class Config implements PolicyConfig {
+        private int maxBatchSize = DEFAULT_MAX_BATCH_SIZE;
+        private int maxReplicationLag = DEFAULT_MAX_REPLICATION_LAG;
+        private long maxStalenessInMillis = DEFAULT_MAX_STALENESS_IN_MILLIS;
+
+        /** @return maximum number of writes shipped to slave in one batch */
+        public int getMaxBatchSize() {
+            return maxBatchSize;
+        }
+
+        public void setMaxBatchSize(int maxBatchSize) {
+            this.maxBatchSize = maxBatchSize;
+        }
+
+        /** @return maximum number of writes slave may lag behind master */
+        public int getMaxReplicationLag() {
+            return maxReplicationLag;
+        }
+
+        public void setMaxReplicationLag(int maxReplicationLag) {
+            this.maxReplicationLag = maxReplicationLag;
+        }
+
+        /** @return how long slave serves reads after it last caught up with master */
+        public long getMaxStalenessInMillis() {
+            return maxStalenessInMillis;
+        }
+
+        public void setMaxStalenessInMillis(long maxStalenessInMillis) {
+            this.maxStalenessInMillis = maxStalenessInMillis;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Config config = (Config) o;
+            return maxBatchSize == config.maxBatchSize
+                    && maxReplicationLag == config.maxReplicationLag
+                    && maxStalenessInMillis == config.maxStalenessInMillis;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(maxBatchSize, maxReplicationLag, maxStalenessInMillis);
+        }
+    }
+
+    /** Client side policy */
+    public static class ClientPolicy extends LoadBalancedMasterSlaveBase.ClientPolicy {}
+
+    /** Server side policy */
+    public static class ServerPolicy extends LoadBalancedMasterSlaveBase.ServerPolicy {
+        private static final Logger logger = Logger.getLogger(ServerPolicy.class.getName());
+        private transient Configuration config;
+        private transient Committer commitExecutor;
+        private transient BatchingReplicator replicator;
+        private transient StateManager stateMgr;
+        private transient Processor processor;
+
+        /** Time when this server last caught up with master */
+        private transient volatile long lastCaughtUpTimeInMillis;
+
+        @Override
+        public void onCreate(Policy.GroupPolicy group) {
+            super.onCreate(group);
+        }
+
+        @Override
+        public void start() {
+            GroupPolicy groupPolicy = (GroupPolicy) getGroup();
+
+            Config spec = null;
+            if (getSpec() != null) {
+                spec = (Config) getPolicyConfig(Config.class.getName());
+            }
+            if (spec == null) {
+                spec = new Config();
+            }
+            config =
+                    new Configuration()
+                            .setMaxBatchSize(spec.getMaxBatchSize())
+                            .setMaxReplicationLag(spec.getMaxReplicationLag())
+                            .setMaxStalenessInMillis(spec.getMaxStalenessInMillis());
+
+            commitExecutor = new Committer(appObject, 0L, config);
+            commitExecutor.open();
+            replicator = new BatchingReplicator(config, groupPolicy, commitExecutor, getServerId());
+            replicator.open();
+            processor = new Processor(config, groupPolicy, commitExecutor, replicator, false);
+            processor.open();
+
+            // The replicator runs on every server and checks itself whether its server is master
+            Context context = new Context(groupPolicy, config, commitExecutor, null);
+
+            this.stateMgr = new StateManager(getServerId(), context);
+            logger.log(Level.INFO, "LoadBalancedMasterSlaveAsyncPolicy$ServerPolicy created");
+        }
+
+        @Override
+        public void syncObject(Serializable object, long largestCommittedIndex) {
+            commitExecutor.updateObject(object, largestCommittedIndex);
+        }
+
+        /**
+         * Handles a batch of log entries from master. This method will only be invoked on slaves.
+         *
+         * <p>Entries already applied are skipped. The response carries the index of the latest
+         * entry applied on this server, which tells master where the next batch starts.
+         *
+         * @param request replication request
+         * @return replication response
+         */
+        @Override
+        public ReplicationResponse handleReplication(ReplicationRequest request) {
+            if (stateMgr.getCurrentState().getName() == State.StateName.MASTER) {
+                return new ReplicationResponse(
+                        ReplicationResponse.ReturnCode.FAILURE,
+                        new IllegalStateException("replication to master " + getServerId()));
+            }
+
+            long applied = commitExecutor.getIndexOfLargestCommittedEntry();
+            if (request.getIndexOfLargestCommittedEntry() > applied) {
+                // Entries preceding the batch do not exist on slave
+                updateCaughtUpTime(request, applied);
+                return new ReplicationResponse(ReplicationResponse.ReturnCode.TRACEBACK, applied);
+            }
+
+            Future<Object> last = null;
+            for (LogEntry entry : request.getEntries()) {
+                if (entry.getIndex() > applied) {
+                    last = commitExecutor.applyWriteAsync(entry.getRequest(), entry.getIndex());
+                    if (last == null) {
+                        return new ReplicationResponse(
+                                ReplicationResponse.ReturnCode.FAILURE,
+                                new Exception("committer not initialized"));
+                    }
+                }
+            }
+
+            // Entries are applied in order, so all of them are applied once the last one is
+            if (last != null) {
+                try {
+                    last.get();
+                } catch (ExecutionException e) {
+                    // Failed on master too, see Committer
+                    logger.log(Level.FINE, "failed to apply replicated entry: {0}", e);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return new ReplicationResponse(ReplicationResponse.ReturnCode.FAILURE, e);
+                }
+            }
+
+            applied = commitExecutor.getIndexOfLargestCommittedEntry();
+            updateCaughtUpTime(request, applied);
+            return new ReplicationResponse(ReplicationResponse.ReturnCode.SUCCESS, applied);
+        }
+
+        private void updateCaughtUpTime(ReplicationRequest request, long applied) {
+            if (applied >= request.getIndexOfLatestEntry()) {
+                lastCaughtUpTimeInMillis = System.currentTimeMillis();
+            }
+        }
+
+        /**
+         * invoke the given request on App object
+         *
+         * @param request method invocation request
+         * @return method invocation response
+         */
+        public MethodInvocationResponse onRPC(MethodInvocationRequest request) {
+            State.StateName state = this.stateMgr.getCurrentState().getName();
+            if (request.isImmutable()) {
+                if (state == State.StateName.SLAVE
+                        && System.currentTimeMillis() - lastCaughtUpTimeInMillis
+                                > config.getMaxStalenessInMillis()) {
+                    return redirect();
+                }
+                return commitExecutor.applyRead(request);
+            }
+
+            switch (state) {
+                case SLAVE:
+                    return redirect();
+
+                case MASTER:
+                    return processor.process(request);
+            }
+
+            throw new AssertionError("should never reach here");
+        }
+
+        /**
+         * @return index of the latest write applied on slave, as last reported to this server
+         *     while master, or -1 if unknown
+         */
+        public long getIndexOfLargestReplicatedEntry() {
+            return replicator.getIndexOfLargestReplicatedEntry();
+        }
+
+        /** @return index of the latest write committed on this server */
+        public long getIndexOfLargestCommittedEntry() {
+            return commitExecutor.getIndexOfLargestCommittedEntry();
+        }
+
+        @Override
+        public void onDestroy() {
+            super.onDestroy();
+            try {
+                finalize();
+            } catch (Throwable throwable) {
+                throwable.printStackTrace();
+            }
+        }
+
+        @Override
+        protected void finalize() throws Throwable {
+            if (replicator != null) {
+                replicator.close();
+                replicator = null;
+            }
+
+            if (commitExecutor != null) {
+                commitExecutor.close();
+                commitExecutor = null;
+            }
+
+            if (processor != null) {
+                processor.close();
+                processor = null;
+            }
+
+            if (stateMgr != null) {
+                stateMgr.halt();
+                stateMgr = null;
+            }
+            super.finalize();
+        }
+    }
+
+    /** Group policy */
+    public static class GroupPolicy extends LoadBalancedMasterSlaveBase.GroupPolicy {}
+}
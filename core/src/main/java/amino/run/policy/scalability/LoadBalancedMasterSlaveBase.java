@@ -2,16 +2,20 @@ package amino.run.policy.scalability;
 
 import amino.run.common.MicroServiceNotFoundException;
 import amino.run.common.MicroServiceReplicaNotFoundException;
+import amino.run.common.Notification;
 import amino.run.common.Utils;
 import amino.run.kernel.common.KernelObjectStub;
 import amino.run.kernel.common.KernelServerNotFoundException;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import amino.run.policy.scalability.masterslave.Lock;
+import amino.run.policy.scalability.masterslave.MasterInfo;
 import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
 import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
 import amino.run.policy.scalability.masterslave.ReplicationRequest;
 import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.policy.scalability.masterslave.State;
+import amino.run.policy.scalability.masterslave.StateChangeNotification;
 import java.io.Serializable;
 import java.lang.reflect.Method;
 import java.net.InetSocketAddress;
@@ -37,6 +41,15 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
         private final AtomicLong SeqGenerator = new AtomicLong();
         private transient UUID CLIENT_ID;
 
+        /**
+         * The master this client last heard of, or <code>null</code> if it is unknown. Writes go
+         * to it without asking the group policy, until it fails or redirects them.
+         */
+        private transient volatile MasterInfo master;
+
+        /** Epoch of the latest master this client heard of */
+        private transient long masterEpoch;
+
         public ClientPolicy() {}
 
         @Override
@@ -51,15 +64,24 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
             }
 
             GroupPolicy group = (GroupPolicy) getGroup();
-            MethodInvocationRequest.MethodType type = MethodInvocationRequest.MethodType.MUTABLE;
+            MethodInvocationRequest.MethodType type =
+                    isImmutable(getServer().getClass(), method)
+                            ? MethodInvocationRequest.MethodType.IMMUTABLE
+                            : MethodInvocationRequest.MethodType.MUTABLE;
+            // Retries reuse the request ID, so that master does not run a write twice
+            MethodInvocationRequest request =
+                    new MethodInvocationRequest(
+                            CLIENT_ID.toString(), SeqGenerator.getAndAdd(1L), method, params, type);
+            boolean redirected = false;
 
             do {
-                ServerPolicy server = (ServerPolicy) getServer();
-                if (isImmutable(server.getClass(), method)) {
-                    server = group.getRandomServer();
-                    type = MethodInvocationRequest.MethodType.IMMUTABLE;
+                ServerPolicy server;
+                boolean toMaster = type == MethodInvocationRequest.MethodType.MUTABLE || redirected;
+                if (toMaster) {
+                    // Reads redirected by a slave which is too far behind go to master
+                    server = getMaster(group);
                 } else {
-                    server = group.getMaster();
+                    server = group.getRandomServer();
                 }
 
                 if (server == null) {
@@ -69,20 +91,30 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                     continue;
                 }
 
-                MethodInvocationRequest request =
-                        new MethodInvocationRequest(
-                                CLIENT_ID.toString(),
-                                SeqGenerator.getAndAdd(1L),
-                                method,
-                                params,
-                                type);
-
                 logger.log(
                         Level.INFO,
                         String.format(
                                 "Sending request to master server %s",
                                 ((KernelObjectStub) server).$__getHostname()));
-                MethodInvocationResponse response = server.onRPC(request);
+                MethodInvocationResponse response;
+                try {
+                    response = server.onRPC(request);
+                } catch (Exception e) {
+                    if (retryCnt == MAX_RETRY) {
+                        throw e;
+                    }
+                    logger.log(
+                            Level.WARNING,
+                            "failed to send request {0}: {1}",
+                            new Object[] {request, e});
+                    if (toMaster) {
+                        forgetMaster();
+                    }
+                    Thread.sleep(waitInMilliseconds);
+                    waitInMilliseconds <<= 1;
+                    continue;
+                }
+
                 switch (response.getReturnCode()) {
                     case SUCCESS:
                         return response.getResult();
@@ -93,6 +125,16 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                                 new Object[] {request, response});
                         throw (Exception) response.getResult();
                     case REDIRECT:
+                        redirected = true;
+                        if (response.getResult() instanceof MasterInfo
+                                && updateMaster((MasterInfo) response.getResult(), false)) {
+                            // Switch to the new master right away
+                            continue;
+                        }
+                        if (type == MethodInvocationRequest.MethodType.IMMUTABLE && !toMaster) {
+                            continue;
+                        }
+                        forgetMaster();
                         Thread.sleep(waitInMilliseconds);
                         waitInMilliseconds <<= 1;
                 }
@@ -101,6 +143,44 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
             throw new Exception(String.format("failed to execute method %s after retries", method));
         }
 
+        /**
+         * Returns the master this client last heard of, and asks the group policy if there is none
+         *
+         * @param group group policy
+         * @return master server, or <code>null</code> if no master is available
+         */
+        private ServerPolicy getMaster(GroupPolicy group) throws RemoteException {
+            MasterInfo info = master;
+            if (info == null) {
+                info = group.getMasterInfo();
+                if (info == null || !updateMaster(info, true)) {
+                    return null;
+                }
+            }
+            return info.getMaster();
+        }
+
+        /**
+         * Caches the given master if it is more recent than the last one this client heard of
+         *
+         * @param info master info
+         * @param fromGroup whether the master info comes from the group policy, which is
+         *     authoritative. Master infos from replicas must have a larger epoch to be cached.
+         * @return <code>true</code> if the given master is cached
+         */
+        private synchronized boolean updateMaster(MasterInfo info, boolean fromGroup) {
+            if (info.getEpoch() > masterEpoch || (fromGroup && info.getEpoch() == masterEpoch)) {
+                master = info;
+                masterEpoch = info.getEpoch();
+                return true;
+            }
+            return false;
+        }
+
+        private void forgetMaster() {
+            master = null;
+        }
+
         private boolean isImmutable(Class clazz, String method) {
             Method[] methods = clazz.getMethods();
             for (Method m : methods) {
@@ -115,6 +195,9 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
 
     /** Base implementation of master slave server policy */
     public abstract static class ServerPolicy extends DefaultServerPolicy {
+        /** The latest master this server was notified of by the group policy */
+        private transient volatile MasterInfo masterInfo;
+
         /** @return the ID of the server */
         public String getServerId() {
             return $__getKernelOID().toString();
@@ -154,6 +237,28 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                 return new MethodInvocationResponse(MethodInvocationResponse.ReturnCode.FAILURE, e);
             }
         }
+
+        @Override
+        public void onNotification(Notification notification) throws RemoteException {
+            if (notification instanceof MasterInfo) {
+                MasterInfo info = (MasterInfo) notification;
+                synchronized (this) {
+                    if (info.isNewerThan(masterInfo)) {
+                        masterInfo = info;
+                    }
+                }
+            }
+        }
+
+        /**
+         * @return a {@link MethodInvocationResponse.ReturnCode#REDIRECT} response which carries the
+         *     latest master this server knows of, if any, so that the client switches to it
+         *     without asking the group policy.
+         */
+        protected MethodInvocationResponse redirect() {
+            return new MethodInvocationResponse(
+                    MethodInvocationResponse.ReturnCode.REDIRECT, masterInfo);
+        }
     }
 
     /**
@@ -166,7 +271,10 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
         private static final int NUM_OF_REPLICAS = 2;
         private static final Logger logger = Logger.getLogger(GroupPolicy.class.getName());
         private Random random = new Random(System.currentTimeMillis());
-        private Lock masterLock;
+        private volatile Lock masterLock;
+
+        /** Cached master, valid as long as its epoch matches the epoch of the master lock */
+        private transient volatile MasterInfo masterInfo;
         private Map<String, String> nodeLabels;
 
         @Override
@@ -202,13 +310,16 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
                 logger.info("Created master on " + dest);
                 s.start();
 
+                List<InetSocketAddress> dests = new ArrayList<InetSocketAddress>();
                 for (int i = 0; i < NUM_OF_REPLICAS - 1; i++) {
                     if (isLastPolicy) {
                         dest = getAvailable(i + 1, addressList, unavailable);
                     }
-                    ServerPolicy replica = (ServerPolicy) replicate(s, dest, region);
-                    replica.start();
-                    logger.info("created slave on " + dest);
+                    dests.add(dest);
+                }
+                for (Policy.ServerPolicy replica : replicate(s, dests, region, dests.size())) {
+                    ((ServerPolicy) replica).start();
+                    logger.info("created slave " + replica);
                 }
             } catch (RemoteException e) {
                 throw new RuntimeException("failed to create group: " + e, e);
@@ -286,21 +397,93 @@ public abstract class LoadBalancedMasterSlaveBase extends DefaultPolicy {
 
         /** @return master server, or <code>null</code> if no master available */
         public ServerPolicy getMaster() throws RemoteException {
-            // TODO: cache master to avoid calling group policy remotely for RPC
-            if (masterLock != null) {
-                ArrayList<Policy.ServerPolicy> servers = getServers();
-                for (Policy.ServerPolicy server : servers) {
-                    try {
-                        ServerPolicy s = (ServerPolicy) server;
-                        if (s.getServerId() != null
-                                && s.getServerId().equals(masterLock.getClientId())) {
-                            return s;
-                        }
-                    } catch (Throwable e) {
-                        logger.log(
-                                Level.WARNING,
-                                "unable to get master from group: " + e.getMessage());
+            MasterInfo info = getMasterInfo();
+            return info == null ? null : info.getMaster();
+        }
+
+        /**
+         * Returns the current master together with the epoch of its lock. The master is looked up
+         * among the servers only when the lock changes hands, so clients which call this method
+         * on every RPC do not cost a scan over all servers.
+         *
+         * @return master info, or <code>null</code> if no master available
+         */
+        public MasterInfo getMasterInfo() throws RemoteException {
+            Lock lock = masterLock;
+            if (lock == null) {
+                return null;
+            }
+
+            String owner;
+            long epoch;
+            synchronized (lock) {
+                owner = lock.getClientId();
+                epoch = lock.getEpoch();
+            }
+
+            MasterInfo info = masterInfo;
+            if (info != null && info.getEpoch() == epoch) {
+                return info;
+            }
+
+            ServerPolicy master = findServer(owner);
+            if (master == null) {
+                return null;
+            }
+            info = new MasterInfo(epoch, owner, master);
+            masterInfo = info;
+            return info;
+        }
+
+        /**
+         * Takes {@link StateChangeNotification}s from servers. When a server becomes master, all
+         * servers are notified of the new master, so that they can redirect clients to it.
+         *
+         * @param notification notification
+         */
+        @Override
+        public void onNotification(Notification notification) throws RemoteException {
+            if (!(notification instanceof StateChangeNotification)) {
+                return;
+            }
+
+            StateChangeNotification change = (StateChangeNotification) notification;
+            if (change.getState() == State.StateName.SLAVE) {
+                MasterInfo info = masterInfo;
+                if (info != null && change.getServerId().equals(info.getServerId())) {
+                    masterInfo = null;
+                }
+                return;
+            }
+
+            MasterInfo info = getMasterInfo();
+            if (info == null || !change.getServerId().equals(info.getServerId())) {
+                // Lock has moved on since the server became master
+                return;
+            }
+
+            for (Policy.ServerPolicy server : getServers()) {
+                try {
+                    server.onNotification(info);
+                } catch (Throwable e) {
+                    logger.log(
+                            Level.WARNING,
+                            "failed to notify server of new master {0}: {1}",
+                            new Object[] {info, e});
+                }
+            }
+        }
+
+        private ServerPolicy findServer(String serverId) throws RemoteException {
+            ArrayList<Policy.ServerPolicy> servers = getServers();
+            for (Policy.ServerPolicy server : servers) {
+                try {
+                    ServerPolicy s = (ServerPolicy) server;
+                    if (s.getServerId() != null && s.getServerId().equals(serverId)) {
+                        return s;
                     }
+                } catch (Throwable e) {
+                    logger.log(Level.WARNING, "unable to get master from group: " + e.getMessage());
                 }
             }
             return null;
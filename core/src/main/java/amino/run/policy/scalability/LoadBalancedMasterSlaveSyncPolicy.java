@@ -119,8 +119,7 @@ public class LoadBalancedMasterSlaveSyncPolicy extends LoadBalancedMasterSlaveBa
 
             switch (this.stateMgr.getCurrentState().getName()) {
                 case SLAVE:
-                    return new MethodInvocationResponse(
-                            MethodInvocationResponse.ReturnCode.REDIRECT, null);
+                    return redirect();
 
                 case MASTER:
                     return processor.process(request);
@@ -0,0 +1,323 @@
+package amino.run.policy.scalability.masterslave;
+
+import static amino.run.policy.scalability.LoadBalancedMasterSlaveBase.GroupPolicy;
+import static amino.run.policy.scalability.LoadBalancedMasterSlaveBase.ServerPolicy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * BatchingReplicator replicates requests from master to slave asynchronously. Requests are
+ * appended to a bounded {@link ReplicationLog}, from which a background thread ships batches of
+ * up to {@link Configuration#getMaxBatchSize()} entries to slave, one batch at a time.
+ *
+ * <p>Slave answers every batch with the index of the latest entry it applied, which tells the
+ * replicator where the next batch starts and which entries can be released from the log. Slave
+ * lags at most {@link Configuration#getMaxReplicationLag()} entries behind master while it is
+ * reachable: appends wait for slave once the log is full. When slave is not reachable, the log
+ * drops its oldest entries instead, so that master keeps accepting writes. If slave misses entries
+ * that are no longer in the log, it gets a copy of the App object from {@link Committer}.
+ *
+ * <p>When there is nothing to replicate, a heartbeat is sent to slave every {@link
+ * Configuration#getReplicationIntervalInMillis()} milliseconds, so that slave knows it is up to
+ * date.
+ *
+ * <p>The replicator may run on every server. It only replicates while its server is master.
+ */
+public class BatchingReplicator implements Replicator, Closeable {
+    private static final Logger logger = Logger.getLogger(BatchingReplicator.class.getName());
+    private final Configuration config;
+    private final GroupPolicy group;
+    private final Committer commitExecutor;
+    private final String serverId;
+    private final ReplicationLog log;
+    private volatile ExecutorService replicator;
+
+    /** Index of the latest entry applied on slave, or -1 if unknown */
+    private long indexOfLargestReplicatedEntry = -1;
+
+    /**
+     * @param config configuration
+     * @param group group policy
+     * @param commitExecutor committer of the server which replicates requests
+     * @param serverId the Id of the server which replicates requests. Requests are only replicated
+     *     while this server is master.
+     */
+    public BatchingReplicator(
+            Configuration config, GroupPolicy group, Committer commitExecutor, String serverId) {
+        this.config = config;
+        this.group = group;
+        this.commitExecutor = commitExecutor;
+        this.serverId = serverId;
+        this.log = new ReplicationLog(config.getMaxReplicationLag());
+    }
+
+    @Override
+    public synchronized void open() {
+        if (replicator != null) {
+            return;
+        }
+        log.reset(commitExecutor.getIndexOfLargestCommittedEntry());
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        replicate(executor);
+                    }
+                });
+        replicator = executor;
+    }
+
+    /**
+     * Replicates the given request and waits until slave applies it
+     *
+     * @param request request to be replicated
+     * @return replication response, whose result is the index of the latest entry applied on slave
+     */
+    @Override
+    public ReplicationResponse replicateInSync(ReplicationRequest request) {
+        Future<ReplicationResponse> future = replicateInAsync(request);
+        if (future == null) {
+            return new ReplicationResponse(
+                    ReplicationResponse.ReturnCode.FAILURE,
+                    new Exception("replicator not initialized"));
+        }
+
+        try {
+            return future.get(config.getMasterLeaseTimeoutInMillis(), TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+            logger.log(
+                    Level.WARNING,
+                    String.format("failed to replicate request %s: %s", request, e.getMessage()));
+            return new ReplicationResponse(ReplicationResponse.ReturnCode.FAILURE, e);
+        }
+    }
+
+    /**
+     * Appends the entries of the given request to the replication log. Waits if slave lags {@link
+     * Configuration#getMaxReplicationLag()} entries behind.
+     *
+     * @param request request to be replicated
+     * @return a promise of the replication response, completed once slave applies the entries
+     */
+    @Override
+    public Future<ReplicationResponse> replicateInAsync(ReplicationRequest request) {
+        if (replicator == null) {
+            logger.log(Level.WARNING, "replicator is not initialized");
+            return null;
+        }
+
+        try {
+            for (LogEntry entry : request.getEntries()) {
+                log.append(entry);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            logger.log(Level.WARNING, String.format("interrupted replicating %s", request));
+            return null;
+        }
+        return new Acknowledgement(log.getIndexOfLatestEntry());
+    }
+
+    /** @return index of the latest entry applied on slave, or -1 if unknown */
+    public synchronized long getIndexOfLargestReplicatedEntry() {
+        return indexOfLargestReplicatedEntry;
+    }
+
+    /** @return index of the latest entry appended to the replication log */
+    public long getIndexOfLatestEntry() {
+        return log.getIndexOfLatestEntry();
+    }
+
+    private void replicate(ExecutorService executor) {
+        ServerPolicy slave = null;
+        long nextIndex = -1;
+
+        while (!executor.isShutdown()) {
+            try {
+                if (slave == null) {
+                    slave = getSlave();
+                    if (slave == null) {
+                        log.setBlocking(false);
+                        Thread.sleep(config.getReplicationIntervalInMillis());
+                        continue;
+                    }
+                    // Writes committed before this server became master are not in the log
+                    log.skipTo(commitExecutor.getIndexOfLargestCommittedEntry());
+                    nextIndex = -1;
+                }
+
+                List<LogEntry> batch;
+                if (nextIndex < 0) {
+                    // Empty request to learn where slave is
+                    batch = new ArrayList<LogEntry>();
+                } else {
+                    batch =
+                            log.get(
+                                    nextIndex,
+                                    config.getMaxBatchSize(),
+                                    config.getReplicationIntervalInMillis());
+                }
+
+                if (batch == null) {
+                    logger.log(
+                            Level.INFO,
+                            "entry {0} is no longer in replication log, syncing App object",
+                            nextIndex);
+                    commitExecutor.syncObject(slave);
+                    nextIndex = -1;
+                    continue;
+                }
+
+                // A batch shorter than the maximum ends with the latest entry in the log
+                long latestIndex =
+                        batch.isEmpty() || batch.size() == config.getMaxBatchSize()
+                                ? log.getIndexOfLatestEntry()
+                                : batch.get(batch.size() - 1).getIndex();
+                long prevIndex = nextIndex < 0 ? Long.MAX_VALUE : nextIndex - 1;
+                ReplicationRequest request = new ReplicationRequest(prevIndex, batch, latestIndex);
+                ReplicationResponse response = slave.handleReplication(request);
+                if (response == null
+                        || response.getReturnCode() == ReplicationResponse.ReturnCode.FAILURE) {
+                    throw new Exception(String.valueOf(response));
+                }
+
+                // SUCCESS and TRACEBACK responses both carry the index of the latest entry on slave
+                long applied = (Long) response.getResult();
+                setReplicated(applied);
+                log.setBlocking(true);
+                log.release(applied);
+                nextIndex = applied + 1;
+            } catch (InterruptedException e) {
+                break;
+            } catch (Exception e) {
+                logger.log(
+                        Level.WARNING,
+                        String.format(
+                                "failed to replicate to slave %s: %s", slave, e.getMessage()));
+                slave = null;
+                log.setBlocking(false);
+                try {
+                    Thread.sleep(config.getReplicationIntervalInMillis());
+                } catch (InterruptedException ex) {
+                    break;
+                }
+            }
+        }
+    }
+
+    /** @return slave to replicate to, or <code>null</code> if this server is not master */
+    private ServerPolicy getSlave() throws Exception {
+        ServerPolicy master = group.getMaster();
+        if (master == null || !serverId.equals(master.getServerId())) {
+            return null;
+        }
+        ServerPolicy slave = group.getSlave();
+        if (slave == null || serverId.equals(slave.getServerId())) {
+            return null;
+        }
+        return slave;
+    }
+
+    private synchronized void setReplicated(long index) {
+        indexOfLargestReplicatedEntry = index;
+        notifyAll();
+    }
+
+    private synchronized boolean awaitReplicated(long index, long timeoutInMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutInMillis;
+        long remaining = timeoutInMillis;
+        while (indexOfLargestReplicatedEntry < index && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        return indexOfLargestReplicatedEntry >= index;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (replicator != null) {
+            log.close();
+            replicator.shutdownNow();
+            try {
+                if (!replicator.awaitTermination(
+                        config.getShutdownGracePeriodInMillis(), TimeUnit.MILLISECONDS)) {
+                    logger.log(
+                            Level.SEVERE,
+                            "replicator shut down time out after {0} milliseconds",
+                            config.getShutdownGracePeriodInMillis());
+                }
+            } catch (Exception e) {
+                logger.log(
+                        Level.SEVERE,
+                        String.format("got exception during replicator shut down: %s", e),
+                        e);
+            }
+            replicator = null;
+        }
+    }
+
+    @Override
+    protected void finalize() throws Throwable {
+        close();
+        super.finalize();
+    }
+
+    /** Promise of the replication of the entries up to an index */
+    private final class Acknowledgement implements Future<ReplicationResponse> {
+        private final long index;
+
+        Acknowledgement(long index) {
+            this.index = index;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return false;
+        }
+
+        @Override
+        public boolean isDone() {
+            return getIndexOfLargestReplicatedEntry() >= index;
+        }
+
+        @Override
+        public ReplicationResponse get() throws InterruptedException {
+            while (!awaitReplicated(index, config.getReplicationIntervalInMillis())) {
+                // keep waiting
+            }
+            return response();
+        }
+
+        @Override
+        public ReplicationResponse get(long timeout, TimeUnit unit)
+                throws InterruptedException, TimeoutException {
+            if (!awaitReplicated(index, unit.toMillis(timeout))) {
+                throw new TimeoutException(
+                        String.format("entry %s not replicated after %s %s", index, timeout, unit));
+            }
+            return response();
+        }
+
+        private ReplicationResponse response() {
+            return new ReplicationResponse(
+                    ReplicationResponse.ReturnCode.SUCCESS, getIndexOfLargestReplicatedEntry());
+        }
+    }
+}
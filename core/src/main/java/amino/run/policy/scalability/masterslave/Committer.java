@@ -46,7 +46,10 @@ public class Committer implements Closeable {
 
     /** Initializes Committer. */
     public void open() {
-        this.executor = Executors.newSingleThreadExecutor();
+        // Opened again when the server switches state, see State
+        if (executor == null || executor.isShutdown()) {
+            this.executor = Executors.newSingleThreadExecutor();
+        }
     }
 
     @Override
@@ -21,6 +21,28 @@ public class Configuration {
     /** */
     private long initDelayLimitInMillis = 200;
 
+    /** Maximum number of log entries shipped to slave in one replication request */
+    private int maxBatchSize = 128;
+
+    /**
+     * Maximum number of log entries master may be ahead of slave with asynchronous replication.
+     * Writes wait for slave once it lags this far behind. If slave is not reachable, older entries
+     * are dropped instead, and slave gets a copy of the App object once it is back.
+     */
+    private int maxReplicationLag = 1024;
+
+    /** Specifies the frequency of heartbeats and retries from master to slave when idle */
+    private long replicationIntervalInMillis = 50;
+
+    /**
+     * Specifies how long a slave serves reads after it last caught up with master. Older reads are
+     * redirected to master.
+     */
+    private long maxStalenessInMillis = 500;
+
+    /** Specifies how long the result of the last request of a client is kept for retries */
+    private long cachedResultTimeoutInMillis = 60000;
+
     public long getMasterLeaseTimeoutInMillis() {
         return masterLeaseTimeoutInMillis;
     }
@@ -37,6 +59,26 @@ public class Configuration {
         return random.nextLong() % initDelayLimitInMillis;
     }
 
+    public int getMaxBatchSize() {
+        return maxBatchSize;
+    }
+
+    public int getMaxReplicationLag() {
+        return maxReplicationLag;
+    }
+
+    public long getReplicationIntervalInMillis() {
+        return replicationIntervalInMillis;
+    }
+
+    public long getMaxStalenessInMillis() {
+        return maxStalenessInMillis;
+    }
+
+    public long getCachedResultTimeoutInMillis() {
+        return cachedResultTimeoutInMillis;
+    }
+
     public Configuration setMasterLeaseTimeoutInMillis(long masterLeaseTimeoutInMillis) {
         if (masterLeaseTimeoutInMillis <= 0) {
             throw new IllegalArgumentException(
@@ -81,4 +123,58 @@ public class Configuration {
         this.initDelayLimitInMillis = initDelayLimitInMillis;
         return this;
     }
+
+    public Configuration setMaxBatchSize(int maxBatchSize) {
+        if (maxBatchSize <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid maxBatchSize(%s)", maxBatchSize));
+        }
+
+        this.maxBatchSize = maxBatchSize;
+        return this;
+    }
+
+    public Configuration setMaxReplicationLag(int maxReplicationLag) {
+        if (maxReplicationLag <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid maxReplicationLag(%s)", maxReplicationLag));
+        }
+
+        this.maxReplicationLag = maxReplicationLag;
+        return this;
+    }
+
+    public Configuration setReplicationIntervalInMillis(long replicationIntervalInMillis) {
+        if (replicationIntervalInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "invalid replicationIntervalInMillis(%s)",
+                            replicationIntervalInMillis));
+        }
+
+        this.replicationIntervalInMillis = replicationIntervalInMillis;
+        return this;
+    }
+
+    public Configuration setMaxStalenessInMillis(long maxStalenessInMillis) {
+        if (maxStalenessInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("invalid maxStalenessInMillis(%s)", maxStalenessInMillis));
+        }
+
+        this.maxStalenessInMillis = maxStalenessInMillis;
+        return this;
+    }
+
+    public Configuration setCachedResultTimeoutInMillis(long cachedResultTimeoutInMillis) {
+        if (cachedResultTimeoutInMillis <= 0) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "invalid cachedResultTimeoutInMillis(%s)",
+                            cachedResultTimeoutInMillis));
+        }
+
+        this.cachedResultTimeoutInMillis = cachedResultTimeoutInMillis;
+        return this;
+    }
 }
@@ -6,12 +6,16 @@ package amino.run.policy.scalability.masterslave;
  * <p>Lock is a tuple of (clientId, lastUpdatedTimestamp) in which clientId the Id of the client who
  * owns the lock and lastUpdatedTimestamp is the timestamp when the lock was updated.
  *
+ * <p>Every time the lock is granted anew, i.e. to another client or after it expired, its epoch is
+ * incremented. Renewals keep the epoch.
+ *
  * @author terryz
  */
 public class Lock {
     private String clientId;
     private long lastUpdatedTimestamp;
     private final long lockTimeoutInMillis;
+    private long epoch;
 
     public Lock(String clientId, long lockTimeoutInMillis) {
         if (clientId == null || clientId.isEmpty()) {
@@ -26,12 +30,18 @@ public class Lock {
         this.clientId = clientId;
         this.lastUpdatedTimestamp = System.currentTimeMillis();
         this.lockTimeoutInMillis = lockTimeoutInMillis;
+        this.epoch = 1;
     }
 
     public synchronized String getClientId() {
         return clientId;
     }
 
+    /** @return the number of times the lock has been granted */
+    public synchronized long getEpoch() {
+        return epoch;
+    }
+
     public boolean isExpired() {
         long lockExpirationTime = lastUpdatedTimestamp + lockTimeoutInMillis;
         return System.currentTimeMillis() > lockExpirationTime;
@@ -78,6 +88,9 @@ public class Lock {
             return false;
         }
 
+        if (this.isExpired() || !clientId.equals(this.clientId)) {
+            epoch++;
+        }
         this.clientId = clientId;
         updateLastUpdatedTimestamp();
         return true;
@@ -89,6 +102,7 @@ public class Lock {
         sb.append("clientId='").append(clientId).append('\'');
         sb.append(", lastUpdatedTimestamp=").append(lastUpdatedTimestamp);
         sb.append(", lockTimeoutInMillis=").append(lockTimeoutInMillis);
+        sb.append(", epoch=").append(epoch);
         sb.append('}');
         return sb.toString();
     }
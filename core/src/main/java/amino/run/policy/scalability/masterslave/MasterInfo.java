@@ -0,0 +1,53 @@
+package amino.run.policy.scalability.masterslave;
+
+import amino.run.common.Notification;
+import amino.run.policy.scalability.LoadBalancedMasterSlaveBase;
+
+/**
+ * Identifies the master of a master/slave group, and the epoch of the master lock it holds. The
+ * group policy sends it to all replicas as a notification when a new master takes over, and
+ * replicas hand it to clients in {@link MethodInvocationResponse.ReturnCode#REDIRECT} responses, so
+ * that clients switch to the new master without asking the group policy.
+ *
+ * <p>Of two {@code MasterInfo}s, the one with the larger epoch is the more recent.
+ */
+public final class MasterInfo implements Notification {
+    private final long epoch;
+    private final String serverId;
+    private final LoadBalancedMasterSlaveBase.ServerPolicy master;
+
+    public MasterInfo(
+            long epoch, String serverId, LoadBalancedMasterSlaveBase.ServerPolicy master) {
+        this.epoch = epoch;
+        this.serverId = serverId;
+        this.master = master;
+    }
+
+    /** @return epoch of the master lock */
+    public long getEpoch() {
+        return epoch;
+    }
+
+    /** @return the Id of the master server */
+    public String getServerId() {
+        return serverId;
+    }
+
+    /** @return master server */
+    public LoadBalancedMasterSlaveBase.ServerPolicy getMaster() {
+        return master;
+    }
+
+    /**
+     * @param other another master info, may be <code>null</code>
+     * @return <code>true</code> if this master info is more recent than the given one
+     */
+    public boolean isNewerThan(MasterInfo other) {
+        return other == null || epoch > other.epoch;
+    }
+
+    @Override
+    public String toString() {
+        return "MasterInfo{" + "epoch=" + epoch + ", serverId='" + serverId + '\'' + '}';
+    }
+}
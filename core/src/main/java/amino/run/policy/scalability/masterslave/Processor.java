@@ -9,6 +9,7 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.io.Serializable;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
@@ -31,19 +32,39 @@ public class Processor implements Closeable {
     private final LoadBalancedMasterSlaveBase.GroupPolicy group;
     private final Committer commitExecutor;
     private final Replicator replicator;
+    private final boolean syncReplication;
     private volatile ExecutorService processor;
-    // TODO: retire map entries
     private final Map<String, CachedResult> cachedResults;
+    private volatile long lastRetireTimeInMillis = System.currentTimeMillis();
 
     public Processor(
             Configuration config,
             LoadBalancedMasterSlaveBase.GroupPolicy group,
             Committer commitExecutor,
             Replicator replicator) {
+        this(config, group, commitExecutor, replicator, true);
+    }
+
+    /**
+     * @param config configuration
+     * @param group group policy
+     * @param commitExecutor committer
+     * @param replicator replicator
+     * @param syncReplication <code>true</code> if writes are acknowledged after slave applied them;
+     *     <code>false</code> if writes are acknowledged after they are committed on master, and
+     *     replicated in the background
+     */
+    public Processor(
+            Configuration config,
+            LoadBalancedMasterSlaveBase.GroupPolicy group,
+            Committer commitExecutor,
+            Replicator replicator,
+            boolean syncReplication) {
         this.config = config;
         this.group = group;
         this.commitExecutor = commitExecutor;
         this.replicator = replicator;
+        this.syncReplication = syncReplication;
         this.cachedResults = new ConcurrentHashMap<String, CachedResult>();
     }
 
@@ -98,8 +119,43 @@ public class Processor implements Closeable {
             return null;
         }
 
+        retireCachedResults();
         return processor.submit(
-                new RequestProcessor(group, commitExecutor, replicator, request, cachedResults));
+                new RequestProcessor(
+                        group,
+                        commitExecutor,
+                        replicator,
+                        request,
+                        cachedResults,
+                        syncReplication));
+    }
+
+    /**
+     * Retires the cached results of clients which sent no request for {@link
+     * Configuration#getCachedResultTimeoutInMillis()} milliseconds. Cached results are retired on
+     * the processor thread, so that they are never retired while a request is processed. A request
+     * retried after the result is retired is processed again.
+     */
+    private void retireCachedResults() {
+        final long now = System.currentTimeMillis();
+        final long timeout = config.getCachedResultTimeoutInMillis();
+        if (now - lastRetireTimeInMillis < timeout) {
+            return;
+        }
+        lastRetireTimeInMillis = now;
+
+        processor.submit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        Iterator<CachedResult> it = cachedResults.values().iterator();
+                        while (it.hasNext()) {
+                            if (now - it.next().getLastAccessTimeInMillis() > timeout) {
+                                it.remove();
+                            }
+                        }
+                    }
+                });
     }
 
     private static class RequestProcessor implements Callable<MethodInvocationResponse> {
@@ -108,18 +164,21 @@ public class Processor implements Closeable {
         private Committer commitExecutor;
         private Replicator replicator;
         private Map<String, CachedResult> cachedResults;
+        private boolean syncReplication;
 
         public RequestProcessor(
                 LoadBalancedMasterSlaveBase.GroupPolicy group,
                 Committer commitExecutor,
                 Replicator replicator,
                 MethodInvocationRequest request,
-                Map<String, CachedResult> cachedResults) {
+                Map<String, CachedResult> cachedResults,
+                boolean syncReplication) {
             this.request = request;
             this.group = group;
             this.commitExecutor = commitExecutor;
             this.replicator = replicator;
             this.cachedResults = cachedResults;
+            this.syncReplication = syncReplication;
         }
 
         @Override
@@ -132,6 +191,7 @@ public class Processor implements Closeable {
                 cachedResults.put(request.getClientId(), new CachedResult());
             }
             CachedResult cachedResult = cachedResults.get(request.getClientId());
+            cachedResult.touch();
 
             if (request.getRequestId() < cachedResult.getRequestId()) {
                 String msg = String.format("forbidden to rerun old request %s", request);
@@ -151,9 +211,14 @@ public class Processor implements Closeable {
             ReplicationRequest replicationRequest =
                     new ReplicationRequest(largestCommittedIndex, Arrays.asList(entry));
 
-            ReplicationResponse rr = replicator.replicateInSync(replicationRequest);
-            if (rr != null && rr.getReturnCode() == ReplicationResponse.ReturnCode.TRACEBACK) {
-                commitExecutor.syncObject(group.getSlave());
+            if (syncReplication) {
+                ReplicationResponse rr = replicator.replicateInSync(replicationRequest);
+                if (rr != null
+                        && rr.getReturnCode() == ReplicationResponse.ReturnCode.TRACEBACK) {
+                    commitExecutor.syncObject(group.getSlave());
+                }
+            } else {
+                replicator.replicateInAsync(replicationRequest);
             }
 
             cachedResult.update(request.getClientId(), request.getRequestId(), response);
@@ -194,6 +259,7 @@ public class Processor implements Closeable {
         private volatile String clientId;
         private volatile long requestId = -1;
         private volatile MethodInvocationResponse invocationResponse;
+        private volatile long lastAccessTimeInMillis = System.currentTimeMillis();
 
         public void update(
                 String clientId, long requestId, MethodInvocationResponse invocationResponse) {
@@ -213,5 +279,13 @@ public class Processor implements Closeable {
         public MethodInvocationResponse getInvocationResponse() {
             return invocationResponse;
         }
+
+        public void touch() {
+            this.lastAccessTimeInMillis = System.currentTimeMillis();
+        }
+
+        public long getLastAccessTimeInMillis() {
+            return lastAccessTimeInMillis;
+        }
     }
 }
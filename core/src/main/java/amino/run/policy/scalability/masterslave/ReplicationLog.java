@@ -0,0 +1,184 @@
+package amino.run.policy.scalability.masterslave;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A bounded log of the entries committed on master but not yet applied on slave. Entries are kept
+ * in a ring buffer in the order they are appended, so that appends and batched reads do not
+ * allocate beyond the returned batch.
+ *
+ * <p>Entry indices never decrease. An index may repeat if the write of the previous entry failed
+ * on the App object, in which case {@link Committer} does not mark it committed and the next entry
+ * takes the same index. Both entries are kept, so that slave replays the failed write too.
+ *
+ * <p>The log holds up to {@code capacity} entries. When it is full, {@link #append(LogEntry)}
+ * either waits for entries to be released with {@link #release(long)}, or drops the oldest entry
+ * if the log does not block. Entries that were dropped can no longer be replicated, which {@link
+ * #get(long, int, long)} reports with <code>null</code>.
+ */
+public class ReplicationLog {
+    private final LogEntry[] entries;
+
+    /** Position of the oldest entry in {@link #entries} */
+    private int head;
+
+    /** Number of entries in the log */
+    private int size;
+
+    /** Index of the latest entry appended to the log, or the initial index if none was */
+    private long indexOfLatestEntry;
+
+    /** Whether appends wait for free space rather than drop the oldest entry */
+    private boolean blocking = true;
+
+    private boolean closed;
+
+    public ReplicationLog(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException(String.format("invalid capacity(%s)", capacity));
+        }
+        this.entries = new LogEntry[capacity];
+    }
+
+    /**
+     * Clears the log and reopens it
+     *
+     * @param indexOfLatestEntry index of the latest entry committed before the log is used
+     */
+    public synchronized void reset(long indexOfLatestEntry) {
+        for (int i = 0; i < size; i++) {
+            entries[(head + i) % entries.length] = null;
+        }
+        head = 0;
+        size = 0;
+        this.indexOfLatestEntry = indexOfLatestEntry;
+        closed = false;
+        notifyAll();
+    }
+
+    /**
+     * Moves the log forward to the given index, if it is behind. Entries in the log are dropped in
+     * that case.
+     *
+     * @param index index of the latest entry committed
+     */
+    public synchronized void skipTo(long index) {
+        if (index > indexOfLatestEntry) {
+            reset(index);
+        }
+    }
+
+    /**
+     * Appends the given entry to the log
+     *
+     * @param entry log entry. Its index must not be less than the index of the latest entry.
+     * @throws InterruptedException if interrupted while waiting for free space
+     */
+    public synchronized void append(LogEntry entry) throws InterruptedException {
+        if (entry.getIndex() < indexOfLatestEntry) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "forbidden to append entry %s after entry %s",
+                            entry.getIndex(), indexOfLatestEntry));
+        }
+
+        while (size == entries.length && blocking && !closed) {
+            wait();
+        }
+
+        if (size == entries.length) {
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+            size--;
+        }
+
+        entries[(head + size) % entries.length] = entry;
+        size++;
+        indexOfLatestEntry = entry.getIndex();
+        notifyAll();
+    }
+
+    /**
+     * Returns the entries starting at the given index. Waits up to the given timeout if there is no
+     * such entry yet.
+     *
+     * @param fromIndex index of the first entry to return
+     * @param maxEntries maximum number of entries to return
+     * @param timeoutInMillis maximum time to wait for entries
+     * @return entries in index order; an empty list if there is no entry from the given index
+     *     after the timeout; or <code>null</code> if the entry at the given index is no longer in
+     *     the log
+     * @throws InterruptedException if interrupted while waiting for entries
+     */
+    public synchronized List<LogEntry> get(long fromIndex, int maxEntries, long timeoutInMillis)
+            throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutInMillis;
+        long remaining = timeoutInMillis;
+        while (fromIndex > indexOfLatestEntry && remaining > 0 && !closed) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+
+        List<LogEntry> batch = new ArrayList<LogEntry>();
+        if (fromIndex > indexOfLatestEntry) {
+            return batch;
+        }
+
+        if (size == 0 || entries[head].getIndex() > fromIndex) {
+            return null;
+        }
+
+        for (int i = 0; i < size && batch.size() < maxEntries; i++) {
+            LogEntry entry = entries[(head + i) % entries.length];
+            if (entry.getIndex() >= fromIndex) {
+                batch.add(entry);
+            }
+        }
+        return batch;
+    }
+
+    /**
+     * Releases the entries up to the given index, e.g. after slave applied them
+     *
+     * @param index index of the latest entry to release
+     */
+    public synchronized void release(long index) {
+        int released = 0;
+        while (size > 0 && entries[head].getIndex() <= index) {
+            entries[head] = null;
+            head = (head + 1) % entries.length;
+            size--;
+            released++;
+        }
+        if (released > 0) {
+            notifyAll();
+        }
+    }
+
+    /**
+     * Sets whether appends to a full log wait for entries to be released, or drop the oldest entry
+     *
+     * @param blocking <code>true</code> if appends wait; <code>false</code> otherwise
+     */
+    public synchronized void setBlocking(boolean blocking) {
+        this.blocking = blocking;
+        notifyAll();
+    }
+
+    /** Wakes up all waiting threads. Appends no longer wait after the log is closed. */
+    public synchronized void close() {
+        closed = true;
+        notifyAll();
+    }
+
+    /** @return index of the latest entry appended to the log */
+    public synchronized long getIndexOfLatestEntry() {
+        return indexOfLatestEntry;
+    }
+
+    /** @return number of entries in the log */
+    public synchronized int size() {
+        return size;
+    }
+}
@@ -11,10 +11,27 @@ import java.util.List;
 public class ReplicationRequest implements Serializable {
     private final long indexOfLargestCommittedEntry;
     private final List<LogEntry> entries;
+    private final long indexOfLatestEntry;
 
     public ReplicationRequest(long indexOfLargestCommittedEntry, List<LogEntry> entries) {
+        this(
+                indexOfLargestCommittedEntry,
+                entries,
+                entries == null || entries.isEmpty()
+                        ? indexOfLargestCommittedEntry
+                        : entries.get(entries.size() - 1).getIndex());
+    }
+
+    /**
+     * @param indexOfLargestCommittedEntry index of the entry preceding the given entries
+     * @param entries log entries
+     * @param indexOfLatestEntry index of the latest entry on master when the request is sent
+     */
+    public ReplicationRequest(
+            long indexOfLargestCommittedEntry, List<LogEntry> entries, long indexOfLatestEntry) {
         this.indexOfLargestCommittedEntry = indexOfLargestCommittedEntry;
         this.entries = entries;
+        this.indexOfLatestEntry = indexOfLatestEntry;
     }
 
     /** @return log entries */
@@ -27,11 +44,20 @@ public class ReplicationRequest implements Serializable {
         return this.indexOfLargestCommittedEntry;
     }
 
+    /**
+     * @return index of the latest entry on master when the request was sent. Slave is up to date
+     *     with master once it has applied this entry.
+     */
+    public long getIndexOfLatestEntry() {
+        return this.indexOfLatestEntry;
+    }
+
     @Override
     public String toString() {
         final StringBuilder sb = new StringBuilder("ReplicationRequest{");
         sb.append("indexOfLargestCommittedEntry=").append(indexOfLargestCommittedEntry);
         sb.append(", entries=").append(entries);
+        sb.append(", indexOfLatestEntry=").append(indexOfLatestEntry);
         sb.append('}');
         return sb.toString();
     }
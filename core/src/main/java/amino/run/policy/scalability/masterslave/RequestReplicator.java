@@ -30,7 +30,10 @@ public class RequestReplicator implements Replicator, Closeable {
 
     @Override
     public void open() {
-        this.replicator = Executors.newSingleThreadScheduledExecutor();
+        // Opened again when the server switches state, see State
+        if (replicator == null || replicator.isShutdown()) {
+            this.replicator = Executors.newSingleThreadScheduledExecutor();
+        }
     }
 
     @Override
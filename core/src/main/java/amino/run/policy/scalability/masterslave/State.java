@@ -89,7 +89,6 @@ public interface State {
         private static final Logger logger = Logger.getLogger(Master.class.getName());
         private final Committer commitExecutor;
         private Replicator replicator;
-        private static Master instance;
 
         private Master(Context context) {
             super(StateName.MASTER);
@@ -97,11 +96,15 @@ public interface State {
             this.replicator = context.getReplicator();
         }
 
-        public static synchronized Master getInstance(Context context) {
-            if (instance == null) {
-                instance = new Master(context);
-            }
-            return instance;
+        /**
+         * Every server has its own state, which acts on the server's own committer, so states are
+         * not shared among the servers in one kernel server.
+         *
+         * @param context context of the server
+         * @return a new master state for the server
+         */
+        public static Master getInstance(Context context) {
+            return new Master(context);
         }
 
         @Override
@@ -164,18 +167,21 @@ public interface State {
     final class Slave extends AbstractState {
         private static final Logger logger = Logger.getLogger(Slave.class.getName());
         private final Committer commitExecutor;
-        private static Slave instance;
 
         private Slave(Context context) {
             super(StateName.SLAVE);
             this.commitExecutor = context.getCommitExecutor();
         }
 
-        public static synchronized Slave getInstance(Context context) {
-            if (instance == null) {
-                instance = new Slave(context);
-            }
-            return instance;
+        /**
+         * Every server has its own state, which acts on the server's own committer, so states are
+         * not shared among the servers in one kernel server.
+         *
+         * @param context context of the server
+         * @return a new slave state for the server
+         */
+        public static Slave getInstance(Context context) {
+            return new Slave(context);
         }
 
         @Override
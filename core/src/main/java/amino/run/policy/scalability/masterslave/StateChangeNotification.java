@@ -0,0 +1,35 @@
+package amino.run.policy.scalability.masterslave;
+
+import amino.run.common.Notification;
+
+/** Sent by {@link StateManager} to the group policy when its server switches state. */
+public final class StateChangeNotification implements Notification {
+    private final String serverId;
+    private final State.StateName state;
+
+    public StateChangeNotification(String serverId, State.StateName state) {
+        this.serverId = serverId;
+        this.state = state;
+    }
+
+    /** @return the Id of the server */
+    public String getServerId() {
+        return serverId;
+    }
+
+    /** @return the new state of the server */
+    public State.StateName getState() {
+        return state;
+    }
+
+    @Override
+    public String toString() {
+        return "StateChangeNotification{"
+                + "serverId='"
+                + serverId
+                + '\''
+                + ", state="
+                + state
+                + '}';
+    }
+}
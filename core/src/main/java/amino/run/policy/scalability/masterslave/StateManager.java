@@ -143,6 +143,24 @@ public final class StateManager {
         }
 
         currentState = nextState;
+        notifyGroup(nextState);
+    }
+
+    /**
+     * Notifies the group policy of the new state of the server, so that it can tell other replicas
+     * about a new master.
+     *
+     * @param state the new state
+     */
+    private void notifyGroup(State state) {
+        try {
+            group.onNotification(new StateChangeNotification(serverId, state.getName()));
+        } catch (Throwable e) {
+            logger.log(
+                    Level.WARNING,
+                    "failed to notify group of state {0}: {1}",
+                    new Object[] {state, e});
+        }
     }
 
     public final synchronized State getCurrentState() {
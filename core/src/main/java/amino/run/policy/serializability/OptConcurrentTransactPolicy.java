@@ -1,12 +1,10 @@
 package amino.run.policy.serializability;
 
 import amino.run.common.AppObject;
+import amino.run.common.ObjectSerializer;
 import amino.run.policy.DefaultPolicy;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
@@ -21,24 +19,11 @@ import java.util.ArrayList;
 public class OptConcurrentTransactPolicy extends DefaultPolicy {
 
     private static byte[] calculateMessageDigest(Object appObject) throws TransactionException {
-        ObjectOutputStream oos = null;
         byte[] digest = null;
         try {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            DigestOutputStream dos = new DigestOutputStream(baos, MessageDigest.getInstance("MD5"));
-            oos = new ObjectOutputStream(dos);
-            oos.writeObject(appObject);
-            digest = dos.getMessageDigest().digest();
+            digest = ObjectSerializer.digest(appObject, MessageDigest.getInstance("MD5"));
         } catch (NoSuchAlgorithmException e) {
         } catch (IOException e) {
-        } finally {
-            if (null != oos) {
-                try {
-                    oos.close();
-                } catch (IOException e) {
-
-                }
-            }
         }
 
         if (null == digest) {
@@ -1,19 +1,62 @@
 package amino.run.policy.transaction;
 
 import amino.run.common.AppObject;
+import amino.run.common.StructuralCloner;
 import amino.run.common.Utils;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
 import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import java.util.ArrayList;
 
-/** server policy that directly works on the deep-cloned copy of an AppObject */
+/**
+ * server policy that directly works on the deep-cloned copy of an AppObject. A copy-on-write
+ * shim, created with {@link #copyOnWriteShimServerPolicy}, defers the copy until the first call
+ * which may modify the app object: methods annotated {@link
+ * amino.run.runtime.annotations.Immutable} are invoked on the origin app object until then, so
+ * that read only transactions never copy it.
+ */
 public class AppObjectShimServerPolicy extends DefaultPolicy.DefaultServerPolicy {
     private AppObject originMaster;
+    /** Whether {@link #appObject} is yet to be copied from the origin */
+    private boolean copyPending;
 
     public MethodInvocationResponse onRPC(MethodInvocationRequest request) {
         throw new UnsupportedOperationException("onRPC not supported in AppObjectShimServerPolicy");
     }
 
+    @Override
+    public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+        if (isCopyPending() && Utils.isImmutableMethod(originMaster, method)) {
+            return originMaster.invoke(method, params);
+        }
+        ensureCopied();
+        return super.onRPC(method, params);
+    }
+
+    /**
+     * gets the sandboxed app object, copying it from the origin first if it has not been yet
+     *
+     * @return the sandboxed app object
+     */
+    @Override
+    public AppObject getAppObject() {
+        try {
+            ensureCopied();
+        } catch (Exception e) {
+            throw new IllegalStateException("Failed to copy app object into sandbox", e);
+        }
+        return appObject;
+    }
+
+    /**
+     * gets the app object holding the state of the transaction, to make durable on commit
+     *
+     * @return the sandboxed app object if it was copied, the origin app object otherwise
+     */
+    public synchronized AppObject getResultAppObject() {
+        return copyPending ? originMaster : appObject;
+    }
+
     /**
      * gets the origin app object
      *
@@ -23,9 +66,21 @@ public class AppObjectShimServerPolicy extends DefaultPolicy.DefaultServerPolicy
         return originMaster;
     }
 
+    private synchronized boolean isCopyPending() {
+        return copyPending;
+    }
+
+    private synchronized void ensureCopied() throws Exception {
+        if (copyPending) {
+            appObject = StructuralCloner.deepCopy(originMaster);
+            copyPending = false;
+        }
+    }
+
     private AppObjectShimServerPolicy(AppObject origin, AppObject sandbox) {
         this.originMaster = origin;
         this.appObject = sandbox;
+        this.copyPending = sandbox == null;
     }
 
     /**
@@ -35,7 +90,17 @@ public class AppObjectShimServerPolicy extends DefaultPolicy.DefaultServerPolicy
      */
     public static AppObjectShimServerPolicy cloneInShimServerPolicy(AppObject appObject)
             throws Exception {
-        AppObject deepCloneAppObject = (AppObject) Utils.ObjectCloner.deepCopy(appObject);
+        AppObject deepCloneAppObject = StructuralCloner.deepCopy(appObject);
         return new AppObjectShimServerPolicy(appObject, deepCloneAppObject);
     }
+
+    /**
+     * creates server policy which copies the input app object on the first call which may modify
+     * it
+     *
+     * @param appObject the origin app object
+     */
+    public static AppObjectShimServerPolicy copyOnWriteShimServerPolicy(AppObject appObject) {
+        return new AppObjectShimServerPolicy(appObject, null);
+    }
 }
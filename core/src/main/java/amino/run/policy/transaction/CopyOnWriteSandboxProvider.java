@@ -0,0 +1,42 @@
+package amino.run.policy.transaction;
+
+import static amino.run.policy.Library.ServerPolicyLibrary;
+import static amino.run.policy.Upcalls.ServerUpcalls;
+
+import java.io.Serializable;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * sandbox provider that manages sandboxes copying the enclosed app object on the first call which
+ * may modify it, so that creating a sandbox does not depend on the size of the app object and read
+ * only transactions do not copy it at all. Until then, reads see changes made to the app object
+ * outside of transactions, see {@link SandboxConfig}.
+ */
+public class CopyOnWriteSandboxProvider implements SandboxProvider, Serializable {
+    private ConcurrentHashMap<UUID, AppObjectShimServerPolicy> sandboxes =
+            new ConcurrentHashMap<UUID, AppObjectShimServerPolicy>();
+
+    @Override
+    public ServerUpcalls getSandbox(ServerPolicyLibrary origin, UUID transactionId) {
+        AppObjectShimServerPolicy sandbox = this.sandboxes.get(transactionId);
+        if (sandbox == null) {
+            sandbox = AppObjectShimServerPolicy.copyOnWriteShimServerPolicy(origin.getAppObject());
+            AppObjectShimServerPolicy existing = this.sandboxes.putIfAbsent(transactionId, sandbox);
+            if (existing != null) {
+                sandbox = existing;
+            }
+        }
+        return sandbox;
+    }
+
+    @Override
+    public ServerUpcalls getSandbox(UUID transactionId) {
+        return this.sandboxes.get(transactionId);
+    }
+
+    @Override
+    public void removeSandbox(UUID transactionId) {
+        this.sandboxes.remove(transactionId);
+    }
+}
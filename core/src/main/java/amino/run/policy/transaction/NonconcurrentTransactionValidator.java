@@ -60,7 +60,7 @@ public class NonconcurrentTransactionValidator implements TransactionValidator,
         }
 
         synchronized (this) {
-            this.master = sandbox.getAppObject();
+            this.master = sandbox.getResultAppObject();
             this.promised.remove(transactionId);
         }
     }
@@ -0,0 +1,55 @@
+package amino.run.policy.transaction;
+
+import amino.run.policy.Upcalls;
+import java.util.Objects;
+
+/**
+ * Configuration of the transaction sandboxes of {@link TwoPCCohortPolicy} and {@link
+ * TwoPCCoordinatorPolicy}.
+ *
+ * <p>By default a sandbox is a copy of the app object taken when the transaction first reaches the
+ * server, so the transaction sees the app object as it was at that moment. With {@code
+ * copyOnWrite}, the copy is taken on the first call of the transaction not annotated {@link
+ * amino.run.runtime.annotations.Immutable}, and calls before it read the app object itself.
+ * Commits of other transactions do not change that app object, they replace it, and the
+ * transaction is then refused at the vote as before. Calls made outside of any transaction do
+ * change it though, and reads before the copy, as well as the copy, see their effects. Use {@code
+ * copyOnWrite} only if calls outside of transactions do not modify the microservice, or if reading
+ * their effects is acceptable.
+ */
+public class SandboxConfig implements Upcalls.PolicyConfig {
+    /** Whether sandboxes copy the app object on the first call which may modify it */
+    private boolean copyOnWrite = false;
+
+    public boolean isCopyOnWrite() {
+        return copyOnWrite;
+    }
+
+    public void setCopyOnWrite(boolean copyOnWrite) {
+        this.copyOnWrite = copyOnWrite;
+    }
+
+    /**
+     * @param config sandbox configuration of the microservice, or null if not configured
+     * @return new sandbox provider as configured
+     */
+    static SandboxProvider newSandboxProvider(SandboxConfig config) {
+        if (config != null && config.isCopyOnWrite()) {
+            return new CopyOnWriteSandboxProvider();
+        }
+        return new AppObjectSandboxProvider();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        SandboxConfig config = (SandboxConfig) o;
+        return copyOnWrite == config.copyOnWrite;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(copyOnWrite);
+    }
+}
@@ -34,7 +34,7 @@ public class TwoPCCohortPolicy extends DefaultPolicy {
 
     /** distributed transaction default server policy */
     public static class TwoPCCohortServerPolicy extends DefaultServerPolicy {
-        protected final SandboxProvider sandboxProvider = new AppObjectSandboxProvider();
+        protected SandboxProvider sandboxProvider = new AppObjectSandboxProvider();
         protected TransactionManager transactionManager;
 
         private static final Logger logger =
@@ -43,6 +43,9 @@ public class TwoPCCohortPolicy extends DefaultPolicy {
         @Override
         public void onCreate(GroupPolicy group) {
             super.onCreate(group);
+            this.sandboxProvider =
+                    SandboxConfig.newSandboxProvider(
+                            (SandboxConfig) getPolicyConfig(SandboxConfig.class.getName()));
             TransactionValidator validator =
                     new NonconcurrentTransactionValidator(
                             this.getAppObject(), this.sandboxProvider);
@@ -104,7 +107,7 @@ public class TwoPCCohortPolicy extends DefaultPolicy {
          */
         private void makeUpdateDurable(ServerUpcalls sandbox) {
             AppObjectShimServerPolicy shimServerPolicy = (AppObjectShimServerPolicy) sandbox;
-            this.appObject = shimServerPolicy.getAppObject();
+            this.appObject = shimServerPolicy.getResultAppObject();
         }
     }
 
@@ -12,11 +12,14 @@ public class TwoPCCoordinatorPolicy extends DefaultPolicy {
     /** distributed transaction coordinator server policy */
     public static class TwoPCCoordinatorServerPolicy extends DefaultServerPolicy {
         private transient TwoPCCoordinator coordinator;
-        private final transient SandboxProvider sandboxProvider = new AppObjectSandboxProvider();
+        private transient SandboxProvider sandboxProvider = new AppObjectSandboxProvider();
 
         @Override
         public void onCreate(GroupPolicy group) {
             super.onCreate(group);
+            this.sandboxProvider =
+                    SandboxConfig.newSandboxProvider(
+                            (SandboxConfig) getPolicyConfig(SandboxConfig.class.getName()));
             NonconcurrentTransactionValidator validator =
                     new NonconcurrentTransactionValidator(
                             this.getAppObject(), this.sandboxProvider);
@@ -56,7 +59,7 @@ public class TwoPCCoordinatorPolicy extends DefaultPolicy {
 
         private void makeUpdateDurable(ServerUpcalls sandbox) {
             AppObjectShimServerPolicy shimServerPolicy = (AppObjectShimServerPolicy) sandbox;
-            this.appObject = shimServerPolicy.getAppObject();
+            this.appObject = shimServerPolicy.getResultAppObject();
         }
     }
 
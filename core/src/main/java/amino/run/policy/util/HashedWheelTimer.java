@@ -0,0 +1,251 @@
+package amino.run.policy.util;
+
+import java.util.ArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timer for large numbers of one-shot timeouts which are frequently cancelled and rescheduled,
+ * e.g. heartbeat and election timeouts. Timeouts are kept in a wheel of buckets which a single
+ * thread advances every tick, so that scheduling and cancelling a timeout take constant time and
+ * do not create or tear down threads. Expired tasks run on a small pool of worker threads, so that
+ * a slow task does not delay other timeouts unless all workers are busy.
+ *
+ * <p>Timeouts expire at the granularity of a tick, i.e. up to one tick late.
+ */
+public class HashedWheelTimer {
+    private static final Logger logger = Logger.getLogger(HashedWheelTimer.class.getName());
+    public static final long DEFAULT_TICK_MS = 10;
+    public static final int DEFAULT_WHEEL_SIZE = 512;
+    /** Worker threads of a timer. Expired tasks wait in a queue while all of them are busy. */
+    private static final int WORKER_THREADS =
+            Math.max(4, Runtime.getRuntime().availableProcessors());
+
+    private static final HashedWheelTimer sharedTimer =
+            new HashedWheelTimer("SharedTimer", DEFAULT_TICK_MS, DEFAULT_WHEEL_SIZE);
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final long startTime;
+    private final Thread ticker;
+    private final ThreadPoolExecutor workers;
+    /** Next tick to be processed. Guarded by {@link #wheel}. */
+    private long tick;
+    /** Number of scheduled timeouts. Guarded by {@link #wheel}. */
+    private int pending;
+
+    private volatile boolean stopped;
+
+    /**
+     * Creates and starts a timer.
+     *
+     * @param name name prefix of the timer threads
+     * @param tickMs duration of a tick in milliseconds
+     * @param wheelSize number of buckets in the wheel, rounded up to a power of two
+     */
+    public HashedWheelTimer(final String name, long tickMs, int wheelSize) {
+        if (tickMs <= 0 || wheelSize <= 0) {
+            throw new IllegalArgumentException(
+                    String.format("Invalid tick %d ms or wheel size %d", tickMs, wheelSize));
+        }
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMs);
+        mask = size - 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+
+        final AtomicInteger workerCount = new AtomicInteger();
+        workers =
+                new ThreadPoolExecutor(
+                        WORKER_THREADS,
+                        WORKER_THREADS,
+                        60,
+                        TimeUnit.SECONDS,
+                        new LinkedBlockingQueue<Runnable>(),
+                        new ThreadFactory() {
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread t =
+                                        new Thread(r, name + "-" + workerCount.incrementAndGet());
+                                t.setDaemon(true);
+                                return t;
+                            }
+                        });
+        workers.allowCoreThreadTimeOut(true);
+
+        startTime = System.nanoTime();
+        ticker =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                runTicker();
+                            }
+                        },
+                        name + "-Ticker");
+        ticker.setDaemon(true);
+        ticker.start();
+    }
+
+    /** @return timer shared by all users in this process */
+    public static HashedWheelTimer getSharedTimer() {
+        return sharedTimer;
+    }
+
+    /**
+     * Schedules a task to run once after the given delay.
+     *
+     * @param task task to run
+     * @param delayMs delay in milliseconds
+     * @return handle to cancel the timeout
+     */
+    public Timeout schedule(Runnable task, long delayMs) {
+        if (stopped) {
+            throw new IllegalStateException("Timer is stopped");
+        }
+        Timeout timeout = new Timeout(this, task);
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(0, delayMs));
+        /* Round up, a timeout must never expire early */
+        long deadlineTick = (deadline - startTime + tickNanos - 1) / tickNanos;
+        synchronized (wheel) {
+            timeout.deadlineTick = Math.max(deadlineTick, tick);
+            wheel[(int) (timeout.deadlineTick & mask)].add(timeout);
+            pending++;
+        }
+        return timeout;
+    }
+
+    /** @return number of scheduled timeouts which have neither expired nor been cancelled */
+    public int getPendingCount() {
+        synchronized (wheel) {
+            return pending;
+        }
+    }
+
+    /** Stops the timer. Scheduled timeouts do not expire anymore. */
+    public void stop() {
+        stopped = true;
+        ticker.interrupt();
+        workers.shutdown();
+    }
+
+    private boolean cancel(Timeout timeout) {
+        synchronized (wheel) {
+            if (timeout.bucket == null) {
+                return false;
+            }
+            timeout.bucket.remove(timeout);
+            pending--;
+            return true;
+        }
+    }
+
+    private void runTicker() {
+        ArrayList<Timeout> expired = new ArrayList<Timeout>();
+        long nextTick = 0;
+        while (!stopped) {
+            long sleepNanos = startTime + nextTick * tickNanos - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleepNanos);
+                } catch (InterruptedException e) {
+                    continue;
+                }
+            }
+
+            synchronized (wheel) {
+                Bucket bucket = wheel[(int) (tick & mask)];
+                Timeout timeout = bucket.head;
+                while (timeout != null) {
+                    Timeout next = timeout.next;
+                    if (timeout.deadlineTick <= tick) {
+                        bucket.remove(timeout);
+                        pending--;
+                        expired.add(timeout);
+                    }
+                    timeout = next;
+                }
+                tick++;
+                nextTick = tick;
+            }
+
+            for (Timeout timeout : expired) {
+                try {
+                    workers.execute(timeout.task);
+                } catch (RuntimeException e) {
+                    logger.log(Level.WARNING, "Failed to run expired timer task", e);
+                }
+            }
+            expired.clear();
+        }
+    }
+
+    /** Handle to a scheduled task. */
+    public static class Timeout {
+        private final HashedWheelTimer timer;
+        private final Runnable task;
+        /* Fields below are guarded by the wheel of the timer */
+        private long deadlineTick;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(HashedWheelTimer timer, Runnable task) {
+            this.timer = timer;
+            this.task = task;
+        }
+
+        /**
+         * Cancels the timeout.
+         *
+         * @return false if the timeout has already expired or been cancelled
+         */
+        public boolean cancel() {
+            return timer.cancel(this);
+        }
+    }
+
+    /** Doubly linked list of the timeouts of one wheel slot. Guarded by the wheel. */
+    private static class Bucket {
+        private Timeout head;
+        private Timeout tail;
+
+        void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+    }
+}
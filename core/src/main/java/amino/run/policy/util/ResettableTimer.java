@@ -1,14 +1,17 @@
 package amino.run.policy.util;
 
-import java.util.Timer;
 import java.util.TimerTask;
 
-/** Easier to manage timer, as utils.Timer is dumbish */
+/**
+ * Easier to manage timer, as utils.Timer is dumbish. Timers are scheduled on a {@link
+ * HashedWheelTimer}, by default the one shared by the whole process, so that starting, resetting
+ * and cancelling a timer does not create or tear down threads.
+ */
 public class ResettableTimer {
-    private TimerTask templateTask; // We need to create a new instance each time.
-    private TimerTask task;
-    private long delay;
-    private Timer timer; // Delegate to the dumb timer.
+    private final long delay;
+    private final HashedWheelTimer timer;
+    private final Runnable task;
+    private HashedWheelTimer.Timeout timeout; // Guarded by this
 
     /**
      * Constructor - does not actually start the timer. Call start() for that.
@@ -17,39 +20,46 @@ public class ResettableTimer {
      * @param delay How long to wait after start before running it.
      */
     public ResettableTimer(TimerTask templateTask, long delay) {
-        this.delay = delay;
-        this.templateTask = templateTask;
-        this.task = null;
+        this(templateTask, delay, HashedWheelTimer.getSharedTimer());
     }
 
-    /** Start the timer. */
-    public void start() {
-        // this.cancel();
-        this.timer = new Timer();
+    /**
+     * Constructor - does not actually start the timer. Call start() for that.
+     *
+     * @param templateTask What to run
+     * @param delay How long to wait after start before running it.
+     * @param timer Timer to schedule on
+     */
+    public ResettableTimer(final TimerTask templateTask, long delay, HashedWheelTimer timer) {
+        this.delay = delay;
+        this.timer = timer;
         this.task =
-                new TimerTask() {
+                new Runnable() {
+                    @Override
                     public void run() {
                         templateTask.run();
                     }
                 };
-        timer.schedule(task, delay);
+    }
+
+    /** Start the timer. A timer which is already running is restarted. */
+    public synchronized void start() {
+        if (timeout != null) {
+            timeout.cancel();
+        }
+        timeout = timer.schedule(task, delay);
     }
 
     /** Reset the timer. */
     public void reset() {
-        this.cancel();
-        this.start();
+        start();
     }
 
     /** Cancel the timer until run again. */
-    public void cancel() {
-        if (this.timer != null) {
-            this.timer.cancel();
-            this.timer.purge();
-        }
-        if (this.task != null) {
-            this.task.cancel();
-            this.task = null;
+    public synchronized void cancel() {
+        if (timeout != null) {
+            timeout.cancel();
+            timeout = null;
         }
     }
 }
@@ -0,0 +1,210 @@
+package amino.run.policy.util.consensus.raft;
+
+import amino.run.common.Utils;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.logging.Logger;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file holding consecutive RAFT log entries, starting at {@link #firstIndex}. Every
+ * entry is stored as a record of its length, the CRC32 of its contents and the serialized {@link
+ * LogEntry}. Records are appended through a file channel, and read back through a read-only memory
+ * mapping of the file, e.g. to ship old entries to lagging followers.
+ *
+ * <p>When a segment is opened, records are verified, and the file is truncated at the first
+ * incomplete or corrupt record, which is what a crash in the middle of an append leaves behind.
+ *
+ * <p>Not thread-safe. {@link RaftLog} serializes access to its segments.
+ */
+class LogSegment {
+    private static final Logger logger = Logger.getLogger(LogSegment.class.getName());
+    static final String SUFFIX = ".log";
+    /** Length and CRC32 of a record */
+    private static final int HEADER_SIZE = 8;
+
+    final int firstIndex;
+    final File file;
+    private final RandomAccessFile raf;
+    private final FileChannel channel;
+    /** File offset of every entry in the segment */
+    private int[] offsets = new int[64];
+    private int count;
+    /** Offset at which the next record is written */
+    private int length;
+    /** Read-only mapping of the file, remapped when reading records beyond it */
+    private MappedByteBuffer mapped;
+
+    private LogSegment(File file, int firstIndex) throws IOException {
+        this.file = file;
+        this.firstIndex = firstIndex;
+        this.raf = new RandomAccessFile(file, "rw");
+        this.channel = raf.getChannel();
+    }
+
+    /** Creates a new, empty segment whose first entry has the given log index. */
+    static LogSegment create(File directory, int firstIndex) throws IOException {
+        File file = new File(directory, fileName(firstIndex));
+        LogSegment segment = new LogSegment(file, firstIndex);
+        segment.channel.truncate(0);
+        return segment;
+    }
+
+    /** Opens an existing segment, dropping any incomplete or corrupt records at its end. */
+    static LogSegment open(File file) throws IOException {
+        LogSegment segment = new LogSegment(file, firstIndex(file));
+        segment.recover();
+        return segment;
+    }
+
+    static boolean isSegment(File file) {
+        return file.getName().endsWith(SUFFIX);
+    }
+
+    static String fileName(int firstIndex) {
+        /* Zero padded, so that segments sort by name in log order */
+        return String.format("%010d%s", firstIndex, SUFFIX);
+    }
+
+    static int firstIndex(File file) {
+        String name = file.getName();
+        return Integer.parseInt(name.substring(0, name.length() - SUFFIX.length()));
+    }
+
+    /** @return number of entries in the segment */
+    int size() {
+        return count;
+    }
+
+    /** @return log index of the last entry in the segment, or firstIndex - 1 if it is empty */
+    int lastIndex() {
+        return firstIndex + count - 1;
+    }
+
+    /** @return size of the segment file in bytes */
+    long bytes() {
+        return length;
+    }
+
+    /** Appends an entry to the end of the segment. The entry is durable after {@link #force()}. */
+    void append(LogEntry entry) throws IOException {
+        byte[] payload = Utils.toBytes(entry);
+        ByteBuffer record = ByteBuffer.allocate(HEADER_SIZE + payload.length);
+        record.putInt(payload.length);
+        record.putInt(crc(payload, 0, payload.length));
+        record.put(payload);
+        record.flip();
+        while (record.hasRemaining()) {
+            channel.write(record, length + record.position());
+        }
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count++] = length;
+        length += record.limit();
+    }
+
+    /** Reads the entry at the given log index from the memory mapped segment file. */
+    LogEntry read(int index) throws IOException {
+        int i = index - firstIndex;
+        if (i < 0 || i >= count) {
+            throw new IndexOutOfBoundsException(
+                    String.format("Index %d not in segment %s", index, file.getName()));
+        }
+        int end = i + 1 < count ? offsets[i + 1] : length;
+        if (mapped == null || mapped.capacity() < end) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+        }
+        ByteBuffer record = mapped.duplicate();
+        record.position(offsets[i]);
+        int size = record.getInt();
+        record.getInt(); // CRC was verified when the record was recovered or written
+        byte[] payload = new byte[size];
+        record.get(payload);
+        try {
+            return (LogEntry) Utils.toObject(payload);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read log entry " + index, e);
+        }
+    }
+
+    /** Removes all entries from the given log index onwards. */
+    void truncate(int fromIndex) throws IOException {
+        int i = Math.max(0, fromIndex - firstIndex);
+        if (i >= count) {
+            return;
+        }
+        length = offsets[i];
+        count = i;
+        mapped = null;
+        channel.truncate(length);
+    }
+
+    /** Flushes appended entries to the storage device. */
+    void force() throws IOException {
+        channel.force(false);
+    }
+
+    void close() {
+        mapped = null;
+        try {
+            raf.close();
+        } catch (IOException e) {
+            logger.warning(String.format("Failed to close log segment %s: %s", file, e));
+        }
+    }
+
+    void delete() {
+        close();
+        if (!file.delete()) {
+            logger.warning("Failed to delete log segment " + file);
+        }
+    }
+
+    private void recover() throws IOException {
+        long fileLength = channel.size();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (length + HEADER_SIZE <= fileLength) {
+            header.clear();
+            channel.read(header, length);
+            header.flip();
+            int size = header.getInt();
+            int crc = header.getInt();
+            if (size < 0 || length + HEADER_SIZE + size > fileLength) {
+                break;
+            }
+            ByteBuffer payload = ByteBuffer.allocate(size);
+            while (payload.hasRemaining()) {
+                if (channel.read(payload, length + HEADER_SIZE + payload.position()) < 0) {
+                    break;
+                }
+            }
+            if (payload.hasRemaining() || crc(payload.array(), 0, size) != crc) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = length;
+            length += HEADER_SIZE + size;
+        }
+        if (length < fileLength) {
+            logger.warning(
+                    String.format(
+                            "Truncating log segment %s to %d bytes, after %d valid entries",
+                            file, length, count));
+            channel.truncate(length);
+        }
+    }
+
+    private static int crc(byte[] bytes, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, offset, length);
+        return (int) crc.getValue();
+    }
+}
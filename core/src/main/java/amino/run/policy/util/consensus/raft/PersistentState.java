@@ -1,19 +1,63 @@
 package amino.run.policy.util.consensus.raft;
 
-import java.util.ArrayList;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.util.List;
 import java.util.UUID;
 
 /**
- * Created by quinton on 3/30/18. * Persistent state on all servers. //TODO Make persistent, restore
- * on start. All methods are thread-safe, and use optimistic concurrency for updates.
+ * Created by quinton on 3/30/18. * Persistent state on all servers. All methods are thread-safe,
+ * and use optimistic concurrency for updates.
+ *
+ * <p>If created with a directory, the state is durable: the server ID, current term and vote are
+ * written to a state file whenever they change, the log is kept in segment files, and the latest
+ * snapshot in a snapshot file. The state is recovered from the directory on restart. Otherwise the
+ * state is kept in memory only.
  */
 class PersistentState {
+    static final String STATE_FILE_NAME = "state";
+
     PersistentState() {
         this.currentTerm = 0;
         this.votedFor = NO_LEADER;
-        this.log = new ArrayList<LogEntry>();
+        this.log = new RaftLog();
         this.myServerID = UUID.randomUUID();
+        this.directory = null;
+    }
+
+    /**
+     * Opens the durable state in the given directory, creating it if it does not exist yet.
+     *
+     * @param directory directory holding the state, snapshot and log segment files
+     * @param segmentBytes size at which a new log segment file is started
+     */
+    PersistentState(File directory, long segmentBytes) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Failed to create RAFT state directory " + directory);
+        }
+        this.directory = directory;
+        File stateFile = new File(directory, STATE_FILE_NAME);
+        if (stateFile.exists()) {
+            DataInputStream in = new DataInputStream(new FileInputStream(stateFile));
+            try {
+                this.myServerID = new UUID(in.readLong(), in.readLong());
+                this.currentTerm = in.readInt();
+                this.votedFor = new UUID(in.readLong(), in.readLong());
+            } finally {
+                in.close();
+            }
+        } else {
+            this.currentTerm = 0;
+            this.votedFor = NO_LEADER;
+            this.myServerID = UUID.randomUUID();
+            save();
+        }
+        this.snapshot = Snapshot.read(directory);
+        this.log = new RaftLog(directory, segmentBytes, snapshot);
     }
     ////////////////////////////////////////////////////////////////////////////////////////////////
     // Constants
@@ -22,9 +66,12 @@ class PersistentState {
     public static final UUID NO_LEADER = new UUID(0L, 0L);
     private volatile Integer currentTerm = -1;
     private volatile UUID votedFor = NO_LEADER;
-    private volatile List<LogEntry>
-            log; // TODO: Garbage collection - log growth currently unbounded.
+    private volatile RaftLog log;
+    /** Latest snapshot of the state machine, or null if there is none. */
+    private volatile Snapshot snapshot;
     public final UUID myServerID;
+    /** Directory of the durable state, or null if the state is kept in memory only. */
+    private final File directory;
 
     /**
      * Get the current term. Is thread-safe.
@@ -47,8 +94,9 @@ class PersistentState {
      */
     int setCurrentTerm(int term, int preconditionTerm) {
         synchronized (this.currentTerm) {
-            if (this.currentTerm == preconditionTerm) {
+            if (this.currentTerm == preconditionTerm && this.currentTerm != term) {
                 this.currentTerm = term;
+                save();
             }
             return this.currentTerm;
         }
@@ -66,6 +114,7 @@ class PersistentState {
         synchronized (this.currentTerm) {
             if (this.currentTerm == preconditionTerm) {
                 this.currentTerm++;
+                save();
             }
             return this.currentTerm;
         }
@@ -88,7 +137,10 @@ class PersistentState {
     UUID setVotedFor(UUID votedFor, UUID preconditionVotedFor) {
         synchronized (this.votedFor) {
             if (this.votedFor.equals(preconditionVotedFor)) {
-                this.votedFor = votedFor;
+                if (!this.votedFor.equals(votedFor)) {
+                    this.votedFor = votedFor;
+                    save();
+                }
                 return votedFor;
             } else {
                 return this.votedFor;
@@ -96,15 +148,74 @@ class PersistentState {
         }
     }
 
-    List<LogEntry> log() {
+    RaftLog log() {
         synchronized (log) {
             return this.log;
         }
     }
 
+    /** Replaces the whole log with the given entries. For unit testing only. */
     void setLog(List<LogEntry> newLog) {
         synchronized (log) {
-            this.log = newLog;
+            log.reset(INVALID_INDEX, INVALID_INDEX);
+            log.addAll(newLog);
+            log.sync(log.size() - 1);
+        }
+    }
+
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * Replaces the latest snapshot. A durable snapshot is written to disk before it replaces the
+     * previous one.
+     */
+    void setSnapshot(Snapshot snapshot) throws IOException {
+        if (directory != null) {
+            snapshot.write(directory);
+        }
+        this.snapshot = snapshot;
+    }
+
+    boolean isDurable() {
+        return directory != null;
+    }
+
+    /** Closes the files of the durable state. */
+    void close() {
+        log.close();
+    }
+
+    /**
+     * Writes the server ID, current term and vote to the state file. They must be durable before
+     * the server responds to any request, as the server might otherwise vote twice in a term after
+     * a restart. The file is replaced atomically.
+     */
+    private synchronized void save() {
+        if (directory == null) {
+            return;
+        }
+        try {
+            File tmp = new File(directory, STATE_FILE_NAME + ".tmp");
+            FileOutputStream file = new FileOutputStream(tmp);
+            try {
+                DataOutputStream out = new DataOutputStream(file);
+                out.writeLong(myServerID.getMostSignificantBits());
+                out.writeLong(myServerID.getLeastSignificantBits());
+                out.writeInt(currentTerm);
+                out.writeLong(votedFor.getMostSignificantBits());
+                out.writeLong(votedFor.getLeastSignificantBits());
+                out.flush();
+                file.getFD().sync();
+            } finally {
+                file.close();
+            }
+            if (!tmp.renameTo(new File(directory, STATE_FILE_NAME))) {
+                throw new IOException("Failed to replace " + STATE_FILE_NAME);
+            }
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to save RAFT state in " + directory, e);
         }
     }
 }
@@ -0,0 +1,357 @@
+package amino.run.policy.util.consensus.raft;
+
+import static amino.run.policy.util.consensus.raft.PersistentState.INVALID_INDEX;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.logging.Logger;
+
+/**
+ * The RAFT log. Entries are addressed by their absolute log index, starting at 0. Entries up to and
+ * including {@link #getSnapshotIndex()} have been replaced by a snapshot of the state machine, and
+ * can no longer be read, but {@link #size()} still counts them.
+ *
+ * <p>A durable log stores its entries in append-only {@link LogSegment} files in a directory, and
+ * keeps only the most recent entries in memory. Appended entries are written to the segment files
+ * immediately, and made durable by {@link #sync(int)}, which flushes all entries appended by
+ * concurrent callers at once (group commit). Older entries are read back from the memory mapped
+ * segment files. Segments which only hold entries included in a snapshot are deleted by {@link
+ * #compact(int, int)}.
+ *
+ * <p>A log without a directory keeps all entries since the last snapshot in memory.
+ *
+ * <p>All methods are thread-safe.
+ */
+class RaftLog extends AbstractList<LogEntry> implements RandomAccess {
+    private static final Logger logger = Logger.getLogger(RaftLog.class.getName());
+
+    /** Size at which a new segment file is started. */
+    static final long DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+
+    /** Maximum number of entries of a durable log kept in memory. */
+    static final int MAX_CACHED_ENTRIES = 4096;
+
+    private final File directory;
+    private final long segmentBytes;
+    private final ArrayList<LogSegment> segments = new ArrayList<LogSegment>();
+
+    /* Most recent entries, starting at log index cacheFirstIndex. */
+    private final ArrayList<LogEntry> cache = new ArrayList<LogEntry>();
+    private int cacheFirstIndex;
+
+    private int snapshotIndex = INVALID_INDEX;
+    private int snapshotTerm = INVALID_INDEX;
+    private int lastIndex = INVALID_INDEX;
+
+    /** Index of the last entry which is durable. */
+    private volatile int syncedIndex = INVALID_INDEX;
+    /** Incremented whenever entries are removed from the end of the log. */
+    private int generation;
+    /** Serializes flushing segments, so that concurrent callers share one flush. */
+    private final Object syncLock = new Object();
+
+    /** Creates an empty log which is kept in memory only. */
+    RaftLog() {
+        this.directory = null;
+        this.segmentBytes = DEFAULT_SEGMENT_BYTES;
+        this.cacheFirstIndex = 0;
+    }
+
+    /**
+     * Opens the durable log in the given directory, recovering the entries after the snapshot.
+     *
+     * @param directory directory holding the segment files
+     * @param segmentBytes size at which a new segment file is started
+     * @param snapshot latest snapshot of the state machine, or null if there is none
+     */
+    RaftLog(File directory, long segmentBytes, Snapshot snapshot) throws IOException {
+        this.directory = directory;
+        this.segmentBytes = segmentBytes;
+        if (snapshot != null) {
+            snapshotIndex = snapshot.index;
+            snapshotTerm = snapshot.term;
+        }
+        lastIndex = snapshotIndex;
+
+        File[] files = directory.listFiles();
+        if (files == null) {
+            throw new IOException("Failed to list log directory " + directory);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!LogSegment.isSegment(file)) {
+                continue;
+            }
+            LogSegment segment = LogSegment.open(file);
+            if (segment.lastIndex() <= snapshotIndex) {
+                /* Left behind by compaction. */
+                segment.delete();
+                continue;
+            }
+            if (segment.firstIndex > lastIndex + 1
+                    || (!segments.isEmpty() && segment.firstIndex <= lastIndex)) {
+                /* A gap after a torn segment, or an overlap with the previous segment left
+                 * behind by truncation. */
+                segment.delete();
+                continue;
+            }
+            segments.add(segment);
+            lastIndex = segment.lastIndex();
+        }
+        cacheFirstIndex = lastIndex + 1;
+        syncedIndex = lastIndex;
+        logger.info(
+                String.format(
+                        "Recovered RAFT log in %s: snapshot index %d, last index %d, %d segments",
+                        directory, snapshotIndex, lastIndex, segments.size()));
+    }
+
+    /** @return number of entries in the log, including those replaced by the snapshot. */
+    @Override
+    public synchronized int size() {
+        return lastIndex + 1;
+    }
+
+    /**
+     * @param index log index
+     * @return entry at the given index
+     * @throws IndexOutOfBoundsException if the entry is not in the log, or has been replaced by
+     *     the snapshot
+     */
+    @Override
+    public synchronized LogEntry get(int index) {
+        if (index <= snapshotIndex || index > lastIndex) {
+            throw new IndexOutOfBoundsException(
+                    String.format(
+                            "Index %d not in log (snapshot index %d, last index %d)",
+                            index, snapshotIndex, lastIndex));
+        }
+        if (index >= cacheFirstIndex) {
+            return cache.get(index - cacheFirstIndex);
+        }
+        try {
+            return segment(index).read(index);
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to read log entry " + index, e);
+        }
+    }
+
+    /**
+     * @param index log index, from {@link #getSnapshotIndex()} to the last index
+     * @return term of the entry at the given index, or {@link PersistentState#INVALID_INDEX} for
+     *     the index before the first entry.
+     */
+    synchronized int term(int index) {
+        if (index == snapshotIndex) {
+            return snapshotTerm;
+        }
+        return get(index).term;
+    }
+
+    /** @return copy of the entries from fromIndex to toIndex, both inclusive */
+    synchronized List<LogEntry> entries(int fromIndex, int toIndex) {
+        ArrayList<LogEntry> entries =
+                new ArrayList<LogEntry>(Math.max(0, toIndex - fromIndex + 1));
+        for (int i = fromIndex; i <= toIndex; i++) {
+            entries.add(get(i));
+        }
+        return entries;
+    }
+
+    /** Appends an entry to the end of the log. The entry is durable after {@link #sync(int)}. */
+    @Override
+    public synchronized boolean add(LogEntry entry) {
+        if (directory != null) {
+            try {
+                LogSegment segment =
+                        segments.isEmpty() ? null : segments.get(segments.size() - 1);
+                if (segment == null || segment.bytes() >= segmentBytes) {
+                    segment = LogSegment.create(directory, lastIndex + 1);
+                    segments.add(segment);
+                }
+                segment.append(entry);
+            } catch (IOException e) {
+                throw new RaftRuntimeException("Failed to append log entry " + entry, e);
+            }
+        }
+        cache.add(entry);
+        lastIndex++;
+        if (directory == null) {
+            syncedIndex = lastIndex;
+        }
+        if (directory != null && cache.size() > MAX_CACHED_ENTRIES) {
+            /* Older entries are read back from the segment files. */
+            int evicted = cache.size() / 2;
+            cache.subList(0, evicted).clear();
+            cacheFirstIndex += evicted;
+        }
+        return true;
+    }
+
+    /**
+     * Removes all entries from the given index onwards, i.e. entries conflicting with those of the
+     * leader. Entries included in the snapshot are committed, and never removed.
+     */
+    synchronized void truncate(int fromIndex) {
+        if (fromIndex > lastIndex) {
+            return;
+        }
+        if (fromIndex <= snapshotIndex) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Cannot remove log entries from index %d, included in snapshot at index %d",
+                            fromIndex, snapshotIndex));
+        }
+        generation++;
+        if (fromIndex >= cacheFirstIndex) {
+            cache.subList(fromIndex - cacheFirstIndex, cache.size()).clear();
+        } else {
+            cache.clear();
+            cacheFirstIndex = fromIndex;
+        }
+        try {
+            for (int i = segments.size() - 1; i >= 0; i--) {
+                LogSegment segment = segments.get(i);
+                if (segment.firstIndex >= fromIndex) {
+                    segments.remove(i).delete();
+                } else {
+                    segment.truncate(fromIndex);
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            throw new RaftRuntimeException("Failed to remove log entries from " + fromIndex, e);
+        }
+        lastIndex = fromIndex - 1;
+        syncedIndex = Math.min(syncedIndex, lastIndex);
+    }
+
+    /**
+     * Discards all entries up to and including the given index, after they have been included in a
+     * snapshot of the state machine. Segment files which only hold discarded entries are deleted.
+     */
+    synchronized void compact(int index, int term) {
+        if (index <= snapshotIndex) {
+            return;
+        }
+        if (index > lastIndex) {
+            throw new IllegalArgumentException(
+                    String.format(
+                            "Cannot compact log up to index %d beyond last index %d",
+                            index, lastIndex));
+        }
+        snapshotIndex = index;
+        snapshotTerm = term;
+        if (index >= cacheFirstIndex) {
+            cache.subList(0, index - cacheFirstIndex + 1).clear();
+            cacheFirstIndex = index + 1;
+        }
+        while (!segments.isEmpty() && segments.get(0).lastIndex() <= index) {
+            segments.remove(0).delete();
+        }
+    }
+
+    /**
+     * Discards the whole log, and continues it after a snapshot received from the leader.
+     *
+     * @param index index of the last entry included in the snapshot
+     * @param term term of the last entry included in the snapshot
+     */
+    synchronized void reset(int index, int term) {
+        generation++;
+        for (LogSegment segment : segments) {
+            segment.delete();
+        }
+        segments.clear();
+        cache.clear();
+        snapshotIndex = index;
+        snapshotTerm = term;
+        lastIndex = index;
+        cacheFirstIndex = index + 1;
+        syncedIndex = index;
+    }
+
+    /**
+     * Makes all entries up to the given index durable. Callers arriving while another caller is
+     * flushing wait for it, and usually find their entries flushed along with the others.
+     */
+    void sync(int index) {
+        if (directory == null || syncedIndex >= index) {
+            return;
+        }
+        synchronized (syncLock) {
+            if (syncedIndex >= index) {
+                return;
+            }
+            int target, syncGeneration;
+            List<LogSegment> unsynced = new ArrayList<LogSegment>();
+            synchronized (this) {
+                target = lastIndex;
+                syncGeneration = generation;
+                for (LogSegment segment : segments) {
+                    if (segment.lastIndex() > syncedIndex) {
+                        unsynced.add(segment);
+                    }
+                }
+            }
+            /* Flush without holding the log lock, so that entries can be appended meanwhile. */
+            try {
+                for (LogSegment segment : unsynced) {
+                    segment.force();
+                }
+            } catch (ClosedChannelException e) {
+                /* The segment was deleted by a concurrent truncation. */
+            } catch (IOException e) {
+                throw new RaftRuntimeException("Failed to flush log to " + directory, e);
+            }
+            synchronized (this) {
+                if (generation == syncGeneration) {
+                    syncedIndex = Math.max(syncedIndex, target);
+                }
+            }
+        }
+    }
+
+    /** @return index of the last durable entry */
+    int getSyncedIndex() {
+        return syncedIndex;
+    }
+
+    synchronized int getSnapshotIndex() {
+        return snapshotIndex;
+    }
+
+    synchronized int getSnapshotTerm() {
+        return snapshotTerm;
+    }
+
+    /** Closes the segment files. The log must not be used afterwards. */
+    synchronized void close() {
+        for (LogSegment segment : segments) {
+            segment.close();
+        }
+    }
+
+    /** @return segment holding the entry at the given index */
+    private LogSegment segment(int index) {
+        int low = 0, high = segments.size() - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            LogSegment segment = segments.get(mid);
+            if (index < segment.firstIndex) {
+                high = mid - 1;
+            } else if (index > segment.lastIndex()) {
+                low = mid + 1;
+            } else {
+                return segment;
+            }
+        }
+        throw new IndexOutOfBoundsException("No log segment holds index " + index);
+    }
+}
@@ -35,6 +35,23 @@ public interface RemoteRaftServer {
             int leaderCommit)
             throws InvalidTermException, PrevLogTermMismatch, InvalidLogIndex;
 
+    /**
+     * installSnapshot is invoked by leader to send a snapshot of the state machine to a follower
+     * which is so far behind that the leader has already discarded the log entries it needs.
+     *
+     * @param term leaders' term
+     * @param leader so follower can redirect clients
+     * @param lastIncludedIndex the snapshot replaces all entries up through and including this
+     *     index
+     * @param lastIncludedTerm term of lastIncludedIndex
+     * @param data serialized snapshot of the state machine
+     * @return currentTerm, for leader to update itself
+     * @throws InvalidTermException
+     */
+    int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws InvalidTermException;
+
     /**
      * Invoked by candidates to gather votes.
      *
@@ -59,4 +76,14 @@ public interface RemoteRaftServer {
      * @throws java.lang.Exception
      */
     Object applyToStateMachine(Object operation) throws java.lang.Exception;
+
+    /**
+     * readIndex is invoked by followers serving reads, to learn which log entries they must apply
+     * before the read. Confirms that the local node is still the leader.
+     *
+     * @return commit index of the leader, or -1 if the leader cannot tell it yet
+     * @throws LeaderException if the local node is not the leader, or failed to confirm it
+     * @throws InterruptedException
+     */
+    int readIndex() throws LeaderException, InterruptedException;
 }
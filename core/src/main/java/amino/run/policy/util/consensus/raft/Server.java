@@ -3,18 +3,27 @@ package amino.run.policy.util.consensus.raft;
 import static amino.run.policy.util.consensus.raft.PersistentState.INVALID_INDEX;
 import static amino.run.policy.util.consensus.raft.PersistentState.NO_LEADER;
 
+import amino.run.common.Utils;
 import amino.run.policy.util.ResettableTimer;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.TimerTask;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
@@ -32,6 +41,19 @@ public class Server
     /** How long we wait for a heartbeat from the leader before starting a new leader election. */
     public static final int LEADER_HEARTBEAT_TIMEOUT = 3000; // milliseconds
 
+    /**
+     * With leader leases, how long followers refuse to vote for candidates after hearing from the
+     * leader. No other leader can be elected meanwhile, as long as clocks run at similar rates.
+     */
+    public static final int LEADER_STICKINESS_PERIOD = LEADER_HEARTBEAT_TIMEOUT / 2; // milliseconds
+
+    /**
+     * With leader leases, how long the leader serves reads without confirming its leadership, after
+     * sending requests acknowledged by a majority. Shorter than {@link #LEADER_STICKINESS_PERIOD}
+     * to allow for clock drift.
+     */
+    public static final int LEADER_LEASE_PERIOD = LEADER_STICKINESS_PERIOD * 4 / 5; // milliseconds
+
     /** If we don't receive a heartbeat from the leader, start an election. */
     ResettableTimer leaderHeartbeatReceiveTimer;
 
@@ -55,6 +77,24 @@ public class Server
 
     StateMachineApplier applier; // Delegate to apply state changes.
 
+    /** Serializes applying committed log entries to the state machine. */
+    final Object applyLock = new Object();
+
+    /** Default number of applied log entries after which a snapshot is taken. */
+    public static final int DEFAULT_SNAPSHOT_INTERVAL = 10000;
+
+    /** Number of applied log entries after which a snapshot is taken, 0 to never take one. */
+    final int snapshotInterval;
+
+    /** Whether the leader serves reads within its lease, see {@link #setLeaderLease}. */
+    volatile boolean leaderLease;
+
+    /** Whether followers serve reads, see {@link #setFollowerReads}. */
+    volatile boolean followerReads;
+
+    /** When we last heard from a leader, as per {@link System#nanoTime()}. */
+    volatile long leaderContactTime;
+
     /**
      * Constructor
      *
@@ -62,9 +102,44 @@ public class Server
      * for each server, and then call start()
      */
     public Server(StateMachineApplier applier) {
+        this(applier, new PersistentState(), DEFAULT_SNAPSHOT_INTERVAL);
+    }
+
+    /**
+     * Constructor of a server with durable state, which is recovered from the given directory if
+     * the server ran before. The state machine is restored from the latest snapshot. Log entries
+     * following the snapshot are applied once the leader tells which of them are committed.
+     *
+     * @param applier delegate to apply state changes
+     * @param directory directory holding the durable state of this server only
+     * @param snapshotInterval number of applied log entries after which a snapshot is taken, and
+     *     the log entries are discarded
+     * @throws IOException if the state cannot be read from the directory
+     */
+    public Server(StateMachineApplier applier, File directory, int snapshotInterval)
+            throws IOException {
+        this(
+                applier,
+                new PersistentState(directory, RaftLog.DEFAULT_SEGMENT_BYTES),
+                snapshotInterval);
+        Snapshot snapshot = pState.getSnapshot();
+        if (snapshot != null) {
+            logger.info(pState.myServerID + ": Restoring " + snapshot);
+            try {
+                applier.restore(Utils.toObject(snapshot.state));
+            } catch (java.lang.Exception e) {
+                throw new IOException("Failed to restore " + snapshot, e);
+            }
+            vState.setCommitIndex(snapshot.index, vState.getCommitIndex());
+            vState.setLastApplied(snapshot.index, vState.getLastApplied());
+        }
+    }
+
+    Server(StateMachineApplier applier, PersistentState pState, int snapshotInterval) {
         /** Delegate applier, leader, follower and candidate behaviour. */
         this.applier = applier;
-        this.pState = new PersistentState();
+        this.pState = pState;
+        this.snapshotInterval = snapshotInterval;
         this.vState = new VolatileState();
         this.leader = new Leader();
         this.follower = new Follower();
@@ -75,6 +150,28 @@ public class Server
         return pState.myServerID;
     }
 
+    /**
+     * Lets the leader serve reads for {@link #LEADER_LEASE_PERIOD} after confirming its leadership,
+     * instead of confirming it for every read. Followers then refuse to vote for candidates for
+     * {@link #LEADER_STICKINESS_PERIOD} after hearing from the leader. Must be set on all servers
+     * before calling start().
+     *
+     * @param leaderLease whether to enable leader leases
+     */
+    public void setLeaderLease(boolean leaderLease) {
+        this.leaderLease = leaderLease;
+    }
+
+    /**
+     * Lets followers serve reads in {@link #readFromStateMachine}, once they applied all operations
+     * committed when the read started, instead of redirecting them to the leader.
+     *
+     * @param followerReads whether to enable follower reads
+     */
+    public void setFollowerReads(boolean followerReads) {
+        this.followerReads = followerReads;
+    }
+
     public void start() {
         // TODO: Perform a pre-flight check.
         /** Start off being a follower. */
@@ -83,6 +180,9 @@ public class Server
 
     public void stop() {
         this.become(State.NONE, vState.getState());
+        if (pState.isDurable()) {
+            pState.close();
+        }
     }
 
     /**
@@ -143,16 +243,18 @@ public class Server
             List<LogEntry> entries,
             int leaderCommit)
             throws InvalidTermException, PrevLogTermMismatch, InvalidLogIndex {
-        logger.fine(
-                String.format(
-                        "%s: received AppendEntries request from leader %s, term %d, prevLogIndex=%d, prevLogTerm=%d, leaderCommit=%d, entries=%d",
-                        pState.myServerID,
-                        leader,
-                        term,
-                        prevLogIndex,
-                        prevLogTerm,
-                        leaderCommit,
-                        entries.size()));
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(
+                    String.format(
+                            "%s: received AppendEntries request from leader %s, term %d, prevLogIndex=%d, prevLogTerm=%d, leaderCommit=%d, entries=%d",
+                            pState.myServerID,
+                            leader,
+                            term,
+                            prevLogIndex,
+                            prevLogTerm,
+                            leaderCommit,
+                            entries.size()));
+        }
 
         /** All servers convert to followers if their current term is behind (§5.1). */
         respondToRemoteTerm(term);
@@ -175,16 +277,28 @@ public class Server
         synchronized (leaderHeartbeatReceiveTimer) {
             leaderHeartbeatReceiveTimer.reset(); // This is a heartbeat from the leader.
         }
+        leaderContactTime = System.nanoTime();
 
+        int lastNewIndex;
         synchronized (pState) {
+            RaftLog log = pState.log();
+            int snapshotIndex = log.getSnapshotIndex();
+            if (prevLogIndex < snapshotIndex) {
+                /* Entries included in our snapshot are committed, and match the leader's. */
+                int skipped = Math.min(snapshotIndex - prevLogIndex, entries.size());
+                entries = entries.subList(skipped, entries.size());
+                prevLogTerm = log.getSnapshotTerm();
+                prevLogIndex = snapshotIndex;
+            }
+
             /**
              * 2. Reply false if log doesn’t contain an entry at prevLogIndex whose term matches
              * prevLogTerm (§5.3)
              */
-            LogEntry prevLogEntry;
             if (prevLogIndex >= 0) {
+                int prevLogEntryTerm;
                 try {
-                    prevLogEntry = pState.log().get(prevLogIndex);
+                    prevLogEntryTerm = log.term(prevLogIndex);
                 } catch (IndexOutOfBoundsException e) {
                     throw new InvalidLogIndex(
                             "Attempt to append entry with invalid previous log index: "
@@ -193,54 +307,176 @@ public class Server
                 }
 
                 /* Need to check for the prev log term */
-                if (prevLogEntry.term != prevLogTerm) {
+                if (prevLogEntryTerm != prevLogTerm) {
                     throw new PrevLogTermMismatch(
                             "Attempt to append entry with invalid previous log term.  Requested term "
                                     + prevLogTerm
                                     + ", actual term: "
-                                    + prevLogEntry.term,
+                                    + prevLogEntryTerm,
                             prevLogIndex,
-                            prevLogEntry.term,
+                            prevLogEntryTerm,
                             prevLogTerm);
                 }
             }
 
             /**
              * 3. If an existing entry conflicts with a new one (same index but different terms),
-             * delete the existing entry and all that follow it (§5.3)
+             * delete the existing entry and all that follow it (§5.3). Entries which are already
+             * in the log are kept, so that requests arriving out of order, e.g. pipelined requests,
+             * or duplicate requests do not remove entries appended by later requests.
              */
-            int logIndex = prevLogIndex;
-
-            /* Delete the existing conflicting entries and append the new entries */
-            if (pState.log().size() - 1 >= ++logIndex) {
-                logger.fine(
-                        String.format(
-                                "%s: Removing conflicting log entries. Current log size=%d, Current commit index=%d. Replacing logs starting from index=%d",
-                                pState.myServerID,
-                                pState.log().size(),
-                                this.vState.getCommitIndex(),
-                                logIndex));
-                pState.setLog(pState.log().subList(0, logIndex));
+            int logIndex = prevLogIndex + 1;
+            int newEntries = 0;
+            for (; newEntries < entries.size(); newEntries++, logIndex++) {
+                if (logIndex >= log.size()) {
+                    break;
+                }
+                if (log.term(logIndex) != entries.get(newEntries).term) {
+                    if (logger.isLoggable(Level.FINE)) {
+                        logger.fine(
+                                String.format(
+                                        "%s: Removing conflicting log entries. Current log size=%d, Current commit index=%d. Replacing logs starting from index=%d",
+                                        pState.myServerID,
+                                        log.size(),
+                                        this.vState.getCommitIndex(),
+                                        logIndex));
+                    }
+                    log.truncate(logIndex);
+                    break;
+                }
             }
 
-            // entries is non null. Could be empty or with some entries in it
-            pState.log().addAll(entries);
+            /** 4. Append any new entries not already in the log */
+            if (newEntries < entries.size()) {
+                log.addAll(entries.subList(newEntries, entries.size()));
+            }
+            lastNewIndex = prevLogIndex + entries.size();
 
             /**
-             * 4. If leaderCommit > commitIndex, set commitIndex = min(leaderCommit, index of last
+             * 5. If leaderCommit > commitIndex, set commitIndex = min(leaderCommit, index of last
              * new entry)
              */
-            if (leaderCommit > vState.getCommitIndex()) {
-                vState.setCommitIndex(
-                        Math.min(leaderCommit, pState.log().size() - 1), vState.getCommitIndex());
+            int commitIndex = vState.getCommitIndex();
+            if (Math.min(leaderCommit, lastNewIndex) > commitIndex) {
+                /* Requests arriving out of order never move the commit index backwards. */
+                vState.setCommitIndex(Math.min(leaderCommit, lastNewIndex), commitIndex);
             }
         }
 
+        /* The entries must be durable before the leader counts them as replicated. */
+        pState.log().sync(lastNewIndex);
+
         applyCommitted();
 
         return pState.getCurrentTerm();
     }
 
+    /**
+     * installSnapshot is invoked by leader to send a snapshot to a follower which is so far behind
+     * that the leader has already discarded the log entries it needs (§7).
+     *
+     * @param term leaders' term
+     * @param leader so follower can redirect clients
+     * @param lastIncludedIndex the snapshot replaces all entries up through and including this
+     *     index
+     * @param lastIncludedTerm term of lastIncludedIndex
+     * @param data serialized snapshot of the state machine
+     * @return currentTerm, for leader to update itself
+     */
+    public int installSnapshot(
+            int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+            throws InvalidTermException {
+        logger.info(
+                String.format(
+                        "%s: received InstallSnapshot request from leader %s, term %d, lastIncludedIndex=%d, lastIncludedTerm=%d",
+                        pState.myServerID, leader, term, lastIncludedIndex, lastIncludedTerm));
+
+        /** All servers convert to followers if their current term is behind (§5.1). */
+        respondToRemoteTerm(term);
+
+        /** 1. Reply immediately if term < currentTerm */
+        if (term < pState.getCurrentTerm()) {
+            throw new InvalidTermException(
+                    "Server: Attempt to install snapshot from prior leader term "
+                            + term
+                            + ", current term "
+                            + pState.getCurrentTerm(),
+                    pState.getCurrentTerm());
+        }
+
+        vState.setCurrentLeader(leader);
+        synchronized (leaderHeartbeatReceiveTimer) {
+            leaderHeartbeatReceiveTimer.reset(); // This is a heartbeat from the leader.
+        }
+        leaderContactTime = System.nanoTime();
+
+        synchronized (applyLock) {
+            if (lastIncludedIndex <= vState.getLastApplied()) {
+                /* We already applied all operations included in the snapshot. */
+                return pState.getCurrentTerm();
+            }
+            Snapshot snapshot = new Snapshot(lastIncludedIndex, lastIncludedTerm, data);
+            try {
+                applier.restore(Utils.toObject(data));
+                pState.setSnapshot(snapshot);
+            } catch (java.lang.Exception e) {
+                throw new RaftRuntimeException("Failed to install " + snapshot, e);
+            }
+
+            synchronized (pState) {
+                RaftLog log = pState.log();
+                if (lastIncludedIndex < log.size()
+                        && log.term(lastIncludedIndex) == lastIncludedTerm) {
+                    /**
+                     * If existing log entry has same index and term as snapshot’s last included
+                     * entry, retain log entries following it
+                     */
+                    log.compact(lastIncludedIndex, lastIncludedTerm);
+                } else {
+                    /** Discard the entire log */
+                    log.reset(lastIncludedIndex, lastIncludedTerm);
+                }
+                int commitIndex = vState.getCommitIndex();
+                if (lastIncludedIndex > commitIndex) {
+                    vState.setCommitIndex(lastIncludedIndex, commitIndex);
+                }
+            }
+            vState.setLastApplied(lastIncludedIndex, vState.getLastApplied());
+        }
+        applyCommitted();
+
+        return pState.getCurrentTerm();
+    }
+
+    /**
+     * Takes a snapshot of the state machine and discards the log entries it includes, once {@link
+     * #snapshotInterval} entries have been applied since the last snapshot. Must be called holding
+     * the applyLock, so that no operations are applied while the snapshot is taken.
+     */
+    void snapshotIfDue() {
+        RaftLog log = pState.log();
+        int lastApplied = vState.getLastApplied();
+        if (snapshotInterval <= 0 || lastApplied - log.getSnapshotIndex() < snapshotInterval) {
+            return;
+        }
+        try {
+            Snapshot snapshot =
+                    new Snapshot(
+                            lastApplied,
+                            log.term(lastApplied),
+                            Utils.toBytes(applier.snapshot()));
+            pState.setSnapshot(snapshot);
+            log.compact(snapshot.index, snapshot.term);
+            logger.fine(pState.myServerID + ": Took " + snapshot);
+        } catch (java.lang.Exception e) {
+            /* Keep the log entries, and try again after the next operation. */
+            logger.warning(
+                    String.format(
+                            "%s: Failed to take snapshot at log index %d: %s",
+                            pState.myServerID, lastApplied, e));
+        }
+    }
+
     /**
      * Invoked by candidates to gather votes.
      *
@@ -262,6 +498,17 @@ public class Server
         if (!candidate.equals(
                 pState.myServerID)) { // We sometimes vote for ourselves, to that's not considered a
             // request from a remote server.
+            if (leaderLease && isLeaderSticky()) {
+                /* The leader might still serve reads within its lease. */
+                throw new AlreadyVotedException(
+                        String.format(
+                                "%s heard from leader %s within the last %d ms. No vote granted to %s.",
+                                pState.myServerID,
+                                vState.getCurrentLeader(),
+                                LEADER_STICKINESS_PERIOD,
+                                candidate),
+                        pState.getCurrentTerm());
+            }
             /** All servers convert to followers if their current term is behind (§5.1). */
             this.respondToRemoteTerm(term);
         }
@@ -274,7 +521,7 @@ public class Server
             localLogSize = pState.log().size();
             myLastLogIndex = this.lastLogIndex();
             if (myLastLogIndex != -1) {
-                myLastLogTerm = pState.log().get(myLastLogIndex).term;
+                myLastLogTerm = pState.log().term(myLastLogIndex);
             }
         }
 
@@ -320,11 +567,27 @@ public class Server
         }
     }
 
+    /** @return whether we heard from the current leader within {@link #LEADER_STICKINESS_PERIOD} */
+    private boolean isLeaderSticky() {
+        return vState.getState() == State.FOLLOWER
+                && !vState.getCurrentLeader().equals(NO_LEADER)
+                && System.nanoTime() - leaderContactTime
+                        < TimeUnit.MILLISECONDS.toNanos(LEADER_STICKINESS_PERIOD);
+    }
+
     /**
      * Apply log entries that have been committed but not yet applied. • If commitIndex >
      * lastApplied: increment lastApplied, apply log[lastApplied] to state machine (§5.3)
      */
     void applyCommitted() {
+        synchronized (applyLock) {
+            applyCommittedEntries();
+            snapshotIfDue();
+            applyLock.notifyAll(); // Wake up reads waiting for the entries to be applied.
+        }
+    }
+
+    private void applyCommittedEntries() {
         int lastApplied;
         while (vState.getCommitIndex() > (lastApplied = vState.getLastApplied())) {
             LogEntry entry;
@@ -368,7 +631,10 @@ public class Server
     }
 
     public Object applyToStateMachine(Object operation) throws java.lang.Exception {
-        logger.fine(String.format("%s: applyToStateMachine(%s)", pState.myServerID, operation));
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(
+                    String.format("%s: applyToStateMachine(%s)", pState.myServerID, operation));
+        }
         if (vState.getState() == State.LEADER) {
             return leader.applyToStateMachine(operation);
         } else {
@@ -378,6 +644,78 @@ public class Server
         }
     }
 
+    /**
+     * Reads from the state machine without appending the read to the log, so that the read does not
+     * wait for a majority quorum to store it. The read is linearizable: it observes all operations
+     * committed before it started (§6.4 of the RAFT dissertation). The leader records its commit
+     * index as the read index, confirms that it is still the leader, and then applies the read once
+     * it applied the log up to the read index. A follower asks the leader for the read index.
+     *
+     * @param operation to apply, which must not modify the state machine
+     * @return result of the operation
+     * @throws java.lang.Exception either an exception thrown by the operation, or a
+     *     LeaderException if this server cannot serve reads
+     */
+    public Object readFromStateMachine(Object operation) throws java.lang.Exception {
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(
+                    String.format("%s: readFromStateMachine(%s)", pState.myServerID, operation));
+        }
+        int readIndex;
+        if (vState.getState() == State.LEADER) {
+            readIndex = leader.readIndex();
+            if (readIndex == INVALID_INDEX) {
+                /* Our commit index might be behind until we commit an entry of our term. */
+                return leader.applyToStateMachine(operation);
+            }
+        } else if (followerReads && vState.getState() == State.FOLLOWER) {
+            RemoteRaftServer currentLeader = getCurrentLeader();
+            readIndex = currentLeader != null ? currentLeader.readIndex() : INVALID_INDEX;
+            if (readIndex == INVALID_INDEX) {
+                throw new LeaderException(
+                        String.format("Current Leader is %s", vState.getCurrentLeader()),
+                        currentLeader);
+            }
+        } else {
+            throw new LeaderException(
+                    String.format("Current Leader is %s", vState.getCurrentLeader()),
+                    getCurrentLeader());
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LEADER_HEARTBEAT_TIMEOUT);
+        synchronized (applyLock) {
+            while (vState.getLastApplied() < readIndex) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0) {
+                    throw new LeaderException(
+                            String.format(
+                                    "Timed out waiting for log index %d to be applied. Current leader is %s",
+                                    readIndex, vState.getCurrentLeader()),
+                            getCurrentLeader());
+                }
+                TimeUnit.NANOSECONDS.timedWait(applyLock, remaining);
+            }
+            return applier.apply(operation);
+        }
+    }
+
+    /**
+     * Returns the read index of the leader, after confirming that it is still the leader.
+     *
+     * @return commit index of the leader when the read started, or INVALID_INDEX if the leader did
+     *     not commit an entry of its term yet, so that its commit index might be behind
+     * @throws LeaderException if this server is not the leader, or failed to confirm it
+     * @throws InterruptedException if interrupted while confirming the leadership
+     */
+    public int readIndex() throws LeaderException, InterruptedException {
+        if (vState.getState() != State.LEADER) {
+            throw new LeaderException(
+                    String.format("Current Leader is %s", vState.getCurrentLeader()),
+                    getCurrentLeader());
+        }
+        return leader.readIndex();
+    }
+
     private int lastLogIndex() {
         synchronized (pState.log()) {
             return pState.log().size() - 1;
@@ -392,7 +730,7 @@ public class Server
         if (pState.log().isEmpty()) {
             return -1;
         } else {
-            return pState.log().get(pState.log().size() - 1).term;
+            return pState.log().term(pState.log().size() - 1);
         }
     }
 
@@ -401,7 +739,7 @@ public class Server
         if (prev < 0) {
             return -1;
         } else {
-            return pState.log().get(prev).term;
+            return pState.log().term(prev);
         }
     }
 
@@ -410,20 +748,33 @@ public class Server
     }
 
     class Leader {
-        // Volatile state on leaders (reinitialized after election)
-        /** Next index for each server. */
-        Map<UUID, Integer> nextIndex = new ConcurrentHashMap<UUID, Integer>();
-        /** Match index for each server. */
-        Map<UUID, Integer> matchIndex = new ConcurrentHashMap<UUID, Integer>();
+        /** Maximum number of log entries shipped to a follower in one AppendEntries request. */
+        static final int MAX_ENTRIES_PER_APPEND = 1024;
+
+        /**
+         * Maximum number of AppendEntries requests outstanding per follower. Followers accept
+         * requests in any order, so that requests can be pipelined.
+         */
+        static final int MAX_OUTSTANDING_APPENDS = 4;
 
         /** How frequently we send out heartbeats when we're the leader. */
         final int LEADER_HEARTBEAT_PERIOD = LEADER_HEARTBEAT_TIMEOUT / 3;
 
-        /** Periodically send heartbeats when we're the leader. */
-        ResettableTimer leaderHeartbeatSendTimer;
+        /** How long to wait before retrying a follower which failed to respond. */
+        final int RETRY_DELAY = LEADER_HEARTBEAT_PERIOD / 10;
+
+        /** Replicators of the log to each of the other servers. */
+        final Map<UUID, Replicator> replicators = new ConcurrentHashMap<UUID, Replicator>();
+
+        /** Clients waiting for their log entries to be applied, keyed by log index. */
+        final Map<Integer, CompletableFuture<Object>> pending =
+                new ConcurrentHashMap<Integer, CompletableFuture<Object>>();
+
+        /** Term in which we are the leader. */
+        volatile int leaderTerm;
 
-        /** Thread pool used for sending appendEntries (incl heartbeats) to followers. */
-        ThreadPoolExecutor appendEntriesThreadPool;
+        /** Notified when followers acknowledge requests, to confirm our leadership. */
+        final Object confirmations = new Object();
 
         Leader() {}
         /** Start being a leader. */
@@ -435,29 +786,16 @@ public class Server
             logger.info(pState.myServerID + ": Start being a leader.");
             vState.setState(
                     State.LEADER, vState.getState()); // It doesn't matter what we were before.
+            leaderTerm = pState.getCurrentTerm();
+
             /** Reinitialize volatile leader state */
-            nextIndex.clear();
-            matchIndex.clear();
             int lastLogIndex = lastLogIndex();
             for (UUID i : vState.otherServers.keySet()) {
-                nextIndex.put(i, lastLogIndex + 1);
-                matchIndex.put(i, 0);
+                Replicator replicator = new Replicator(i, lastLogIndex + 1);
+                replicators.put(i, replicator);
+                replicator.start();
             }
 
-            appendEntriesThreadPool =
-                    (ThreadPoolExecutor)
-                            Executors.newFixedThreadPool(vState.otherServers.size() * 2 + 1);
-
-            leaderHeartbeatSendTimer =
-                    new ResettableTimer(
-                            new TimerTask() {
-                                public void run() {
-                                    sendHeartbeats();
-                                }
-                            },
-                            (long) LEADER_HEARTBEAT_PERIOD);
-            sendHeartbeats();
-
             /**
              * • If last log index ≥ nextIndex for a follower: send AppendEntries RPC with log
              * entries starting at nextIndex • If successful: update nextIndex and matchIndex for
@@ -471,149 +809,104 @@ public class Server
         /** Stop being a leader. */
         void stop() {
             logger.info(pState.myServerID + ": Stop being a leader.");
-            leaderHeartbeatSendTimer.cancel(); // Stop sending heartbeats.
-            appendEntriesThreadPool.shutdownNow();
-            appendEntriesThreadPool = null;
-        }
-
-        /**
-         * Send a appendLog request to the specified server.
-         *
-         * @param otherServerID
-         */
-        void sendAppendEntries(UUID otherServerID) {
-            boolean success = false;
-            int logSize, currentTerm, lastLogIndex = 0;
-            List<LogEntry> entries;
-            while (!success && vState.getState() == State.LEADER) {
-                final Integer otherServerNextIndex = leader.nextIndex.get(otherServerID);
-                try {
-                    int nextIndex = otherServerNextIndex == null ? 0 : otherServerNextIndex;
-                    int prevLogTerm;
-                    // TODO: If nextIndex == 0 and log.size() > 0, prevLogTerm should be set to
-                    // log.get(0).term
-                    // But it is currently set to INVALID_INDEX (-1)
-                    synchronized (pState) {
-                        logSize = pState.log().size();
-                        lastLogIndex = lastLogIndex();
-                        currentTerm = pState.getCurrentTerm();
-                        if (nextIndex > 0 && logSize > 0) {
-                            prevLogTerm = pState.log().get(otherServerNextIndex - 1).term;
-                        } else {
-                            prevLogTerm = INVALID_INDEX;
-                        }
-                        entries =
-                                logSize > 0
-                                        ? new ArrayList(
-                                                pState.log().subList(nextIndex, lastLogIndex + 1))
-                                        : NO_LOG_ENTRIES;
-                    }
-                    logger.fine(
-                            String.format(
-                                    "%s sending appendEntries to %s: otherServerNextIndex=%d, prevLogIndex=%d, lastLogIndex=%d, log.size=%d, entries.size=%d",
-                                    pState.myServerID,
-                                    otherServerID,
-                                    otherServerNextIndex,
-                                    nextIndex - 1,
-                                    lastLogIndex,
-                                    logSize,
-                                    entries.size()));
-                    int remoteTerm =
-                            getServer(otherServerID)
-                                    .appendEntries(
-                                            currentTerm,
-                                            pState.myServerID,
-                                            nextIndex - 1,
-                                            prevLogTerm,
-                                            entries,
-                                            vState.getCommitIndex());
-                    success = true;
-                    respondToRemoteTerm(remoteTerm); // Might lose leadership.
-                } catch (InvalidTermException e) {
-                    logger.warning(e.toString());
-                    respondToRemoteTerm(e.currentTerm);
-                } catch (PrevLogTermMismatch e) {
-                    logger.warning(e.toString());
-                    this.nextIndex.put(
-                            otherServerID, otherServerNextIndex - 1); // Decrement and try again.
-                } catch (
-                        InvalidLogIndex
-                                e) { // The remote server doesn't have that log entry at all.
-                    logger.severe(e.toString());
-                    this.nextIndex.put(
-                            otherServerID, otherServerNextIndex - 1); // Decrement and try again.
-                }
+            for (Replicator replicator : replicators.values()) {
+                replicator.stop();
             }
-            if (vState.getState() == State.LEADER) {
-                this.nextIndex.put(otherServerID, lastLogIndex + 1);
-                this.matchIndex.put(otherServerID, lastLogIndex);
+            replicators.clear();
+            synchronized (confirmations) {
+                confirmations.notifyAll(); // Reads waiting for confirmation fail.
+            }
+
+            /* Entries which are not applied yet might still be committed by the next leader, but
+             * we cannot tell the clients anymore. */
+            Iterator<Map.Entry<Integer, CompletableFuture<Object>>> i =
+                    pending.entrySet().iterator();
+            while (i.hasNext()) {
+                i.next()
+                        .getValue()
+                        .completeExceptionally(
+                                new LeaderException(
+                                        "Lost leadership before the operation was applied. Current leader is "
+                                                + vState.getCurrentLeader(),
+                                        getCurrentLeader()));
+                i.remove();
             }
         }
 
-        /** Send heartbeats to all servers. */
-        void sendHeartbeats() { // We might want to keep a separate timer for each other server.
-            // For now, we use one timer.
-            if (vState.getState() == State.LEADER) {
-                final Iterator<UUID> i = vState.otherServers.keySet().iterator();
-                while (i.hasNext()) {
-                    final UUID server = i.next();
-                    appendEntriesThreadPool.execute(
-                            new Runnable() {
-                                @Override
-                                public void run() {
-                                    /* Ensure a single thread is used by each server at any point of time. So that we
-                                     * don't make another call to sendAppendEntries for the particular server when
-                                     * previous call is not returned yet. Otherwise, later invoked sendAppendEntries
-                                     * may return before its previous call and can result in log consistency check
-                                     * failures even when leader has not changed. */
-                                    synchronized (server) {
-                                        sendAppendEntries(server);
-                                    }
-                                    updateCommitIndex();
-                                    try {
-                                        applyCommitted();
-                                    } catch (java.lang.Exception e) {
-                                        logger.warning(
-                                                String.format(
-                                                        "%s: Applying operatation remotely on %s generated exception %s.  This can probably be ignored.",
-                                                        pState.myServerID, server, e));
-                                    }
-                                }
-                            });
-                }
-                leaderHeartbeatSendTimer.reset();
+        /** Wake up all replicators to ship newly appended log entries. */
+        void replicate() {
+            for (Replicator replicator : replicators.values()) {
+                replicator.wakeUp();
             }
         }
 
         /**
-         * Are a majority of matchIndex[i]>=logIndex, and log[logIndex].term = currentTerm
+         * Records the commit index as the read index, and confirms that we are still the leader,
+         * either within our lease, or by exchanging heartbeats with a majority of servers. The
+         * heartbeats of concurrent reads are sent together.
          *
-         * @param logIndex
-         * @return true if the above holds for logIndex, else false
+         * @return read index, or INVALID_INDEX if no entry of our term is committed yet
+         * @throws LeaderException if we lost our leadership, or failed to confirm it in time
+         * @throws InterruptedException if interrupted while waiting for the confirmation
          */
-        boolean shouldBeCommitted(int logIndex) {
+        int readIndex() throws LeaderException, InterruptedException {
+            int term = leaderTerm;
+            int readIndex;
             synchronized (pState) {
-                if (pState.log().get(logIndex).term != pState.getCurrentTerm()) {
-                    return false;
+                readIndex = vState.getCommitIndex();
+                if (readIndex == INVALID_INDEX || pState.log().term(readIndex) != term) {
+                    return INVALID_INDEX;
                 }
             }
 
-            int matches = 0;
-            if (0 == vState.otherServers.size()) {
-                return true;
+            long start = System.nanoTime();
+            if (leaderLease
+                    && isConfirmedSince(
+                            start - TimeUnit.MILLISECONDS.toNanos(LEADER_LEASE_PERIOD))) {
+                return readIndex;
             }
 
-            for (UUID otherServerID : vState.otherServers.keySet()) {
-                int match = leader.matchIndex.get(otherServerID);
-                if (match >= logIndex) {
-                    if (++matches
-                            >= majorityQuorumSize()
-                                    - 1) { // -1 because the leader implicitly matches
-                        return true;
+            for (Replicator replicator : replicators.values()) {
+                replicator.requestHeartbeat();
+            }
+            long deadline = start + TimeUnit.MILLISECONDS.toNanos(LEADER_HEARTBEAT_TIMEOUT);
+            synchronized (confirmations) {
+                while (!isConfirmedSince(start)) {
+                    long remaining = deadline - System.nanoTime();
+                    if (vState.getState() != State.LEADER
+                            || leaderTerm != term
+                            || remaining <= 0) {
+                        throw new LeaderException(
+                                String.format(
+                                        "Failed to confirm leadership. Current leader is %s",
+                                        vState.getCurrentLeader()),
+                                getCurrentLeader());
                     }
+                    TimeUnit.NANOSECONDS.timedWait(confirmations, remaining);
                 }
             }
-            return false;
+            return readIndex;
+        }
+
+        /**
+         * @return whether a majority of servers, including us, acknowledged requests we sent at or
+         *     after the given time, as per {@link System#nanoTime()}
+         */
+        boolean isConfirmedSince(long time) {
+            int confirmed = 1; // We confirm ourselves.
+            for (Replicator replicator : replicators.values()) {
+                if (replicator.isAcknowledgedSince(time)) {
+                    confirmed++;
+                }
+            }
+            return confirmed >= majorityQuorumSize();
+        }
+
+        /** Wake up reads waiting for their leadership confirmation. */
+        void confirmed() {
+            synchronized (confirmations) {
+                confirmations.notifyAll();
+            }
         }
 
         /**
@@ -621,17 +914,42 @@ public class Server
          * log[N].term = currentTerm, then set commitIndex = N (see 5.3, 5.3)
          */
         void updateCommitIndex() {
-            for (int i = lastLogIndex(); i > vState.getCommitIndex(); i--) {
-                if (shouldBeCommitted(i)) {
-                    vState.setCommitIndex(i, vState.getCommitIndex());
+            if (vState.getState() != State.LEADER) {
+                return;
+            }
+            int[] matchIndexes = new int[replicators.size() + 1];
+            int n = 0;
+            /* The leader matches the entries of its own log which are durable. */
+            matchIndexes[n++] = pState.log().getSyncedIndex();
+            for (Replicator replicator : replicators.values()) {
+                if (n == matchIndexes.length) {
                     break;
                 }
+                matchIndexes[n++] = replicator.getMatchIndex();
+            }
+            Arrays.sort(matchIndexes, 0, n);
+            /* Highest index stored on a majority quorum */
+            int quorumIndex = matchIndexes[Math.max(0, n - majorityQuorumSize())];
+
+            /* Commit index is only advanced holding the log lock, so concurrent updates from
+             * different replicators never move it backwards. */
+            synchronized (pState) {
+                int commitIndex = vState.getCommitIndex();
+                if (quorumIndex > commitIndex) {
+                    if (pState.log().term(quorumIndex) != leaderTerm) {
+                        /* Only entries of the current term are committed by counting replicas */
+                        return;
+                    }
+                    vState.setCommitIndex(quorumIndex, commitIndex);
+                }
             }
+            applyCommitted();
         }
 
         /**
          * Applies an operation to the state machine, after successfully appending it to the logs of
-         * a majority quorum of replicas.
+         * a majority quorum of replicas. Concurrent operations are replicated together, and their
+         * results are returned to each caller as the commit index advances.
          *
          * @param operation to apply, i.e. a method invocation
          * @return result of the method invocation
@@ -639,125 +957,423 @@ public class Server
          *     applied locally, or a RAFTException indicating why the operation could not be
          *     applied.
          */
-        // TODO: This method should be thread safe
-        // Currently this thread is not thread safe. Suppose we have multiple threads executing this
-        // method in different speed. We further assume that the lastLogIndex observed by thread A
-        // is
-        // 20, thread A sends append entry requests to other servers to replicate entries up to 20.
-        // After thread A receives quorum replies, it will update the committed index to the latest
-        // index. In this case the latest index may have been increased to 25 by other threads.
         public Object applyToStateMachine(Object operation) throws java.lang.Exception {
             /**
              * If command received from client: append entry to local log, respond after entry
              * applied to state machine (§5.3)
              */
-            logger.fine(String.format("%s: applyToStateMachine(%s)", pState.myServerID, operation));
+            CompletableFuture<Object> result = new CompletableFuture<Object>();
             final int logIndex;
             synchronized (pState) {
-                pState.log().add(new LogEntry(operation, pState.getCurrentTerm()));
+                pState.log().add(new LogEntry(operation, leaderTerm));
                 logIndex = lastLogIndex();
+                pending.put(logIndex, result);
             }
-            final Semaphore replicationCounter =
-                    new Semaphore(0); // Initially we have zero replicas
-            final Iterator<UUID> i = vState.otherServers.keySet().iterator();
-            while (i.hasNext()) {
-                final UUID otherServerID = i.next();
-                final Integer otherServerNextIndex = leader.nextIndex.get(otherServerID);
-
-                // TODO: We should allocate one replication thread for each follower.
-                // Blindly putting replication request into a thread pool has a few drawbacks:
-                // 1) A dead follower will take all available threads and make the system hang
-                // 2) We have to deal with race conditions between multiple threads which try
-                // to update the status of the same follower
-                appendEntriesThreadPool.execute(
-                        new Runnable() {
-                            @Override
-                            public void run() {
-                                if (otherServerNextIndex == null
-                                        || logIndex >= otherServerNextIndex) {
-                                    // This is always true, but we put it here to be consistent with
-                                    // the formal algorithm.
-                                    /* Ensure a single thread is used by each server at any point of time. So that we
-                                     * don't make another call to sendAppendEntries for the particular server when
-                                     * previous call is not returned yet. Otherwise, later invoked sendAppendEntries
-                                     * may return before its previous call and can result in log consistency check
-                                     * failures even when leader has not changed. */
-                                    synchronized (otherServerID) {
-                                        sendAppendEntries(otherServerID);
-                                    }
-                                } else {
-                                    logger.warning(
-                                            String.format(
-                                                    "%s: Whooah! logIndex %d is not greater than otherServerNextIndex %s",
-                                                    pState.myServerID,
-                                                    logIndex,
-                                                    otherServerNextIndex));
-                                }
-                                replicationCounter.release();
-                            }
-                        });
+            if (vState.getState() != State.LEADER) {
+                /* Lost leadership while appending, the entry might never be replicated */
+                pending.remove(logIndex);
+                throw new LeaderException(
+                        String.format("Current Leader is %s", vState.getCurrentLeader()),
+                        getCurrentLeader());
             }
-            logger.fine(
-                    String.format(
-                            "%s: Waiting for logindex %d to be committed to %d majority quorum.",
-                            pState.myServerID, logIndex, majorityQuorumSize()));
-            try {
-                replicationCounter.acquire(majorityQuorumSize() - 1);
-            } catch (InterruptedException e) {
-                logger.warning(
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine(
                         String.format(
-                                "Failed to commit logindex %d to quorum of %d.  Reason: %s",
-                                logIndex, majorityQuorumSize(), e));
+                                "%s: Waiting for logindex %d to be committed to %d majority quorum.",
+                                pState.myServerID, logIndex, majorityQuorumSize()));
             }
-            logger.fine(
-                    String.format(
-                            "%s: Logindex %d was committed to %d majority quorum.",
-                            pState.myServerID, logIndex, majorityQuorumSize()));
+            /* Followers write the entry to their logs while we write it to ours. */
+            replicate();
+            pState.log().sync(logIndex);
             updateCommitIndex();
-            Object returnVal = applyCommitted();
-            if (vState.getLastApplied() >= logIndex) {
-                logger.fine("logIndex " + logIndex + " applied to state machine: " + operation);
-            } else {
-                logger.severe(
+
+            try {
+                return result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof java.lang.Exception) {
+                    throw (java.lang.Exception) cause;
+                }
+                throw (Error) cause;
+            } catch (InterruptedException e) {
+                logger.warning(
                         String.format(
-                                "Whooah! Internal error: logIndex %d was committed by a majority quorum, but not applied locally.",
+                                "Interrupted while waiting for logindex %d to be applied.",
                                 logIndex));
+                throw e;
             }
-            return returnVal;
         }
 
         /**
          * Apply log entries that have been committed but not yet applied. • If commitIndex >
          * lastApplied: increment lastApplied, apply log[lastApplied] to state machine (§5.3). On
-         * the master, return the result of the last applied operation, for return to the client.
+         * the master, complete the waiting client with the result of its operation.
          */
-        Object applyCommitted() throws java.lang.Exception {
-            Object lastReturnVal = null;
-            java.lang.Exception lastException = null;
-            while (vState.getCommitIndex() > vState.getLastApplied()) {
-                LogEntry entry;
-                synchronized (pState) {
-                    entry = pState.log().get(vState.incrementLastApplied(vState.getLastApplied()));
+        void applyCommitted() {
+            synchronized (applyLock) {
+                int lastApplied;
+                while (vState.getCommitIndex() > (lastApplied = vState.getLastApplied())) {
+                    int index = lastApplied + 1;
+                    LogEntry entry;
+                    synchronized (pState) {
+                        entry = pState.log().get(index);
+                    }
+                    Object returnVal = null;
+                    java.lang.Exception exception = null;
+                    try {
+                        returnVal = applier.apply(entry.operation);
+                    } catch (java.lang.Exception e) {
+                        logger.warning(
+                                String.format(
+                                        "Operation %s generated exception %s.  "
+                                                + "This should generally not be a problem, as the same exception should be "
+                                                + "generated on the master and all other replicas, and returned to the client "
+                                                + "for appropriate action (e.g. retry)",
+                                        entry, e));
+                        exception = e;
+                    }
+                    vState.setLastApplied(index, lastApplied);
+
+                    CompletableFuture<Object> result = pending.remove(index);
+                    if (result != null) {
+                        if (exception != null) {
+                            result.completeExceptionally(exception);
+                        } else {
+                            result.complete(returnVal);
+                        }
+                    }
+                }
+                snapshotIfDue();
+                applyLock.notifyAll(); // Wake up reads waiting for the entries to be applied.
+            }
+        }
+
+        /**
+         * Replicates the log to one follower. A dedicated thread continuously ships all entries
+         * appended since the last request in one AppendEntries request, with up to {@link
+         * #MAX_OUTSTANDING_APPENDS} requests outstanding, and sends heartbeats while idle. A
+         * follower which needs entries already discarded by a snapshot is sent the snapshot
+         * instead.
+         */
+        class Replicator implements Runnable {
+            final UUID otherServerID;
+            final Thread thread;
+            final ThreadPoolExecutor senders;
+            /* Fields below are guarded by this replicator. */
+            /** Index of the next log entry to send. */
+            int nextIndex;
+            /** Index of the highest log entry known to be replicated on the follower. */
+            int matchIndex = INVALID_INDEX;
+            int outstanding;
+            int sentCommitIndex = INVALID_INDEX;
+            long lastSendTime;
+            long retryTime;
+            /** Send time, as per System.nanoTime(), of the latest request the follower answered. */
+            long acknowledgedSendTime;
+            boolean acknowledged;
+            /** Whether a read is waiting for the follower to confirm our leadership. */
+            boolean heartbeatRequested;
+            boolean sendingSnapshot;
+            boolean stopped;
+
+            Replicator(UUID otherServerID, int nextIndex) {
+                this.otherServerID = otherServerID;
+                this.nextIndex = nextIndex;
+                final String name = "RaftReplicator-" + otherServerID;
+                thread = new Thread(this, name);
+                thread.setDaemon(true);
+                senders =
+                        (ThreadPoolExecutor)
+                                Executors.newFixedThreadPool(
+                                        MAX_OUTSTANDING_APPENDS,
+                                        new ThreadFactory() {
+                                            @Override
+                                            public Thread newThread(Runnable r) {
+                                                Thread t = new Thread(r, name + "-Sender");
+                                                t.setDaemon(true);
+                                                return t;
+                                            }
+                                        });
+            }
+
+            void start() {
+                thread.start();
+            }
+
+            synchronized void stop() {
+                stopped = true;
+                notifyAll();
+                senders.shutdownNow();
+            }
+
+            synchronized void wakeUp() {
+                notifyAll();
+            }
+
+            synchronized int getMatchIndex() {
+                return matchIndex;
+            }
+
+            /** Send a request right away, even if no entries are due. */
+            synchronized void requestHeartbeat() {
+                heartbeatRequested = true;
+                notifyAll();
+            }
+
+            synchronized boolean isAcknowledgedSince(long time) {
+                return acknowledged && acknowledgedSendTime - time >= 0;
+            }
+
+            @Override
+            public void run() {
+                while (true) {
+                    final int prevLogIndex, prevLogTerm, commitIndex;
+                    final List<LogEntry> entries;
+                    final Snapshot snapshot;
+                    final long sendTime;
+                    synchronized (this) {
+                        long waitTime;
+                        while ((waitTime = nextSend()) > 0) {
+                            try {
+                                wait(waitTime);
+                            } catch (InterruptedException e) {
+                                return;
+                            }
+                        }
+                        if (stopped) {
+                            return;
+                        }
+
+                        commitIndex = vState.getCommitIndex();
+                        synchronized (pState) {
+                            RaftLog log = pState.log();
+                            if (nextIndex <= log.getSnapshotIndex()) {
+                                /* The entries the follower needs have been discarded. */
+                                snapshot = pState.getSnapshot();
+                                prevLogIndex = prevLogTerm = INVALID_INDEX;
+                                entries = NO_LOG_ENTRIES;
+                            } else {
+                                snapshot = null;
+                                int lastIndex =
+                                        Math.min(
+                                                log.size() - 1,
+                                                nextIndex + MAX_ENTRIES_PER_APPEND - 1);
+                                prevLogIndex = nextIndex - 1;
+                                prevLogTerm =
+                                        prevLogIndex >= 0 ? log.term(prevLogIndex) : INVALID_INDEX;
+                                entries =
+                                        lastIndex >= nextIndex
+                                                ? log.entries(nextIndex, lastIndex)
+                                                : NO_LOG_ENTRIES;
+                            }
+                        }
+                        if (snapshot != null) {
+                            nextIndex = snapshot.index + 1;
+                            sendingSnapshot = true;
+                        } else {
+                            nextIndex += entries.size();
+                        }
+                        outstanding++;
+                        sentCommitIndex = Math.max(sentCommitIndex, commitIndex);
+                        lastSendTime = System.currentTimeMillis();
+                        sendTime = System.nanoTime();
+                        heartbeatRequested = false;
+                    }
+
+                    try {
+                        senders.execute(
+                                new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        if (snapshot != null) {
+                                            sendSnapshot(snapshot, sendTime);
+                                        } else {
+                                            send(
+                                                    prevLogIndex,
+                                                    prevLogTerm,
+                                                    entries,
+                                                    commitIndex,
+                                                    sendTime);
+                                        }
+                                    }
+                                });
+                    } catch (RejectedExecutionException e) {
+                        return; // Stopped
+                    }
+                }
+            }
+
+            /**
+             * Decides when to send the next request. Must be called holding the replicator lock.
+             *
+             * @return 0 if a request should be sent now, or how long to wait in milliseconds
+             */
+            private long nextSend() {
+                if (stopped) {
+                    return 0;
+                }
+                long now = System.currentTimeMillis();
+                if (now < retryTime) {
+                    return retryTime - now;
+                }
+                if (outstanding >= MAX_OUTSTANDING_APPENDS || sendingSnapshot) {
+                    return LEADER_HEARTBEAT_PERIOD;
+                }
+                if (heartbeatRequested) {
+                    return 0; // A read waits for our leadership to be confirmed
+                }
+                if (nextIndex <= lastLogIndex()) {
+                    return 0; // Entries to ship
+                }
+                if (outstanding == 0 && vState.getCommitIndex() > sentCommitIndex) {
+                    return 0; // Let the follower know about the new commit index
+                }
+                long heartbeatDue = lastSendTime + LEADER_HEARTBEAT_PERIOD - now;
+                if (outstanding == 0 && heartbeatDue <= 0) {
+                    return 0;
+                }
+                return Math.max(1, Math.min(heartbeatDue, LEADER_HEARTBEAT_PERIOD));
+            }
+
+            /** Send an AppendEntries request to the follower and process the response. */
+            void send(
+                    int prevLogIndex,
+                    int prevLogTerm,
+                    List<LogEntry> entries,
+                    int commitIndex,
+                    long sendTime) {
+                if (logger.isLoggable(Level.FINE)) {
+                    logger.fine(
+                            String.format(
+                                    "%s sending appendEntries to %s: prevLogIndex=%d, entries.size=%d, leaderCommit=%d",
+                                    pState.myServerID,
+                                    otherServerID,
+                                    prevLogIndex,
+                                    entries.size(),
+                                    commitIndex));
+                }
+                try {
+                    int remoteTerm =
+                            getServer(otherServerID)
+                                    .appendEntries(
+                                            leaderTerm,
+                                            pState.myServerID,
+                                            prevLogIndex,
+                                            prevLogTerm,
+                                            entries,
+                                            commitIndex);
+                    acknowledged(prevLogIndex + entries.size(), sendTime);
+                    respondToRemoteTerm(remoteTerm); // Might lose leadership.
+                    updateCommitIndex();
+                } catch (InvalidTermException e) {
+                    logger.warning(e.toString());
+                    finished(false);
+                    respondToRemoteTerm(e.currentTerm);
+                } catch (PrevLogTermMismatch e) {
+                    logger.fine(e.toString());
+                    rejected(prevLogIndex, sendTime);
+                } catch (InvalidLogIndex e) {
+                    // The remote server doesn't have that log entry at all.
+                    logger.fine(e.toString());
+                    rejected(prevLogIndex, sendTime);
+                } catch (RuntimeException e) {
+                    logger.warning(
+                            String.format(
+                                    "%s: appendEntries to %s failed: %s",
+                                    pState.myServerID, otherServerID, e));
+                    synchronized (this) {
+                        nextIndex = Math.min(nextIndex, prevLogIndex + 1);
+                    }
+                    finished(true);
                 }
-                logger.fine(pState.myServerID + ": Applying " + entry);
+            }
+
+            /** Send a snapshot to the follower and process the response. */
+            void sendSnapshot(Snapshot snapshot, long sendTime) {
+                logger.info(
+                        String.format(
+                                "%s sending %s to %s", pState.myServerID, snapshot, otherServerID));
                 try {
-                    lastReturnVal = applier.apply(entry.operation);
-                    lastException = null;
-                } catch (java.lang.Exception e) {
+                    int remoteTerm =
+                            getServer(otherServerID)
+                                    .installSnapshot(
+                                            leaderTerm,
+                                            pState.myServerID,
+                                            snapshot.index,
+                                            snapshot.term,
+                                            snapshot.state);
+                    synchronized (this) {
+                        sendingSnapshot = false;
+                    }
+                    acknowledged(snapshot.index, sendTime);
+                    respondToRemoteTerm(remoteTerm); // Might lose leadership.
+                    updateCommitIndex();
+                } catch (InvalidTermException e) {
+                    logger.warning(e.toString());
+                    synchronized (this) {
+                        sendingSnapshot = false;
+                    }
+                    finished(false);
+                    respondToRemoteTerm(e.currentTerm);
+                } catch (RuntimeException e) {
                     logger.warning(
                             String.format(
-                                    "Operation %s generated exception %s.  "
-                                            + "This should generally not be a problem, as the same exception should be "
-                                            + "generated on the master and all other replicas, and returned to the client "
-                                            + "for appropriate action (e.g. retry)",
-                                    entry, e));
-                    lastException = e;
+                                    "%s: installSnapshot to %s failed: %s",
+                                    pState.myServerID, otherServerID, e));
+                    synchronized (this) {
+                        sendingSnapshot = false;
+                        nextIndex = Math.min(nextIndex, matchIndex + 1);
+                    }
+                    finished(true);
+                }
+            }
+
+            void acknowledged(int lastIndex, long sendTime) {
+                synchronized (this) {
+                    if (lastIndex > matchIndex) {
+                        matchIndex = lastIndex;
+                    }
+                    answered(sendTime);
+                    finished(false);
+                }
+                confirmed();
+            }
+
+            /**
+             * The follower does not have a matching entry at prevLogIndex. Decrement nextIndex and
+             * retry. Rejections of entries known to be replicated are caused by requests arriving
+             * out of order, and are ignored.
+             */
+            void rejected(int prevLogIndex, long sendTime) {
+                synchronized (this) {
+                    if (prevLogIndex > matchIndex) {
+                        nextIndex = Math.max(matchIndex + 1, Math.min(nextIndex, prevLogIndex));
+                    }
+                    /* The follower accepted our term before checking its log */
+                    answered(sendTime);
+                    finished(false);
+                }
+                confirmed();
+            }
+
+            /**
+             * The follower accepted us as the leader when it answered a request sent at sendTime.
+             * Must be called holding the replicator lock.
+             */
+            private void answered(long sendTime) {
+                if (!acknowledged || sendTime - acknowledgedSendTime > 0) {
+                    acknowledgedSendTime = sendTime;
+                    acknowledged = true;
                 }
             }
-            if (lastException != null) {
-                throw lastException;
+
+            synchronized void finished(boolean failed) {
+                outstanding--;
+                if (failed) {
+                    retryTime = System.currentTimeMillis() + RETRY_DELAY;
+                }
+                notifyAll();
             }
-            return lastReturnVal;
         }
     }
 
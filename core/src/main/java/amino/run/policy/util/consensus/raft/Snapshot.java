@@ -0,0 +1,71 @@
+package amino.run.policy.util.consensus.raft;
+
+import amino.run.common.Utils;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+
+/**
+ * Snapshot of the state machine, replacing all log entries up to and including {@link #index}.
+ * The state is kept serialized, so that it can be written to disk and sent to followers in {@link
+ * RemoteRaftServer#installSnapshot} as it is.
+ */
+class Snapshot implements Serializable {
+    static final String FILE_NAME = "snapshot";
+
+    /** Index of the last log entry included in the snapshot */
+    final int index;
+    /** Term of the last log entry included in the snapshot */
+    final int term;
+    /** Serialized state machine, as returned by {@link StateMachineApplier#snapshot()} */
+    final byte[] state;
+
+    Snapshot(int index, int term, byte[] state) {
+        this.index = index;
+        this.term = term;
+        this.state = state;
+    }
+
+    /**
+     * Atomically replaces the snapshot in the given directory with this one. The snapshot is
+     * written to a temporary file first, so that a crash leaves either the old or the new snapshot.
+     */
+    void write(File directory) throws IOException {
+        File tmp = new File(directory, FILE_NAME + ".tmp");
+        FileOutputStream out = new FileOutputStream(tmp);
+        try {
+            out.write(Utils.toBytes(this));
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+        if (!tmp.renameTo(new File(directory, FILE_NAME))) {
+            throw new IOException("Failed to replace snapshot in " + directory);
+        }
+    }
+
+    /** @return snapshot in the given directory, or null if there is none */
+    static Snapshot read(File directory) throws IOException {
+        File file = new File(directory, FILE_NAME);
+        if (!file.exists()) {
+            return null;
+        }
+        RandomAccessFile in = new RandomAccessFile(file, "r");
+        try {
+            byte[] bytes = new byte[(int) in.length()];
+            in.readFully(bytes);
+            return (Snapshot) Utils.toObject(bytes);
+        } catch (ClassNotFoundException e) {
+            throw new IOException("Failed to read snapshot in " + directory, e);
+        } finally {
+            in.close();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "Snapshot{index=" + index + ", term=" + term + ", size=" + state.length + '}';
+    }
+}
@@ -11,4 +11,23 @@ public interface StateMachineApplier {
      */
     // TODO: Suggest define it as `Object apply(RPC rpc)`
     public Object apply(Object operation) throws java.lang.Exception;
+
+    /**
+     * Take a snapshot of the state machine, so that the log entries applied so far can be
+     * discarded. Never called concurrently with {@link #apply(Object)} or {@link
+     * #restore(Object)}.
+     *
+     * @return serializable copy of the state of the state machine, reflecting all operations
+     *     applied so far.
+     * @throws java.lang.Exception Any exception arising from taking the snapshot.
+     */
+    public Object snapshot() throws java.lang.Exception;
+
+    /**
+     * Replace the state of the state machine with a snapshot, taken on this or another replica.
+     *
+     * @param snapshot The snapshot, as returned by {@link #snapshot()}.
+     * @throws java.lang.Exception Any exception arising from restoring the snapshot.
+     */
+    public void restore(Object snapshot) throws java.lang.Exception;
 }
@@ -16,6 +16,7 @@ import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.common.MultiDMConstructionHelper;
 import amino.run.common.Notification;
 import amino.run.common.ReplicaID;
+import amino.run.common.StructuralCloner;
 import amino.run.common.Utils;
 import amino.run.compiler.GlobalStubConstants;
 import amino.run.kernel.common.GlobalKernelReferences;
@@ -24,6 +25,8 @@ import amino.run.kernel.common.KernelObjectFactory;
 import amino.run.kernel.common.KernelObjectNotCreatedException;
 import amino.run.kernel.common.KernelObjectNotFoundException;
 import amino.run.kernel.common.KernelObjectStub;
+import amino.run.kernel.metrics.MetricsRegistry;
+import amino.run.oms.ChainRegistration;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import amino.run.policy.PolicyContainer;
@@ -34,6 +37,7 @@ import java.rmi.RemoteException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import org.apache.harmony.rmi.common.RMIUtil;
@@ -131,18 +135,31 @@ public class MicroService {
             spec = setDefaultDMSpec(spec);
         }
 
-        /* Register for a microservice Id from OMS */
-        MicroServiceID microServiceID =
-                GlobalKernelReferences.nodeServer.oms.registerMicroService();
-
-        /* Create a policy chain based on policy names in the spec */
+        /* Register the microservice and create the group policies of all DMs in one OMS call */
+        MicroServiceID microServiceID = new MicroServiceID(UUID.randomUUID());
         List<String> policyNames = MultiDMConstructionHelper.getPolicyNameChain(spec);
+        List<GroupPolicy> groupPolicies =
+                PolicyCreationHelper.createGroupPolicies(
+                        new ChainRegistration(microServiceID, spec).registerMicroService(),
+                        policyNames);
 
+        /* Create a policy chain based on policy names in the spec */
+        ChainRegistration registration = new ChainRegistration(microServiceID, spec);
         for (int i = 0; i < spec.getDmList().size(); i++) {
-            createConnectedPolicy(null, null, policyNames, processedPolicies, microServiceID, spec);
+            createConnectedPolicy(
+                    groupPolicies.get(i),
+                    null,
+                    policyNames,
+                    processedPolicies,
+                    microServiceID,
+                    spec,
+                    registration);
             policyNames.remove(0);
         }
 
+        /* Register all replicas of the chain in one OMS call */
+        PolicyCreationHelper.registerChain(registration);
+
         ServerPolicy serverPolicy = processedPolicies.get(0).serverPolicy;
         ClientPolicy clientPolicy = processedPolicies.get(0).clientPolicy;
 
@@ -201,6 +218,33 @@ public class MicroService {
             MicroServiceID microServiceID,
             MicroServiceSpec spec)
             throws MicroServiceCreationException {
+        return createConnectedPolicy(
+                groupPolicy,
+                parentGroupPolicy,
+                policyNames,
+                processedPolicies,
+                microServiceID,
+                spec,
+                null);
+    }
+
+    /**
+     * Same as {@link #createConnectedPolicy(GroupPolicy, GroupPolicy, List, List, MicroServiceID,
+     * MicroServiceSpec)}, but the replica is not registered with the OMS right away. It is added
+     * to the given registration instead, which the caller passes to the OMS once the whole chain
+     * has been created.
+     *
+     * @param registration registrations of the chain, or null to register the replica right away
+     */
+    public static List<PolicyContainer> createConnectedPolicy(
+            GroupPolicy groupPolicy,
+            GroupPolicy parentGroupPolicy,
+            List<String> policyNames,
+            List<PolicyContainer> processedPolicies,
+            MicroServiceID microServiceID,
+            MicroServiceSpec spec,
+            ChainRegistration registration)
+            throws MicroServiceCreationException {
         if (groupPolicy == null) {
             groupPolicy =
                     PolicyCreationHelper.createGroupPolicy(
@@ -214,7 +258,8 @@ public class MicroService {
                         parentGroupPolicy,
                         policyNames,
                         processedPolicies,
-                        spec);
+                        spec,
+                        registration);
 
         // index of currently processing policy. i.e.,) if there were 2 outer DMs created already,
         // idx will be 3.
@@ -270,6 +315,32 @@ public class MicroService {
             List<PolicyContainer> processedPolicies,
             MicroServiceSpec spec)
             throws MicroServiceCreationException {
+        return createPolicyInstance(
+                microServiceID,
+                groupPolicyStub,
+                parentGroupPolicyStub,
+                policyNamesToCreate,
+                processedPolicies,
+                spec,
+                null);
+    }
+
+    /**
+     * Same as {@link #createPolicyInstance(MicroServiceID, GroupPolicy, GroupPolicy, List, List,
+     * MicroServiceSpec)}, but the replica is added to the given registration instead of being
+     * registered with the OMS right away.
+     *
+     * @param registration registrations of the chain, or null to register the replica right away
+     */
+    private static List<PolicyContainer> createPolicyInstance(
+            MicroServiceID microServiceID,
+            GroupPolicy groupPolicyStub,
+            GroupPolicy parentGroupPolicyStub,
+            List<String> policyNamesToCreate,
+            List<PolicyContainer> processedPolicies,
+            MicroServiceSpec spec,
+            ChainRegistration registration)
+            throws MicroServiceCreationException {
         String policyName = policyNamesToCreate.get(0);
         try {
             HashMap<String, Class<?>> policyMap = PolicyCreationHelper.getPolicyMap(policyName);
@@ -287,7 +358,7 @@ public class MicroService {
             /* Initialize the server policy and return a local pointer to the object itself */
             Policy.ServerPolicy serverPolicy = initializeServerPolicy(serverPolicyStub);
 
-            registerReplica(microServiceID, serverPolicy, serverPolicyStub);
+            registerReplica(microServiceID, serverPolicy, serverPolicyStub, registration);
 
             /* Link everything together */
             // TODO: client is unncessary for outer policies of a replica.
@@ -322,6 +393,11 @@ public class MicroService {
 
             serverPolicy.setParentGroupId(parentGroupOid);
             serverPolicy.setSpec(spec);
+            if (spec != null && spec.getMaxConcurrentRPCs() > 0) {
+                GlobalKernelReferences.nodeServer
+                        .getKernelObject(((KernelObjectStub) serverPolicyStub).$__getKernelOID())
+                        .setMaxConcurrentRPCs(spec.getMaxConcurrentRPCs());
+            }
 
             /* Execute onCreate for ServerPolicy */
             serverPolicy.onCreate(groupPolicyStub);
@@ -373,6 +449,8 @@ public class MicroService {
         } catch (Exception e) {
             throw new RuntimeException("Failed to delete microservice.", e);
         }
+        /* Forget the client metrics of the microservice */
+        MetricsRegistry.remove(microServiceId);
     }
 
     /**
@@ -403,6 +481,8 @@ public class MicroService {
             throw new KernelObjectNotCreatedException("Failed to find the kernel object", e);
         }
 
+        /* Register the new group policy with the OMS without waiting for the next batch */
+        GlobalKernelReferences.nodeServer.registerKernelObjects();
         return groupPolicyStub;
     }
 
@@ -509,18 +589,28 @@ public class MicroService {
      * @param microServiceId MicroService ID
      * @param serverPolicy ServerPolicy
      * @param serverPolicyStub ServerPolicy stub
+     * @param registration registrations of the chain to add the replica to, or null to register
+     *     it right away
      * @throws MicroServiceNotFoundException
      * @throws MicroServiceReplicaNotFoundException
      * @throws RemoteException
+     * @throws MicroServiceCreationException
      */
     private static void registerReplica(
             MicroServiceID microServiceId,
             ServerPolicy serverPolicy,
-            final ServerPolicy serverPolicyStub)
+            final ServerPolicy serverPolicyStub,
+            ChainRegistration registration)
             throws MicroServiceNotFoundException, MicroServiceReplicaNotFoundException,
-                    RemoteException {
-        /* Register for a replica ID from OMS */
-        ReplicaID replicaId = GlobalKernelReferences.nodeServer.oms.registerReplica(microServiceId);
+                    RemoteException, MicroServiceCreationException {
+        ReplicaID replicaId;
+        if (registration == null) {
+            /* Register for a replica ID from OMS */
+            replicaId = GlobalKernelReferences.nodeServer.oms.registerReplica(microServiceId);
+        } else {
+            /* Replica IDs are unique without the OMS. The replica is registered with the chain */
+            replicaId = new ReplicaID(microServiceId, UUID.randomUUID());
+        }
 
         serverPolicyStub.setReplicaId(replicaId);
         serverPolicy.setReplicaId(replicaId);
@@ -534,8 +624,22 @@ public class MicroService {
                             }
                         });
 
-        /* Register the handler for this replica to OMS */
-        GlobalKernelReferences.nodeServer.oms.setReplicaDispatcher(replicaId, replicaHandler);
+        if (registration == null) {
+            /* Register the handler for this replica to OMS */
+            GlobalKernelReferences.nodeServer.oms.setReplicaDispatcher(replicaId, replicaHandler);
+            return;
+        }
+
+        /* The stub is linked to the next client policy before the chain is registered. The OMS
+        gets the stub as it is now, as it would have if the replica was registered right away. */
+        try {
+            registration.addReplica(
+                    replicaId, (EventHandler) Utils.ObjectCloner.deepCopy(replicaHandler));
+        } catch (IOException e) {
+            throw new MicroServiceCreationException("Failed to copy handler of " + replicaId, e);
+        } catch (ClassNotFoundException e) {
+            throw new MicroServiceCreationException("Failed to copy handler of " + replicaId, e);
+        }
     }
 
     /**
@@ -562,7 +666,7 @@ public class MicroService {
      */
     public static AppObject cloneAppObject(ServerPolicy serverPolicy, AppObject appObject)
             throws ClassNotFoundException, IOException {
-        appObject = (AppObject) Utils.ObjectCloner.deepCopy(appObject);
+        appObject = StructuralCloner.deepCopy(appObject);
         serverPolicy.$__initialize(appObject);
         return appObject;
     }
@@ -6,10 +6,12 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * Annotation for identifying immutable operations in MicroService objects.
+ * Annotation for identifying immutable operations in MicroService objects. On a class, marks its
+ * instances as immutable, so that {@link amino.run.common.StructuralCloner} shares them between an
+ * object and its copies instead of copying them.
  *
  * @author terryz
  */
 @Retention(RetentionPolicy.RUNTIME)
-@Target({ElementType.METHOD})
+@Target({ElementType.METHOD, ElementType.TYPE})
 public @interface Immutable {}
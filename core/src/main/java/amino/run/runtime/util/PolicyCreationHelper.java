@@ -4,12 +4,17 @@ import amino.run.app.MicroServiceSpec;
 import amino.run.common.MicroServiceCreationException;
 import amino.run.common.MicroServiceID;
 import amino.run.common.MicroServiceNotFoundException;
+import amino.run.common.MicroServiceReplicaNotFoundException;
 import amino.run.kernel.common.GlobalKernelReferences;
 import amino.run.kernel.common.KernelObjectNotCreatedException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.oms.ChainRegistration;
 import amino.run.policy.DefaultPolicy;
 import amino.run.policy.Policy;
 import java.rmi.RemoteException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.logging.Logger;
 
 /** Collection of helper methods that are necessary for creating policy instances. */
@@ -57,6 +62,64 @@ public class PolicyCreationHelper {
         }
     }
 
+    /**
+     * Creates the group policies of the given DMs in one call to the OMS, together with the other
+     * registrations of the chain.
+     *
+     * @param registration registrations of the chain
+     * @param policyNames names of the DMs to create group policies for
+     * @return group policy stubs in the order of the policy names
+     * @throws MicroServiceCreationException
+     */
+    public static List<Policy.GroupPolicy> createGroupPolicies(
+            ChainRegistration registration, List<String> policyNames)
+            throws MicroServiceCreationException {
+        for (String policyName : policyNames) {
+            try {
+                registration.createGroupPolicy(getPolicyMap(policyName).get(GroupPolicyClass));
+            } catch (ClassNotFoundException e) {
+                logger.severe("Failed to create a group policy: " + policyName);
+                throw new MicroServiceCreationException(e);
+            }
+        }
+        return registerChain(registration);
+    }
+
+    /**
+     * Registers a policy chain, or a replica of it, with the OMS in one call.
+     *
+     * @param registration registrations of the chain
+     * @return group policy stubs created for the chain
+     * @throws MicroServiceCreationException
+     */
+    public static List<Policy.GroupPolicy> registerChain(ChainRegistration registration)
+            throws MicroServiceCreationException {
+        if (registration.isEmpty()) {
+            return new ArrayList<Policy.GroupPolicy>();
+        }
+        try {
+            return GlobalKernelReferences.nodeServer.oms.registerChain(registration);
+        } catch (ClassNotFoundException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        } catch (KernelObjectNotCreatedException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        } catch (KernelObjectNotFoundException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        } catch (MicroServiceNotFoundException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        } catch (MicroServiceReplicaNotFoundException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        } catch (RemoteException e) {
+            logger.severe("Failed to register " + registration);
+            throw new MicroServiceCreationException(e);
+        }
+    }
+
     /**
      * Constructs a policy map for each client, server and group policy based on input policy name.
      *
@@ -85,6 +85,27 @@ public class ArgumentParserTest {
         assertEquals(ksArgs.servicePort, new Integer(0));
     }
 
+    /* Verifying the traces per second option */
+    @Test
+    public void testTracesPerSecond() throws Exception {
+        OptionsParser parser = OptionsParser.newOptionsParser(KernelServerArgumentParser.class);
+        parser.parse();
+        KernelServerArgumentParser ksArgs = parser.getOptions(KernelServerArgumentParser.class);
+        assertEquals(ksArgs.tracesPerSecond, new Integer(10));
+
+        /* 0 disables tracing */
+        parser.parse("--traces-per-second", "0");
+        ksArgs = parser.getOptions(KernelServerArgumentParser.class);
+        assertEquals(ksArgs.tracesPerSecond, new Integer(0));
+    }
+
+    /* Verifying the minimum value of traces per second */
+    @Test(expected = OptionsParsingException.class)
+    public void testNegativeTracesPerSecond() throws Exception {
+        OptionsParser parser = OptionsParser.newOptionsParser(KernelServerArgumentParser.class);
+        parser.parse("--traces-per-second", "-1");
+    }
+
     /* Verifying the App Argument Parser */
     @Test
     public void testAppArgumentParser() throws Exception {
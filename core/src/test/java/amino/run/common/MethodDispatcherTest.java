@@ -0,0 +1,84 @@
+package amino.run.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.policy.DefaultPolicy;
+import amino.run.sampleSO.SO;
+import amino.run.sampleSO.stubs.SO_Stub;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MethodDispatcherTest {
+    private static final String SET_I = "public void amino.run.sampleSO.SO.setI(java.lang.Integer)";
+    private static final String GET_I = "public java.lang.Integer amino.run.sampleSO.SO.getI()";
+    private SO_Stub so;
+
+    @Before
+    public void setUp() {
+        so = new SO_Stub();
+        so.$__initialize(true);
+    }
+
+    @Test
+    public void testAppStubDispatcher() throws Throwable {
+        MethodDispatcher dispatcher = MethodDispatcher.forClass(SO_Stub.class);
+        assertNotNull(dispatcher);
+
+        int setId = dispatcher.getMethodId(SET_I);
+        int getId = dispatcher.getMethodId(GET_I);
+        assertTrue(setId >= 0 && getId >= 0);
+        assertEquals(SET_I, dispatcher.getMethodName(setId));
+
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(5);
+        assertNull(dispatcher.invoke(so, setId, params));
+        assertEquals(5, dispatcher.invoke(so, getId, new ArrayList<Object>()));
+    }
+
+    @Test
+    public void testPolicyDispatcher() {
+        MethodDispatcher dispatcher =
+                MethodDispatcher.forClass(DefaultPolicy.DefaultServerPolicy.class);
+        assertNotNull(dispatcher);
+        assertTrue(dispatcher.getMethodCount() > 0);
+    }
+
+    @Test
+    public void testNoDispatcher() {
+        assertNull(MethodDispatcher.forClass(String.class));
+        assertNull(MethodDispatcher.forClass(SO.class));
+    }
+
+    @Test
+    public void testInvokeThroughDispatcher() throws Exception {
+        AppObject appObject = new AppObject(so);
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(7);
+        appObject.invoke(SET_I, params);
+        assertEquals(7, appObject.invoke(GET_I, new ArrayList<Object>()));
+    }
+
+    @Test
+    public void testReflectionFallback() throws Exception {
+        AppObject appObject = new AppObject(so);
+        Object ret =
+                appObject.invoke(
+                        "public java.lang.String java.lang.Object.toString()",
+                        new ArrayList<Object>());
+        assertEquals(so.toString(), ret);
+    }
+
+    @Test(expected = InvocationTargetException.class)
+    public void testExceptionIsWrapped() throws Exception {
+        AppObject appObject = new AppObject(so);
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(null);
+        /* Unboxing null throws NullPointerException in incI(Integer) */
+        appObject.invoke("public void amino.run.sampleSO.SO.incI(java.lang.Integer)", params);
+    }
+}
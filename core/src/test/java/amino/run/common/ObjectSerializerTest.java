@@ -0,0 +1,138 @@
+package amino.run.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import org.junit.Test;
+
+public class ObjectSerializerTest {
+    static class Node implements Serializable {
+        String name;
+        Node next;
+        List<Node> shared = new ArrayList<Node>();
+
+        Node(String name) {
+            this.name = name;
+        }
+    }
+
+    /** Serializes a nested object from its writeObject method */
+    static class Nested implements Serializable {
+        byte[] inner;
+
+        private void writeObject(java.io.ObjectOutputStream out) throws IOException {
+            inner = ObjectSerializer.toBytes(new Node("inner"));
+            out.defaultWriteObject();
+        }
+    }
+
+    private static byte[] plainBytes(Object object) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(object);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static Node graph() {
+        Node a = new Node("a");
+        Node b = new Node("b");
+        a.next = b;
+        b.next = a;
+        a.shared.add(b);
+        return a;
+    }
+
+    @Test
+    public void testBytesMatchObjectOutputStream() throws Exception {
+        HashMap<String, Integer> map = new HashMap<String, Integer>();
+        map.put("key", 1);
+        for (int i = 0; i < 3; i++) {
+            assertArrayEquals(plainBytes(map), ObjectSerializer.toBytes(map));
+            assertArrayEquals(plainBytes("value"), ObjectSerializer.toBytes("value"));
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            Node copy = (Node) ObjectSerializer.toObject(ObjectSerializer.toBytes(graph()));
+            assertEquals("a", copy.name);
+            assertSame(copy, copy.next.next);
+            assertSame(copy.next, copy.shared.get(0));
+            assertEquals("value", ObjectSerializer.toObject(plainBytes("value")));
+        }
+    }
+
+    @Test
+    public void testCopiesAreDisjoint() throws Exception {
+        Node original = graph();
+        Node first = (Node) ObjectSerializer.deepCopy(original);
+        Node second = (Node) ObjectSerializer.deepCopy(original);
+        assertNotSame(original, first);
+        assertNotSame(first, second);
+        assertNotSame(first.next, second.next);
+        assertSame(second, second.next.next);
+        assertEquals("b", second.shared.get(0).name);
+    }
+
+    @Test
+    public void testNestedCall() throws Exception {
+        Nested copy = (Nested) ObjectSerializer.deepCopy(new Nested());
+        assertEquals("inner", ((Node) ObjectSerializer.toObject(copy.inner)).name);
+        assertEquals("a", ((Node) ObjectSerializer.deepCopy(graph())).name);
+    }
+
+    @Test
+    public void testRecoversFromFailure() throws Exception {
+        List<Object> list = new ArrayList<Object>();
+        list.add(new Object());
+        try {
+            ObjectSerializer.deepCopy(list);
+            fail("Expected NotSerializableException");
+        } catch (NotSerializableException e) {
+        }
+        try {
+            ObjectSerializer.toObject(new byte[] {1, 2, 3, 4, 5});
+            fail("Expected StreamCorruptedException");
+        } catch (StreamCorruptedException e) {
+        }
+        byte[] truncated = plainBytes(graph());
+        try {
+            ObjectSerializer.toObject(java.util.Arrays.copyOf(truncated, truncated.length / 2));
+            fail("Expected IOException");
+        } catch (IOException e) {
+        }
+        assertEquals("a", ((Node) ObjectSerializer.deepCopy(graph())).name);
+        assertArrayEquals(plainBytes("value"), ObjectSerializer.toBytes("value"));
+    }
+
+    @Test
+    public void testLargeObject() throws Exception {
+        byte[] large = new byte[2 * ObjectSerializer.MAX_RETAINED_BYTES];
+        large[large.length - 1] = 1;
+        assertArrayEquals(large, (byte[]) ObjectSerializer.deepCopy(large));
+        assertArrayEquals(plainBytes("value"), ObjectSerializer.toBytes("value"));
+    }
+
+    @Test
+    public void testDigest() throws Exception {
+        MessageDigest md5 = MessageDigest.getInstance("MD5");
+        byte[] expected = md5.digest(plainBytes(graph()));
+        assertArrayEquals(expected, ObjectSerializer.digest(graph(), md5));
+        assertArrayEquals(expected, ObjectSerializer.digest(graph(), md5));
+    }
+}
@@ -0,0 +1,244 @@
+package amino.run.common;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.runtime.annotations.Immutable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import org.junit.Test;
+
+/** Compares copies made by {@link StructuralCloner} with copies made by serialization */
+public class StructuralClonerTest {
+    /** Not serializable, so that its fields are initialized by its constructor on copies */
+    static class Base {
+        int baseValue = 7;
+    }
+
+    enum Color {
+        RED,
+        GREEN
+    }
+
+    @Immutable
+    static class Constant implements Serializable {
+        final String value;
+
+        Constant(String value) {
+            this.value = value;
+        }
+    }
+
+    static class Item implements Serializable {
+        final String name;
+        int count;
+
+        Item(String name, int count) {
+            this.name = name;
+            this.count = count;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Item && ((Item) o).name.equals(name) && ((Item) o).count == count;
+        }
+
+        @Override
+        public int hashCode() {
+            return name.hashCode() * 31 + count;
+        }
+    }
+
+    static class ByName implements Comparator<Item>, Serializable {
+        @Override
+        public int compare(Item a, Item b) {
+            return a.name.compareTo(b.name);
+        }
+    }
+
+    static class Store extends Base implements Serializable {
+        long id;
+        double ratio;
+        char code;
+        boolean enabled;
+        Color color;
+        Constant constant;
+        byte[] data;
+        int[][] matrix;
+        Object[] mixed;
+        Item favorite;
+        List<Item> items = new ArrayList<Item>();
+        LinkedList<String> log = new LinkedList<String>();
+        Map<Item, List<Item>> index = new HashMap<Item, List<Item>>();
+        Map<String, Integer> counts = new ConcurrentHashMap<String, Integer>();
+        TreeMap<Item, String> sorted = new TreeMap<Item, String>(new ByName());
+        HashSet<Item> set = new HashSet<Item>();
+        Store self;
+        transient String cache = "cache";
+        Object none;
+    }
+
+    /** Has a custom serialized form, so graphs holding it are serialized */
+    static class Custom implements Serializable {
+        transient int value;
+        Item item;
+
+        private void writeObject(ObjectOutputStream out) throws IOException {
+            out.defaultWriteObject();
+            out.writeInt(value);
+        }
+
+        private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+            in.defaultReadObject();
+            value = in.readInt();
+        }
+    }
+
+    static class Holder implements Serializable {
+        Item item;
+        Custom custom;
+        Object other;
+    }
+
+    private static Store store() {
+        Store store = new Store();
+        store.baseValue = 8;
+        store.id = 42;
+        store.ratio = 0.5;
+        store.code = 'x';
+        store.enabled = true;
+        store.color = Color.GREEN;
+        store.constant = new Constant("constant");
+        store.data = new byte[] {1, 2, 3};
+        store.matrix = new int[][] {{1, 2}, {3}};
+        Item apple = new Item("apple", 1);
+        Item pear = new Item("pear", 2);
+        store.favorite = apple;
+        store.items.add(apple);
+        store.items.add(pear);
+        store.items.add(apple);
+        store.mixed = new Object[] {apple, "text", 3, store.matrix[0], null};
+        store.log.add("created");
+        store.index.put(apple, store.items);
+        store.counts.put("apple", 1);
+        store.sorted.put(pear, "pear");
+        store.sorted.put(apple, "apple");
+        store.set.add(pear);
+        store.self = store;
+        store.cache = "changed";
+        return store;
+    }
+
+    /**
+     * Compares the serialized forms of the copy, the original and its copy by serialization. Hash
+     * maps copied by serialization are sized differently, their serialized form is compared after
+     * another round trip.
+     */
+    private static void assertSameAsSerialized(Object original, Object copy) throws Exception {
+        byte[] expected = ObjectSerializer.toBytes(original);
+        assertArrayEquals(expected, ObjectSerializer.toBytes(copy));
+        Object serialized = Utils.ObjectCloner.deepCopy((Serializable) original);
+        assertArrayEquals(
+                ObjectSerializer.toBytes(Utils.ObjectCloner.deepCopy((Serializable) serialized)),
+                ObjectSerializer.toBytes(Utils.ObjectCloner.deepCopy((Serializable) copy)));
+    }
+
+    @Test
+    public void testCopyMatchesSerialization() throws Exception {
+        assertTrue(StructuralCloner.isCopiedStructurally(Store.class));
+        Store original = store();
+        Store copy = StructuralCloner.deepCopy(original);
+        assertSameAsSerialized(original, copy);
+
+        assertNotSame(original, copy);
+        assertEquals(7, copy.baseValue);
+        assertEquals(42, copy.id);
+        assertEquals('x', copy.code);
+        assertNull(copy.cache);
+        assertEquals("apple", copy.sorted.firstKey().name);
+        assertTrue(copy.sorted.comparator() instanceof ByName);
+    }
+
+    @Test
+    public void testIdentityAndCycles() throws Exception {
+        Store original = store();
+        Store copy = StructuralCloner.deepCopy(original);
+        assertSame(copy, copy.self);
+        assertNotSame(original.favorite, copy.favorite);
+        assertSame(copy.favorite, copy.items.get(0));
+        assertSame(copy.favorite, copy.items.get(2));
+        assertSame(copy.favorite, copy.mixed[0]);
+        assertSame(copy.items, copy.index.get(copy.favorite));
+        assertSame(copy.matrix[0], copy.mixed[3]);
+        assertNotSame(original.data, copy.data);
+        assertArrayEquals(original.data, copy.data);
+
+        copy.favorite.count = 10;
+        assertEquals(1, original.favorite.count);
+    }
+
+    @Test
+    public void testImmutablesAreShared() throws Exception {
+        Store original = store();
+        Store copy = StructuralCloner.deepCopy(original);
+        assertSame(original.constant, copy.constant);
+        assertSame(original.log.get(0), copy.log.get(0));
+        assertSame(Color.GREEN, copy.color);
+        assertFalse(StructuralCloner.isCopiedStructurally(String.class));
+        assertFalse(StructuralCloner.isCopiedStructurally(Constant.class));
+        assertTrue(StructuralCloner.isCopiedStructurally(Item.class));
+    }
+
+    @Test
+    public void testCustomSerializationFallsBack() throws Exception {
+        assertFalse(StructuralCloner.isCopiedStructurally(Custom.class));
+        Holder original = new Holder();
+        original.item = new Item("apple", 1);
+        original.custom = new Custom();
+        original.custom.value = 5;
+        original.custom.item = original.item;
+        original.other = Collections.singletonList(original.item);
+
+        Holder copy = StructuralCloner.deepCopy(original);
+        assertSameAsSerialized(original, copy);
+        assertEquals(5, copy.custom.value);
+        /* Identity is preserved across the serialized part of the graph */
+        assertSame(copy.item, copy.custom.item);
+        assertSame(copy.item, ((List<?>) copy.other).get(0));
+    }
+
+    @Test(expected = NotSerializableException.class)
+    public void testNotSerializable() throws Exception {
+        Holder holder = new Holder();
+        holder.other = new Base();
+        StructuralCloner.deepCopy(holder);
+    }
+
+    @Test
+    public void testAppObject() throws Exception {
+        AppObject original = new AppObject(store());
+        AppObject copy = StructuralCloner.deepCopy(original);
+        assertSameAsSerialized(original, copy);
+        assertNotSame(original.getObject(), copy.getObject());
+        Store store = (Store) copy.getObject();
+        assertSame(store, store.self);
+    }
+}
@@ -5,6 +5,7 @@ import static org.mockito.Mockito.spy;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
 import amino.run.kernel.common.GlobalKernelReferences;
+import amino.run.kernel.metrics.MetricsRegistry;
 import amino.run.kernel.server.KernelServerImpl;
 import amino.run.oms.InstanceManager;
 import amino.run.oms.KernelServerManager;
@@ -94,7 +95,8 @@ public class TestUtils {
 
         KernelServerManager kernelServerManager =
                 (KernelServerManager)
-                        extractFieldValueOnInstance(KernelServerImpl.oms, "serverManager");
+                        extractFieldValueOnInstance(
+                                MetricsRegistry.unwrap(KernelServerImpl.oms), "serverManager");
         Map<InetSocketAddress, Object> servers =
                 (Map<InetSocketAddress, Object>)
                         extractFieldValueOnInstance(kernelServerManager, "servers");
@@ -0,0 +1,46 @@
+package amino.run.kernel.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import amino.run.kernel.common.KernelOID;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class KernelObjectLocationCacheTest {
+    private final KernelOID oid = new KernelOID(1);
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 22345);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 22346);
+
+    @Test
+    public void testUpdateAndInvalidate() {
+        KernelObjectLocationCache cache = new KernelObjectLocationCache();
+        assertNull(cache.lookup(oid));
+
+        cache.update(oid, host1);
+        assertEquals(host1, cache.lookup(oid));
+
+        /* Stale location is only removed if it is still cached */
+        cache.update(oid, host2);
+        cache.invalidate(oid, host1);
+        assertEquals(host2, cache.get(oid));
+        cache.invalidate(oid, host2);
+        assertNull(cache.get(oid));
+
+        cache.update(oid, host1);
+        cache.update(oid, null);
+        assertNull(cache.get(oid));
+
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0.5, cache.getHitRate(), 0);
+    }
+
+    @Test
+    public void testRedirect() {
+        KernelObjectLocationCache cache = new KernelObjectLocationCache();
+        cache.redirect(oid, host2);
+        assertEquals(host2, cache.get(oid));
+        assertEquals(1, cache.getRedirectCount());
+    }
+}
@@ -0,0 +1,200 @@
+package amino.run.kernel.common.codec;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.common.Utils;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelRPC;
+import java.io.IOException;
+import java.io.ObjectStreamClass;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BinaryKernelRPCCodecTest {
+    private static final String ON_RPC =
+            "public java.lang.Object amino.run.policy.DefaultPolicy$DefaultServerPolicy.onRPC(java.lang.String,java.util.ArrayList<java.lang.Object>) throws java.lang.Exception";
+    private static final String GET =
+            "public java.io.Serializable amino.run.demo.KeyValueStore.get(java.lang.String)";
+    private KernelRPC rpc;
+
+    @Before
+    public void setUp() {
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add("key");
+        params.add(42);
+        params.add(-7L);
+        params.add(true);
+        params.add(1.5d);
+        params.add('c');
+        params.add(null);
+        params.add(new byte[] {1, 2, 3});
+        params.add(new KernelOID(3));
+
+        /* DM chain of two policies: [onRPC, [get, params]] */
+        ArrayList<Object> inner = new ArrayList<Object>();
+        inner.add(GET);
+        inner.add(params);
+        ArrayList<Object> outer = new ArrayList<Object>();
+        outer.add(ON_RPC);
+        outer.add(inner);
+        rpc = new KernelRPC(new KernelOID(10), ON_RPC, outer);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        KernelRPC actual = (KernelRPC) Utils.toObject(Utils.toBytes(rpc));
+        assertEquals(rpc.getOID(), actual.getOID());
+        assertEquals(rpc.getMethod(), actual.getMethod());
+
+        ArrayList<Object> outer = actual.getParams();
+        assertEquals(ON_RPC, outer.get(0));
+        ArrayList<Object> inner = (ArrayList<Object>) outer.get(1);
+        assertEquals(GET, inner.get(0));
+        ArrayList<Object> expectedParams =
+                (ArrayList<Object>) ((ArrayList<Object>) rpc.getParams().get(1)).get(1);
+        ArrayList<Object> actualParams = (ArrayList<Object>) inner.get(1);
+        assertEquals(expectedParams.size(), actualParams.size());
+        for (int i = 0; i < expectedParams.size(); i++) {
+            if (expectedParams.get(i) instanceof byte[]) {
+                assertArrayEquals((byte[]) expectedParams.get(i), (byte[]) actualParams.get(i));
+            } else {
+                assertEquals(expectedParams.get(i), actualParams.get(i));
+            }
+        }
+    }
+
+    @Test
+    public void testMethodDictionary() throws Exception {
+        CodecSession session = new CodecSession(new BinaryKernelRPCCodec());
+        rpc.setCodecSession(session);
+
+        byte[] defined = Utils.toBytes(rpc);
+        assertEquals(rpc.getMethod(), ((KernelRPC) Utils.toObject(defined)).getMethod());
+        session.acknowledge(rpc);
+
+        byte[] referenced = Utils.toBytes(rpc);
+        assertTrue(referenced.length < defined.length);
+        KernelRPC actual = (KernelRPC) Utils.toObject(referenced);
+        assertEquals(GET, ((ArrayList<Object>) actual.getParams().get(1)).get(0));
+    }
+
+    @Test
+    public void testUnknownMethodReference() throws Exception {
+        CodecSession session = new CodecSession(new BinaryKernelRPCCodec());
+        rpc.setCodecSession(session);
+
+        /* Method IDs acknowledged without the receiver having seen their definition */
+        session.getDictionary().define(ON_RPC);
+        session.getDictionary().define(GET);
+        session.acknowledge(rpc);
+        try {
+            Utils.toObject(Utils.toBytes(rpc));
+            fail("Expected UnknownMethodReferenceException");
+        } catch (IOException e) {
+            assertTrue(UnknownMethodReferenceException.isCauseOf(e));
+        }
+
+        session.reset();
+        assertEquals(rpc.getMethod(), ((KernelRPC) Utils.toObject(Utils.toBytes(rpc))).getMethod());
+    }
+
+    @Test
+    public void testOIDs() throws Exception {
+        for (long id : new long[] {0, 127, 128, Integer.MAX_VALUE, Long.MAX_VALUE, -1}) {
+            KernelRPC actual =
+                    (KernelRPC)
+                            Utils.toObject(
+                                    Utils.toBytes(new KernelRPC(new KernelOID(id), GET, null)));
+            assertEquals(id, actual.getOID().getID());
+        }
+    }
+
+    @Test
+    public void testDictionaryGenerations() throws Exception {
+        CodecSession session = new CodecSession(new BinaryKernelRPCCodec());
+        rpc.setCodecSession(session);
+        Utils.toObject(Utils.toBytes(rpc));
+        session.acknowledge(rpc);
+        byte[] oldReference = Utils.toBytes(rpc);
+
+        /* Definitions of the new generation replace the dictionary of the session */
+        session.reset();
+        Utils.toObject(Utils.toBytes(rpc));
+        try {
+            Utils.toObject(oldReference);
+            fail("Expected UnknownMethodReferenceException");
+        } catch (IOException e) {
+            assertTrue(UnknownMethodReferenceException.isCauseOf(e));
+        }
+        session.acknowledge(rpc);
+        assertEquals(rpc.getMethod(), ((KernelRPC) Utils.toObject(Utils.toBytes(rpc))).getMethod());
+
+        /* Dictionaries of other sessions are independent */
+        KernelRPC other = new KernelRPC(rpc.getOID(), GET, null);
+        other.setCodecSession(new CodecSession(new BinaryKernelRPCCodec()));
+        assertEquals(GET, ((KernelRPC) Utils.toObject(Utils.toBytes(other))).getMethod());
+        assertEquals(rpc.getMethod(), ((KernelRPC) Utils.toObject(Utils.toBytes(rpc))).getMethod());
+    }
+
+    @Test
+    public void testSmallerThanJavaSerialization() throws Exception {
+        byte[] binary = Utils.toBytes(rpc);
+        rpc.setCodecSession(new CodecSession(new JavaSerializationCodec()));
+        byte[] legacy = Utils.toBytes(rpc);
+        assertTrue(binary.length < legacy.length);
+        assertEquals(rpc.getMethod(), ((KernelRPC) Utils.toObject(legacy)).getMethod());
+    }
+
+    /** Parameters shaped like a DM chain are flattened only for calls to onRPC of a policy. */
+    @Test
+    public void testAppParamsNotFlattened() throws Exception {
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add("value");
+        params.add(new ArrayList<Object>());
+        KernelRPC put = new KernelRPC(new KernelOID(10), GET, params);
+        CodecSession session = new CodecSession(new BinaryKernelRPCCodec());
+        put.setCodecSession(session);
+
+        KernelRPC actual = (KernelRPC) Utils.toObject(Utils.toBytes(put));
+        assertEquals(GET, actual.getMethod());
+        assertEquals(params, actual.getParams());
+
+        /* Only the method is in the dictionary, with ID 0 */
+        assertEquals(1, session.getDictionary().define("value"));
+    }
+
+    /** Kernel servers which predate codecs read RPCs sent with the fallback codec. */
+    @Test
+    public void testFallbackIsLegacyFormat() throws Exception {
+        ObjectStreamClass desc = ObjectStreamClass.lookup(KernelRPC.class);
+        assertEquals(3312464131805707866L, desc.getSerialVersionUID());
+        assertEquals(3, desc.getFields().length);
+        assertEquals("method", desc.getFields()[0].getName());
+        assertEquals("oid", desc.getFields()[1].getName());
+        assertEquals("params", desc.getFields()[2].getName());
+
+        rpc.setCodecSession(new CodecSession(KernelRPCCodecRegistry.getFallback()));
+        KernelRPC actual = (KernelRPC) Utils.toObject(Utils.toBytes(rpc));
+        assertEquals(rpc.getOID(), actual.getOID());
+        assertEquals(rpc.getMethod(), actual.getMethod());
+        assertEquals(GET, ((ArrayList<Object>) actual.getParams().get(1)).get(0));
+    }
+
+    @Test
+    public void testNegotiation() {
+        assertEquals(
+                BinaryKernelRPCCodec.ID,
+                KernelRPCCodecRegistry.negotiate(KernelRPCCodecRegistry.getSupportedIds())
+                        .getId());
+        assertEquals(
+                JavaSerializationCodec.ID,
+                KernelRPCCodecRegistry.negotiate(new byte[] {JavaSerializationCodec.ID}).getId());
+        assertEquals(
+                JavaSerializationCodec.ID,
+                KernelRPCCodecRegistry.negotiate(new byte[] {Byte.MAX_VALUE}).getId());
+    }
+}
@@ -0,0 +1,81 @@
+package amino.run.kernel.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+    @Test
+    public void testBucketBounds() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS; i++) {
+            long lower = LatencyHistogram.lowerBound(i);
+            long upper = LatencyHistogram.upperBound(i);
+            assertEquals(i, LatencyHistogram.bucket(lower));
+            assertEquals(i, LatencyHistogram.bucket(upper));
+            if (i > 0) {
+                assertEquals(LatencyHistogram.upperBound(i - 1) + 1, lower);
+            }
+            /* Buckets are at most 1/8 as wide as the values they hold */
+            assertTrue(upper - lower <= lower / LatencyHistogram.SUB_BUCKETS);
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.BUCKETS - 1));
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(1000, snapshot.getCount());
+        assertEquals(1000000, snapshot.getMax());
+        assertEquals(500500000, snapshot.getSum());
+        assertEquals(500500, snapshot.getMean(), 1e-9);
+        assertWithin(500000, snapshot.getPercentile(0.5));
+        assertWithin(990000, snapshot.getPercentile(0.99));
+        assertEquals(1000000, snapshot.getPercentile(1));
+        assertWithin(1000, snapshot.getPercentile(0));
+    }
+
+    @Test
+    public void testEmptyAndNegative() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().getPercentile(0.99));
+        assertEquals(0, histogram.snapshot().getMean(), 0);
+        histogram.record(-5);
+        assertEquals(1, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getMax());
+    }
+
+    @Test
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] =
+                    new Thread() {
+                        @Override
+                        public void run() {
+                            for (int i = 0; i < 10000; i++) {
+                                histogram.record(i);
+                            }
+                        }
+                    };
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(80000, histogram.snapshot().getCount());
+        assertEquals(9999, histogram.snapshot().getMax());
+    }
+
+    /** Checks the percentile is within the relative error of the buckets */
+    private static void assertWithin(long expected, long actual) {
+        assertTrue(
+                "expected " + expected + " but was " + actual,
+                Math.abs(actual - expected) <= expected / LatencyHistogram.SUB_BUCKETS);
+    }
+}
@@ -0,0 +1,134 @@
+package amino.run.kernel.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.common.MicroServiceID;
+import amino.run.policy.DefaultPolicy;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.rmi.RemoteException;
+import java.util.UUID;
+import javax.management.ObjectName;
+import org.junit.After;
+import org.junit.Test;
+
+public class MetricsRegistryTest {
+    /** Interface of a service to instrument */
+    public interface Service {
+        int call(int value) throws RemoteException;
+    }
+
+    @After
+    public void tearDown() {
+        MetricsRegistry.clear();
+    }
+
+    @Test
+    public void testMetricsAreCreatedOnce() throws Exception {
+        MicroServiceID id = new MicroServiceID(UUID.randomUUID());
+        RPCMetrics metrics = MetricsRegistry.get(MetricsRegistry.Scope.SERVER, id, "DM", "get");
+        assertSame(
+                metrics,
+                MetricsRegistry.get(
+                        MetricsRegistry.Scope.SERVER,
+                        new MicroServiceID(id.getID()),
+                        "DM",
+                        "get"));
+        assertTrue(metrics != MetricsRegistry.get(MetricsRegistry.Scope.CLIENT, id, "DM", "get"));
+        assertEquals(2, MetricsRegistry.getAll().size());
+
+        ObjectName name =
+                new ObjectName(
+                        "amino.run:type=RPCMetrics,scope=SERVER,microservice=\""
+                                + id.getID()
+                                + "\",dm=\"DM\",method=\"get\"");
+        metrics.end(metrics.start(), false);
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Count"));
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        MicroServiceID id = new MicroServiceID(UUID.randomUUID());
+        MicroServiceID other = new MicroServiceID(UUID.randomUUID());
+        RPCMetrics metrics = MetricsRegistry.get(MetricsRegistry.Scope.SERVER, id, "DM", "get");
+        MetricsRegistry.get(MetricsRegistry.Scope.CLIENT, id, "DM", "get");
+        RPCMetrics kept = MetricsRegistry.get(MetricsRegistry.Scope.SERVER, other, "DM", "get");
+        ObjectName name =
+                new ObjectName(
+                        "amino.run:type=RPCMetrics,scope=SERVER,microservice=\""
+                                + id.getID()
+                                + "\",dm=\"DM\",method=\"get\"");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+
+        MetricsRegistry.remove(id);
+        assertEquals(1, MetricsRegistry.getAll().size());
+        assertSame(kept, MetricsRegistry.getAll().get(0));
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+        assertTrue(metrics != MetricsRegistry.get(MetricsRegistry.Scope.SERVER, id, "DM", "get"));
+    }
+
+    @Test
+    public void testNames() throws Exception {
+        assertEquals(
+                "DefaultPolicy", MetricsRegistry.dmName(DefaultPolicy.DefaultServerPolicy.class));
+        assertEquals("String", MetricsRegistry.dmName(String.class));
+        assertEquals(
+                "get",
+                MetricsRegistry.methodName(
+                        "public java.lang.String amino.run.demo.KeyValueStore.get(java.lang.String)"));
+        assertEquals("get", MetricsRegistry.methodName("get"));
+    }
+
+    @Test
+    public void testInstrument() throws Exception {
+        Service target =
+                new Service() {
+                    @Override
+                    public int call(int value) throws RemoteException {
+                        if (value < 0) {
+                            throw new RemoteException("negative");
+                        }
+                        return value;
+                    }
+                };
+        Service service =
+                MetricsRegistry.instrument(Service.class, target, MetricsRegistry.Scope.OMS);
+        assertSame(target, MetricsRegistry.unwrap(service));
+        assertSame(target, MetricsRegistry.unwrap(target));
+        assertEquals(1, service.call(1));
+        try {
+            service.call(-1);
+            fail("Expected RemoteException");
+        } catch (RemoteException e) {
+            assertEquals("negative", e.getMessage());
+        }
+
+        RPCMetrics metrics =
+                MetricsRegistry.get(MetricsRegistry.Scope.OMS, null, "Service", "call");
+        assertEquals(2, metrics.getCount());
+        assertEquals(1, metrics.getErrors());
+        assertEquals(0, metrics.getInFlight());
+    }
+
+    @Test
+    public void testWriteText() throws Exception {
+        RPCMetrics metrics = MetricsRegistry.get(MetricsRegistry.Scope.CLIENT, null, "DM", "put");
+        long start = metrics.start();
+        metrics.end(start - 2000, true);
+        metrics.start();
+
+        StringWriter out = new StringWriter();
+        MetricsRegistry.writeText(out);
+        String text = out.toString();
+        String labels = "scope=\"client\",microservice=\"\",dm=\"DM\",method=\"put\"";
+        assertTrue(text, text.contains("amino_rpc_latency_seconds_count{" + labels + "} 1\n"));
+        assertTrue(text, text.contains("amino_rpc_errors_total{" + labels + "} 1\n"));
+        assertTrue(text, text.contains("amino_rpc_in_flight{" + labels + "} 1\n"));
+        assertTrue(
+                text, text.contains("amino_rpc_latency_seconds{" + labels + ",quantile=\"0.99\"}"));
+    }
+}
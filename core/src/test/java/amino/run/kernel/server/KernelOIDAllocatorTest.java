@@ -0,0 +1,88 @@
+package amino.run.kernel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Mockito.doNothing;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.oms.OMSServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelOIDAllocatorTest {
+    private final InetSocketAddress host = new InetSocketAddress("127.0.0.1", 22345);
+    private OMSServer savedOms;
+    private OMSServer oms;
+    private KernelOIDAllocator allocator;
+
+    @Before
+    public void setUp() throws Exception {
+        savedOms = KernelServerImpl.oms;
+        oms = mock(OMSServer.class);
+        KernelServerImpl.oms = oms;
+        when(oms.leaseKernelOIDs(host, KernelOIDAllocator.BLOCK_SIZE)).thenReturn(1L, 100000L);
+        allocator = new KernelOIDAllocator(host);
+    }
+
+    @After
+    public void tearDown() {
+        KernelServerImpl.oms = savedOms;
+    }
+
+    @Test
+    public void testAllocatesFromLeasedBlocks() throws Exception {
+        for (int i = 0; i < KernelOIDAllocator.BLOCK_SIZE; i++) {
+            assertEquals(1L + i, allocator.allocate().getID());
+        }
+        verify(oms, times(1)).leaseKernelOIDs(host, KernelOIDAllocator.BLOCK_SIZE);
+
+        /* Block exhausted */
+        assertEquals(100000L, allocator.allocate().getID());
+        verify(oms, times(2)).leaseKernelOIDs(host, KernelOIDAllocator.BLOCK_SIZE);
+    }
+
+    @Test
+    public void testRegistersPendingObjectsInOneBatch() throws Exception {
+        KernelOID oid1 = allocator.allocate();
+        KernelOID oid2 = allocator.allocate();
+        KernelOID oid3 = allocator.allocate();
+        allocator.discard(oid2);
+        assertEquals(2, allocator.getPendingCount());
+
+        allocator.registerPending();
+        verify(oms).registerKernelObjects(Arrays.asList(oid1, oid3), host);
+        assertEquals(0, allocator.getPendingCount());
+
+        /* Nothing left to register */
+        allocator.registerPending();
+        verify(oms, times(1))
+                .registerKernelObjects(anyListOf(KernelOID.class), any(InetSocketAddress.class));
+    }
+
+    @Test
+    public void testFailedRegistrationIsRetried() throws Exception {
+        KernelOID oid = allocator.allocate();
+        doThrow(new RemoteException("OMS down"))
+                .when(oms)
+                .registerKernelObjects(anyListOf(KernelOID.class), any(InetSocketAddress.class));
+        allocator.registerPending();
+        assertEquals(1, allocator.getPendingCount());
+
+        doNothing()
+                .when(oms)
+                .registerKernelObjects(anyListOf(KernelOID.class), any(InetSocketAddress.class));
+        allocator.registerPending();
+        verify(oms, times(2)).registerKernelObjects(Arrays.asList(oid), host);
+        assertEquals(0, allocator.getPendingCount());
+    }
+}
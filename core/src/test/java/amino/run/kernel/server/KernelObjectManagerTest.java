@@ -0,0 +1,76 @@
+package amino.run.kernel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectMovedException;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.sampleSO.SO;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelObjectManagerTest {
+    private static final String GET_I = "public java.lang.Integer amino.run.sampleSO.SO.getI()";
+    private final KernelOID oid = new KernelOID(1);
+    private final InetSocketAddress newHost = new InetSocketAddress("127.0.0.1", 22346);
+    private KernelObjectManager manager;
+    private KernelObject object;
+
+    @Before
+    public void setUp() {
+        manager = new KernelObjectManager();
+        object = new KernelObject(new SO());
+        manager.addObject(oid, object);
+    }
+
+    @Test
+    public void testMovedObjectIsRedirected() throws Exception {
+        manager.removeMovedObject(oid, newHost);
+        try {
+            manager.lookupObject(oid);
+            fail("Expected a redirect");
+        } catch (KernelObjectMovedException e) {
+            assertEquals(newHost, e.getHost());
+        }
+
+        /* Object moved back */
+        manager.addObject(oid, object);
+        assertSame(object, manager.lookupObject(oid));
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testRemovedObjectIsNotRedirected() throws Exception {
+        manager.removeObject(oid);
+        manager.lookupObject(oid);
+    }
+
+    @Test
+    public void testRPCWaitsForMigration() throws Exception {
+        object.coalesce();
+        Thread mover =
+                new Thread(
+                        new Runnable() {
+                            @Override
+                            public void run() {
+                                try {
+                                    Thread.sleep(50);
+                                    manager.removeMovedObject(oid, newHost);
+                                } catch (Exception e) {
+                                    throw new RuntimeException(e);
+                                }
+                            }
+                        });
+        mover.start();
+        try {
+            object.invoke(GET_I, new ArrayList<Object>());
+            fail("Expected a redirect");
+        } catch (KernelObjectMovedException e) {
+            assertEquals(newHost, e.getHost());
+        }
+        mover.join();
+    }
+}
@@ -0,0 +1,139 @@
+package amino.run.kernel.server;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.kernel.common.KernelObjectMovedException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelObjectTest {
+    private static final String BLOCK;
+    private static final String GET;
+
+    static {
+        try {
+            BLOCK = Blocker.class.getMethod("block").toGenericString();
+            GET = Blocker.class.getMethod("get").toGenericString();
+        } catch (NoSuchMethodException e) {
+            throw new Error(e);
+        }
+    }
+
+    /** Object whose block() calls wait until they are released */
+    public static class Blocker implements Serializable {
+        final transient CountDownLatch release = new CountDownLatch(1);
+
+        public void block() throws InterruptedException {
+            release.await();
+        }
+
+        public int get() {
+            return 1;
+        }
+    }
+
+    private Blocker blocker;
+    private KernelObject object;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        blocker = new Blocker();
+        object = new KernelObject(blocker);
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @After
+    public void tearDown() {
+        blocker.release.countDown();
+        executor.shutdownNow();
+    }
+
+    private Future<Object> invokeAsync(final String method) {
+        return executor.submit(
+                new Callable<Object>() {
+                    @Override
+                    public Object call() throws Exception {
+                        return object.invoke(method, new ArrayList<Object>());
+                    }
+                });
+    }
+
+    private void awaitInFlight(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (object.getInFlightCount() != count) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    @Test
+    public void testConcurrencyLimit() throws Exception {
+        object.setMaxConcurrentRPCs(2);
+        Future<Object> first = invokeAsync(BLOCK);
+        Future<Object> second = invokeAsync(BLOCK);
+        awaitInFlight(2);
+
+        /* Third RPC is not admitted until one of the others finishes */
+        Future<Object> third = invokeAsync(GET);
+        Thread.sleep(50);
+        assertFalse(third.isDone());
+        assertEquals(2, object.getInFlightCount());
+
+        blocker.release.countDown();
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(1, third.get(5, TimeUnit.SECONDS));
+        assertEquals(0, object.getInFlightCount());
+    }
+
+    @Test
+    public void testCoalesceDrainsInFlightRPCs() throws Exception {
+        invokeAsync(BLOCK);
+        invokeAsync(BLOCK);
+        awaitInFlight(2);
+
+        final CountDownLatch coalesced = new CountDownLatch(1);
+        executor.submit(
+                new Runnable() {
+                    @Override
+                    public void run() {
+                        object.coalesce();
+                        coalesced.countDown();
+                    }
+                });
+        /* The RPC requesting the migration may remain in flight, the other one must drain */
+        assertFalse(coalesced.await(50, TimeUnit.MILLISECONDS));
+        blocker.release.countDown();
+        assertTrue(coalesced.await(5, TimeUnit.SECONDS));
+
+        InetSocketAddress host = new InetSocketAddress("127.0.0.1", 22346);
+        object.moved(host);
+        try {
+            object.invoke(GET, new ArrayList<Object>());
+            fail("Expected a redirect");
+        } catch (KernelObjectMovedException e) {
+            assertEquals(host, e.getHost());
+        }
+    }
+
+    @Test
+    public void testUncoalesceAdmitsRPCs() throws Exception {
+        object.coalesce();
+        object.uncoalesce();
+        assertEquals(1, object.invoke(GET, new ArrayList<Object>()));
+    }
+}
@@ -0,0 +1,110 @@
+package amino.run.kernel.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.List;
+import org.junit.Test;
+
+public class SpanTest {
+    private static TraceContext roundTrip(TraceContext context) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        TraceContext.write(context, out);
+        out.close();
+        ObjectInputStream in =
+                new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+        return TraceContext.read(in);
+    }
+
+    private static Span newSpan(long traceId, long spanId, long parentId) {
+        Span span =
+                new Span(
+                        Span.Kind.SERVER,
+                        traceId,
+                        spanId,
+                        parentId,
+                        "host:22346",
+                        "DefaultPolicy",
+                        "get",
+                        1234,
+                        5678);
+        span.setSerializationNanos(12);
+        span.setQueueNanos(34);
+        span.setError(true);
+        return span;
+    }
+
+    private static void assertSpanEquals(Span expected, Span actual) {
+        assertEquals(expected.toLine(), actual.toLine());
+    }
+
+    @Test
+    public void testContextRoundTrip() throws Exception {
+        assertNull(roundTrip(null));
+        assertSame(TraceContext.NOT_SAMPLED, roundTrip(TraceContext.NOT_SAMPLED));
+        TraceContext context = roundTrip(new TraceContext(-1L, 42L, true));
+        assertTrue(context.isSampled());
+        assertEquals(-1L, context.getTraceId());
+        assertEquals(42L, context.getSpanId());
+    }
+
+    @Test
+    public void testLineRoundTrip() {
+        Span span = newSpan(Long.MIN_VALUE, -2L, 0);
+        Span read = Span.fromLine(span.toLine());
+        assertSpanEquals(span, read);
+        assertEquals(Long.MIN_VALUE, read.getTraceId());
+        assertEquals(-2L, read.getSpanId());
+        assertEquals(0, read.getParentSpanId());
+        assertEquals(5678, read.getDurationNanos());
+        assertEquals(34, read.getQueueNanos());
+        assertTrue(read.isError());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidLine() {
+        Span.fromLine("SERVER\t0000000000000001");
+    }
+
+    @Test
+    public void testRingBufferKeepsMostRecent() {
+        SpanRingBuffer buffer = new SpanRingBuffer(3);
+        assertTrue(buffer.getSpans().isEmpty());
+        for (int i = 1; i <= 5; i++) {
+            buffer.export(newSpan(1, i, 0));
+        }
+        List<Span> spans = buffer.getSpans();
+        assertEquals(3, spans.size());
+        assertEquals(3, spans.get(0).getSpanId());
+        assertEquals(5, spans.get(2).getSpanId());
+    }
+
+    @Test
+    public void testFileExporter() throws Exception {
+        File file = File.createTempFile("spans", ".txt");
+        try {
+            FileSpanExporter exporter = new FileSpanExporter(file);
+            Span first = newSpan(7, 1, 0);
+            Span second = newSpan(7, 2, 1);
+            exporter.export(first);
+            exporter.export(second);
+            exporter.close();
+
+            List<Span> spans = FileSpanExporter.read(file);
+            assertEquals(2, spans.size());
+            assertSpanEquals(first, spans.get(0));
+            assertSpanEquals(second, spans.get(1));
+            assertEquals(0, exporter.getDroppedCount());
+        } finally {
+            file.delete();
+        }
+    }
+}
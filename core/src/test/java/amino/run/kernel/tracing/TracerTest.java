@@ -0,0 +1,115 @@
+package amino.run.kernel.tracing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TracerTest {
+    @Before
+    public void setUp() {
+        Tracer.setCurrent(null);
+    }
+
+    @After
+    public void tearDown() {
+        Tracer.setCurrent(null);
+        Tracer.setTracesPerSecond(Tracer.DEFAULT_TRACES_PER_SECOND);
+    }
+
+    @Test
+    public void testPropagation() {
+        Tracer.setTracesPerSecond(1000);
+        Span client = Tracer.startClientSpan("DefaultPolicy", "get");
+        assertEquals(0, client.getParentSpanId());
+        TraceContext sent = Tracer.outgoing(client);
+        assertTrue(sent.isSampled());
+
+        /* Server side */
+        Span server = Tracer.startServerSpan(sent, "DefaultPolicy", "get");
+        assertEquals(client.getTraceId(), server.getTraceId());
+        assertEquals(client.getSpanId(), server.getParentSpanId());
+        assertNull(Tracer.setCurrent(server.getContext()));
+
+        /* RPC to the next DM of the chain */
+        Span nested = Tracer.startClientSpan("AtLeastOnceRPCPolicy", "get");
+        assertEquals(client.getTraceId(), nested.getTraceId());
+        assertEquals(server.getSpanId(), nested.getParentSpanId());
+        Tracer.finish(nested, false);
+        Tracer.finish(server, false);
+        Tracer.finish(client, true);
+
+        assertTrue(client.isError());
+        assertTrue(client.getDurationNanos() >= server.getDurationNanos());
+        assertTrue(Tracer.getRecentSpans().contains(nested));
+    }
+
+    @Test
+    public void testUnsampledTraceIsNotContinued() {
+        Tracer.setTracesPerSecond(0);
+        assertNull(Tracer.startClientSpan("DefaultPolicy", "get"));
+        assertSame(TraceContext.NOT_SAMPLED, Tracer.outgoing(null));
+        assertNull(Tracer.startServerSpan(TraceContext.NOT_SAMPLED, "DefaultPolicy", "get"));
+        assertNull(Tracer.startServerSpan(null, "DefaultPolicy", "get"));
+
+        /* Hops below an unsampled RPC do not start traces, however high the sampling rate */
+        Tracer.setTracesPerSecond(1000);
+        Tracer.setCurrent(TraceContext.NOT_SAMPLED);
+        assertNull(Tracer.startClientSpan("DefaultPolicy", "get"));
+    }
+
+    @Test
+    public void testSamplerAdaptsToRate() {
+        AdaptiveSampler sampler = new AdaptiveSampler(10);
+        long now = System.nanoTime();
+        assertTrue(sampler.sample(now));
+        /* 1000 new traces per second */
+        for (int i = 0; i < 1000; i++) {
+            sampler.sample(now);
+        }
+        now += AdaptiveSampler.WINDOW_NANOS;
+        sampler.sample(now);
+        assertEquals(0.01, sampler.getProbability(), 0.001);
+
+        int sampled = 0;
+        for (int i = 0; i < 100000; i++) {
+            if (sampler.sample(now)) {
+                sampled++;
+            }
+        }
+        assertTrue("Sampled " + sampled, sampled > 500 && sampled < 1500);
+
+        /* Load drops, the probability goes back up as the smoothed rate decays */
+        for (int i = 0; i < 20; i++) {
+            now += AdaptiveSampler.WINDOW_NANOS;
+            sampler.sample(now);
+        }
+        assertEquals(1, sampler.getProbability(), 0);
+        assertFalse(new AdaptiveSampler(0).sample(now));
+    }
+
+    @Test
+    public void testReportSplitsHop() {
+        Span client = new Span(Span.Kind.CLIENT, 1, 2, 0, "a", "DefaultPolicy", "get", 0, 10000000);
+        client.setSerializationNanos(1000000);
+        Span server = new Span(Span.Kind.SERVER, 1, 3, 2, "b", "DefaultPolicy", "get", 1, 5000000);
+        server.setSerializationNanos(1000000);
+        server.setQueueNanos(1000000);
+
+        TraceReport report = new TraceReport(Arrays.asList(server, client));
+        assertEquals(1, report.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        report.print(new PrintStream(bytes));
+        String text = bytes.toString();
+        assertTrue(text, text.contains("serialization 1.000ms, transport 2.000ms"));
+        assertTrue(text, text.indexOf("CLIENT a") < text.indexOf("SERVER b"));
+    }
+}
@@ -0,0 +1,168 @@
+package amino.run.kernel.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import amino.run.kernel.common.KernelRPC;
+import amino.run.kernel.common.KernelRPCException;
+import amino.run.kernel.server.KernelServer;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+public class NioTransportTest {
+    private KernelServer server;
+    private NioTransportServer transportServer;
+    private NioTransportClient client;
+    private InetSocketAddress address;
+
+    @Before
+    public void setUp() throws Exception {
+        server = mock(KernelServer.class);
+        transportServer = new NioTransportServer(server, new InetSocketAddress("127.0.0.1", 0));
+        address = new InetSocketAddress("127.0.0.1", transportServer.getLocalPort());
+        client = new NioTransportClient();
+    }
+
+    @After
+    public void tearDown() {
+        client.shutdown();
+        transportServer.shutdown();
+    }
+
+    private static KernelRPC newRPC(Object param) {
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(param);
+        return new KernelRPC(new KernelOID(1), "method", params);
+    }
+
+    @Test
+    public void testCall() throws Exception {
+        when(server.makeKernelRPC(any(KernelRPC.class))).thenReturn("result");
+        KernelRPC rpc = newRPC("param");
+        assertEquals("result", client.call(address, rpc));
+        verify(server).makeKernelRPC(rpc);
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testException() throws Exception {
+        when(server.makeKernelRPC(any(KernelRPC.class)))
+                .thenThrow(new KernelObjectNotFoundException("not found"));
+        client.call(address, newRPC("param"));
+    }
+
+    @Test
+    public void testConcurrentCallsCompleteOutOfOrder() throws Exception {
+        when(server.makeKernelRPC(any(KernelRPC.class)))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                KernelRPC rpc = (KernelRPC) invocation.getArguments()[0];
+                                int i = (Integer) rpc.getParams().get(0);
+                                /* Later requests complete first */
+                                Thread.sleep(5 * (20 - i));
+                                return i;
+                            }
+                        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(20);
+        try {
+            List<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < 20; i++) {
+                final int param = i;
+                results.add(
+                        executor.submit(
+                                new Callable<Object>() {
+                                    @Override
+                                    public Object call() throws Exception {
+                                        return client.call(address, newRPC(param));
+                                    }
+                                }));
+            }
+            for (int i = 0; i < 20; i++) {
+                assertEquals(i, results.get(i).get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testNioKernelServer() throws Exception {
+        when(server.makeKernelRPC(any(KernelRPC.class)))
+                .thenThrow(new KernelRPCException(new IllegalStateException()));
+        KernelServer rmiServer = mock(KernelServer.class);
+        NioKernelServer nioServer = new NioKernelServer(rmiServer, client, address);
+        try {
+            nioServer.makeKernelRPC(newRPC("param"));
+            fail("Expected KernelRPCException");
+        } catch (KernelRPCException e) {
+            assertTrue(e.getException() instanceof IllegalStateException);
+        }
+
+        nioServer.getKernelRPCCodecs();
+        verify(rmiServer).getKernelRPCCodecs();
+    }
+
+    /** Calls to a server which never responds fail once the call timeout runs out. */
+    @Test
+    public void testCallTimesOut() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        when(server.makeKernelRPC(any(KernelRPC.class)))
+                .thenAnswer(
+                        new Answer<Object>() {
+                            @Override
+                            public Object answer(InvocationOnMock invocation) throws Throwable {
+                                release.await();
+                                return "late";
+                            }
+                        });
+        NioTransportClient impatient = new NioTransportClient(1, 100);
+        try {
+            try {
+                impatient.call(address, newRPC("param"));
+                fail("Expected RemoteException");
+            } catch (RemoteException e) {
+                assertTrue(e.getMessage().contains("No response"));
+            }
+
+            try {
+                impatient.callAsync(address, newRPC("param")).get(10, TimeUnit.SECONDS);
+                fail("Expected RemoteException");
+            } catch (ExecutionException e) {
+                assertTrue(e.getCause() instanceof RemoteException);
+            }
+        } finally {
+            release.countDown();
+            impatient.shutdown();
+        }
+    }
+
+    @Test(expected = RemoteException.class)
+    public void testServerUnavailable() throws Exception {
+        transportServer.shutdown();
+        Thread.sleep(100);
+        client.call(address, newRPC("param"));
+    }
+}
@@ -0,0 +1,121 @@
+package amino.run.oms;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectNotFoundException;
+import java.net.InetSocketAddress;
+import java.util.Arrays;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GlobalKernelObjectManagerTest {
+    private final InetSocketAddress host1 = new InetSocketAddress("127.0.0.1", 22345);
+    private final InetSocketAddress host2 = new InetSocketAddress("127.0.0.1", 22346);
+    private GlobalKernelObjectManager manager;
+
+    @Before
+    public void setUp() {
+        manager = new GlobalKernelObjectManager();
+    }
+
+    @Test
+    public void testLeasedBlocksAreDisjoint() throws Exception {
+        long first1 = manager.lease(host1, 100);
+        KernelOID single = manager.register(host2);
+        long first2 = manager.lease(host2, 100);
+        assertTrue(single.getID() < first1 || single.getID() >= first1 + 100);
+        assertTrue(first2 >= first1 + 100);
+        assertFalse(single.getID() >= first2 && single.getID() < first2 + 100);
+    }
+
+    @Test
+    public void testUnregisteredObjectResolvesToLeaseHolder() throws Exception {
+        long first1 = manager.lease(host1, 10);
+        long first2 = manager.lease(host2, 10);
+        /* All IDs of a block are allocated once the next one is leased */
+        manager.lease(host1, 10);
+        assertEquals(host1, manager.lookup(new KernelOID(first1)));
+        assertEquals(host1, manager.lookup(new KernelOID(first1 + 9)));
+
+        /* IDs are allocated in order */
+        manager.register(Arrays.asList(new KernelOID(first2 + 2)), host2);
+        assertEquals(host2, manager.lookup(new KernelOID(first2)));
+        assertEquals(host2, manager.lookup(new KernelOID(first2 + 2)));
+        assertEquals(1, manager.getAllKernelObjects().size());
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testLookupOfUnallocatedID() throws Exception {
+        long first = manager.lease(host1, 10);
+        manager.register(Arrays.asList(new KernelOID(first + 2)), host1);
+        manager.lookup(new KernelOID(first + 3));
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testLookupOutsideLeases() throws Exception {
+        long first = manager.lease(host1, 10);
+        manager.lookup(new KernelOID(first + 10));
+    }
+
+    @Test
+    public void testBatchRegistrationKeepsMovedLocation() throws Exception {
+        long first = manager.lease(host1, 10);
+        manager.lease(host1, 10);
+        KernelOID moved = new KernelOID(first);
+        KernelOID other = new KernelOID(first + 1);
+        manager.register(moved, host2);
+
+        manager.register(Arrays.asList(moved, other), host1);
+        assertEquals(host2, manager.lookup(moved));
+        assertEquals(host1, manager.lookup(other));
+        assertEquals(2, manager.getAllKernelObjects().size());
+    }
+
+    @Test
+    public void testRemovedObjectIsNotFound() throws Exception {
+        long first = manager.lease(host1, 10);
+        KernelOID oid = new KernelOID(first);
+        manager.unRegister(oid, host1);
+
+        /* A late batch registration does not bring it back */
+        manager.register(Arrays.asList(oid), host1);
+        try {
+            manager.lookup(oid);
+            fail("Removed object was found");
+        } catch (KernelObjectNotFoundException e) {
+            assertTrue(manager.getAllKernelObjects().isEmpty());
+        }
+    }
+
+    @Test
+    public void testSettledLeaseIsDropped() throws Exception {
+        long first = manager.lease(host1, 3);
+        KernelOID removed = new KernelOID(first);
+        manager.unRegister(removed, host1);
+        manager.register(Arrays.asList(new KernelOID(first + 1)), host1);
+        assertEquals(1, manager.getLeaseCount());
+
+        manager.register(Arrays.asList(new KernelOID(first + 2)), host1);
+        assertEquals(0, manager.getLeaseCount());
+        assertEquals(host1, manager.lookup(new KernelOID(first + 2)));
+        try {
+            manager.lookup(removed);
+            fail("Removed object was found");
+        } catch (KernelObjectNotFoundException e) {
+            assertEquals(2, manager.getAllKernelObjects().size());
+        }
+    }
+
+    @Test(expected = KernelObjectNotFoundException.class)
+    public void testReleasedLease() throws Exception {
+        long first = manager.lease(host1, 10);
+        manager.lease(host1, 10);
+        manager.release(host1);
+        assertEquals(0, manager.getLeaseCount());
+        manager.lookup(new KernelOID(first));
+    }
+}
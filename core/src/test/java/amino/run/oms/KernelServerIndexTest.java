@@ -0,0 +1,152 @@
+package amino.run.oms;
+
+import static amino.run.kernel.server.KernelServerImpl.REGION_KEY;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import amino.run.app.NodeSelectorSpec;
+import amino.run.app.NodeSelectorTerm;
+import amino.run.app.Operator;
+import amino.run.app.Requirement;
+import amino.run.kernel.common.ServerInfo;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import org.junit.Before;
+import org.junit.Test;
+
+public class KernelServerIndexTest {
+    private static final int SERVERS = 30;
+    private KernelServerIndex index;
+    private List<ServerInfo> infos;
+
+    @Before
+    public void setUp() {
+        index = new KernelServerIndex();
+        infos = new ArrayList<ServerInfo>();
+        for (int i = 0; i < SERVERS; i++) {
+            Map<String, String> labels = new HashMap<String, String>();
+            labels.put(REGION_KEY, "region_" + (i % 3));
+            labels.put("zone", "zone_" + (i % 5));
+            if (i % 2 == 0) {
+                labels.put("gpu", "true");
+            }
+            ServerInfo info = server(i, labels);
+            infos.add(info);
+            index.add(info);
+        }
+    }
+
+    private static ServerInfo server(int port, Map<String, String> labels) {
+        ServerInfo info = new ServerInfo(new InetSocketAddress("127.0.0.1", port));
+        info.addLabels(labels);
+        return info;
+    }
+
+    private static Requirement requirement(String key, Operator operator, String... values) {
+        return new Requirement(
+                key, operator, operator == Operator.Exists ? null : Arrays.asList(values));
+    }
+
+    private static NodeSelectorSpec spec(Requirement[]... terms) {
+        NodeSelectorSpec spec = new NodeSelectorSpec();
+        for (Requirement[] requirements : terms) {
+            NodeSelectorTerm term = new NodeSelectorTerm();
+            term.addMatchRequirements(requirements);
+            spec.addNodeSelectorTerms(term);
+        }
+        return spec;
+    }
+
+    /** Checks the index selects the same servers as matching the spec against each server */
+    private void assertSelects(NodeSelectorSpec spec) {
+        HashSet<InetSocketAddress> expected = new HashSet<InetSocketAddress>();
+        for (ServerInfo info : infos) {
+            if (info.matchNodeSelectorSpec(spec)) {
+                expected.add(info.getHost());
+            }
+        }
+        List<InetSocketAddress> selected = index.getServers(spec);
+        assertEquals(expected.size(), selected.size());
+        assertEquals(expected, new HashSet<InetSocketAddress>(selected));
+    }
+
+    @Test
+    public void testMatchesServerInfo() {
+        assertSelects(null);
+        assertSelects(new NodeSelectorSpec());
+        assertSelects(
+                spec(new Requirement[] {requirement(REGION_KEY, Operator.Equal, "region_1")}));
+        assertSelects(
+                spec(new Requirement[] {requirement("zone", Operator.In, "zone_0", "zone_3")}));
+        assertSelects(spec(new Requirement[] {requirement("zone", Operator.NotIn, "zone_0")}));
+        assertSelects(spec(new Requirement[] {requirement("gpu", Operator.Exists)}));
+        assertSelects(spec(new Requirement[] {requirement("missing", Operator.Exists)}));
+        assertSelects(spec(new Requirement[] {requirement("missing", Operator.NotIn, "x")}));
+        assertSelects(
+                spec(
+                        new Requirement[] {
+                            requirement("gpu", Operator.Exists),
+                            requirement(REGION_KEY, Operator.NotIn, "region_2")
+                        },
+                        new Requirement[] {requirement("zone", Operator.Equal, "zone_4")}));
+    }
+
+    @Test
+    public void testRemove() {
+        NodeSelectorSpec spec =
+                spec(new Requirement[] {requirement(REGION_KEY, Operator.Equal, "region_0")});
+        int before = index.getServers(spec).size();
+
+        index.remove(infos.get(0).getHost());
+        infos.remove(0);
+        assertEquals(SERVERS - 1, index.size());
+        assertEquals(before - 1, index.getServers(spec).size());
+        assertSelects(spec);
+    }
+
+    @Test
+    public void testReplaceLabels() {
+        NodeSelectorSpec spec =
+                spec(new Requirement[] {requirement("rack", Operator.Equal, "rack_1")});
+        assertTrue(index.getServers(spec).isEmpty());
+
+        int port = infos.get(3).getHost().getPort();
+        ServerInfo info = server(port, Collections.singletonMap("rack", "rack_1"));
+        infos.set(3, info);
+        index.add(info);
+        assertEquals(SERVERS, index.size());
+        assertEquals(Collections.singletonList(info.getHost()), index.getServers(spec));
+        assertSelects(spec(new Requirement[] {requirement("zone", Operator.Equal, "zone_3")}));
+    }
+
+    @Test
+    public void testSlotsAreReused() {
+        ServerInfo removed = infos.remove(5);
+        index.remove(removed.getHost());
+        ServerInfo info = server(1000, Collections.singletonMap("zone", "zone_0"));
+        infos.add(info);
+        index.add(info);
+        assertSelects(null);
+        assertSelects(spec(new Requirement[] {requirement("zone", Operator.Equal, "zone_0")}));
+    }
+
+    @Test
+    public void testEquivalentSpecsShareCachedResult() {
+        NodeSelectorSpec spec1 =
+                spec(new Requirement[] {requirement("zone", Operator.In, "zone_1", "zone_2")});
+        NodeSelectorSpec spec2 =
+                spec(new Requirement[] {requirement("zone", Operator.In, "zone_2", "zone_1")});
+        assertEquals(
+                KernelServerIndex.Selector.compile(spec1),
+                KernelServerIndex.Selector.compile(spec2));
+        assertEquals(
+                new HashSet<InetSocketAddress>(index.getServers(spec1)),
+                new HashSet<InetSocketAddress>(index.getServers(spec2)));
+    }
+}
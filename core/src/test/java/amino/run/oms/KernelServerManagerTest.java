@@ -1,6 +1,13 @@
 package amino.run.oms;
 
 import static amino.run.kernel.server.KernelServerImpl.REGION_KEY;
+import static org.mockito.Matchers.anyMap;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.powermock.api.mockito.PowerMockito.mockStatic;
 
@@ -8,7 +15,10 @@ import amino.run.app.NodeSelectorSpec;
 import amino.run.app.NodeSelectorTerm;
 import amino.run.app.Operator;
 import amino.run.app.Requirement;
+import amino.run.kernel.common.KernelOID;
 import amino.run.kernel.common.ServerInfo;
+import amino.run.kernel.common.ServerLoad;
+import amino.run.kernel.server.KernelServer;
 import amino.run.policy.util.ResettableTimer;
 import java.net.InetSocketAddress;
 import java.rmi.AccessException;
@@ -20,8 +30,10 @@ import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimerTask;
 import org.junit.After;
 import org.junit.Assert;
@@ -239,6 +251,141 @@ public class KernelServerManagerTest {
         Assert.assertEquals(1, result.get(0).getPort());
     }
 
+    @Test
+    public void testRemovedServerIsNotSelected() {
+        NodeSelectorSpec spec =
+                getNodeSelectorSpec(LABEL1_PREFIX + "1", Operator.Equal, LABEL1_PREFIX + "1");
+        Assert.assertEquals(1, manager.getServers(spec).size());
+
+        ServerInfo server = new ServerInfo(new InetSocketAddress(1));
+        server.addLabels(Collections.singletonMap(REGION_KEY, "region_1"));
+        manager.removeKernelServer(server);
+        Assert.assertEquals(0, manager.getServers(spec).size());
+        Assert.assertEquals(numOfServers - 1, manager.getServers(null).size());
+    }
+
+    @Test
+    public void testLeastLoaded() throws Exception {
+        reportLoads();
+        List<InetSocketAddress> result =
+                manager.selectServers(
+                        null,
+                        PlacementStrategy.leastLoaded(),
+                        3,
+                        Collections.singletonList(new InetSocketAddress(0)));
+        Assert.assertEquals(
+                Arrays.asList(
+                        new InetSocketAddress(1),
+                        new InetSocketAddress(2),
+                        new InetSocketAddress(3)),
+                result);
+    }
+
+    @Test
+    public void testPowerOfTwoChoicesAvoidsMostLoaded() throws Exception {
+        reportLoads();
+        for (int i = 0; i < 20; i++) {
+            List<InetSocketAddress> result =
+                    manager.selectServers(
+                            null,
+                            PlacementStrategy.powerOfTwoChoices(),
+                            1,
+                            Collections.<InetSocketAddress>emptyList());
+            Assert.assertEquals(1, result.size());
+            Assert.assertNotEquals(numOfServers - 1, result.get(0).getPort());
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRegisterWithoutRegion() throws Exception {
+        manager.registerKernelServer(new ServerInfo(new InetSocketAddress(100)));
+    }
+
+    @Test
+    public void testSpreadByLabel() throws Exception {
+        /* Three racks, of which the first holds the least loaded servers */
+        String[] racks = {"rack_0", "rack_0", "rack_0", "rack_1", "rack_1", "rack_2"};
+        Registry registry = mock(Registry.class);
+        for (int i = 0; i < racks.length; i++) {
+            int port = 100 + i;
+            ServerInfo server = new ServerInfo(new InetSocketAddress(port));
+            Map<String, String> labels = new HashMap<String, String>();
+            labels.put(REGION_KEY, "region_1");
+            labels.put("rack", racks[i]);
+            server.addLabels(labels);
+            server.setLoad(new ServerLoad(i, 0, 0, 0, 0));
+            when(LocateRegistry.getRegistry("0.0.0.0", port)).thenReturn(registry);
+            manager.registerKernelServer(server);
+        }
+
+        NodeSelectorSpec spec = getNodeSelectorSpec("rack", Operator.Exists);
+        List<InetSocketAddress> result =
+                manager.selectServers(
+                        spec,
+                        PlacementStrategy.spreadByLabel("rack"),
+                        3,
+                        Collections.<InetSocketAddress>emptyList());
+        Assert.assertEquals(
+                Arrays.asList(
+                        new InetSocketAddress(100),
+                        new InetSocketAddress(103),
+                        new InetSocketAddress(105)),
+                result);
+
+        /* Racks of excluded servers count as used */
+        result =
+                manager.selectServers(
+                        spec,
+                        PlacementStrategy.spreadByLabel("rack"),
+                        1,
+                        Collections.singletonList(new InetSocketAddress(101)));
+        Assert.assertEquals(Collections.singletonList(new InetSocketAddress(103)), result);
+    }
+
+    @Test
+    public void testLocationIsPushedToSubscribers() throws Exception {
+        KernelServer subscriber = registerServer(100);
+        KernelServer other = registerServer(101);
+        KernelOID oid = new KernelOID(1);
+        InetSocketAddress host = new InetSocketAddress(1);
+        manager.subscribeKernelObjectLocation(oid, new InetSocketAddress(100));
+
+        manager.notifyKernelObjectLocation(oid, host);
+        verify(subscriber, timeout(1000))
+                .updateKernelObjectLocations(Collections.singletonMap(oid, host));
+
+        /* Subscriptions end with the kernel object */
+        manager.notifyKernelObjectLocation(oid, null);
+        verify(subscriber, timeout(1000))
+                .updateKernelObjectLocations(
+                        Collections.singletonMap(oid, (InetSocketAddress) null));
+        manager.notifyKernelObjectLocation(oid, host);
+        Thread.sleep(100);
+        verify(subscriber, times(2)).updateKernelObjectLocations(anyMap());
+        verify(other, never()).updateKernelObjectLocations(anyMap());
+    }
+
+    /** Registers a kernel server in region_1 at the given port */
+    private KernelServer registerServer(int port) throws Exception {
+        KernelServer server = mock(KernelServer.class);
+        Registry registry = mock(Registry.class);
+        when(registry.lookup(anyString())).thenReturn(server);
+        when(LocateRegistry.getRegistry("0.0.0.0", port)).thenReturn(registry);
+        ServerInfo info = new ServerInfo(new InetSocketAddress(port));
+        info.addLabels(Collections.singletonMap(REGION_KEY, "region_1"));
+        manager.registerKernelServer(info);
+        return server;
+    }
+
+    /** Reports a load growing with the port of each server */
+    private void reportLoads() throws Exception {
+        for (int i = 0; i < numOfServers; i++) {
+            ServerInfo server = new ServerInfo(new InetSocketAddress(i));
+            server.setLoad(new ServerLoad(i, 0, 0, 0, 0));
+            manager.receiveHeartBeat(server);
+        }
+    }
+
     private void registerServers(final KernelServerManager manager, int numOfServers)
             throws Exception {
         ResettableTimer timer;
@@ -1,6 +1,7 @@
 package amino.run.oms;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
 
 import amino.run.app.Language;
 import amino.run.app.MicroServiceSpec;
@@ -16,6 +17,7 @@ import java.lang.reflect.Field;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.UUID;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -183,6 +185,57 @@ public class OMSTest extends BaseTest {
         assertEquals(new Integer(1), new Integer(omsImpl.getAllMicroServices().size()));
     }
 
+    @Test
+    public void registerChainTest() throws Exception {
+        MicroServiceID microServiceId = new MicroServiceID(UUID.randomUUID());
+        ReplicaID replicaId1 = new ReplicaID(microServiceId, UUID.randomUUID());
+        ReplicaID replicaId2 = new ReplicaID(microServiceId, UUID.randomUUID());
+        EventHandler replicaHandler =
+                new EventHandler(
+                        ((KernelServerImpl) spiedKs1).getLocalHost(),
+                        new ArrayList() {
+                            {
+                                add(server1);
+                            }
+                        });
+
+        /* Microservice and both replicas are registered in one call */
+        omsImpl.registerChain(
+                new ChainRegistration(microServiceId, null)
+                        .registerMicroService()
+                        .addReplica(replicaId1, replicaHandler)
+                        .addReplica(replicaId2, replicaHandler));
+        assertEquals(new Integer(2), new Integer(omsImpl.getAllMicroServices().size()));
+        assertEquals(new Integer(2), new Integer(omsImpl.getReplicasById(microServiceId).length));
+        assertEquals(replicaHandler, fieldValue.getReplicaDispatcher(replicaId2));
+
+        omsImpl.unRegisterMicroService(microServiceId);
+    }
+
+    @Test
+    public void registerChainIsUndoneOnFailureTest() throws Exception {
+        MicroServiceID microServiceId = new MicroServiceID(UUID.randomUUID());
+        ReplicaID replicaId = new ReplicaID(microServiceId, UUID.randomUUID());
+        EventHandler replicaHandler =
+                new EventHandler(
+                        ((KernelServerImpl) spiedKs1).getLocalHost(), new ArrayList<Object>());
+
+        /* The microservice is registered before the group policy fails to be created */
+        try {
+            omsImpl.registerChain(
+                    new ChainRegistration(microServiceId, null)
+                            .registerMicroService()
+                            .createGroupPolicy(String.class)
+                            .addReplica(replicaId, replicaHandler));
+            fail("Expected the registration to fail");
+        } catch (ClassNotFoundException e) {
+            /* String is not a policy, and has no stub */
+        }
+
+        /* Registration of the microservice was undone */
+        assertEquals(new Integer(1), new Integer(omsImpl.getAllMicroServices().size()));
+    }
+
     @After
     public void tearDown() throws Exception {
         super.tearDown();
@@ -0,0 +1,52 @@
+package amino.run.oms;
+
+import static amino.run.oms.ServerLoadModel.HALF_LIFE_MS;
+import static amino.run.oms.ServerLoadModel.OBJECTS_PER_UNIT;
+import static amino.run.oms.ServerLoadModel.PLACEMENT_SCORE;
+import static amino.run.oms.ServerLoadModel.RPCS_PER_UNIT;
+import static org.junit.Assert.assertEquals;
+
+import amino.run.kernel.common.ServerLoad;
+import java.net.InetSocketAddress;
+import org.junit.Test;
+
+public class ServerLoadModelTest {
+    private static final double DELTA = 1e-9;
+    private final ServerLoadModel model = new ServerLoadModel();
+    private final InetSocketAddress host = new InetSocketAddress("127.0.0.1", 1);
+
+    @Test
+    public void testFirstReportIsTakenAsIs() {
+        model.report(host, new ServerLoad(0.5, 256, 1024, 2000, 500), 0);
+        assertEquals(
+                0.5 + 0.25 + 2000 / OBJECTS_PER_UNIT + 500 / RPCS_PER_UNIT,
+                model.score(host, 0),
+                DELTA);
+    }
+
+    @Test
+    public void testReportsAreSmoothed() {
+        model.report(host, new ServerLoad(1, 0, 0, 0, 0), 0);
+        /* After one half-life, the old and new report weigh the same */
+        model.report(host, new ServerLoad(0, 0, 0, 0, 0), HALF_LIFE_MS);
+        assertEquals(0.5, model.score(host, HALF_LIFE_MS), DELTA);
+    }
+
+    @Test
+    public void testPlacementsDecay() {
+        model.report(host, new ServerLoad(-1, 0, 0, 0, 0), 0);
+        assertEquals(0, model.score(host, 0), DELTA);
+        model.recordPlacement(host, 0);
+        model.recordPlacement(host, 0);
+        assertEquals(2 * PLACEMENT_SCORE, model.score(host, 0), DELTA);
+        assertEquals(PLACEMENT_SCORE, model.score(host, HALF_LIFE_MS), DELTA);
+    }
+
+    @Test
+    public void testUnknownServersScoreZero() {
+        assertEquals(0, model.score(host, 0), DELTA);
+        model.report(host, new ServerLoad(1, 0, 0, 0, 0), 0);
+        model.remove(host);
+        assertEquals(0, model.score(host, 0), DELTA);
+    }
+}
@@ -0,0 +1,101 @@
+package amino.run.policy;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import amino.run.common.AppObject;
+import amino.run.common.Futures;
+import amino.run.sampleSO.stubs.SO_Stub;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncRPCTest {
+    private static final String SET_I = "public void amino.run.sampleSO.SO.setI(java.lang.Integer)";
+    private static final String GET_I = "public java.lang.Integer amino.run.sampleSO.SO.getI()";
+    private SO_Stub so;
+
+    @Before
+    public void setUp() {
+        so = new SO_Stub();
+        so.$__initialize(true);
+    }
+
+    @Test
+    public void testAppStubAsyncDirectInvocation() throws Exception {
+        assertNull(so.setIAsync(5).get());
+        assertEquals(5, so.getIAsync().get());
+    }
+
+    @Test
+    public void testAppStubAsyncFailure() throws Exception {
+        try {
+            /* Unboxing null throws NullPointerException in incI(Integer) */
+            so.incIAsync(null).get();
+            fail("Expected the future to fail");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+    }
+
+    @Test
+    public void testServerPolicyOnRPCAsync() throws Exception {
+        DefaultPolicy.DefaultServerPolicy server = new DefaultPolicy.DefaultServerPolicy();
+        server.$__initialize(new AppObject(so));
+
+        ArrayList<Object> params = new ArrayList<Object>();
+        params.add(7);
+        server.onRPCAsync(SET_I, params).get();
+        assertEquals(7, server.onRPCAsync(GET_I, new ArrayList<Object>()).get());
+    }
+
+    @Test
+    public void testClientPolicyOnRPCAsync() throws Exception {
+        ArrayList<Object> params = new ArrayList<Object>();
+        Policy.ServerPolicy server = mock(Policy.ServerPolicy.class);
+        when(server.onRPCAsync(GET_I, params))
+                .thenReturn(CompletableFuture.<Object>completedFuture(3));
+
+        DefaultPolicy.DefaultClientPolicy client = new DefaultPolicy.DefaultClientPolicy();
+        client.setServer(server);
+        assertEquals(3, client.onRPCAsync(GET_I, params).get());
+    }
+
+    @Test
+    public void testClientPolicyOnRPCAsyncRefreshesServer() throws Exception {
+        ArrayList<Object> params = new ArrayList<Object>();
+        Policy.ServerPolicy server = mock(Policy.ServerPolicy.class);
+        when(server.onRPCAsync(GET_I, params))
+                .thenReturn(Futures.failed(new RemoteException()));
+        Policy.ServerPolicy newServer = mock(Policy.ServerPolicy.class);
+        Policy.GroupPolicy group = mock(Policy.GroupPolicy.class);
+        when(group.onRefRequest()).thenReturn(newServer);
+
+        DefaultPolicy.DefaultClientPolicy client = new DefaultPolicy.DefaultClientPolicy();
+        client.onCreate(group);
+        client.setServer(server);
+
+        /* Same as onRPC, remote exceptions complete with null after refreshing the server */
+        assertNull(client.onRPCAsync(GET_I, params).get());
+        assertEquals(newServer, client.getServer());
+    }
+
+    @Test
+    public void testOnRPCAsyncBridgesToOnRPC() throws Exception {
+        DefaultPolicy.DefaultClientPolicy client =
+                new DefaultPolicy.DefaultClientPolicy() {
+                    @Override
+                    public Object onRPC(String method, ArrayList<Object> params) {
+                        return method;
+                    }
+                };
+        assertEquals(GET_I, client.onRPCAsync(GET_I, new ArrayList<Object>()).get());
+    }
+}
@@ -3,7 +3,12 @@ package amino.run.policy;
 import amino.run.common.MicroServiceID;
 import amino.run.common.ReplicaID;
 import amino.run.kernel.common.KernelOID;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -79,4 +84,90 @@ public class DefaultPolicyTest {
         // verify server count
         Assert.assertEquals(0, group.getServers().size());
     }
+
+    @Test
+    public void testReplicateConcurrently() throws Exception {
+        SlowGroupPolicy group = new SlowGroupPolicy(200, -1);
+        long start = System.currentTimeMillis();
+        List<Policy.ServerPolicy> replicas = group.replicate(servers[0], hosts(10), "region", 10);
+        long elapsed = System.currentTimeMillis() - start;
+
+        Assert.assertEquals(10, replicas.size());
+        Assert.assertEquals(10, group.getServers().size());
+        /* Ten replicas take about as long as one */
+        Assert.assertTrue("Replication took " + elapsed + "ms", elapsed < 1000);
+    }
+
+    @Test
+    public void testReplicateReturnsAtQuorum() throws Exception {
+        /* The third replica is created long after the quorum of two is reached */
+        SlowGroupPolicy group = new SlowGroupPolicy(0, -1);
+        group.slowHost = new InetSocketAddress(2);
+        List<Policy.ServerPolicy> replicas = group.replicate(servers[0], hosts(3), "region", 2);
+        Assert.assertEquals(2, replicas.size());
+    }
+
+    @Test
+    public void testReplicateRollsBackWhenQuorumIsMissed() throws Exception {
+        SlowGroupPolicy group = new SlowGroupPolicy(50, 3);
+        try {
+            group.replicate(servers[0], hosts(5), "region", 5);
+            Assert.fail("Replication should fail");
+        } catch (RemoteException e) {
+            /* Expected */
+        }
+
+        /* Replicas still being created are rolled back when they are ready */
+        for (int i = 0; i < 50 && !group.getServers().isEmpty(); i++) {
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(0, group.getServers().size());
+        Assert.assertEquals(4, group.terminated.get());
+    }
+
+    private static List<InetSocketAddress> hosts(int count) {
+        List<InetSocketAddress> hosts = new ArrayList<InetSocketAddress>();
+        for (int i = 0; i < count; i++) {
+            hosts.add(new InetSocketAddress(i));
+        }
+        return hosts;
+    }
+
+    /** Group policy whose replicas take a while to create, and fail on one host */
+    private static class SlowGroupPolicy extends DefaultPolicy.DefaultGroupPolicy {
+        private final long delay;
+        private final int failingPort;
+        private volatile InetSocketAddress slowHost;
+        private final AtomicInteger terminated = new AtomicInteger();
+
+        private SlowGroupPolicy(long delay, int failingPort) {
+            this.delay = delay;
+            this.failingPort = failingPort;
+        }
+
+        @Override
+        protected Policy.ServerPolicy replicate(
+                Policy.ServerPolicy replicaSource, InetSocketAddress dest, String region)
+                throws RemoteException {
+            try {
+                Thread.sleep(dest.equals(slowHost) ? 2000 : delay);
+            } catch (InterruptedException e) {
+                throw new RemoteException("Interrupted", e);
+            }
+            if (dest.getPort() == failingPort) {
+                throw new RemoteException("Failed to create replica on " + dest);
+            }
+            DefaultPolicy.DefaultServerPolicy replica = new DefaultPolicy.DefaultServerPolicy();
+            replica.setReplicaId(
+                    new ReplicaID(new MicroServiceID(UUID.randomUUID()), UUID.randomUUID()));
+            addServer(replica);
+            return replica;
+        }
+
+        @Override
+        protected void terminate(Policy.ServerPolicy server) {
+            removeServer(server);
+            terminated.incrementAndGet();
+        }
+    }
 }
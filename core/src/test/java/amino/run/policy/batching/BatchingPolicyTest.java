@@ -0,0 +1,213 @@
+package amino.run.policy.batching;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import amino.run.common.AppObject;
+import amino.run.kernel.common.KernelOID;
+import amino.run.sampleSO.stubs.SO_Stub;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.Test;
+
+public class BatchingPolicyTest {
+    private static final String SET_I = "public void amino.run.sampleSO.SO.setI(java.lang.Integer)";
+    private static final String GET_I = "public java.lang.Integer amino.run.sampleSO.SO.getI()";
+    private static final String INC_I =
+            "public java.lang.Integer amino.run.sampleSO.SO.incI(java.lang.Integer)";
+
+    /** Server policy which echoes the first parameter of every call, failing on null */
+    private static class EchoServerPolicy extends BatchingPolicy.ServerPolicy {
+        final ArrayList<Integer> batchSizes = new ArrayList<Integer>();
+        /** Counted down when the first batch arrives */
+        final CountDownLatch firstBatch = new CountDownLatch(1);
+        /** Completes the first batch once counted down, or null to complete it right away */
+        CountDownLatch releaseFirstBatch;
+
+        @Override
+        public ArrayList<Object> onBatchRPC(
+                ArrayList<String> methods, ArrayList<ArrayList<Object>> params)
+                throws RemoteException {
+            boolean first;
+            synchronized (this) {
+                first = batchSizes.isEmpty();
+                batchSizes.add(methods.size());
+            }
+            if (first) {
+                firstBatch.countDown();
+                if (releaseFirstBatch != null) {
+                    try {
+                        releaseFirstBatch.await();
+                    } catch (InterruptedException e) {
+                        throw new RemoteException("Interrupted", e);
+                    }
+                }
+            }
+            ArrayList<Object> results = new ArrayList<Object>();
+            for (ArrayList<Object> p : params) {
+                if (p.get(0) == null) {
+                    results.add(new BatchingPolicy.Failure(new IllegalArgumentException()));
+                } else {
+                    results.add(p.get(0));
+                }
+            }
+            return results;
+        }
+    }
+
+    private static ArrayList<Object> params(Object... values) {
+        ArrayList<Object> params = new ArrayList<Object>();
+        for (Object value : values) {
+            params.add(value);
+        }
+        return params;
+    }
+
+    @Test
+    public void testOnBatchRPC() throws Exception {
+        SO_Stub so = new SO_Stub();
+        so.$__initialize(true);
+        BatchingPolicy.ServerPolicy server = new BatchingPolicy.ServerPolicy();
+        server.$__initialize(new AppObject(so));
+
+        ArrayList<String> methods = new ArrayList<String>();
+        ArrayList<ArrayList<Object>> params = new ArrayList<ArrayList<Object>>();
+        methods.add(SET_I);
+        params.add(params(5));
+        methods.add(INC_I);
+        params.add(params((Object) null));
+        methods.add(GET_I);
+        params.add(params());
+
+        ArrayList<Object> results = server.onBatchRPC(methods, params);
+        assertEquals(3, results.size());
+        assertEquals(null, results.get(0));
+        /* Failing call does not affect the calls after it */
+        assertTrue(results.get(1) instanceof BatchingPolicy.Failure);
+        assertEquals(5, results.get(2));
+    }
+
+    private static Callable<Object> call(
+            final Batcher batcher, final EchoServerPolicy server, final int value) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                return batcher.call(server, GET_I, params(value));
+            }
+        };
+    }
+
+    @Test
+    public void testUncontendedCallIsSentAtOnce() throws Exception {
+        /* Long linger, which an uncontended call must not wait for */
+        Batcher batcher = new Batcher(8, 10000000);
+        EchoServerPolicy server = new EchoServerPolicy();
+
+        long start = System.nanoTime();
+        assertEquals(1, batcher.call(server, GET_I, params(1)));
+        assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(5));
+        assertEquals(1, batcher.getStats().getBatchCount());
+        assertEquals(1, batcher.getStats().getLargestBatchSize());
+    }
+
+    @Test
+    public void testConcurrentCallsAreBatched() throws Exception {
+        final int threads = 4;
+        /* Long linger, so that the batch is sent once it is full */
+        final Batcher batcher = new Batcher(threads, 10000000);
+        final EchoServerPolicy server = new EchoServerPolicy();
+        server.releaseFirstBatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads + 1);
+        try {
+            /* Uncontended call is sent right away, and held by the server */
+            Future<Object> first = executor.submit(call(batcher, server, -1));
+            assertTrue(server.firstBatch.await(5, TimeUnit.SECONDS));
+
+            ArrayList<Future<Object>> results = new ArrayList<Future<Object>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(call(batcher, server, i)));
+            }
+            for (int i = 0; i < threads; i++) {
+                assertEquals(i, results.get(i).get());
+            }
+            server.releaseFirstBatch.countDown();
+            assertEquals(-1, first.get());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Batcher.Stats stats = batcher.getStats();
+        assertEquals(2, stats.getBatchCount());
+        assertEquals(threads + 1, stats.getCallCount());
+        assertEquals(threads, stats.getLargestBatchSize());
+        assertEquals(threads, (int) server.batchSizes.get(1));
+    }
+
+    @Test
+    public void testCallsWaitingForBatchInFlight() throws Exception {
+        /* Long linger, so that the open batch is sent once the batch in flight completes */
+        final Batcher batcher = new Batcher(8, 10000000);
+        final EchoServerPolicy server = new EchoServerPolicy();
+        server.releaseFirstBatch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<Object> first = executor.submit(call(batcher, server, 1));
+            assertTrue(server.firstBatch.await(5, TimeUnit.SECONDS));
+            Future<Object> second = executor.submit(call(batcher, server, 2));
+            /* Let the second call open a batch */
+            Thread.sleep(100);
+            server.releaseFirstBatch.countDown();
+            assertEquals(1, first.get());
+            assertEquals(2, second.get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(2, batcher.getStats().getBatchCount());
+    }
+
+    @Test
+    public void testRemove() throws Exception {
+        KernelOID oid = new KernelOID(1);
+        BatchingPolicy.Config config = new BatchingPolicy.Config();
+        Batcher batcher = Batcher.get(oid, config);
+        assertSame(batcher, Batcher.get(oid, config));
+        Batcher.remove(oid);
+        assertNotSame(batcher, Batcher.get(oid, config));
+        Batcher.remove(oid);
+    }
+
+    @Test
+    public void testFailedCallInBatch() throws Exception {
+        Batcher batcher = new Batcher(1, 0);
+        try {
+            batcher.call(new EchoServerPolicy(), GET_I, params((Object) null));
+            fail("Expected the call to fail");
+        } catch (IllegalArgumentException e) {
+            /* Expected */
+        }
+    }
+
+    @Test(expected = RemoteException.class)
+    public void testFailedBatch() throws Exception {
+        Batcher batcher = new Batcher(1, 0);
+        BatchingPolicy.ServerPolicy server =
+                new BatchingPolicy.ServerPolicy() {
+                    @Override
+                    public ArrayList<Object> onBatchRPC(
+                            ArrayList<String> methods, ArrayList<ArrayList<Object>> params)
+                            throws RemoteException {
+                        throw new RemoteException();
+                    }
+                };
+        batcher.call(server, GET_I, params());
+    }
+}
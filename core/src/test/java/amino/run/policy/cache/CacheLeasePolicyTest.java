@@ -1,13 +1,20 @@
 package amino.run.policy.cache;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.verify;
 
 import amino.run.common.AppObject;
+import amino.run.common.ObjectSerializer;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import org.junit.Before;
 import org.junit.Rule;
@@ -131,4 +138,166 @@ public class CacheLeasePolicyTest {
         thrown.expect(LeaseExpiredException.class);
         this.clientOne.releaseCurrentLease();
     }
+
+    /**
+     * Reads are served from the cached object for the whole lease period. Clients share read
+     * leases, and a new lease does not fetch an object the client already has.
+     */
+    @Test
+    public void testReadLeasesServeReadsLocally() throws Exception {
+        CountingServer server = newServer();
+        CacheLeasePolicy.ClientPolicy reader = newClient(server);
+        CacheLeasePolicy.ClientPolicy anotherReader = newClient(server);
+
+        for (int i = 0; i < 10; i++) {
+            assertEquals(0, reader.onRPC(getCount(), new ArrayList<Object>()));
+            assertEquals(0, anotherReader.onRPC(getCount(), new ArrayList<Object>()));
+        }
+        assertEquals(2, server.leaseRequests);
+        assertEquals(0, server.rpcs);
+
+        assertEquals(2, server.objectsSent);
+
+        // Renewing the lease does not fetch the object again
+        assertTrue(reader.requestLease(CacheLeasePolicy.LeaseMode.READ, time));
+        assertNotNull(reader.cachedObject);
+        assertEquals(2, server.objectsSent);
+    }
+
+    /** Writes take the write lease and sync only the fields they changed. */
+    @Test
+    public void testWriteSyncsChangedFields() throws Exception {
+        CountingServer server = newServer();
+        CacheLeasePolicy.ClientPolicy writer = newClient(server);
+
+        writer.onRPC(increment(), new ArrayList<Object>());
+        writer.onRPC(increment(), new ArrayList<Object>());
+
+        assertEquals(2, ((Counter) server.getAppObject().getObject()).getCount());
+        assertEquals(2, server.deltas.size());
+        for (ObjectDelta delta : server.deltas) {
+            assertEquals(
+                    Collections.singleton(Counter.class.getName() + ".count"),
+                    delta.getFieldNames());
+        }
+
+        // Readers get the new version
+        CacheLeasePolicy.ClientPolicy reader = newClient(server);
+        writer.releaseCurrentLease();
+        assertEquals(2, reader.onRPC(getCount(), new ArrayList<Object>()));
+    }
+
+    /** Changes to objects which customize their serialized form are synced as a whole. */
+    @Test
+    public void testWriteSyncsWholeObjectWithCustomSerialization() throws Exception {
+        CountingServer server = new CountingServer();
+        server.$__initialize(new AppObject(new ArrayList<Object>()));
+        CacheLeasePolicy.ClientPolicy writer = newClient(server);
+
+        ArrayList<Object> params = new ArrayList<Object>(Collections.singletonList("Hello"));
+        writer.onRPC("public boolean java.util.AbstractList.add(E)", params);
+
+        assertEquals(0, server.deltas.size());
+        assertEquals(1, server.objectsSynced);
+        assertEquals(params, server.getAppObject().getObject());
+    }
+
+    /**
+     * A client waiting for the write lease stops read leases from being renewed, and gets the
+     * write lease once they run out. Readers denied a lease read from the server meanwhile.
+     */
+    @Test
+    public void testWriterRevokesReadLeases() throws Exception {
+        long time = 100;
+        CountingServer server = newServer();
+        CacheLeasePolicy.ClientPolicy reader = newClient(server);
+        CacheLeasePolicy.ClientPolicy writer = newClient(server);
+
+        assertTrue(reader.requestLease(CacheLeasePolicy.LeaseMode.READ, time));
+        assertFalse(writer.requestLease(CacheLeasePolicy.LeaseMode.WRITE, time));
+        assertFalse(
+                "read lease should not be renewed while a writer waits",
+                reader.requestLease(CacheLeasePolicy.LeaseMode.READ, time));
+
+        Thread.sleep(time + CacheLeasePolicy.LEASE_BUFFER); // Accounting for LEASE-BUFFER
+        assertTrue(writer.requestLease(CacheLeasePolicy.LeaseMode.WRITE, time));
+        writer.onRPC(increment(), new ArrayList<Object>());
+
+        assertEquals(1, reader.onRPC(getCount(), new ArrayList<Object>()));
+        assertEquals(1, server.rpcs);
+    }
+
+    private CountingServer newServer() {
+        CountingServer server = new CountingServer();
+        server.$__initialize(new AppObject(new Counter_Stub()));
+        return server;
+    }
+
+    private CacheLeasePolicy.ClientPolicy newClient(CacheLeasePolicy.ServerPolicy server) {
+        CacheLeasePolicy.ClientPolicy client = new CacheLeasePolicy.ClientPolicy();
+        client.setServer(server);
+        return client;
+    }
+
+    private static String getCount() throws Exception {
+        return Counter.class.getMethod("getCount").toGenericString();
+    }
+
+    private static String increment() throws Exception {
+        return Counter.class.getMethod("increment").toGenericString();
+    }
+
+    /** Server which copies what it sends and receives, as if clients were remote */
+    private static class CountingServer extends CacheLeasePolicy.ServerPolicy {
+        int leaseRequests;
+        int objectsSent;
+        int rpcs;
+        int objectsSynced;
+        List<ObjectDelta> deltas = new ArrayList<ObjectDelta>();
+
+        @Override
+        public synchronized CacheLeasePolicy.CacheLease getLease(
+                UUID lease, CacheLeasePolicy.LeaseMode mode, long version, long timeoutMillisec)
+                throws Exception {
+            leaseRequests++;
+            CacheLeasePolicy.CacheLease granted =
+                    super.getLease(lease, mode, version, timeoutMillisec);
+            if (granted != null && granted.getCachedObject() != null) {
+                objectsSent++;
+            }
+            return (CacheLeasePolicy.CacheLease) ObjectSerializer.deepCopy(granted);
+        }
+
+        @Override
+        public synchronized long syncObject(UUID lease, Serializable object) throws Exception {
+            if (object instanceof ObjectDelta) {
+                deltas.add((ObjectDelta) object);
+            } else {
+                objectsSynced++;
+            }
+            return super.syncObject(lease, (Serializable) ObjectSerializer.deepCopy(object));
+        }
+
+        @Override
+        public Object onRPC(String method, ArrayList<Object> params) throws Exception {
+            rpcs++;
+            return super.onRPC(method, params);
+        }
+    }
+
+    public static class Counter implements Serializable {
+        private int count;
+        private String name = "counter";
+
+        @Immutable
+        public int getCount() {
+            return count;
+        }
+
+        public void increment() {
+            count++;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
 }
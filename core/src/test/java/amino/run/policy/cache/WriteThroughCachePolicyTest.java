@@ -1,15 +1,22 @@
 package amino.run.policy.cache;
 
 import static junit.framework.TestCase.assertEquals;
+import static junit.framework.TestCase.assertNull;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import amino.run.app.DMSpec;
+import amino.run.app.MicroServiceSpec;
 import amino.run.common.AppObject;
+import amino.run.common.ObjectSerializer;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import junit.framework.TestCase;
 import org.junit.Before;
@@ -71,4 +78,153 @@ public class WriteThroughCachePolicyTest {
         actual = this.client.onRPC(m, new ArrayList<Object>());
         assertEquals(expectedResult.toString(), actual.toString());
     }
+
+    /** Calls to immutable methods are served from the cache, other calls go to the server. */
+    @org.junit.Test
+    public void classifyMethodsByAnnotation() throws Exception {
+        CountingServer server = newServer(WriteThroughCachePolicy.DEFAULT_TTL);
+        WriteThroughCachePolicy.ClientPolicy client = newClient(server);
+
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, client.onRPC(getCount(), new ArrayList<Object>()));
+        }
+        assertEquals(0, server.writes);
+
+        client.onRPC(increment(), new ArrayList<Object>());
+        assertEquals(1, server.writes);
+        assertEquals(1, ((Counter) server.getAppObject().getObject()).getCount());
+        assertEquals(1, client.onRPC(getCount(), new ArrayList<Object>()));
+    }
+
+    /**
+     * Writes return the fields they changed, and clients revalidating after the TTL get the
+     * changes of other clients as a delta instead of the whole object.
+     */
+    @org.junit.Test
+    public void refreshCacheFromDeltas() throws Exception {
+        long ttl = 100;
+        CountingServer server = newServer(ttl);
+        WriteThroughCachePolicy.ClientPolicy writer = newClient(server);
+        WriteThroughCachePolicy.ClientPolicy reader = newClient(server);
+
+        assertEquals(0, reader.onRPC(getCount(), new ArrayList<Object>()));
+        writer.onRPC(increment(), new ArrayList<Object>());
+        writer.onRPC(increment(), new ArrayList<Object>());
+        assertEquals(2, server.objectsSent);
+        assertEquals(2, server.deltas.size());
+        for (ObjectDelta delta : server.deltas) {
+            assertEquals(
+                    Collections.singleton(Counter.class.getName() + ".count"),
+                    delta.getFieldNames());
+        }
+        assertEquals(2, writer.onRPC(getCount(), new ArrayList<Object>()));
+
+        // Stale until the TTL runs out
+        assertEquals(0, reader.onRPC(getCount(), new ArrayList<Object>()));
+        Thread.sleep(ttl);
+        assertEquals(2, reader.onRPC(getCount(), new ArrayList<Object>()));
+        assertEquals(2, server.objectsSent);
+        assertEquals(3, server.deltas.size());
+        assertEquals(0, server.deltas.get(2).getBaseVersion());
+    }
+
+    /** Revalidating an up to date cache transfers neither the object nor changes. */
+    @org.junit.Test
+    public void revalidateByVersion() throws Exception {
+        long ttl = 50;
+        CountingServer server = newServer(ttl);
+        WriteThroughCachePolicy.ClientPolicy client = newClient(server);
+        client.onRPC(increment(), new ArrayList<Object>());
+
+        Thread.sleep(ttl);
+        assertEquals(1, client.onRPC(getCount(), new ArrayList<Object>()));
+        WriteThroughCachePolicy.CacheUpdate update = server.updates.get(server.updates.size() - 1);
+        assertEquals(1, update.getVersion());
+        assertNull(update.getDelta());
+        assertNull(update.getObject());
+    }
+
+    private CountingServer newServer(long ttl) {
+        WriteThroughCachePolicy.Config config = new WriteThroughCachePolicy.Config();
+        config.setTtlInMillis(ttl);
+        MicroServiceSpec spec = new MicroServiceSpec();
+        spec.addDMSpec(
+                DMSpec.newBuilder()
+                        .setName(WriteThroughCachePolicy.class.getName())
+                        .addConfig(config)
+                        .create());
+
+        CountingServer server = new CountingServer();
+        server.setSpec(spec);
+        server.$__initialize(new AppObject(new Counter_Stub()));
+        return server;
+    }
+
+    private WriteThroughCachePolicy.ClientPolicy newClient(
+            WriteThroughCachePolicy.ServerPolicy server) {
+        WriteThroughCachePolicy.ClientPolicy client = new WriteThroughCachePolicy.ClientPolicy();
+        client.setServer(server);
+        return client;
+    }
+
+    private static String getCount() throws Exception {
+        return Counter.class.getMethod("getCount").toGenericString();
+    }
+
+    private static String increment() throws Exception {
+        return Counter.class.getMethod("increment").toGenericString();
+    }
+
+    /** Server which copies what it sends, as if clients were remote */
+    private static class CountingServer extends WriteThroughCachePolicy.ServerPolicy {
+        int writes;
+        int objectsSent;
+        List<ObjectDelta> deltas = new ArrayList<ObjectDelta>();
+        List<WriteThroughCachePolicy.CacheUpdate> updates =
+                new ArrayList<WriteThroughCachePolicy.CacheUpdate>();
+
+        @Override
+        public synchronized WriteThroughCachePolicy.CacheUpdate getUpdate(long version) {
+            try {
+                return sent(super.getUpdate(version));
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public synchronized WriteThroughCachePolicy.CacheUpdate write(
+                String method, ArrayList<Object> params, long version) throws Exception {
+            writes++;
+            return sent(super.write(method, params, version));
+        }
+
+        private WriteThroughCachePolicy.CacheUpdate sent(
+                WriteThroughCachePolicy.CacheUpdate update) throws Exception {
+            updates.add(update);
+            if (update.getObject() != null) {
+                objectsSent++;
+            }
+            if (update.getDelta() != null) {
+                deltas.add(update.getDelta());
+            }
+            return (WriteThroughCachePolicy.CacheUpdate) ObjectSerializer.deepCopy(update);
+        }
+    }
+
+    public static class Counter implements Serializable {
+        private int count;
+        private String name = "counter";
+
+        @Immutable
+        public int getCount() {
+            return count;
+        }
+
+        public void increment() {
+            count++;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
 }
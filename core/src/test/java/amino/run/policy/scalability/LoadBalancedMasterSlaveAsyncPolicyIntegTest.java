@@ -0,0 +1,284 @@
+package amino.run.policy.scalability;
+
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import amino.run.common.AppObject;
+import amino.run.kernel.common.KernelOID;
+import amino.run.kernel.common.KernelObjectStub;
+import amino.run.policy.Policy;
+import amino.run.policy.scalability.masterslave.MasterInfo;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.ReplicationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.net.InetSocketAddress;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LoadBalancedMasterSlaveAsyncPolicyIntegTest {
+    private static final long TIMEOUT_IN_MILLIS = 5000L;
+    private LoadBalancedMasterSlaveAsyncPolicy.ClientPolicy client;
+    private LoadBalancedMasterSlaveAsyncPolicy.GroupPolicy group;
+    private LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy server1;
+    private LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy server2;
+    private Object object1;
+    private String data = "defaultData";
+
+    @Before
+    public void setup() throws Exception {
+        object1 = new Data_Stub(data);
+
+        server1 = new ServerMock();
+        server1.$__setKernelOID(new KernelOID(1));
+        server1.$__initialize(new AppObject(object1));
+        server2 = new ServerMock();
+        server2.$__setKernelOID(new KernelOID(2));
+        server2.$__initialize(new AppObject(new Data_Stub(data)));
+
+        client = new ClientMock();
+
+        group = spy(new GroupMock());
+        List<Policy.ServerPolicy> list = new ArrayList<Policy.ServerPolicy>();
+        list.add(server1);
+        list.add(server2);
+        doReturn(list).when(group).getServers();
+
+        client.setServer(server1);
+        client.onCreate(group);
+        server1.onCreate(group);
+        server2.onCreate(group);
+        server1.start();
+        server2.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        server1.onDestroy();
+        server2.onDestroy();
+    }
+
+    @Test
+    public void testMutableOperations() throws Exception {
+        Method m = object1.getClass().getMethod("incrementCnt", new Class[0]);
+        String methodName = m.toGenericString();
+        int cnt = 100;
+
+        for (int i = 0; i < cnt; i++) {
+            client.onRPC(methodName, new ArrayList<Object>());
+        }
+
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy master =
+                (LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy) group.getMaster();
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy slave =
+                (LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy) group.getSlave();
+
+        // writes are acknowledged after they are committed on master
+        Assert.assertEquals(cnt, ((Data) master.getAppObject().getObject()).getCnt());
+
+        // and reach slave in the background
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MILLIS;
+        while (((Data) slave.getAppObject().getObject()).getCnt() < cnt
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(cnt, ((Data) slave.getAppObject().getObject()).getCnt());
+        Assert.assertEquals(
+                master.getIndexOfLargestCommittedEntry(),
+                slave.getIndexOfLargestCommittedEntry());
+
+        // slave reports the writes it applied
+        while (master.getIndexOfLargestReplicatedEntry()
+                        < master.getIndexOfLargestCommittedEntry()
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        Assert.assertEquals(
+                master.getIndexOfLargestCommittedEntry(),
+                master.getIndexOfLargestReplicatedEntry());
+    }
+
+    @Test
+    public void testImmutableOperation() throws Exception {
+        Method m = object1.getClass().getMethod("getData", new Class[] {});
+        Object ret = client.onRPC(m.toGenericString(), new ArrayList<Object>());
+        Assert.assertEquals(data, ret);
+    }
+
+    @Test
+    public void testStaleSlaveRedirectsReads() throws Exception {
+        Method m = object1.getClass().getMethod("getData", new Class[] {});
+        String methodName = m.toGenericString();
+        awaitMaster();
+        ServerMock slave = (ServerMock) group.getSlave();
+        MethodInvocationRequest request =
+                new MethodInvocationRequest(
+                        "client0",
+                        0L,
+                        methodName,
+                        new ArrayList<Object>(),
+                        MethodInvocationRequest.MethodType.IMMUTABLE);
+
+        // slave catches up with master through heartbeats
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MILLIS;
+        MethodInvocationResponse response = slave.onRPC(request);
+        while (response.getReturnCode() != MethodInvocationResponse.ReturnCode.SUCCESS
+                && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+            response = slave.onRPC(request);
+        }
+        Assert.assertEquals(data, response.getResult());
+
+        // and redirects reads once it has not heard from master for too long
+        slave.disconnected = true;
+        Thread.sleep(LoadBalancedMasterSlaveAsyncPolicy.DEFAULT_MAX_STALENESS_IN_MILLIS + 100L);
+        Assert.assertEquals(
+                MethodInvocationResponse.ReturnCode.REDIRECT, slave.onRPC(request).getReturnCode());
+
+        // which clients then send to master
+        Assert.assertEquals(data, client.onRPC(methodName, new ArrayList<Object>()));
+    }
+
+    @Test
+    public void testRepeatedRequests() throws Exception {
+        Method m = object1.getClass().getMethod("incrementCnt", new Class[0]);
+        MethodInvocationRequest request =
+                new MethodInvocationRequest(
+                        "client0",
+                        100L,
+                        m.toGenericString(),
+                        new ArrayList<Object>(),
+                        MethodInvocationRequest.MethodType.MUTABLE);
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy master = awaitMaster();
+
+        for (int i = 0; i < 10; i++) {
+            Assert.assertEquals(
+                    MethodInvocationResponse.ReturnCode.SUCCESS,
+                    master.onRPC(request).getReturnCode());
+        }
+
+        Assert.assertEquals(1, ((Data) master.getAppObject().getObject()).getCnt());
+    }
+
+    @Test
+    public void testClientCachesMaster() throws Exception {
+        Method m = object1.getClass().getMethod("incrementCnt", new Class[0]);
+        String methodName = m.toGenericString();
+        awaitMaster();
+
+        GroupMock groupMock = (GroupMock) group;
+        groupMock.countedThread = Thread.currentThread();
+        for (int i = 0; i < 20; i++) {
+            client.onRPC(methodName, new ArrayList<Object>());
+        }
+
+        // master is looked up once, and cached by client afterwards
+        Assert.assertEquals(1, groupMock.masterLookups.get());
+    }
+
+    @Test
+    public void testClientFailsOverToNewMaster() throws Exception {
+        Method m = object1.getClass().getMethod("incrementCnt", new Class[0]);
+        String methodName = m.toGenericString();
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy master = awaitMaster();
+        client.onRPC(methodName, new ArrayList<Object>());
+
+        master.onDestroy();
+        client.onRPC(methodName, new ArrayList<Object>());
+
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy newMaster = awaitMaster();
+        Assert.assertNotSame(master, newMaster);
+        Assert.assertTrue(((Data) newMaster.getAppObject().getObject()).getCnt() >= 1);
+    }
+
+    /** @return master, once elected */
+    private LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy awaitMaster() throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_IN_MILLIS;
+        while (group.getMaster() == null && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10L);
+        }
+        LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy master =
+                (LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy) group.getMaster();
+        Assert.assertNotNull("no master elected", master);
+        return master;
+    }
+
+    private static class ClientMock extends LoadBalancedMasterSlaveAsyncPolicy.ClientPolicy {}
+
+    private static class ServerMock extends LoadBalancedMasterSlaveAsyncPolicy.ServerPolicy
+            implements KernelObjectStub {
+        /** Whether replication requests fail, as if the server was not reachable */
+        volatile boolean disconnected;
+
+        @Override
+        public ReplicationResponse handleReplication(ReplicationRequest request) {
+            if (disconnected) {
+                throw new RuntimeException("server not reachable");
+            }
+            return super.handleReplication(request);
+        }
+
+        @Override
+        public InetSocketAddress $__getHostname() {
+            return null;
+        }
+
+        @Override
+        public void $__updateHostname(InetSocketAddress hostname) {}
+
+        @Override
+        public void $__setNextClientPolicy(Policy.ClientPolicy clientPolicy) {}
+    }
+
+    private static class GroupMock extends LoadBalancedMasterSlaveAsyncPolicy.GroupPolicy {
+        /** Thread whose master lookups are counted, i.e. the one calling client */
+        volatile Thread countedThread;
+
+        final AtomicInteger masterLookups = new AtomicInteger();
+
+        @Override
+        public MasterInfo getMasterInfo() throws RemoteException {
+            if (Thread.currentThread() == countedThread) {
+                masterLookups.incrementAndGet();
+            }
+            return super.getMasterInfo();
+        }
+    }
+
+    public static class Data implements Serializable {
+        private String data = "";
+        private int cnt = 0;
+
+        public Data(String data) {
+            this.data = data;
+        }
+
+        @Immutable
+        public String getData() {
+            return this.data;
+        }
+
+        public void incrementCnt() {
+            this.cnt++;
+        }
+
+        private int getCnt() {
+            return this.cnt;
+        }
+    }
+
+    public static class Data_Stub extends Data {
+        public Data_Stub(String str) {
+            super(str);
+        }
+    }
+}
@@ -95,4 +95,25 @@ public class LockTest {
             Assert.assertEquals("lock client id should not changed", clientId, lock.getClientId());
         }
     }
+
+    @Test
+    public void testEpochIncrementedWhenLockChangesHands() throws Exception {
+        Lock lock = new Lock(clientId, lockTimeoutInMillis);
+        long epoch = lock.getEpoch();
+
+        Assert.assertTrue(lock.renew(clientId));
+        Assert.assertTrue(lock.obtain(clientId));
+        Assert.assertEquals("epoch should not change for the same owner", epoch, lock.getEpoch());
+
+        // sleep for longer than lockTimeout to let lock expire
+        Thread.sleep(lockTimeoutInMillis + 20);
+        Assert.assertTrue(lock.obtain("newClientId"));
+        Assert.assertEquals("epoch should change for a new owner", epoch + 1, lock.getEpoch());
+
+        // sleep for longer than lockTimeout to let lock expire
+        Thread.sleep(lockTimeoutInMillis + 20);
+        Assert.assertTrue(lock.obtain("newClientId"));
+        Assert.assertEquals(
+                "epoch should change once lock has expired", epoch + 2, lock.getEpoch());
+    }
 }
@@ -0,0 +1,115 @@
+package amino.run.policy.scalability;
+
+import amino.run.common.AppObject;
+import amino.run.policy.scalability.masterslave.Committer;
+import amino.run.policy.scalability.masterslave.Configuration;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.MethodInvocationResponse;
+import amino.run.policy.scalability.masterslave.Processor;
+import amino.run.policy.scalability.masterslave.ReplicationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationResponse;
+import amino.run.policy.scalability.masterslave.Replicator;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ProcessorTest {
+    private static final long CACHED_RESULT_TIMEOUT_IN_MILLIS = 50L;
+    private Counter counter;
+    private Committer committer;
+    private Processor processor;
+    private List<ReplicationRequest> replicated;
+
+    @Before
+    public void setup() {
+        Configuration config =
+                new Configuration().setCachedResultTimeoutInMillis(CACHED_RESULT_TIMEOUT_IN_MILLIS);
+        counter = new Counter_Stub();
+        committer = new Committer(new AppObject(counter), 0L, config);
+        committer.open();
+        replicated = new CopyOnWriteArrayList<ReplicationRequest>();
+        Replicator replicator =
+                new Replicator() {
+                    @Override
+                    public void open() {}
+
+                    @Override
+                    public ReplicationResponse replicateInSync(ReplicationRequest request) {
+                        throw new AssertionError("writes should not wait for replication");
+                    }
+
+                    @Override
+                    public Future<ReplicationResponse> replicateInAsync(
+                            ReplicationRequest request) {
+                        replicated.add(request);
+                        return null;
+                    }
+
+                    @Override
+                    public void close() {}
+                };
+        processor = new Processor(config, null, committer, replicator, false);
+        processor.open();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        processor.close();
+        committer.close();
+    }
+
+    @Test
+    public void testAsyncReplication() throws Exception {
+        for (long i = 0; i < 3; i++) {
+            Assert.assertEquals(
+                    MethodInvocationResponse.ReturnCode.SUCCESS,
+                    processor.process(increment("client", i)).getReturnCode());
+        }
+
+        Assert.assertEquals(3, counter.cnt);
+        Assert.assertEquals(3, replicated.size());
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(i + 1, replicated.get(i).getEntries().get(0).getIndex());
+        }
+    }
+
+    @Test
+    public void testRepeatedRequestAfterCachedResultRetired() throws Exception {
+        processor.process(increment("client", 1L));
+        processor.process(increment("client", 1L));
+        Assert.assertEquals("repeated request should not run again", 1, counter.cnt);
+
+        // Results are retired by the next request after they time out
+        Thread.sleep(CACHED_RESULT_TIMEOUT_IN_MILLIS * 2);
+        processor.process(increment("anotherClient", 1L));
+        Assert.assertEquals(2, counter.cnt);
+
+        processor.process(increment("client", 1L));
+        Assert.assertEquals("retired result should not be returned again", 3, counter.cnt);
+    }
+
+    private MethodInvocationRequest increment(String clientId, long requestId) throws Exception {
+        return new MethodInvocationRequest(
+                clientId,
+                requestId,
+                Counter.class.getMethod("increment").toGenericString(),
+                new ArrayList<Object>(),
+                MethodInvocationRequest.MethodType.MUTABLE);
+    }
+
+    public static class Counter implements Serializable {
+        private int cnt;
+
+        public void increment() {
+            cnt++;
+        }
+    }
+
+    public static class Counter_Stub extends Counter {}
+}
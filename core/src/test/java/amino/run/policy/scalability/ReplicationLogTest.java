@@ -0,0 +1,124 @@
+package amino.run.policy.scalability;
+
+import amino.run.policy.scalability.masterslave.LogEntry;
+import amino.run.policy.scalability.masterslave.MethodInvocationRequest;
+import amino.run.policy.scalability.masterslave.ReplicationLog;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ReplicationLogTest {
+    private ReplicationLog log = new ReplicationLog(4);
+
+    @Test
+    public void testGetBatches() throws Exception {
+        log.reset(10L);
+        for (long i = 11; i <= 14; i++) {
+            log.append(entry(i));
+        }
+
+        assertIndices(log.get(11L, 3, 0L), 11L, 12L, 13L);
+        assertIndices(log.get(14L, 3, 0L), 14L);
+        Assert.assertTrue(log.get(15L, 3, 0L).isEmpty());
+        Assert.assertNull("entries before the log are missing", log.get(10L, 3, 0L));
+    }
+
+    @Test
+    public void testGetWaitsForEntries() throws Exception {
+        log.reset(0L);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20L);
+                    log.append(entry(1L));
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }.start();
+
+        assertIndices(log.get(1L, 3, 5000L), 1L);
+    }
+
+    @Test
+    public void testRepeatedIndex() throws Exception {
+        log.reset(0L);
+        log.append(entry(1L));
+        log.append(entry(1L));
+        log.append(entry(2L));
+
+        assertIndices(log.get(1L, 3, 0L), 1L, 1L, 2L);
+        log.release(1L);
+        Assert.assertEquals(1, log.size());
+        assertIndices(log.get(2L, 3, 0L), 2L);
+    }
+
+    @Test
+    public void testNonBlockingAppendDropsOldestEntries() throws Exception {
+        log.reset(0L);
+        log.setBlocking(false);
+        for (long i = 1; i <= 6; i++) {
+            log.append(entry(i));
+        }
+
+        Assert.assertEquals(4, log.size());
+        Assert.assertNull("dropped entries are missing", log.get(2L, 3, 0L));
+        assertIndices(log.get(3L, 8, 0L), 3L, 4L, 5L, 6L);
+    }
+
+    @Test
+    public void testBlockingAppendWaitsForRelease() throws Exception {
+        log.reset(0L);
+        for (long i = 1; i <= 4; i++) {
+            log.append(entry(i));
+        }
+
+        final CountDownLatch appended = new CountDownLatch(1);
+        new Thread() {
+            @Override
+            public void run() {
+                try {
+                    log.append(entry(5L));
+                    appended.countDown();
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            }
+        }.start();
+
+        Assert.assertFalse(
+                "append should wait for free space", appended.await(50L, TimeUnit.MILLISECONDS));
+        log.release(2L);
+        Assert.assertTrue(appended.await(5L, TimeUnit.SECONDS));
+        assertIndices(log.get(3L, 8, 0L), 3L, 4L, 5L);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAppendOldEntry() throws Exception {
+        log.reset(5L);
+        log.append(entry(4L));
+    }
+
+    private static LogEntry entry(long index) {
+        MethodInvocationRequest request =
+                new MethodInvocationRequest(
+                        "client",
+                        index,
+                        "method",
+                        new ArrayList<Object>(),
+                        MethodInvocationRequest.MethodType.MUTABLE);
+        return LogEntry.newBuilder().request(request).index(index).build();
+    }
+
+    private static void assertIndices(List<LogEntry> entries, long... indices) {
+        Assert.assertNotNull(entries);
+        Assert.assertEquals(indices.length, entries.size());
+        for (int i = 0; i < indices.length; i++) {
+            Assert.assertEquals(indices[i], entries.get(i).getIndex());
+        }
+    }
+}
@@ -1,9 +1,13 @@
 package amino.run.policy.scalability;
 
+import amino.run.common.Notification;
 import amino.run.policy.scalability.masterslave.Configuration;
 import amino.run.policy.scalability.masterslave.Context;
 import amino.run.policy.scalability.masterslave.State;
+import amino.run.policy.scalability.masterslave.StateChangeNotification;
 import amino.run.policy.scalability.masterslave.StateManager;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
@@ -158,4 +162,42 @@ public class StateManagerTest {
         Assert.assertEquals(
                 State.Slave.getInstance(context).getName(), stateMgr.getCurrentState().getName());
     }
+
+    @Test
+    public void verifyStateChangesNotifyGroup() throws Exception {
+        final List<StateChangeNotification> notifications =
+                new CopyOnWriteArrayList<StateChangeNotification>();
+        LoadBalancedMasterSlaveSyncPolicy.GroupPolicy group =
+                new LoadBalancedMasterSlaveSyncPolicy.GroupPolicy() {
+                    int obtainLockCnt = 0;
+
+                    @Override
+                    public boolean obtainLock(String serverId, long timeoutInMillis) {
+                        return (obtainLockCnt++ == 0);
+                    }
+
+                    @Override
+                    public boolean renewLock(String serverId) {
+                        return false;
+                    }
+
+                    @Override
+                    public void onNotification(Notification notification) {
+                        notifications.add((StateChangeNotification) notification);
+                    }
+                };
+
+        Context context = new Context(group, config, null, null);
+        StateManager stateMgr = new StateManager(clientId, context);
+
+        // Let state machine run for one second
+        Thread.sleep(Thread_Wait_Time);
+        stateMgr.halt();
+
+        // Verify that group is notified when server steps up to master, and down to slave
+        Assert.assertEquals(2, notifications.size());
+        Assert.assertEquals(clientId, notifications.get(0).getServerId());
+        Assert.assertEquals(State.StateName.MASTER, notifications.get(0).getState());
+        Assert.assertEquals(State.StateName.SLAVE, notifications.get(1).getState());
+    }
 }
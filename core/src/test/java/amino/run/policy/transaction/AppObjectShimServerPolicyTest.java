@@ -2,11 +2,31 @@ package amino.run.policy.transaction;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 
 import amino.run.common.AppObject;
+import amino.run.runtime.annotations.Immutable;
+import java.io.Serializable;
+import java.util.ArrayList;
 import org.junit.Test;
 
 public class AppObjectShimServerPolicyTest {
+    public static class Counter implements Serializable {
+        private int value;
+
+        @Immutable
+        public int get() {
+            return value;
+        }
+
+        public void increment() {
+            value++;
+        }
+    }
+
+    /** Stands for the generated stub, which app objects wrap */
+    public static class CounterStub extends Counter {}
+
     @Test
     public void test_policy_saves_copy() throws Exception {
         Integer[] originCore = new Integer[] {1, 2, 3};
@@ -25,4 +45,46 @@ public class AppObjectShimServerPolicyTest {
         retrievedCore[0] = 777;
         assertEquals("original value should not affected", 1, (long) originCore[0]);
     }
+
+    @Test
+    public void test_copy_on_write_reads_origin() throws Exception {
+        AppObject origin = new AppObject(new CounterStub());
+        AppObjectShimServerPolicy policy =
+                AppObjectShimServerPolicy.copyOnWriteShimServerPolicy(origin);
+
+        assertEquals(0, policy.onRPC(method("get"), new ArrayList<Object>()));
+        assertSame("Read only transaction keeps origin", origin, policy.getResultAppObject());
+    }
+
+    @Test
+    public void test_copy_on_write_copies_on_write() throws Exception {
+        AppObject origin = new AppObject(new CounterStub());
+        AppObjectShimServerPolicy policy =
+                AppObjectShimServerPolicy.copyOnWriteShimServerPolicy(origin);
+
+        policy.onRPC(method("increment"), new ArrayList<Object>());
+        AppObject result = policy.getResultAppObject();
+
+        assertNotSame(origin, result);
+        assertEquals(1, ((Counter) result.getObject()).get());
+        assertEquals("original value should not affected", 0, ((Counter) origin.getObject()).get());
+        assertEquals(1, policy.onRPC(method("get"), new ArrayList<Object>()));
+    }
+
+    @Test
+    public void test_copy_on_write_copies_on_get_app_object() throws Exception {
+        AppObject origin = new AppObject(new CounterStub());
+        AppObjectShimServerPolicy policy =
+                AppObjectShimServerPolicy.copyOnWriteShimServerPolicy(origin);
+
+        AppObject retrieved = policy.getAppObject();
+
+        assertNotSame(origin, retrieved);
+        assertSame(retrieved, policy.getResultAppObject());
+        assertSame(origin, policy.getOriginMaster());
+    }
+
+    private static String method(String name) throws Exception {
+        return Counter.class.getMethod(name).toGenericString();
+    }
 }
@@ -0,0 +1,88 @@
+package amino.run.policy.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.TimerTask;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class HashedWheelTimerTest {
+    private HashedWheelTimer timer;
+
+    @Before
+    public void setUp() {
+        /* Small wheel, so that timeouts span several rounds */
+        timer = new HashedWheelTimer("TestTimer", 5, 4);
+    }
+
+    @After
+    public void tearDown() {
+        timer.stop();
+    }
+
+    private static Runnable countDown(final CountDownLatch latch) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                latch.countDown();
+            }
+        };
+    }
+
+    @Test
+    public void testTimeoutExpires() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        long start = System.nanoTime();
+        timer.schedule(countDown(expired), 50);
+        assertTrue(expired.await(5, TimeUnit.SECONDS));
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(50));
+        assertEquals(0, timer.getPendingCount());
+    }
+
+    @Test
+    public void testCancelledTimeoutDoesNotExpire() throws Exception {
+        CountDownLatch expired = new CountDownLatch(1);
+        HashedWheelTimer.Timeout timeout = timer.schedule(countDown(expired), 20);
+        assertTrue(timeout.cancel());
+        assertFalse(timeout.cancel());
+        assertEquals(0, timer.getPendingCount());
+        assertFalse(expired.await(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testResettableTimerReset() throws Exception {
+        final AtomicInteger runs = new AtomicInteger();
+        ResettableTimer resettable =
+                new ResettableTimer(
+                        new TimerTask() {
+                            @Override
+                            public void run() {
+                                runs.incrementAndGet();
+                            }
+                        },
+                        60,
+                        timer);
+        resettable.start();
+        /* Keep resetting before the timer expires */
+        for (int i = 0; i < 5; i++) {
+            Thread.sleep(20);
+            resettable.reset();
+        }
+        assertEquals(0, runs.get());
+        assertEquals(1, timer.getPendingCount());
+
+        Thread.sleep(200);
+        assertEquals(1, runs.get());
+
+        resettable.start();
+        resettable.cancel();
+        Thread.sleep(100);
+        assertEquals(1, runs.get());
+    }
+}
@@ -0,0 +1,172 @@
+package amino.run.policy.util.consensus.raft;
+
+import static amino.run.policy.util.consensus.raft.PersistentState.INVALID_INDEX;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.List;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class RaftLogTest {
+    @Rule public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+    private RaftLog log;
+
+    @Before
+    public void setUp() throws java.lang.Exception {
+        directory = folder.newFolder("raft");
+        /* Small segments, so that entries span several segment files */
+        log = new RaftLog(directory, 256, null);
+    }
+
+    @After
+    public void tearDown() {
+        log.close();
+    }
+
+    private static LogEntry entry(int i, int term) {
+        return new LogEntry("op" + i, term);
+    }
+
+    private void append(int count, int term) {
+        int first = log.size();
+        for (int i = first; i < first + count; i++) {
+            log.add(entry(i, term));
+        }
+    }
+
+    private RaftLog reopen(Snapshot snapshot) throws java.lang.Exception {
+        log.close();
+        log = new RaftLog(directory, 256, snapshot);
+        return log;
+    }
+
+    private int segmentFiles() {
+        int count = 0;
+        for (File file : directory.listFiles()) {
+            if (LogSegment.isSegment(file)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testAppendAndReadBack() throws java.lang.Exception {
+        append(100, 1);
+        log.sync(99);
+        assertEquals(99, log.getSyncedIndex());
+        assertEquals(100, log.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals("op" + i, log.get(i).operation);
+        }
+        List<LogEntry> entries = log.entries(10, 19);
+        assertEquals(10, entries.size());
+        assertEquals("op19", entries.get(9).operation);
+        assertEquals(INVALID_INDEX, log.term(INVALID_INDEX));
+    }
+
+    @Test
+    public void testEntriesEvictedFromMemoryAreReadFromSegments() throws java.lang.Exception {
+        int count = RaftLog.MAX_CACHED_ENTRIES * 2;
+        append(count, 1);
+        for (int i = 0; i < count; i += 97) {
+            assertEquals("op" + i, log.get(i).operation);
+        }
+    }
+
+    @Test
+    public void testRecover() throws java.lang.Exception {
+        append(50, 1);
+        append(50, 2);
+        log.sync(99);
+
+        reopen(null);
+        assertEquals(100, log.size());
+        assertEquals(99, log.getSyncedIndex());
+        assertEquals("op0", log.get(0).operation);
+        assertEquals(2, log.term(99));
+
+        /* Appending continues after the recovered entries */
+        append(1, 3);
+        assertEquals(3, log.term(100));
+        assertEquals("op100", reopen(null).get(100).operation);
+    }
+
+    @Test
+    public void testRecoverDropsTornRecord() throws java.lang.Exception {
+        append(3, 1);
+        log.sync(2);
+        log.close();
+
+        /* Corrupt the last record of the only segment, as a crash during a write would */
+        File segment = new File(directory, LogSegment.fileName(0));
+        RandomAccessFile file = new RandomAccessFile(segment, "rw");
+        file.setLength(file.length() - 1);
+        file.close();
+
+        reopen(null);
+        assertEquals(2, log.size());
+        assertEquals("op1", log.get(1).operation);
+        append(1, 1);
+        assertEquals("op2", reopen(null).get(2).operation);
+    }
+
+    @Test
+    public void testTruncate() throws java.lang.Exception {
+        append(100, 1);
+        log.truncate(40);
+        assertEquals(40, log.size());
+        append(10, 2);
+        assertEquals(2, log.term(45));
+
+        reopen(null);
+        assertEquals(50, log.size());
+        assertEquals(1, log.term(39));
+        assertEquals(2, log.term(49));
+    }
+
+    @Test
+    public void testCompactDeletesSegments() throws java.lang.Exception {
+        append(100, 1);
+        int segments = segmentFiles();
+        log.compact(80, 1);
+        assertEquals(80, log.getSnapshotIndex());
+        assertEquals(100, log.size());
+        assertEquals(1, log.term(80));
+        assertEquals("op81", log.get(81).operation);
+        assertTrue(segmentFiles() < segments);
+
+        reopen(new Snapshot(80, 1, new byte[0]));
+        assertEquals(100, log.size());
+        assertEquals("op99", log.get(99).operation);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testCompactedEntriesCannotBeRead() throws java.lang.Exception {
+        append(10, 1);
+        log.compact(5, 1);
+        log.get(5);
+    }
+
+    @Test
+    public void testReset() throws java.lang.Exception {
+        append(10, 1);
+        log.reset(50, 3);
+        assertEquals(51, log.size());
+        assertEquals(3, log.term(50));
+        assertEquals(0, segmentFiles());
+        append(1, 3);
+
+        reopen(new Snapshot(50, 3, new byte[0]));
+        assertEquals(52, log.size());
+        assertEquals("op51", log.get(51).operation);
+    }
+}
@@ -14,9 +14,14 @@ import amino.run.common.AppObject;
 import amino.run.policy.Policy;
 import amino.run.policy.replication.ConsensusRSMPolicy;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
@@ -285,6 +290,309 @@ public class ServerTest {
         assertEquals(raftServer[0].vState.getLastApplied(), raftServer[2].vState.getLastApplied());
     }
 
+    @Test
+    public void concurrentApplyToStateMachine() throws java.lang.Exception {
+        /* Replicas whose state machine echoes the operation */
+        final Server[] servers = new Server[SERVER_COUNT];
+        StateMachineApplier echo =
+                new StateMachineApplier() {
+                    @Override
+                    public Object apply(Object operation) {
+                        return operation;
+                    }
+
+                    @Override
+                    public Object snapshot() {
+                        return null;
+                    }
+
+                    @Override
+                    public void restore(Object snapshot) {}
+                };
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            servers[i] = new Server(echo);
+        }
+        for (Server s : servers) {
+            for (Server other : servers) {
+                if (s != other) {
+                    s.addServer(other.getMyServerID(), other);
+                }
+            }
+            s.start();
+        }
+        servers[0].become(CANDIDATE, FOLLOWER);
+        final Server leader = servers[verifyLeaderElected(servers)];
+
+        final int threads = 8, operations = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            results.add(
+                    executor.submit(
+                            new Callable<Boolean>() {
+                                @Override
+                                public Boolean call() throws java.lang.Exception {
+                                    for (int i = 0; i < operations; i++) {
+                                        String op = thread + ":" + i;
+                                        /* Every client gets the result of its own operation */
+                                        if (!op.equals(leader.applyToStateMachine(op))) {
+                                            return false;
+                                        }
+                                    }
+                                    return true;
+                                }
+                            }));
+        }
+        for (Future<Boolean> result : results) {
+            assertTrue(result.get());
+        }
+        executor.shutdown();
+
+        assertEquals(threads * operations, leader.pState.log().size());
+        for (Server s : servers) {
+            if (s != leader) {
+                verifyLastApplied(leader, s);
+                for (int i = 0; i < leader.pState.log().size(); i++) {
+                    assertEquals(
+                            leader.pState.log().get(i).operation, s.pState.log().get(i).operation);
+                }
+            }
+        }
+        for (Server s : servers) {
+            s.stop();
+        }
+    }
+
+    /** State machine recording the operations applied to it */
+    static class Recorder implements StateMachineApplier {
+        ArrayList<Object> operations = new ArrayList<Object>();
+
+        @Override
+        public Object apply(Object operation) {
+            operations.add(operation);
+            return operation;
+        }
+
+        @Override
+        public Object snapshot() {
+            return new ArrayList<Object>(operations);
+        }
+
+        @Override
+        public void restore(Object snapshot) {
+            operations = new ArrayList<Object>((List<Object>) snapshot);
+        }
+    }
+
+    /** Connection to a server, which fails all requests while disconnected */
+    static class Connection implements RemoteRaftServer {
+        final Server server;
+        volatile boolean connected;
+
+        Connection(Server server) {
+            this.server = server;
+        }
+
+        private Server server() {
+            if (!connected) {
+                throw new RaftRuntimeException("Disconnected from " + server.getMyServerID());
+            }
+            return server;
+        }
+
+        @Override
+        public int appendEntries(
+                int term,
+                UUID leader,
+                int prevLogIndex,
+                int prevLogTerm,
+                List<LogEntry> entries,
+                int leaderCommit)
+                throws InvalidTermException, PrevLogTermMismatch, InvalidLogIndex {
+            return server().appendEntries(
+                    term, leader, prevLogIndex, prevLogTerm, entries, leaderCommit);
+        }
+
+        @Override
+        public int installSnapshot(
+                int term, UUID leader, int lastIncludedIndex, int lastIncludedTerm, byte[] data)
+                throws InvalidTermException {
+            return server().installSnapshot(
+                    term, leader, lastIncludedIndex, lastIncludedTerm, data);
+        }
+
+        @Override
+        public int requestVote(int term, UUID candidate, int lastLogIndex, int lastLogTerm)
+                throws InvalidTermException, AlreadyVotedException, CandidateBehindException {
+            return server().requestVote(term, candidate, lastLogIndex, lastLogTerm);
+        }
+
+        @Override
+        public Object applyToStateMachine(Object operation) throws java.lang.Exception {
+            return server().applyToStateMachine(operation);
+        }
+
+        @Override
+        public int readIndex() throws LeaderException, InterruptedException {
+            return server().readIndex();
+        }
+    }
+
+    /**
+     * Starts servers recording the operations applied to them, and elects the first one as the
+     * leader. Server i talks to server j through connections[i][j], which are connected.
+     */
+    private static Server[] startRecordingServers(
+            Recorder[] recorders, Connection[][] connections, boolean leaderLease)
+            throws java.lang.Exception {
+        Server[] servers = new Server[recorders.length];
+        for (int i = 0; i < servers.length; i++) {
+            recorders[i] = new Recorder();
+            servers[i] = new Server(recorders[i]);
+            servers[i].setLeaderLease(leaderLease);
+            servers[i].setFollowerReads(true);
+        }
+        for (int i = 0; i < servers.length; i++) {
+            for (int j = 0; j < servers.length; j++) {
+                if (i != j) {
+                    connections[i][j] = new Connection(servers[j]);
+                    connections[i][j].connected = true;
+                    servers[i].addServer(servers[j].getMyServerID(), connections[i][j]);
+                }
+            }
+        }
+        for (Server s : servers) {
+            s.start();
+        }
+        servers[0].become(CANDIDATE, FOLLOWER);
+        assertTrue(servers[verifyLeaderElected(servers)] == servers[0]);
+        return servers;
+    }
+
+    @Test
+    public void readFromStateMachine() throws java.lang.Exception {
+        Recorder[] recorders = new Recorder[SERVER_COUNT];
+        Connection[][] connections = new Connection[SERVER_COUNT][SERVER_COUNT];
+        Server[] servers = startRecordingServers(recorders, connections, false);
+        Server leader = servers[0];
+
+        leader.applyToStateMachine("write");
+        int logSize = leader.pState.log().size();
+
+        /* The leader reads without appending to its log */
+        assertEquals("read", leader.readFromStateMachine("read"));
+        assertEquals(logSize, leader.pState.log().size());
+        assertEquals(Arrays.asList("write", "read"), recorders[0].operations);
+
+        /* Followers read once they applied the write */
+        assertEquals("read", servers[1].readFromStateMachine("read"));
+        assertEquals(Arrays.asList("write", "read"), recorders[1].operations);
+        assertEquals(logSize, servers[1].pState.log().size());
+
+        /* The leader cannot confirm its leadership without a majority */
+        for (int j = 1; j < SERVER_COUNT; j++) {
+            connections[0][j].connected = false;
+        }
+        try {
+            leader.readFromStateMachine("stale");
+            Assert.fail("Read without a majority");
+        } catch (LeaderException e) {
+            assertEquals(Arrays.asList("write", "read"), recorders[0].operations);
+        } finally {
+            for (Server s : servers) {
+                s.stop();
+            }
+        }
+    }
+
+    @Test
+    public void readFromStateMachineWithLeaderLease() throws java.lang.Exception {
+        Recorder[] recorders = new Recorder[SERVER_COUNT];
+        Connection[][] connections = new Connection[SERVER_COUNT][SERVER_COUNT];
+        Server[] servers = startRecordingServers(recorders, connections, true);
+        Server leader = servers[0];
+        leader.applyToStateMachine("write");
+
+        /* Followers which heard from the leader do not vote for other candidates */
+        try {
+            servers[2].requestVote(
+                    leader.pState.getCurrentTerm() + 1,
+                    servers[1].getMyServerID(),
+                    leader.pState.log().size() - 1,
+                    leader.pState.getCurrentTerm());
+            Assert.fail("Vote granted within the leader lease");
+        } catch (AlreadyVotedException e) {
+            assertEquals(leader.pState.getCurrentTerm(), servers[2].pState.getCurrentTerm());
+        }
+
+        /* The leader reads within its lease without any follower */
+        for (int j = 1; j < SERVER_COUNT; j++) {
+            connections[0][j].connected = false;
+        }
+        assertEquals("read", leader.readFromStateMachine("read"));
+
+        /* Once the lease expired, the leader needs a majority again */
+        sleep(Server.LEADER_LEASE_PERIOD);
+        try {
+            leader.readFromStateMachine("stale");
+            Assert.fail("Read after the leader lease expired");
+        } catch (LeaderException e) {
+            assertEquals(Arrays.asList("write", "read"), recorders[0].operations);
+        } finally {
+            for (Server s : servers) {
+                s.stop();
+            }
+        }
+    }
+
+    @Test
+    public void installSnapshotOnLaggingFollower() throws java.lang.Exception {
+        final int snapshotInterval = 10, operations = 55;
+        Server[] servers = new Server[SERVER_COUNT];
+        Recorder[] recorders = new Recorder[SERVER_COUNT];
+        for (int i = 0; i < SERVER_COUNT; i++) {
+            recorders[i] = new Recorder();
+            servers[i] = new Server(recorders[i], new PersistentState(), snapshotInterval);
+        }
+        /* The last server is disconnected from the others, and not started yet */
+        Server lagging = servers[SERVER_COUNT - 1];
+        Connection connection = new Connection(lagging);
+        for (Server s : servers) {
+            for (Server other : servers) {
+                if (s != other) {
+                    s.addServer(other.getMyServerID(), other == lagging ? connection : other);
+                }
+            }
+        }
+        for (int i = 0; i < SERVER_COUNT - 1; i++) {
+            servers[i].start();
+        }
+        servers[0].become(CANDIDATE, FOLLOWER);
+        Server leader = servers[verifyLeaderElected(servers)];
+
+        for (int i = 0; i < operations; i++) {
+            leader.applyToStateMachine("op" + i);
+        }
+        /* The leader discarded the log entries the lagging server needs */
+        assertTrue(leader.pState.log().getSnapshotIndex() >= snapshotInterval - 1);
+
+        connection.connected = true;
+        lagging.start();
+        verifyLastApplied(leader, lagging);
+        assertTrue(lagging.pState.log().getSnapshotIndex() >= 0);
+        assertEquals(recorders[0].operations, recorders[SERVER_COUNT - 1].operations);
+
+        /* Replication continues with log entries after the snapshot */
+        leader.applyToStateMachine("last");
+        verifyLastApplied(leader, lagging);
+        assertEquals("last", recorders[SERVER_COUNT - 1].operations.get(operations));
+
+        for (Server s : servers) {
+            s.stop();
+        }
+    }
+
     @Test
     public void alreadyVoted() throws java.lang.Exception {
         for (Server s : raftServer) {